@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -57,8 +59,58 @@ public class BigGridUtil {
         zos.close();
     }
 
+    /**
+     * Substitutes multiple sheets in a single pass over the template. Unlike
+     * {@link #substitute(File, File, String, OutputStream)} the output stream is not closed.
+     * 
+     * @param zipfile
+     *            the template file
+     * @param sheets
+     *            the XML files with the sheet data, keyed by sheet part name, e.g.
+     *            /xl/worksheets/sheet1.xml
+     * @param out
+     *            the stream to write the result to
+     */
+    public static void substitute(File zipfile, Map<String, File> sheets, OutputStream out)
+            throws IOException {
+        Map<String, File> entries = new LinkedHashMap<String, File>();
+        for (Map.Entry<String, File> e : sheets.entrySet()) {
+            String name = e.getKey();
+            entries.put(name.startsWith("/") ? name.substring(1) : name, e.getValue());
+        }
+
+        ZipFile zip = new ZipFile(zipfile);
+        try {
+            ZipOutputStream zos = new ZipOutputStream(out);
+
+            @SuppressWarnings("unchecked")
+            Enumeration<ZipEntry> en = (Enumeration<ZipEntry>) zip.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry ze = en.nextElement();
+                if (!entries.containsKey(ze.getName())) {
+                    zos.putNextEntry(new ZipEntry(ze.getName()));
+                    InputStream is = zip.getInputStream(ze);
+                    copyStream(is, zos);
+                    is.close();
+                }
+            }
+            for (Map.Entry<String, File> e : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(e.getKey()));
+                InputStream is = new FileInputStream(e.getValue());
+                try {
+                    copyStream(is, zos);
+                } finally {
+                    is.close();
+                }
+            }
+            zos.finish();
+        } finally {
+            zip.close();
+        }
+    }
+
     public static void copyStream(InputStream in, OutputStream out) throws IOException {
-        byte[] chunk = new byte[1024];
+        byte[] chunk = new byte[8192];
         int count;
         while ((count = in.read(chunk)) >= 0) {
             out.write(chunk, 0, count);
@@ -1,18 +1,20 @@
 package org.geoserver.wfs.response;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -70,6 +72,9 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
      * For now, we use a workaround by Yegor Kozlov that creates a template workbook, writes rows
      * direclty to an XML temp file, and then slices the temp file into the workbook.
      * 
+     * The sheets of the different feature collections are written out concurrently, and sliced
+     * into the workbook in a single pass.
+     * 
      * If POI's memory performance when creating OOXML spreadsheet improves in future versions, we
      * should be able to just remove this override method to use the ss usermodel (ideal).
      * 
@@ -83,25 +88,70 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
         // Create the workbook
         Workbook wb = getNewWorkbook();
         ExcelCellStyles styles = new ExcelCellStyles(wb);
+        final int headerStyleIndex = styles.getHeaderStyle().getIndex();
+        final int dateStyleIndex = styles.getDateStyle().getIndex();
+        final int warningStyleIndex = styles.getWarningStyle().getIndex();
+
+        Map<String, File> sheetMap = new LinkedHashMap<String, File>();
+        List<File> tempFiles = new ArrayList<File>();
+        try {
+            // create the sheets up front, the workbook is not thread safe, then write out the
+            // raw sheets concurrently, each to its own file
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (Iterator it = featureCollection.getFeature().iterator(); it.hasNext();) {
+                final SimpleFeatureCollection fc = (SimpleFeatureCollection) it.next();
+
+                // create the sheet for this feature collection
+                Sheet sheet = wb.createSheet(fc.getSchema().getTypeName());
+                String sheetName = ((XSSFSheet) sheet).getPackagePart().getPartName().getName();
+                final File rawSheet = File.createTempFile("Excel2007TempSheet", ".xml");
+                tempFiles.add(rawSheet);
+                sheetMap.put(sheetName, rawSheet);
+
+                tasks.add(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        writeSheet(fc, rawSheet, headerStyleIndex, dateStyleIndex,
+                                warningStyleIndex);
+                        return null;
+                    }
+                });
+            }
+            ParallelEncoder.run(tasks);
 
-        Map<String, File> sheetMap = new HashMap<String, File>();
-
-        for (Iterator it = featureCollection.getFeature().iterator(); it.hasNext();) {
-            SimpleFeatureCollection fc = (SimpleFeatureCollection) it.next();
+            // save the template
+            File template = File.createTempFile("Excel2007TempTemplate", ".xlsx");
+            tempFiles.add(template);
+            FileOutputStream os = new FileOutputStream(template);
+            try {
+                wb.write(os);
+            } finally {
+                os.close();
+            }
 
-            // create the sheet for this feature collection
-            Sheet sheet = wb.createSheet(fc.getSchema().getTypeName());
-            String sheetName = ((XSSFSheet) sheet).getPackagePart().getPartName().getName();
-            File rawSheet = File.createTempFile("Excel2007TempSheet", ".xml");
-            sheetMap.put(sheetName, rawSheet);
+            // swap out all the sheets at once, streaming the result to the output
+            BigGridUtil.substitute(template, sheetMap, output);
+        } finally {
+            for (File f : tempFiles) {
+                if (!f.delete()) {
+                    log.warn("Could not delete temporary file " + f);
+                }
+            }
+        }
+    }
 
-            Writer rawWriter = new OutputStreamWriter(new FileOutputStream(rawSheet), XML_ENCODING);
+    /**
+     * Writes out the raw xml of the sheet for a feature collection
+     */
+    void writeSheet(SimpleFeatureCollection fc, File rawSheet, int headerStyleIndex,
+            int dateStyleIndex, int warningStyleIndex) throws IOException {
+        Writer rawWriter = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(rawSheet), XML_ENCODING));
+        try {
             SpreadsheetWriter sw = new SpreadsheetWriter(rawWriter, XML_ENCODING);
             sw.beginSheet();
 
             // write out the header
             sw.insertRow(0);
-            int headerStyleIndex = styles.getHeaderStyle().getIndex();
             SimpleFeatureType ft = fc.getSchema();
             sw.createCell(0, "FID");
             for (int i = 0; i < ft.getAttributeCount() && i < colLimit; i++) {
@@ -136,10 +186,9 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
                             if (att instanceof Number) {
                                 sw.createCell(j + 1, ((Number) att).doubleValue());
                             } else if (att instanceof Date) {
-                                sw.createCell(j + 1, (Date) att, styles.getDateStyle().getIndex());
+                                sw.createCell(j + 1, (Date) att, dateStyleIndex);
                             } else if (att instanceof Calendar) {
-                                sw.createCell(j + 1, (Calendar) att, styles.getDateStyle()
-                                        .getIndex());
+                                sw.createCell(j + 1, (Calendar) att, dateStyleIndex);
                             } else if (att instanceof Boolean) {
                                 sw.createCell(j + 1, (Boolean) att);
                             } else {
@@ -153,8 +202,7 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
                                             + " "
                                             + stringVal.substring(0, CELL_CHAR_LIMIT
                                                     - TRUNCATE_WARNING.length() - 1);
-                                    sw.createCell(j + 1, stringVal, styles.getWarningStyle()
-                                            .getIndex());
+                                    sw.createCell(j + 1, stringVal, warningStyleIndex);
                                 } else {
                                     sw.createCell(j + 1, stringVal);
                                 }
@@ -168,29 +216,8 @@ public class Excel2007OutputFormat extends ExcelOutputFormat {
             }
 
             sw.endSheet();
+        } finally {
             rawWriter.close();
         }
-
-        // save the template
-        File template = File.createTempFile("Excel2007TempTemplate", ".xlsx");
-        FileOutputStream os = new FileOutputStream(template);
-        wb.write(os);
-        os.close();
-
-        // swap out sheets
-        for (Entry<String, File> sheetEntry : sheetMap.entrySet()) {
-            String sheetName = sheetEntry.getKey();
-            File tempXml = sheetEntry.getValue();
-            File newTemplate = File.createTempFile("Excel2007TempTemplate", ".xlsx");
-            FileOutputStream out = new FileOutputStream(newTemplate);
-            BigGridUtil.substitute(template, tempXml, sheetName.substring(1), out);
-            out.close();
-            template = newTemplate;
-        }
-
-        // stream generated file to output
-        FileInputStream fis = new FileInputStream(template);
-        BigGridUtil.copyStream(fis, output);
-        fis.close();
     }
 }
@@ -178,6 +178,12 @@ public class GeoServerTileLayerInfo {
             int gutter = metadataMap.get(CONFIG_KEY_GUTTER, Integer.class).intValue();
             info.setGutter(gutter);
         } else {
+            // fall back on the layer meta tiling, if any, so that the WMS meta tiler and
+            // the tile cache produce the same tiles
+            Integer gutter = metadataMap.get(LayerInfo.META_TILING_GUTTER, Integer.class);
+            if (gutter != null && gutter.intValue() >= 0) {
+                info.setGutter(gutter.intValue());
+            }
             dirty = true;
         }
 
@@ -195,11 +201,19 @@ public class GeoServerTileLayerInfo {
         if (metadataMap.containsKey(CONFIG_KEY_METATILING_X)) {
             info.setMetaTilingX(metadataMap.get(CONFIG_KEY_METATILING_X, Integer.class).intValue());
         } else {
+            Integer metaTilingX = metadataMap.get(LayerInfo.META_TILING_X, Integer.class);
+            if (metaTilingX != null && metaTilingX.intValue() > 0) {
+                info.setMetaTilingX(metaTilingX.intValue());
+            }
             dirty = true;
         }
         if (metadataMap.containsKey(CONFIG_KEY_METATILING_Y)) {
             info.setMetaTilingY(metadataMap.get(CONFIG_KEY_METATILING_Y, Integer.class).intValue());
         } else {
+            Integer metaTilingY = metadataMap.get(LayerInfo.META_TILING_Y, Integer.class);
+            if (metaTilingY != null && metaTilingY.intValue() > 0) {
+                info.setMetaTilingY(metaTilingY.intValue());
+            }
             dirty = true;
         }
 
@@ -20,6 +20,22 @@ public interface LayerInfo extends CatalogInfo {
      */
     public static final String BUFFER = "buffer";
 
+    /**
+     * The number of tiles along the horizontal axis in the meta tiles the WMS builds for the
+     * layer
+     */
+    public static final String META_TILING_X = "metaTilingX";
+
+    /**
+     * The number of tiles along the vertical axis in the meta tiles the WMS builds for the layer
+     */
+    public static final String META_TILING_Y = "metaTilingY";
+
+    /**
+     * The extra pixels rendered around the meta tiles, to avoid clipping labels at their edges
+     */
+    public static final String META_TILING_GUTTER = "metaTilingGutter";
+
     /**
      * Enumeration for type of layer.
      */
@@ -19,6 +19,7 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,9 +28,20 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -143,13 +155,42 @@ public class ResourcePool {
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
     
+    /**
+     * Maximum number of cached coordinate reference systems and math transforms
+     */
+    static int CRS_CACHE_SIZE = 500;
+    
+    /**
+     * Key of the global setting controlling the interval, in seconds, after which cached feature
+     * types are refreshed in the background.
+     */
+    public static final String FEATURETYPE_CACHE_REFRESH = "featureTypeCacheRefresh";
+    
+    /**
+     * Key of the global setting controlling the time, in seconds, the feature types used to 
+     * build feature sources are cached for.
+     */
+    public static final String FEATURETYPE_CACHE_TTL = "featureTypeCacheTTL";
+    
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
     Catalog catalog;
-    HashMap<String, CoordinateReferenceSystem> crsCache;
+    ConcurrentHashMap<String, CoordinateReferenceSystem> crsCache;
+    CacheStatistics crsStatistics = new CacheStatistics();
+    /**
+     * Math transforms do not depend on the catalog contents, the cache is shared by all the
+     * components needing them, including the ones that have no access to the catalog
+     */
+    static final ConcurrentHashMap<TransformKey, MathTransform> transformCache = 
+        new ConcurrentHashMap<TransformKey, MathTransform>();
+    static final CacheStatistics transformStatistics = new CacheStatistics();
     DataStoreCache dataStoreCache;
     FeatureTypeCache featureTypeCache;
+    FeatureTypeCache renamedFeatureTypeCache;
+    volatile long featureTypeRefreshInterval;
+    volatile long featureTypeTTL;
+    ExecutorService refreshExecutor;
     FeatureTypeAttributeCache featureTypeAttributeCache;
     WMSCache wmsCache;
     CoverageReaderCache coverageReaderCache;
@@ -162,9 +203,10 @@ public class ResourcePool {
     public ResourcePool(Catalog catalog) {
         this.catalog = catalog;
         this.repository = new CatalogRepository(catalog);
-        crsCache = new HashMap<String, CoordinateReferenceSystem>();
+        crsCache = new ConcurrentHashMap<String, CoordinateReferenceSystem>();
         dataStoreCache = new DataStoreCache();
         featureTypeCache = new FeatureTypeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
+        renamedFeatureTypeCache = new RenamedFeatureTypeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         
         featureTypeAttributeCache = new FeatureTypeAttributeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         coverageReaderCache = new CoverageReaderCache();
@@ -188,11 +230,51 @@ public class ResourcePool {
         synchronized (this) {
             featureTypeCache.clear();
             featureTypeCache = new FeatureTypeCache(featureTypeCacheSize);
+            renamedFeatureTypeCache.clear();
+            renamedFeatureTypeCache = new RenamedFeatureTypeCache(featureTypeCacheSize);
             featureTypeAttributeCache.clear();
             featureTypeAttributeCache = new FeatureTypeAttributeCache(featureTypeCacheSize);
         }
     }
     
+    /**
+     * Sets the interval, in milliseconds, after which a cached feature type is refreshed.
+     * <p>
+     * A feature type older than the interval is still returned from the cache, while its schema
+     * is read again from the underlying store in the background. Mind that the refreshed feature
+     * type is a new object. A value of zero or less, the default, disables refreshing.
+     * </p>
+     */
+    public void setFeatureTypeRefreshInterval(long featureTypeRefreshInterval) {
+        this.featureTypeRefreshInterval = featureTypeRefreshInterval;
+    }
+    
+    public long getFeatureTypeRefreshInterval() {
+        return featureTypeRefreshInterval;
+    }
+    
+    /**
+     * Sets the time, in milliseconds, the feature types used to build feature sources are
+     * cached for.
+     * <p>
+     * Those feature types are not subject to the projection policy, and by default are built from
+     * the underlying store on every call to {@link #getFeatureSource(FeatureTypeInfo, Hints)}, 
+     * which for sql views means running the view query to describe its schema. A value greater
+     * than zero caches them, once expired they are still returned while being refreshed in the 
+     * background. 
+     * </p>
+     */
+    public void setFeatureTypeTTL(long featureTypeTTL) {
+        this.featureTypeTTL = featureTypeTTL;
+        if (featureTypeTTL <= 0) {
+            renamedFeatureTypeCache.clear();
+        }
+    }
+    
+    public long getFeatureTypeTTL() {
+        return featureTypeTTL;
+    }
+    
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -219,6 +301,27 @@ public class ResourcePool {
         listeners.remove(l);
     }
     
+    /**
+     * Returns the usage statistics of the data store cache.
+     */
+    public CacheStatistics getDataStoreCacheStatistics() {
+        return dataStoreCache.getStatistics();
+    }
+    
+    /**
+     * Returns the usage statistics of the feature type cache.
+     */
+    public CacheStatistics getFeatureTypeCacheStatistics() {
+        return featureTypeCache.getStatistics();
+    }
+    
+    /**
+     * Returns the usage statistics of the feature type attribute cache.
+     */
+    public CacheStatistics getFeatureTypeAttributeCacheStatistics() {
+        return featureTypeAttributeCache.getStatistics();
+    }
+    
     /**
      * Returns a {@link CoordinateReferenceSystem} object based on its identifier
      * caching the result.
@@ -243,24 +346,118 @@ public class ResourcePool {
             return null;
         
         CoordinateReferenceSystem crs = crsCache.get( srsName );
-        if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
-                if ( crs == null ) {
-                    try {
-                        crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
-                    }
-                    catch( Exception e) {
-                        throw (IOException) new IOException().initCause(e);
-                    }
-                }
-            }
+        if ( crs != null ) {
+            crsStatistics.hits.incrementAndGet();
+            return crs;
+        }
+        
+        //decoding is done outside of any lock, concurrent decodes of the same code are harmless
+        crsStatistics.misses.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            crs = CRS.decode( srsName );
+        }
+        catch( Exception e) {
+            crsStatistics.failures.incrementAndGet();
+            throw (IOException) new IOException().initCause(e);
+        }
+        finally {
+            crsStatistics.loaded( System.currentTimeMillis() - start );
+        }
+        
+        evict( crsCache );
+        CoordinateReferenceSystem cached = crsCache.putIfAbsent( srsName, crs );
+        if ( cached != null ) {
+            crs = cached;
         }
         
         return crs;
     }
     
+    /**
+     * Returns the transform between two coordinate reference systems, caching the result.
+     * <p>
+     * Same as {@link #findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)}.
+     * </p>
+     * @param source The source coordinate reference system.
+     * @param target The target coordinate reference system.
+     * @param lenient Whether to allow datum shifts to be ignored when the information is missing.
+     *  
+     * @throws FactoryException If the transform could not be created. 
+     */
+    public MathTransform getMathTransform( CoordinateReferenceSystem source, 
+            CoordinateReferenceSystem target, boolean lenient ) throws FactoryException {
+        return findMathTransform( source, target, lenient );
+    }
+    
+    /**
+     * Returns the transform between two coordinate reference systems, caching the result.
+     * <p>
+     * This method is a cached version of 
+     * {@link CRS#findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)},
+     * the cache is shared by all the resource pools and is meant to be used by code that has 
+     * no access to the catalog as well.
+     * </p>
+     * @param source The source coordinate reference system.
+     * @param target The target coordinate reference system.
+     * @param lenient Whether to allow datum shifts to be ignored when the information is missing.
+     *  
+     * @throws FactoryException If the transform could not be created. 
+     */
+    public static MathTransform findMathTransform( CoordinateReferenceSystem source, 
+            CoordinateReferenceSystem target, boolean lenient ) throws FactoryException {
+        TransformKey key = new TransformKey( source, target, lenient );
+        MathTransform tx = transformCache.get( key );
+        if ( tx != null ) {
+            transformStatistics.hits.incrementAndGet();
+            return tx;
+        }
+        
+        transformStatistics.misses.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            tx = CRS.findMathTransform( source, target, lenient );
+        }
+        catch( FactoryException e ) {
+            transformStatistics.failures.incrementAndGet();
+            throw e;
+        }
+        finally {
+            transformStatistics.loaded( System.currentTimeMillis() - start );
+        }
+        
+        evict( transformCache );
+        MathTransform cached = transformCache.putIfAbsent( key, tx );
+        return cached != null ? cached : tx;
+    }
+    
+    /**
+     * Makes room in a bounded cache, dropping an arbitrary entry once the cache is full.
+     */
+    static <K, V> void evict( ConcurrentHashMap<K, V> cache ) {
+        if ( cache.size() >= CRS_CACHE_SIZE ) {
+            Iterator<K> it = cache.keySet().iterator();
+            if ( it.hasNext() ) {
+                cache.remove( it.next() );
+            }
+        }
+    }
+    
+    /**
+     * Returns the usage statistics of the coordinate reference system cache.
+     */
+    public CacheStatistics getCRSCacheStatistics() {
+        return crsStatistics;
+    }
+    
+    /**
+     * Returns the usage statistics of the math transform cache, shared by all the resource 
+     * pools.
+     */
+    public CacheStatistics getMathTransformCacheStatistics() {
+        return transformStatistics;
+    }
+    
     /**
      * Returns the datastore factory used to create underlying resources for a datastore.
      * <p>
@@ -298,107 +495,25 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
-        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
         try {
             String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
                         
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
-                    }
-                } 
+            // cache only if the id is not null, no need to cache the stores
+            // returned from un-saved DataStoreInfo objects (it would be actually
+            // harmful, NPE when trying to dispose of them)
+            if ( id == null ) {
+                return createDataStore( info );
             }
             
-            return dataStore;
+            //only callers asking for the same store wait for it to be created
+            return (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id, 
+                new Callable<DataAccess>() {
+                    public DataAccess call() throws Exception {
+                        return createDataStore( info );
+                    }
+                });
         } catch (Exception e) {
-            // if anything goes wrong we have to clean up the store anyways
-            if(dataStore != null) {
-                try {
-                    dataStore.dispose();
-                } catch(Exception ex) {
-                    // fine, we had to try
-                }
-            }
             if(e instanceof IOException) {
                 throw (IOException) e;
             } else {
@@ -406,6 +521,86 @@ public class ResourcePool {
             }
         }
     }
+    
+    /**
+     * Creates the underlying resource for a data store.
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore( DataStoreInfo info ) throws IOException {
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+        
+        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+        
+        //call this methdo to execute the hack which recognizes 
+        // urls which are relative to the data directory
+        // TODO: find a better way to do this
+        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+        
+        // obtain the factory
+        DataAccessFactory factory = null;
+        try {
+            factory = getDataStoreFactory(info);
+        } catch(IOException e) {
+            throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                    + ", did you forget to install the store extension jar?");
+        }
+        Param[] params = factory.getParametersInfo();
+        
+        //ensure that the namespace parameter is set for the datastore
+        if (!connectionParameters.containsKey( "namespace") && params != null) {
+            //if we grabbed the factory, check that the factory actually supports
+            // a namespace parameter, if we could not get the factory, assume that
+            // it does
+            boolean supportsNamespace = true;
+            supportsNamespace = false;
+            
+            for ( Param p : params ) {
+                if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                    supportsNamespace = true;
+                    break;
+                }
+            }
+            
+            if ( supportsNamespace ) {
+                WorkspaceInfo ws = info.getWorkspace();
+                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                if ( ns == null ) {
+                    ns = info.getCatalog().getDefaultNamespace();
+                }
+                if ( ns != null ) {
+                    connectionParameters.put( "namespace", ns.getURI() );
+                }    
+            }
+        }
+        
+        // see if the store has a repository param, if so, pass the one wrapping
+        // the store
+        if(params != null) {
+            for ( Param p : params ) {
+                if(Repository.class.equals(p.getType())) {
+                    connectionParameters.put(p.getName(), repository);
+                }
+            }
+        }
+        
+        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+        if (dataStore == null) {
+            /*
+             * Preserve DataStore retyping behaviour by calling
+             * DataAccessFinder.getDataStore after the call to
+             * DataStoreUtils.getDataStore above.
+             * 
+             * TODO: DataAccessFinder can also find DataStores, and when retyping is
+             * supported for DataAccess, we can use a single mechanism.
+             */
+            dataStore = DataAccessFinder.getDataStore(connectionParameters);
+        }
+        
+        if ( dataStore == null ) {
+            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
+        }
+        
+        return dataStore;
+    }
         
     /**
      * Get Connect params.
@@ -456,7 +651,7 @@ public class ResourcePool {
         dataStoreCache.remove( info.getId() );
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -468,32 +663,35 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
+        // cache attributes only if the id is not null -> the feature type is not new
+        if (info.getId() == null) {
+            return createAttributes(info);
+        }
+        
         //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
+        return featureTypeAttributeCache.get(info.getId(), 
+            new Callable<List<AttributeTypeInfo>>() {
+                public List<AttributeTypeInfo> call() throws Exception {
+                    return createAttributes(info);
                 }
-            }
-        }
+            });
+    }
+    
+    /**
+     * Loads the attributes of a feature type, applying the schema override if any.
+     */
+    List<AttributeTypeInfo> createAttributes(FeatureTypeInfo info) throws IOException {
+        //load from feature type
+        List<AttributeTypeInfo> atts = loadAttributes(info);
         
+        //check for a schema override
+        try {
+            handleSchemaOverride(atts,info);
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, 
+                "Error occured applying schema override for "+info.getName(), e);
+        }
         return atts;
     }
     
@@ -619,98 +817,203 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
-        boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
-        if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
-                if ( ft == null || !cacheable) {
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
+        if ( !isCacheable(info) ) {
+            return loadFeatureType( info, handleProjectionPolicy, false );
+        }
                     
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        FeatureTypeCache cache = featureTypeCache;
+        long maxAge = featureTypeRefreshInterval;
+        if ( !handleProjectionPolicy ) {
+            cache = renamedFeatureTypeCache;
+            maxAge = featureTypeTTL;
+            if ( maxAge <= 0 ) {
+                return loadFeatureType( info, false, false );
+            }
+        }
                     
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+        //only callers asking for the same feature type wait for it to be loaded
+        FeatureType ft = cache.get( info.getId(), new Callable<FeatureType>() {
+            public FeatureType call() throws Exception {
+                return loadFeatureType( info, handleProjectionPolicy, true );
+            }
+        });
                         
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
-    
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            jstore.addVirtualTable(vt);
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        if ( maxAge > 0 ) {
+            Long loaded = cache.getLoadTime( info.getId() );
+            if ( loaded != null && System.currentTimeMillis() - loaded > maxAge ) {
+                refresh( cache, info.getId(), loaded, handleProjectionPolicy );
+            }
+        }
+        return ft;
+    }
+    
+    /**
+     * Reloads a cached feature type in the background, the cached one keeps on being used until 
+     * the reload is done.
+     */
+    void refresh( final FeatureTypeCache cache, final String id, final long loaded, 
+            final boolean handleProjectionPolicy ) {
+        if ( !cache.refreshing.add( id ) ) {
+            //already being refreshed
+            return;
+        }
+        
+        Runnable refresh = new Runnable() {
+            public void run() {
+                try {
+                    FeatureTypeInfo info = catalog.getFeatureType( id );
+                    if ( info == null ) {
+                        cache.remove( id );
+                        return;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
+                    long start = System.currentTimeMillis();
+                    FeatureType ft = loadFeatureType( info, handleProjectionPolicy, true );
+                    cache.statistics.loaded( System.currentTimeMillis() - start );
+                    if ( cache.refreshed( id, loaded, ft ) && cache == featureTypeCache ) {
+                        //the attributes are built out of the feature type, rebuild them too
+                        // (removing the entry also prevents a load in progress, possibly
+                        // based on the old feature type, from being cached)
+                        final FeatureTypeInfo fti = info;
+                        FeatureTypeAttributeCache attributeCache = featureTypeAttributeCache;
+                        attributeCache.remove( id );
+                        try {
+                            attributeCache.get( id, new Callable<List<AttributeTypeInfo>>() {
+                                public List<AttributeTypeInfo> call() throws Exception {
+                                    return createAttributes( fti );
                                 }
-                                tb.add( ad );
-                            }
+                            });
                         }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
+                        catch( Exception e ) {
+                            //the next request will load them again and report the error
+                            LOGGER.log( Level.FINE, "Failed to refresh the attributes of " 
+                                    + "feature type " + id, e );
                         }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    }
+                }
+                catch( Throwable t ) {
+                    //drop the entry, the next request will load it again and report the error
+                    LOGGER.log( Level.FINE, "Failed to refresh feature type " + id, t );
+                    cache.statistics.failures.incrementAndGet();
+                    cache.remove( id );
+                }
+                finally {
+                    cache.refreshing.remove( id );
+                }
+            }
+        };
+        
+        try {
+            refreshExecutor().execute( refresh );
+        }
+        catch( RejectedExecutionException e ) {
+            cache.refreshing.remove( id );
+        }
+    }
+    
+    synchronized ExecutorService refreshExecutor() {
+        if ( refreshExecutor == null ) {
+            refreshExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+                public Thread newThread( Runnable r ) {
+                    Thread t = new Thread( r, "ResourcePool-FeatureTypeRefresh" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            });
+        }
+        return refreshExecutor;
+    }
+    
+    /**
+     * Loads the underlying resource for a feature type.
+     * 
+     * @param cacheable Whether the result will be cached, when false sql views are not
+     * registered permanently in the underlying store.
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, 
+            boolean cacheable ) throws IOException {
+        FeatureType ft = null;
+        
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+    
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                jstore.addVirtualTable(vt);
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
+                    }
                     
-                    if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
+                    
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
+        
+        if(!cacheable && vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
         }
         
         return ft;
@@ -825,6 +1128,7 @@ public class ResourcePool {
      */
     public void clear( FeatureTypeInfo info ) {
         featureTypeCache.remove( info.getId() );
+        renamedFeatureTypeCache.remove( info.getId() );
         featureTypeAttributeCache.remove( info.getId() );
     }
     
@@ -1126,7 +1430,7 @@ public class ResourcePool {
             // get a math transform
             MathTransform transform;
 			try {
-				transform = CRS.findMathTransform(sourceCRS, destCRS,true);
+				transform = getMathTransform(sourceCRS, destCRS,true);
 			} catch (FactoryException e) {
 				final IOException ioe= new IOException( "unable to determine coverage crs");
 				ioe.initCause(e);
@@ -1417,19 +1721,32 @@ public class ResourcePool {
      */
     public void dispose() {
         crsCache.clear();
+        transformCache.clear();
         dataStoreCache.clear();
         featureTypeCache.clear();
+        renamedFeatureTypeCache.clear();
         featureTypeAttributeCache.clear();
         coverageReaderCache.clear();
         hintCoverageReaderCache.clear();
         wmsCache.clear();
         styleCache.clear();
         listeners.clear();
+        synchronized (this) {
+            if (refreshExecutor != null) {
+                refreshExecutor.shutdownNow();
+                refreshExecutor = null;
+            }
+        }
     }
     
     /**
      * Base class for all the resource caches, ensures type safety and provides
      * an easier way to handle with resource disposal 
+     * <p>
+     * Map operations are synchronized and only last for the time of the map access. Resources
+     * are loaded through {@link #get(Object, Callable)}, which ensures a resource is loaded once
+     * while only blocking the callers asking for that very same resource.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
@@ -1437,6 +1754,13 @@ public class ResourcePool {
      */
     abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
 
+        /**
+         * loads in progress
+         */
+        final ConcurrentHashMap<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+        
+        final CacheStatistics statistics = new CacheStatistics();
+
         public CatalogResourceCache() {
             this(100);
         }
@@ -1452,9 +1776,140 @@ public class ResourcePool {
             };
         }
 
+        /**
+         * Returns the cached resource, loading it if not available. 
+         * <p>
+         * Concurrent calls for the same key wait for the first caller to load the resource, 
+         * calls for other keys are not affected. 
+         * </p>
+         */
+        public V get(final K key, final Callable<V> loader) throws IOException {
+            V object = get(key);
+            if (object != null) {
+                statistics.hits.incrementAndGet();
+                return object;
+            }
+            
+            final AtomicReference<FutureTask<V>> self = new AtomicReference<FutureTask<V>>();
+            FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    return load(key, loader, self.get());
+                }
+            });
+            self.set(task);
+            FutureTask<V> running = loading.putIfAbsent(key, task);
+            if (running != null) {
+                //somebody else is loading it, wait
+                statistics.waits.incrementAndGet();
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Waiting for " + key + " to be loaded by another thread");
+                }
+                long start = System.currentTimeMillis();
+                try {
+                    return result(running);
+                }
+                finally {
+                    statistics.waitTime.addAndGet(System.currentTimeMillis() - start);
+                }
+            }
+            
+            try {
+                //check again, the load may have completed in between
+                object = get(key);
+                if (object != null) {
+                    statistics.hits.incrementAndGet();
+                    return object;
+                }
+                
+                statistics.misses.incrementAndGet();
+                long start = System.currentTimeMillis();
+                task.run();
+                try {
+                    object = result(task);
+                } 
+                catch(IOException e) {
+                    statistics.failures.incrementAndGet();
+                    throw e;
+                }
+                finally {
+                    statistics.loaded(System.currentTimeMillis() - start);
+                }
+                return object;
+            }
+            finally {
+                loading.remove(key, task);
+            }
+        }
+
+        /**
+         * Loads a resource on behalf of a load task and caches it.
+         * <p>
+         * If the entry is invalidated while loading, the resource is disposed right away rather 
+         * than handed out uncached, since nothing would dispose it afterwards. The resource is 
+         * then loaded again, or taken from the load that started in the meantime, if any.
+         * </p>
+         */
+        V load(K key, Callable<V> loader, FutureTask<V> task) throws Exception {
+            while (true) {
+                V object = loader.call();
+                synchronized (this) {
+                    if (object == null) {
+                        return null;
+                    }
+                    if (loading.get(key) == task) {
+                        put(key, object);
+                        return object;
+                    }
+                }
+                
+                dispose(key, object);
+                FutureTask<V> other = loading.putIfAbsent(key, task);
+                if (other != null) {
+                    return result(other);
+                }
+            }
+        }
+        
+        V result(FutureTask<V> task) throws IOException {
+            try {
+                return task.get();
+            } 
+            catch (InterruptedException e) {
+                throw (IOException) new IOException("Interrupted while waiting for the resource to load").initCause(e);
+            } 
+            catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                }
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                throw (IOException) new IOException().initCause(t);
+            }
+        }
+        
+        @Override
+        public synchronized V get(Object key) {
+            return super.get(key);
+        }
+        
+        @Override
+        public synchronized V put(K key, V value) {
+            return super.put(key, value);
+        }
+        
         @Override
         public V remove(Object key) {
-            V object = super.remove(key);
+            V object;
+            synchronized (this) {
+                //have loads in progress not to cache their outcome
+                loading.remove(key);
+                object = super.remove(key);
+            }
             if (object != null) {
                 dispose((K) key, (V) object);
             }
@@ -1463,25 +1918,181 @@ public class ResourcePool {
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
-                dispose((K) entry.getKey(), (V) entry.getValue());
+            List<Map.Entry<K, V>> entries;
+            synchronized (this) {
+                loading.clear();
+                entries = new ArrayList<Map.Entry<K, V>>();
+                for (Entry entry : entrySet()) {
+                    entries.add(new AbstractMap.SimpleEntry<K, V>((K) entry.getKey(), (V) entry.getValue()));
+                }
+                super.clear();
             }
-            super.clear();
+            for (Map.Entry<K, V> entry : entries) {
+                dispose(entry.getKey(), entry.getValue());
+            }
+        }
+
+        public CacheStatistics getStatistics() {
+            return statistics;
         }
 
         protected abstract void dispose(K key, V object);
     }
     
+    /**
+     * Usage statistics of a resource cache.
+     */
+    public static class CacheStatistics {
+        AtomicLong hits = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong waits = new AtomicLong();
+        AtomicLong waitTime = new AtomicLong();
+        AtomicLong loadTime = new AtomicLong();
+        AtomicLong maxLoadTime = new AtomicLong();
+        
+        void loaded(long time) {
+            loadTime.addAndGet(time);
+            long max = maxLoadTime.get();
+            while (time > max && !maxLoadTime.compareAndSet(max, time)) {
+                max = maxLoadTime.get();
+            }
+        }
+        
+        /**
+         * Number of lookups served from the cache.
+         */
+        public long getHits() {
+            return hits.get();
+        }
+        
+        /**
+         * Number of lookups that had to load the resource.
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+        
+        /**
+         * Number of loads that failed.
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+        
+        /**
+         * Number of lookups that had to wait for another thread to load the same resource.
+         */
+        public long getWaits() {
+            return waits.get();
+        }
+        
+        /**
+         * Total time, in milliseconds, spent waiting for another thread to load a resource.
+         */
+        public long getWaitTime() {
+            return waitTime.get();
+        }
+        
+        /**
+         * Total time, in milliseconds, spent loading resources.
+         */
+        public long getLoadTime() {
+            return loadTime.get();
+        }
+        
+        /**
+         * Longest time, in milliseconds, spent loading a single resource.
+         */
+        public long getMaxLoadTime() {
+            return maxLoadTime.get();
+        }
+        
+        @Override
+        public String toString() {
+            return "hits: " + getHits() + ", misses: " + getMisses() + ", failures: " 
+                + getFailures() + ", waits: " + getWaits() + " (" + getWaitTime() + " ms), load: " 
+                + getLoadTime() + " ms (max " + getMaxLoadTime() + " ms)";
+        }
+    }
+    
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
+        /**
+         * time each entry has been loaded at
+         */
+        final ConcurrentHashMap<String, Long> loadTimes = new ConcurrentHashMap<String, Long>();
+        
+        /**
+         * entries being refreshed
+         */
+        final Set<String> refreshing = 
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        
         public FeatureTypeCache(int maxSize) {
             super(maxSize);
         }
         
+        Long getLoadTime(String id) {
+            return loadTimes.get(id);
+        }
+        
+        @Override
+        public synchronized FeatureType put(String id, FeatureType ft) {
+            loadTimes.put(id, System.currentTimeMillis());
+            return super.put(id, ft);
+        }
+        
+        @Override
+        public FeatureType remove(Object id) {
+            loadTimes.remove(id);
+            return super.remove(id);
+        }
+        
+        @Override
+        public void clear() {
+            loadTimes.clear();
+            super.clear();
+        }
+        
+        /**
+         * Replaces an entry with its refreshed version, unless the entry has been removed or 
+         * reloaded meanwhile. The old version is not disposed of, as the resource is still
+         * there, it is just swapped with the new one.
+         * 
+         * @return true if the entry has been replaced
+         */
+        synchronized boolean refreshed(String id, long loaded, FeatureType ft) {
+            Long current = loadTimes.get(id);
+            if (current == null || current.longValue() != loaded || get(id) == null) {
+                return false;
+            }
+            put(id, ft);
+            return true;
+        }
+        
         protected void dispose(String id, FeatureType featureType) {
         	FeatureTypeInfo info = catalog.getFeatureType(id);
-            LOGGER.info( "Disposing feature type '" + info.getName() + "'");
-            fireDisposed(info, featureType);
+        	if (info != null) {
+                LOGGER.info( "Disposing feature type '" + info.getName() + "'");
+                fireDisposed(info, featureType);
+        	}
+        }
+    }
+    
+    /**
+     * Cache of the feature types used to build feature sources, not subject to the projection
+     * policy. 
+     */
+    class RenamedFeatureTypeCache extends FeatureTypeCache {
+
+        public RenamedFeatureTypeCache(int maxSize) {
+            super(maxSize);
+        }
+        
+        @Override
+        protected void dispose(String id, FeatureType featureType) {
+            // nothing to do, the feature type is not exposed outside the pool
         }
     }
     
@@ -1547,6 +2158,44 @@ public class ResourcePool {
         
     }
     
+    /**
+     * The key in the math transform cache
+     */
+    static class TransformKey {
+        CoordinateReferenceSystem source;
+        CoordinateReferenceSystem target;
+        boolean lenient;
+        int hashCode;
+        
+        TransformKey(CoordinateReferenceSystem source, CoordinateReferenceSystem target, 
+                boolean lenient) {
+            this.source = source;
+            this.target = target;
+            this.lenient = lenient;
+            //crs hash codes are computed on the whole object graph, do it once
+            this.hashCode = 31 * (31 * source.hashCode() + target.hashCode()) + (lenient ? 1 : 0);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TransformKey)) {
+                return false;
+            }
+            TransformKey other = (TransformKey) obj;
+            return lenient == other.lenient && hashCode == other.hashCode
+                && (source == other.source || source.equals(other.source))
+                && (target == other.target || target.equals(other.target));
+        }
+    }
+    
     /**
      * The key in the {@link CoverageHintReaderCache}
      * 
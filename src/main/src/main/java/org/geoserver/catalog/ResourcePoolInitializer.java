@@ -29,6 +29,7 @@ public class ResourcePoolInitializer implements GeoServerInitializer {
         if (cacheSize > 0) {
             gs.getCatalog().getResourcePool().setFeatureTypeCacheSize(cacheSize);
         }
+        initFeatureTypeRefresh(global);
         
         geoServer.addListener(new ConfigurationListenerAdapter() {
             @Override
@@ -40,8 +41,25 @@ public class ResourcePoolInitializer implements GeoServerInitializer {
                     gs.getCatalog().getResourcePool().setFeatureTypeCacheSize(featureTypeCacheSize.intValue());
                 }
                 gs.getCatalog().getResourcePool().setCoverageExecutor(global.getCoverageAccess().getThreadPoolExecutor());
+                initFeatureTypeRefresh(global);
             }
         });
     }
     
+    /**
+     * Sets up the feature type refresh interval and time to live, both are stored in seconds in
+     * the global settings metadata.
+     */
+    void initFeatureTypeRefresh(GeoServerInfo global) {
+        ResourcePool pool = gs.getCatalog().getResourcePool();
+        Integer refresh = null;
+        Integer ttl = null;
+        if (global.getMetadata() != null) {
+            refresh = global.getMetadata().get(ResourcePool.FEATURETYPE_CACHE_REFRESH, Integer.class);
+            ttl = global.getMetadata().get(ResourcePool.FEATURETYPE_CACHE_TTL, Integer.class);
+        }
+        pool.setFeatureTypeRefreshInterval(refresh != null ? refresh * 1000l : 0);
+        pool.setFeatureTypeTTL(ttl != null ? ttl * 1000l : 0);
+    }
+    
 }
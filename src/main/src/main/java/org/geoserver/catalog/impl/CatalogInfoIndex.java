@@ -0,0 +1,327 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.catalog.CatalogInfo;
+
+/**
+ * In memory index of catalog objects used by {@link DefaultCatalogFacade}.
+ * <p>
+ * Objects are kept in insertion order and can be looked up by id or by any number of secondary
+ * keys (name, parent id, ...) in constant time. Objects are tracked by id, since the equals and
+ * hashCode of the info implementations change as the objects get edited.
+ * </p>
+ * <p>
+ * Writes are serialized, reads never block and always see a consistent view of each single
+ * object, although a reader running during a write may or may not see the write.
+ * </p>
+ * <p>
+ * The index may contain placeholders for objects whose loading has been deferred, see
+ * {@link LazyCatalogInfo}. Lookups never return placeholders, they are handed to the
+ * {@link Materializer} and replaced by the object it returns.
+ * </p>
+ */
+public class CatalogInfoIndex<T extends CatalogInfo> {
+
+    /**
+     * Turns a placeholder into the real object.
+     */
+    static interface Materializer<T> {
+
+        /**
+         * Loads the object the placeholder stands for, replacing the placeholder in the index.
+         *
+         * @return The loaded object, or null if it could not be loaded.
+         */
+        T materialize(T placeholder);
+    }
+
+    /**
+     * insertion counter, used to keep listings in insertion order
+     */
+    final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * entries keyed by object id
+     */
+    final ConcurrentHashMap<String, Entry<T>> ids = new ConcurrentHashMap<String, Entry<T>>();
+
+    /**
+     * objects in insertion order
+     */
+    final ConcurrentSkipListMap<Long, T> objects = new ConcurrentSkipListMap<Long, T>();
+
+    /**
+     * objects keyed by secondary key, in insertion order
+     */
+    final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>> keys =
+        new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>>();
+
+    /**
+     * loads placeholders on lookup
+     */
+    volatile Materializer<T> materializer;
+
+    public void setMaterializer(Materializer<T> materializer) {
+        this.materializer = materializer;
+    }
+
+    /**
+     * Adds an object to the index, replacing any previous object with the same id.
+     */
+    public synchronized void add(T info, Collection<String> keys) {
+        Entry<T> old = ids.get(info.getId());
+        long seq = old != null ? old.sequence : sequence.incrementAndGet();
+
+        Entry<T> e = new Entry<T>(seq, info, keys);
+        objects.put(seq, info);
+        for (String key : keys) {
+            ConcurrentSkipListMap<Long, T> matches = this.keys.get(key);
+            if (matches == null) {
+                matches = new ConcurrentSkipListMap<Long, T>();
+                this.keys.put(key, matches);
+            }
+            matches.put(seq, info);
+        }
+        ids.put(info.getId(), e);
+
+        if (old != null) {
+            //drop the keys that no longer apply, done last so that readers never miss the
+            // object under a key it keeps
+            List<String> stale = new ArrayList<String>(old.keys);
+            stale.removeAll(e.keys);
+            unkey(old.sequence, stale);
+        }
+    }
+
+    /**
+     * Replaces a placeholder with the object it stands for, keeping the placeholder position.
+     *
+     * @return false if the placeholder is no longer part of the index
+     */
+    public synchronized boolean replace(T placeholder, T info, Collection<String> keys) {
+        Entry<T> e = ids.get(placeholder.getId());
+        if (e == null || e.info != placeholder) {
+            return false;
+        }
+        add(info, keys);
+        return true;
+    }
+
+    /**
+     * Updates the secondary keys of an object already in the index, preserving its position.
+     */
+    public void reindex(T info, Collection<String> keys) {
+        add(info, keys);
+    }
+
+    /**
+     * Removes an object from the index.
+     *
+     * @return true if the object was part of the index
+     */
+    public synchronized boolean remove(T info) {
+        if (info == null || info.getId() == null) {
+            return false;
+        }
+        Entry<T> e = ids.remove(info.getId());
+        if (e == null) {
+            return false;
+        }
+
+        objects.remove(e.sequence);
+        unkey(e.sequence, e.keys);
+        return true;
+    }
+
+    void unkey(long seq, Collection<String> keys) {
+        for (String key : keys) {
+            ConcurrentSkipListMap<Long, T> matches = this.keys.get(key);
+            if (matches != null) {
+                matches.remove(seq);
+                if (matches.isEmpty()) {
+                    this.keys.remove(key);
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+        objects.clear();
+        keys.clear();
+    }
+
+    /**
+     * Returns the object with the specified id, or null if no such object exists.
+     */
+    public T get(String id) {
+        if (id == null) {
+            return null;
+        }
+        Entry<T> e = ids.get(id);
+        return e != null ? materialize(e.info) : null;
+    }
+
+    /**
+     * Returns the object with the specified id if it is an instance of the specified class.
+     */
+    public <S> S get(String id, Class<S> clazz) {
+        T info = get(id);
+        return clazz.isInstance(info) ? clazz.cast(info) : null;
+    }
+
+    /**
+     * Returns the first object, in insertion order, matching the specified key.
+     */
+    public T first(String key) {
+        ConcurrentSkipListMap<Long, T> matches = keys.get(key);
+        if (matches != null) {
+            for (T info : matches.values()) {
+                info = materialize(info);
+                if (info != null) {
+                    return info;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first object, in insertion order, matching the specified key and class.
+     */
+    public <S> S first(String key, Class<S> clazz) {
+        ConcurrentSkipListMap<Long, T> matches = keys.get(key);
+        if (matches != null) {
+            for (T info : matches.values()) {
+                if (clazz.isInstance(info)) {
+                    info = materialize(info);
+                    if (info != null) {
+                        return clazz.cast(info);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the objects matching the specified key and class, in insertion order.
+     */
+    public <S> List<S> list(String key, Class<S> clazz) {
+        ConcurrentSkipListMap<Long, T> matches = keys.get(key);
+        if (matches == null) {
+            return new ArrayList<S>();
+        }
+        return filter(matches.values(), clazz);
+    }
+
+    /**
+     * Returns all the objects in the index, in insertion order.
+     */
+    public List<T> list() {
+        List<T> result = new ArrayList<T>();
+        for (T info : objects.values()) {
+            info = materialize(info);
+            if (info != null) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all the objects in the index, in insertion order, without loading placeholders.
+     */
+    public List<T> values() {
+        return new ArrayList<T>(objects.values());
+    }
+
+    /**
+     * Returns all the objects in the index that are instances of the specified class, in
+     * insertion order, without loading placeholders.
+     * <p>
+     * Placeholders only answer the properties needed to index them (id, name and parents), this
+     * is meant for listings that do not need the full objects.
+     * </p>
+     */
+    public <S> List<S> values(Class<S> clazz) {
+        List<S> result = new ArrayList<S>();
+        for (T info : objects.values()) {
+            if (clazz.isInstance(info)) {
+                result.add(clazz.cast(info));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all the objects in the index that are instances of the specified class, in
+     * insertion order.
+     */
+    public <S> List<S> list(Class<S> clazz) {
+        return filter(objects.values(), clazz);
+    }
+
+    /**
+     * Returns the keys the object has been indexed with.
+     */
+    public Collection<String> keys(T info) {
+        Entry<T> e = info != null && info.getId() != null ? ids.get(info.getId()) : null;
+        return e != null ? e.keys : Collections.<String>emptyList();
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    <S> List<S> filter(Collection<T> values, Class<S> clazz) {
+        List<S> result = new ArrayList<S>();
+        for (Iterator<T> it = values.iterator(); it.hasNext();) {
+            T info = it.next();
+            if (clazz.isInstance(info)) {
+                info = materialize(info);
+                if (info != null) {
+                    result.add(clazz.cast(info));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the object if it is a placeholder.
+     */
+    T materialize(T info) {
+        if (info != null && LazyCatalogInfo.isLazy(info)) {
+            Materializer<T> m = materializer;
+            return m != null ? m.materialize(info) : null;
+        }
+        return info;
+    }
+
+    static class Entry<T> {
+        final long sequence;
+
+        final T info;
+
+        final Collection<String> keys;
+
+        Entry(long sequence, T info, Collection<String> keys) {
+            this.sequence = sequence;
+            this.info = info;
+            this.keys = new ArrayList<String>(keys);
+        }
+    }
+}
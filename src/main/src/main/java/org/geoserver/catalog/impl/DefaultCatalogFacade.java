@@ -6,17 +6,14 @@ import java.lang.reflect.Proxy;
 import java.rmi.server.UID;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.apache.commons.collections.MultiHashMap;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogFacade;
 import org.geoserver.catalog.CatalogInfo;
@@ -69,20 +66,27 @@ public class DefaultCatalogFacade implements CatalogFacade {
         }
     }
     
-    /**
-     * Contains the stores keyed by implementation class
+    /*
+     * index key types
      */
-    protected MultiHashMap/* <Class> */stores = new MultiHashMap();
-    
-    /**
-     * The default store keyed by workspace id
-     */
-    protected Map<String, DataStoreInfo> defaultStores = new HashMap<String, DataStoreInfo>();
+    static final String NAME = "name";
+    static final String PARENT = "parent";
+    static final String PARENT_NAME = "parentName";
+    static final String STORE = "store";
+    static final String STORE_NAME = "storeName";
+    static final String RESOURCE = "resource";
+    static final String STYLE = "style";
+    static final String URI = "uri";
+
+    //JD: the following collections are the ones persisted by the XStreamPersister, they are kept
+    // around for compatibility with the existing catalog persistence and are only accessed on
+    // write, all lookups are done against the indexes below. The stores are persisted straight
+    // from their index
 
     /**
-     * resources
+     * The default store keyed by workspace id, copied on write
      */
-    protected MultiHashMap/* <Class> */resources = new MultiHashMap();
+    protected volatile Map<String, DataStoreInfo> defaultStores = new HashMap<String, DataStoreInfo>();
 
     /**
      * namespaces
@@ -94,29 +98,38 @@ public class DefaultCatalogFacade implements CatalogFacade {
      */
     protected HashMap<String, WorkspaceInfo> workspaces = new HashMap<String, WorkspaceInfo>();
     
-    //JD: Using a CopyOnWriteArrayList is a temporary measure here to deal with some 
-    // concurrency issues around layer access. See GEOS-4404. Long term solution is to us
-    // concurrent collections (set and map) for all the collections in this class
-    /**
-     * layers
-     */
-    protected List<LayerInfo> layers = new CopyOnWriteArrayList<LayerInfo>();
-
-    /**
-     * maps
-     */
-    protected List<MapInfo> maps = new ArrayList<MapInfo>();
-
-    /**
-     * layer groups
-     */
-    protected List<LayerGroupInfo> layerGroups = new ArrayList<LayerGroupInfo>();
-    
     /**
      * styles
      */
     protected List<StyleInfo> styles = new ArrayList();
 
+    //
+    // indexes, rebuilt on resolve()
+    //
+    protected transient CatalogInfoIndex<WorkspaceInfo> workspaceIndex =
+        new CatalogInfoIndex<WorkspaceInfo>();
+
+    protected transient CatalogInfoIndex<NamespaceInfo> namespaceIndex =
+        new CatalogInfoIndex<NamespaceInfo>();
+
+    protected CatalogInfoIndex<StoreInfo> storeIndex = new CatalogInfoIndex<StoreInfo>();
+
+    protected transient CatalogInfoIndex<ResourceInfo> resourceIndex =
+        new CatalogInfoIndex<ResourceInfo>();
+
+    protected transient CatalogInfoIndex<LayerInfo> layerIndex = new CatalogInfoIndex<LayerInfo>();
+
+    protected transient CatalogInfoIndex<LayerGroupInfo> layerGroupIndex =
+        new CatalogInfoIndex<LayerGroupInfo>();
+
+    protected transient CatalogInfoIndex<MapInfo> mapIndex = new CatalogInfoIndex<MapInfo>();
+
+    protected transient CatalogInfoIndex<StyleInfo> styleIndex = new CatalogInfoIndex<StyleInfo>();
+
+    protected transient volatile WorkspaceInfo defaultWorkspace;
+
+    protected transient volatile NamespaceInfo defaultNamespace;
+
     /**
      * the catalog
      */
@@ -124,6 +137,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
     
     public DefaultCatalogFacade(Catalog catalog) {
         setCatalog(catalog);
+        bindMaterializers();
     }
     
     public void setCatalog(Catalog catalog) {
@@ -139,18 +153,13 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public StoreInfo add(StoreInfo store) {
         resolve(store);
-        synchronized(stores) {
-            stores.put(store.getClass(), store);
-        }
+        storeIndex.add(store, keys(store));
         return ModificationProxy.create(store, StoreInfo.class);
     }
     
     public void remove(StoreInfo store) {
         store = unwrap(store);
-
-        synchronized(stores) {
-            stores.remove(store.getClass(),store);
-        }
+        storeIndex.remove(store);
     }
     
     public void save(StoreInfo store) {
@@ -162,42 +171,24 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
 
     public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
-        List l = lookup(clazz, stores);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            StoreInfo store = (StoreInfo) i.next();
-            if (id.equals(store.getId())) {
-                return ModificationProxy.create( (T) store, clazz );
-            }
-        }
-
-        return null;
+        T store = storeIndex.get(id, clazz);
+        return store != null ? ModificationProxy.create(store, clazz) : null;
     }
 
     public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace,
             String name, Class<T> clazz) {
         
-        List l = lookup(clazz, stores);
         if (workspace == ANY_WORKSPACE) {
-            //do an exhaustive search through all workspaces
-            ArrayList matches = new ArrayList();
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                T store = (T) i.next();
-                if ( name.equals( store.getName() ) ) {
-                    matches.add( store );
-                }
-            }
-            
+            //look through all workspaces, the match must be unique
+            List<T> matches = storeIndex.list(key(NAME, name), clazz);
             if ( matches.size() == 1 ) {
-                return ModificationProxy.create( (T) matches.get( 0 ), clazz);
+                return ModificationProxy.create( matches.get( 0 ), clazz);
             }
         }
-        else {
-            
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                StoreInfo store = (StoreInfo) i.next();
-                if (name.equals(store.getName()) && store.getWorkspace().equals( workspace )) {
-                    return ModificationProxy.create( (T) store, clazz );
-                }
+        else if (workspace != null) {
+            T store = storeIndex.first(key(PARENT_NAME, workspace.getId(), name), clazz);
+            if (store != null) {
+                return ModificationProxy.create( store, clazz );
             }
         }
         return null;
@@ -210,43 +201,36 @@ public class DefaultCatalogFacade implements CatalogFacade {
         
         if ( workspace == null ) {
             workspace = getDefaultWorkspace();
-        }
-
-        List all = lookup(clazz, stores);
-        List matches = new ArrayList();
-
-        for (Iterator s = all.iterator(); s.hasNext();) {
-            StoreInfo store = (StoreInfo) s.next();
-            if (workspace.equals(store.getWorkspace())) {
-                matches.add(store);
+            if ( workspace == null ) {
+                return new ArrayList<T>();
             }
         }
 
+        List<T> matches = storeIndex.list(key(PARENT, workspace.getId()), clazz);
         return ModificationProxy.createList(matches,clazz);
     }
     
     public List getStores(Class clazz) {
-        return ModificationProxy.createList(lookup(clazz, stores) , clazz);
+        return ModificationProxy.createList(storeIndex.list(clazz) , clazz);
     }
     
     public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
-        if(defaultStores.containsKey(workspace.getId())) {
-            DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
-            return ModificationProxy.create(defaultStore, DataStoreInfo.class);
-        } else {
-            return null;
-        }
+        DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+        return defaultStore != null ?
+            ModificationProxy.create(defaultStore, DataStoreInfo.class) : null;
     }
     
     public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
-        DataStoreInfo old = defaultStores.get(workspace.getId());
-        synchronized(defaultStores) {
+        DataStoreInfo old;
+        synchronized(this) {
+            Map<String, DataStoreInfo> map = new HashMap<String, DataStoreInfo>(defaultStores);
             if (store != null) {
-                defaultStores.put(workspace.getId(), store);    
+                old = map.put(workspace.getId(), store);
             }
             else {
-                defaultStores.remove(workspace.getId());
+                old = map.remove(workspace.getId());
             }
+            defaultStores = map;
         }
         
         //fire change event
@@ -259,17 +243,23 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public ResourceInfo add(ResourceInfo resource) {
         resolve(resource);
-        synchronized(resources) {
-            resources.put(resource.getClass(), resource);
-        }
+        resourceIndex.add(resource, keys(resource));
         return ModificationProxy.create(resource, ResourceInfo.class);
     }
     
+    /**
+     * Adds a placeholder for a resource whose loading is deferred until first access.
+     * <p>
+     * The placeholder must know about the resource name, namespace and store, see 
+     * {@link LazyCatalogInfo}. No events are fired, neither on add nor on load.
+     * </p>
+     */
+    public void addLazy(ResourceInfo resource) {
+        resourceIndex.add(resource, keys(resource));
+    }
+
     public void remove(ResourceInfo resource) {
-        resource = unwrap(resource);
-        synchronized(resources) {
-            resources.remove(resource.getClass(), resource);
-        }
+        resourceIndex.remove(unwrap(resource));
     }
     
    
@@ -282,44 +272,23 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
-        List l = lookup(clazz, resources);
-        for (Iterator i = l.iterator(); i.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) i.next();
-            if (id.equals(resource.getId())) {
-                return ModificationProxy.create((T) resource, clazz );
-            }
-        }
-
-        return null;
+        T resource = resourceIndex.get(id, clazz);
+        return resource != null ? ModificationProxy.create(resource, clazz) : null;
     }
     
     public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name, Class<T> clazz) {
         
-        List l = lookup(clazz, resources);
-        
         if (namespace == ANY_NAMESPACE) {
-            //do an exhaustive lookup
-            List matches = new ArrayList();
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                ResourceInfo resource = (ResourceInfo) i.next();
-                if (name.equals(resource.getName())) {
-                    matches.add( resource );
-                }
-            }
-            
+            //look through all namespaces, the match must be unique
+            List<T> matches = resourceIndex.list(key(NAME, name), clazz);
             if ( matches.size() == 1 ) {
-                return ModificationProxy.create( (T) matches.get( 0 ), clazz );
+                return ModificationProxy.create( matches.get( 0 ), clazz );
             }
         }
-        else {
-            for (Iterator i = l.iterator(); i.hasNext();) {
-                ResourceInfo resource = (ResourceInfo) i.next();
-                if (name.equals(resource.getName())) {
-                    NamespaceInfo namespace1 = resource.getNamespace();
-                    if (namespace1 != null && namespace1.equals( namespace )) {
-                            return ModificationProxy.create( (T) resource, clazz );
-                    }
-                }
+        else if (namespace != null) {
+            T resource = resourceIndex.first(key(PARENT_NAME, namespace.getId(), name), clazz);
+            if (resource != null) {
+                return ModificationProxy.create( resource, clazz );
             }
         }
 
@@ -327,29 +296,45 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
  
     public List getResources(Class clazz) {
-        return ModificationProxy.createList( lookup(clazz,resources), clazz );
+        return ModificationProxy.createList( resourceIndex.list(clazz), clazz );
     }
     
+    /**
+     * Returns the prefixed names of the resources of the specified type keyed by id, in the 
+     * order they have been added.
+     * <p>
+     * Unlike {@link #getResources(Class)} this does not load the resources whose loading has
+     * been deferred, see {@link LazyCatalogInfo}.
+     * </p>
+     */
+    public <T extends ResourceInfo> Map<String, String> getResourceNames(Class<T> clazz) {
+        Map<String, String> names = new LinkedHashMap<String, String>();
+        for ( T r : resourceIndex.values(clazz) ) {
+            NamespaceInfo ns = r.getNamespace();
+            names.put( r.getId(), ns != null ? ns.getPrefix() + ":" + r.getName() : r.getName() );
+        }
+        return names;
+    }
+
     public List getResourcesByNamespace(NamespaceInfo namespace, Class clazz) {
         //TODO: support ANY_NAMESPACE?
         
-        List all = lookup(clazz, resources);
-        List matches = new ArrayList();
-
         if ( namespace == null ) {
             namespace = getDefaultNamespace();
         }
 
-        for (Iterator r = all.iterator(); r.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if (namespace != null ) {
-                if (namespace.equals(resource.getNamespace())) {
-                    matches.add( resource );
+        List matches;
+        if (namespace != null) {
+            matches = resourceIndex.list(key(PARENT, namespace.getId()), clazz);
+        }
+        else {
+            //resources with no namespace are not indexed by parent, fall back on a scan
+            matches = new ArrayList();
+            for (Object o : resourceIndex.list(clazz)) {
+                if (((ResourceInfo) o).getNamespace() == null) {
+                    matches.add(o);
                 }
             }
-            else if ( resource.getNamespace() == null ) {
-                matches.add(resource);
-            }
         }
 
         return ModificationProxy.createList( matches, clazz );
@@ -357,29 +342,13 @@ public class DefaultCatalogFacade implements CatalogFacade {
     
     public <T extends ResourceInfo> T getResourceByStore(StoreInfo store,
             String name, Class<T> clazz) {
-        List all = lookup(clazz,resources);
-        for (Iterator r = all.iterator(); r.hasNext(); ) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if ( name.equals( resource.getName() ) && store.equals( resource.getStore() ) ) {
-                return ModificationProxy.create((T)resource, clazz);
-            }
-        }
-        
-        return null;
+        T resource = resourceIndex.first(key(STORE_NAME, store.getId(), name), clazz);
+        return resource != null ? ModificationProxy.create(resource, clazz) : null;
     }
     
     public <T extends ResourceInfo> List<T> getResourcesByStore(
             StoreInfo store, Class<T> clazz) {
-        List all = lookup(clazz,resources);
-        List matches = new ArrayList();
-        
-        for (Iterator r = all.iterator(); r.hasNext();) {
-            ResourceInfo resource = (ResourceInfo) r.next();
-            if (store.equals(resource.getStore())) {
-                matches.add(resource);
-            }
-        }
-
+        List<T> matches = resourceIndex.list(key(STORE, store.getId()), clazz);
         return  ModificationProxy.createList( matches, clazz );
     }
     
@@ -388,13 +357,24 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public LayerInfo add(LayerInfo layer) {
         resolve(layer);
-        layers.add(layer);
+        layerIndex.add(layer, keys(layer));
         
         return ModificationProxy.create(layer, LayerInfo.class);
     }
     
+    /**
+     * Adds a placeholder for a layer whose loading is deferred until first access.
+     * <p>
+     * The placeholder must know about the layer resource and styles, see 
+     * {@link LazyCatalogInfo}.
+     * </p>
+     */
+    public void addLazy(LayerInfo layer) {
+        layerIndex.add(layer, keys(layer));
+    }
+
     public void remove(LayerInfo layer) {
-        layers.remove(unwrap(layer));
+        layerIndex.remove(unwrap(layer));
     }
     
     public void save(LayerInfo layer) {
@@ -406,49 +386,42 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public LayerInfo getLayer(String id) {
-        for (LayerInfo layer : layers) {
-            if (id.equals(layer.getId())) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
-
-        return null;
+        LayerInfo layer = layerIndex.get(id);
+        return layer != null ? ModificationProxy.create( layer, LayerInfo.class ) : null;
     }
     
     public LayerInfo getLayerByName(String name) {
-        for (LayerInfo layer : layers) {
-            if ( name.equals( layer.getName() ) ) {
-                return ModificationProxy.create( layer, LayerInfo.class );
-            }
-        }
-      
-        return null;
+        LayerInfo layer = layerIndex.first(key(NAME, name));
+        return layer != null ? ModificationProxy.create( layer, LayerInfo.class ) : null;
     }
     
     public List<LayerInfo> getLayers(ResourceInfo resource) {
-        List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( resource.equals( layer.getResource() ) ) {
-                matches.add( layer );
-            }
-        }
-
+        List<LayerInfo> matches = layerIndex.list(key(RESOURCE, resource.getId()), LayerInfo.class);
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
     
     public List<LayerInfo> getLayers(StyleInfo style) {
-        List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( style.equals( layer.getDefaultStyle() ) || layer.getStyles().contains( style ) ) {
-                matches.add( layer );
-            }
-        }
-
+        List<LayerInfo> matches = layerIndex.list(key(STYLE, style.getId()), LayerInfo.class);
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
     
     public List<LayerInfo> getLayers() {
-        return ModificationProxy.createList( new ArrayList(layers), LayerInfo.class );
+        return ModificationProxy.createList( layerIndex.list(), LayerInfo.class );
+    }
+
+    /**
+     * Returns the names of the layers keyed by id, in the order they have been added.
+     * <p>
+     * Unlike {@link #getLayers()} this does not load the layers whose loading has been 
+     * deferred, see {@link LazyCatalogInfo}.
+     * </p>
+     */
+    public Map<String, String> getLayerNames() {
+        Map<String, String> names = new LinkedHashMap<String, String>();
+        for ( LayerInfo l : layerIndex.values(LayerInfo.class) ) {
+            names.put( l.getId(), l.getName() );
+        }
+        return names;
     }
     
     //
@@ -456,17 +429,13 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public MapInfo add(MapInfo map) {
         resolve(map);
-        synchronized(maps) {
-            maps.add(map);
-        }
+        mapIndex.add(map, keys(map));
         
         return ModificationProxy.create(map, MapInfo.class);
     }
 
     public void remove(MapInfo map) {
-        synchronized(maps) {
-            maps.remove(unwrap(map));
-        }
+        mapIndex.remove(unwrap(map));
     }
 
     public void save(MapInfo map) {
@@ -478,27 +447,17 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public MapInfo getMap(String id) {
-        for (MapInfo map : maps) {
-            if (id.equals(map.getId())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        MapInfo map = mapIndex.get(id);
+        return map != null ? ModificationProxy.create(map,MapInfo.class) : null;
     }
 
     public MapInfo getMapByName(String name) {
-        for (MapInfo map : maps) {
-            if (name.equals(map.getName())) {
-                return ModificationProxy.create(map,MapInfo.class);
-            }
-        }
-
-        return null;
+        MapInfo map = mapIndex.first(key(NAME, name));
+        return map != null ? ModificationProxy.create(map,MapInfo.class) : null;
     }
     
     public List<MapInfo> getMaps() {
-        return ModificationProxy.createList( new ArrayList(maps), MapInfo.class );
+        return ModificationProxy.createList( mapIndex.list(), MapInfo.class );
     }
     
     //
@@ -506,9 +465,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
     //
     public LayerGroupInfo add (LayerGroupInfo layerGroup) {
         resolve(layerGroup);
-        synchronized(layerGroups) {
-            layerGroups.add( layerGroup );
-        }
+        layerGroupIndex.add(layerGroup, keys(layerGroup));
         return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
     }
     
@@ -516,9 +473,7 @@ public class DefaultCatalogFacade implements CatalogFacade {
      * @see org.geoserver.catalog.impl.CatalogDAO#remove(org.geoserver.catalog.LayerGroupInfo)
      */
     public void remove(LayerGroupInfo layerGroup) {
-        synchronized(layerGroups) {
-            layerGroups.remove( unwrap(layerGroup) );
-        }
+        layerGroupIndex.remove(unwrap(layerGroup));
     }
     
     /* (non-Javadoc)
@@ -533,27 +488,19 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public List<LayerGroupInfo> getLayerGroups() {
-        return ModificationProxy.createList( new ArrayList(layerGroups), LayerGroupInfo.class );
+        return ModificationProxy.createList( layerGroupIndex.list(), LayerGroupInfo.class );
     }
     
     public LayerGroupInfo getLayerGroup(String id) {
-        for (LayerGroupInfo layerGroup : layerGroups ) {
-            if ( id.equals( layerGroup.getId() ) ) {
-                return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
-            }
-        }
-        
-        return null;
+        LayerGroupInfo layerGroup = layerGroupIndex.get(id);
+        return layerGroup != null ?
+            ModificationProxy.create(layerGroup,LayerGroupInfo.class) : null;
     }
     
     public LayerGroupInfo getLayerGroupByName(String name) {
-        for (LayerGroupInfo layerGroup : layerGroups ) {
-            if ( name.equals( layerGroup.getName() ) ) {
-                return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
-            }
-        }
-        
-        return null;
+        LayerGroupInfo layerGroup = layerGroupIndex.first(key(NAME, name));
+        return layerGroup != null ?
+            ModificationProxy.create(layerGroup,LayerGroupInfo.class) : null;
     }
     
     //
@@ -564,20 +511,24 @@ public class DefaultCatalogFacade implements CatalogFacade {
         synchronized(namespaces) {
             namespaces.put(namespace.getPrefix(),namespace);
         }
+        namespaceIndex.add(namespace, keys(namespace));
         
         return ModificationProxy.create(namespace, NamespaceInfo.class);
     }
     
     public void remove(NamespaceInfo namespace) {
+        namespace = unwrap(namespace);
         synchronized(namespaces) {
-            NamespaceInfo defaultNamespace = getDefaultNamespace();
-            if (namespace.equals(defaultNamespace)) {
+            NamespaceInfo defaultNamespace = this.defaultNamespace;
+            if (defaultNamespace != null && defaultNamespace.getId().equals(namespace.getId())) {
                 namespaces.remove(null);
                 namespaces.remove(Catalog.DEFAULT);
+                this.defaultNamespace = null;
             }
             
             namespaces.remove(namespace.getPrefix());
         }
+        namespaceIndex.remove(namespace);
     }
 
     public void save(NamespaceInfo namespace) {
@@ -600,19 +551,23 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public NamespaceInfo getDefaultNamespace() {
-        return namespaces.get(null) != null ? 
-                ModificationProxy.create(namespaces.get( null ),NamespaceInfo.class) : null;
+        NamespaceInfo ns = defaultNamespace;
+        return ns != null ? ModificationProxy.create(ns,NamespaceInfo.class) : null;
     }
 
     public void setDefaultNamespace(NamespaceInfo defaultNamespace) {
-        NamespaceInfo ns = defaultNamespace != null ? namespaces.get(defaultNamespace.getPrefix()) : null;
-        NamespaceInfo old = namespaces.get(null);
-        if(ns != null) {
-            namespaces.put( null, ns );
-            namespaces.put( Catalog.DEFAULT, ns );
-        } else {
-            namespaces.remove( null);
-            namespaces.remove( Catalog.DEFAULT);
+        NamespaceInfo ns = defaultNamespace != null ?
+            namespaceIndex.first(key(NAME, defaultNamespace.getPrefix())) : null;
+        NamespaceInfo old = this.defaultNamespace;
+        synchronized(namespaces) {
+            if(ns != null) {
+                namespaces.put( null, ns );
+                namespaces.put( Catalog.DEFAULT, ns );
+            } else {
+                namespaces.remove( null);
+                namespaces.remove( Catalog.DEFAULT);
+            }
+            this.defaultNamespace = ns;
         }
         
         //fire change event
@@ -622,39 +577,28 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public NamespaceInfo getNamespace(String id) {
-        for (NamespaceInfo namespace : namespaces.values() ) {
-            if (id.equals(namespace.getId())) {
-                return ModificationProxy.create( namespace, NamespaceInfo.class ); 
-            }
-        }
-
-        return null;
+        NamespaceInfo ns = namespaceIndex.get(id);
+        return ns != null ? ModificationProxy.create( ns, NamespaceInfo.class ) : null;
     }
 
     public NamespaceInfo getNamespaceByPrefix(String prefix) {
-        NamespaceInfo ns = namespaces.get( prefix ); 
+        NamespaceInfo ns = null;
+        if (prefix == null || Catalog.DEFAULT.equals(prefix)) {
+            ns = defaultNamespace;
+        }
+        if (ns == null && prefix != null) {
+            ns = namespaceIndex.first(key(NAME, prefix));
+        }
         return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class ) : null;
     }
 
     public NamespaceInfo getNamespaceByURI(String uri) {
-        for (NamespaceInfo namespace : namespaces.values() ) {
-            if (uri.equals(namespace.getURI())) {
-                return ModificationProxy.create( namespace, NamespaceInfo.class );
-            }
-        }
-
-        return null;
+        NamespaceInfo ns = namespaceIndex.first(key(URI, uri));
+        return ns != null ? ModificationProxy.create( ns, NamespaceInfo.class ) : null;
     }
 
     public List getNamespaces() {
-        ArrayList<NamespaceInfo> ns = new ArrayList<NamespaceInfo>();
-        for ( Map.Entry<String,NamespaceInfo> e : namespaces.entrySet() ) {
-            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT)) 
-                continue;
-            ns.add( e.getValue() );
-        }
-        
-        return ModificationProxy.createList( ns, NamespaceInfo.class );
+        return ModificationProxy.createList( namespaceIndex.list(), NamespaceInfo.class );
     }
 
     //
@@ -666,13 +610,16 @@ public class DefaultCatalogFacade implements CatalogFacade {
         synchronized (workspaces) {
             workspaces.put( workspace.getName(), workspace );
         }
+        workspaceIndex.add(workspace, keys(workspace));
         return ModificationProxy.create(workspace, WorkspaceInfo.class);
     }
     
     public void remove(WorkspaceInfo workspace) {
+        workspace = unwrap(workspace);
         synchronized(workspaces) {
             workspaces.remove( workspace.getName() );
         }
+        workspaceIndex.remove(workspace);
     }
     
     public void save(WorkspaceInfo workspace) {
@@ -695,22 +642,24 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
 
     public WorkspaceInfo getDefaultWorkspace() {
-        return workspaces.containsKey( null ) ? 
-                ModificationProxy.create( workspaces.get( null ), WorkspaceInfo.class ) : null;
+        WorkspaceInfo ws = defaultWorkspace;
+        return ws != null ? ModificationProxy.create( ws, WorkspaceInfo.class ) : null;
     }
     
     public void setDefaultWorkspace(WorkspaceInfo workspace) {
-        WorkspaceInfo old = workspaces.get(null);
+        WorkspaceInfo old = defaultWorkspace;
         
         synchronized(workspaces) {
             if (workspace != null) {
-                WorkspaceInfo ws = workspaces.get(workspace.getName());
+                WorkspaceInfo ws = workspaceIndex.first(key(NAME, workspace.getName()));
                 workspaces.put( null, ws );
                 workspaces.put( "default", ws );
+                defaultWorkspace = ws;
             }
             else {
                 workspaces.remove(null);
                 workspaces.remove("default");
+                defaultWorkspace = null;
             }
             
         }
@@ -721,33 +670,23 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
     
     public List<WorkspaceInfo> getWorkspaces() {
-        ArrayList<WorkspaceInfo> ws = new ArrayList<WorkspaceInfo>();
-        
-        //strip out default namespace
-        for ( Map.Entry<String, WorkspaceInfo> e : workspaces.entrySet() ) {
-            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT) ) {
-                continue;
-            }
-            
-            ws.add( e.getValue() );
-        }
-        
-        return ModificationProxy.createList( ws, WorkspaceInfo.class );
+        return ModificationProxy.createList( workspaceIndex.list(), WorkspaceInfo.class );
     }
     
     public WorkspaceInfo getWorkspace(String id) {
-        for ( WorkspaceInfo ws : workspaces.values() ) {
-            if ( id.equals( ws.getId() ) ) {
-                return ModificationProxy.create(ws,WorkspaceInfo.class);
-            }
-        }
-        
-        return null;
+        WorkspaceInfo ws = workspaceIndex.get(id);
+        return ws != null ? ModificationProxy.create(ws,WorkspaceInfo.class) : null;
     }
     
     public WorkspaceInfo getWorkspaceByName(String name) {
-        return workspaces.containsKey(name) ? 
-                ModificationProxy.create( workspaces.get( name ), WorkspaceInfo.class ) : null;
+        WorkspaceInfo ws = null;
+        if (name == null || Catalog.DEFAULT.equals(name)) {
+            ws = defaultWorkspace;
+        }
+        if (ws == null && name != null) {
+            ws = workspaceIndex.first(key(NAME, name));
+        }
+        return ws != null ? ModificationProxy.create( ws, WorkspaceInfo.class ) : null;
     }
     
     //
@@ -758,13 +697,16 @@ public class DefaultCatalogFacade implements CatalogFacade {
         synchronized(styles) {
             styles.add(style);
         }
+        styleIndex.add(style, keys(style));
         return ModificationProxy.create(style, StyleInfo.class);
     }
 
     public void remove(StyleInfo style) {
+        style = unwrap(style);
         synchronized(styles) {
-            styles.remove(unwrap(style));
+            styles.remove(style);
         }
+        styleIndex.remove(style);
     }
 
     public void save(StyleInfo style) {
@@ -776,29 +718,232 @@ public class DefaultCatalogFacade implements CatalogFacade {
     }
 
     public StyleInfo getStyle(String id) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (id.equals(style.getId())) {
-                return ModificationProxy.create(style,StyleInfo.class);
+        StyleInfo style = styleIndex.get(id);
+        return style != null ? ModificationProxy.create(style,StyleInfo.class) : null;
+    }
+
+    public StyleInfo getStyleByName(String name) {
+        StyleInfo style = styleIndex.first(key(NAME, name));
+        return style != null ? ModificationProxy.create(style,StyleInfo.class) : null;
+    }
+
+    public List getStyles() {
+        return ModificationProxy.createList(styleIndex.list(),StyleInfo.class);
+    }
+
+    //
+    // Indexing
+    //
+    /**
+     * Builds an index key from a key type and a list of values.
+     */
+    static String key(String type, String... values) {
+        StringBuilder sb = new StringBuilder(type);
+        for (String v : values) {
+            sb.append('/').append(v);
+        }
+        return sb.toString();
+    }
+
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    List<String> keys(WorkspaceInfo workspace) {
+        return Arrays.asList(key(NAME, workspace.getName()));
+    }
+
+    List<String> keys(NamespaceInfo namespace) {
+        return Arrays.asList(key(NAME, namespace.getPrefix()), key(URI, namespace.getURI()));
+    }
+
+    List<String> keys(StoreInfo store) {
+        String ws = id(store.getWorkspace());
+        return Arrays.asList(key(NAME, store.getName()), key(PARENT, ws),
+            key(PARENT_NAME, ws, store.getName()));
+    }
+
+    List<String> keys(ResourceInfo resource) {
+        List<String> keys = new ArrayList<String>();
+        keys.add(key(NAME, resource.getName()));
+
+        //resources without a namespace are not indexed by parent, see getResourcesByNamespace
+        String ns = id(resource.getNamespace());
+        if (ns != null) {
+            keys.add(key(PARENT, ns));
+            keys.add(key(PARENT_NAME, ns, resource.getName()));
+        }
+
+        String store = id(resource.getStore());
+        keys.add(key(STORE, store));
+        keys.add(key(STORE_NAME, store, resource.getName()));
+        return keys;
+    }
+
+    List<String> keys(LayerInfo layer) {
+        //use a set, the default style is usually also part of the styles
+        Set<String> keys = new LinkedHashSet<String>();
+
+        //layer name is derived from the resource name
+        ResourceInfo resource = layer.getResource();
+        if (resource != null) {
+            keys.add(key(NAME, resource.getName()));
+            keys.add(key(RESOURCE, resource.getId()));
+        }
+        if (layer.getDefaultStyle() != null) {
+            keys.add(key(STYLE, layer.getDefaultStyle().getId()));
+        }
+        if (layer.getStyles() != null) {
+            for (StyleInfo s : layer.getStyles()) {
+                if (s != null) {
+                    keys.add(key(STYLE, s.getId()));
+                }
             }
         }
+        return new ArrayList<String>(keys);
+    }
 
-        return null;
+    List<String> keys(StyleInfo style) {
+        return Arrays.asList(key(NAME, style.getName()));
     }
 
-    public StyleInfo getStyleByName(String name) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (name.equals(style.getName())) {
-                return ModificationProxy.create(style,StyleInfo.class);
+    List<String> keys(LayerGroupInfo layerGroup) {
+        return Arrays.asList(key(NAME, layerGroup.getName()));
+    }
+
+    List<String> keys(MapInfo map) {
+        return Arrays.asList(key(NAME, map.getName()));
+    }
+
+    /**
+     * Updates the index entries of an object after it has been modified.
+     */
+    protected void reindex(CatalogInfo object) {
+        if (object instanceof WorkspaceInfo) {
+            WorkspaceInfo ws = (WorkspaceInfo) object;
+            workspaceIndex.reindex(ws, keys(ws));
+        }
+        else if (object instanceof NamespaceInfo) {
+            NamespaceInfo ns = (NamespaceInfo) object;
+            namespaceIndex.reindex(ns, keys(ns));
+        }
+        else if (object instanceof StoreInfo) {
+            StoreInfo store = (StoreInfo) object;
+            storeIndex.reindex(store, keys(store));
+        }
+        else if (object instanceof ResourceInfo) {
+            ResourceInfo resource = (ResourceInfo) object;
+            resourceIndex.reindex(resource, keys(resource));
+
+            //the store may have been modified in place through the resource
+            StoreInfo store = unwrap(resource.getStore());
+            if (store != null && storeIndex.get(store.getId()) == store) {
+                storeIndex.reindex(store, keys(store));
+            }
+
+            //layer names are derived from the resource
+            for (LayerInfo l : layerIndex.list(key(RESOURCE, resource.getId()), LayerInfo.class)) {
+                layerIndex.reindex(l, keys(l));
             }
         }
+        else if (object instanceof LayerInfo) {
+            LayerInfo layer = (LayerInfo) object;
+            layerIndex.reindex(layer, keys(layer));
 
-        return null;
+            //the resource may have been modified in place through the layer
+            ResourceInfo resource = unwrap(layer.getResource());
+            if (resource != null && resourceIndex.get(resource.getId()) == resource) {
+                reindex(resource);
+            }
+        }
+        else if (object instanceof StyleInfo) {
+            StyleInfo style = (StyleInfo) object;
+            styleIndex.reindex(style, keys(style));
+        }
+        else if (object instanceof LayerGroupInfo) {
+            LayerGroupInfo layerGroup = (LayerGroupInfo) object;
+            layerGroupIndex.reindex(layerGroup, keys(layerGroup));
+        }
+        else if (object instanceof MapInfo) {
+            MapInfo map = (MapInfo) object;
+            mapIndex.reindex(map, keys(map));
+        }
     }
 
-    public List getStyles() {
-        return ModificationProxy.createList(styles,StyleInfo.class);
+    //
+    // Lazy loading
+    //
+    /**
+     * Sets up the indexes to load placeholders on lookup, must be called every time the indexes
+     * are replaced.
+     */
+    void bindMaterializers() {
+        resourceIndex.setMaterializer(new CatalogInfoIndex.Materializer<ResourceInfo>() {
+            public ResourceInfo materialize(ResourceInfo placeholder) {
+                return load(resourceIndex, placeholder);
+            }
+        });
+        layerIndex.setMaterializer(new CatalogInfoIndex.Materializer<LayerInfo>() {
+            public LayerInfo materialize(LayerInfo placeholder) {
+                return load(layerIndex, placeholder);
+            }
+        });
+    }
+
+    /**
+     * Loads the object a placeholder stands for and replaces the placeholder in the index.
+     * <p>
+     * The object is resolved just like it would be when added to the catalog. Threads looking
+     * up the same placeholder wait for the first one to load it. Loading a layer may in turn 
+     * load its resource, but not the other way around, so there is no lock ordering issue.
+     * </p>
+     */
+    <T extends CatalogInfo> T load(CatalogInfoIndex<T> index, T placeholder) {
+        LazyCatalogInfo h = LazyCatalogInfo.handler(placeholder);
+        synchronized (h) {
+            if (h.loaded) {
+                return (T) h.object;
+            }
+
+            CatalogInfo info = h.load(catalog);
+            if (info != null && !placeholder.getId().equals(info.getId())) {
+                LazyCatalogInfo.LOGGER.warning("Loaded " + info.getId() + " in place of " + h);
+                info = h.object = null;
+            }
+            if (info == null) {
+                index.remove(placeholder);
+                return null;
+            }
+
+            if (info instanceof ResourceInfo) {
+                ResourceInfo r = (ResourceInfo) info;
+                if (r.getNamespace() == null) {
+                    r.setNamespace(getDefaultNamespace());
+                }
+                if (r.getNativeName() == null) {
+                    r.setNativeName(r.getName());
+                }
+                resolve(catalog.resolve(r));
+                resourceIndex.replace((ResourceInfo) placeholder, r, keys(r));
+            }
+            else if (info instanceof LayerInfo) {
+                LayerInfo l = (LayerInfo) info;
+                resolve(catalog.resolve(l));
+                if (l.getType() == null) {
+                    if (l.getResource() instanceof FeatureTypeInfo) {
+                        l.setType(LayerInfo.Type.VECTOR);
+                    } 
+                    else if (l.getResource() instanceof CoverageInfo) {
+                        l.setType(LayerInfo.Type.RASTER);
+                    } 
+                    else if (l.getResource() instanceof WMSLayerInfo) {
+                        l.setType(LayerInfo.Type.WMS);
+                    }
+                }
+                layerIndex.replace((LayerInfo) placeholder, l, keys(l));
+            }
+            return (T) info;
+        }
     }
     
     //
@@ -827,6 +972,9 @@ public class DefaultCatalogFacade implements CatalogFacade {
         //commit to the original object
         h.commit();    
         
+        //update the indexes to reflect the changes
+        reindex(real);
+        
         //resolve to do a sync on the object
         //syncIdWithName(real);
         
@@ -834,97 +982,127 @@ public class DefaultCatalogFacade implements CatalogFacade {
         catalog.firePostModified( real );
     }
     
-    List lookup(Class clazz, MultiHashMap map) {
-        ArrayList result = new ArrayList();
-        for (Iterator k = map.keySet().iterator(); k.hasNext();) {
-            Class key = (Class) k.next();
-            if (clazz.isAssignableFrom(key)) {
-                result.addAll(map.getCollection(key));
-            }
-        }
-
-        return result;
-    }
-
     public void dispose() {
-        if ( stores != null ) stores.clear();
-        if ( defaultStores != null ) defaultStores.clear();
-        if ( resources != null ) resources.clear();
+        defaultStores = new HashMap<String, DataStoreInfo>();
         if ( namespaces != null ) namespaces.clear();
         if ( workspaces != null ) workspaces.clear();
-        if ( layers != null ) layers.clear();
-        if ( layerGroups != null ) layerGroups.clear();
-        if ( maps != null ) maps.clear();
         if ( styles != null ) styles.clear();
+        if ( workspaceIndex != null ) workspaceIndex.clear();
+        if ( namespaceIndex != null ) namespaceIndex.clear();
+        if ( storeIndex != null ) storeIndex.clear();
+        if ( resourceIndex != null ) resourceIndex.clear();
+        if ( layerIndex != null ) layerIndex.clear();
+        if ( layerGroupIndex != null ) layerGroupIndex.clear();
+        if ( mapIndex != null ) mapIndex.clear();
+        if ( styleIndex != null ) styleIndex.clear();
+        defaultWorkspace = null;
+        defaultNamespace = null;
     }
     
     public void resolve() {
         //JD creation checks are done here b/c when xstream depersists 
-        // some members may be left null
+        // some members may be left null, the indexes are not persisted at all and are rebuilt
+        // here, in dependency order since resolving an object looks up its parents
         
         //workspaces
         if ( workspaces == null ) {
             workspaces = new HashMap<String, WorkspaceInfo>();
         }
-        for ( WorkspaceInfo ws : workspaces.values() ) {
+        workspaceIndex = new CatalogInfoIndex<WorkspaceInfo>();
+        for ( WorkspaceInfo ws : values(workspaces) ) {
             resolve(ws);
+            workspaceIndex.add(ws, keys(ws));
         }
+        defaultWorkspace = workspaces.get(null);
         
         //namespaces
         if ( namespaces == null ) {
             namespaces = new HashMap<String, NamespaceInfo>();
         }
-        for ( NamespaceInfo ns : namespaces.values() ) {
+        namespaceIndex = new CatalogInfoIndex<NamespaceInfo>();
+        for ( NamespaceInfo ns : values(namespaces) ) {
             resolve(ns);
+            namespaceIndex.add(ns, keys(ns));
         }
+        defaultNamespace = namespaces.get(null);
         
-        //stores
-        if ( stores == null ) {
-            stores = new MultiHashMap();
+        //stores, the depersisted index is only keyed by id
+        List<StoreInfo> stores = 
+            storeIndex != null ? storeIndex.values() : new ArrayList<StoreInfo>();
+        storeIndex = new CatalogInfoIndex<StoreInfo>();
+        for ( StoreInfo s : stores ) {
+            resolve(s);
+            storeIndex.add(s, keys(s));
         }
-        for ( Object o : stores.values() ) {
-            resolve((StoreInfoImpl)o);
+        if ( defaultStores == null ) {
+            defaultStores = new HashMap<String, DataStoreInfo>();
         }
         
         //styles
         if ( styles == null ) {
             styles = new ArrayList<StyleInfo>();
         }
+        styleIndex = new CatalogInfoIndex<StyleInfo>();
         for ( StyleInfo s : styles ) {
             resolve(s);
+            styleIndex.add(s, keys(s));
         }
         
         //resources
-        if ( resources == null ) {
-            resources = new MultiHashMap();    
-        }
-        for( Object o : resources.values() ) {
-            resolve((ResourceInfo)o);
+        //placeholders for objects not loaded yet are kept as is
+        List<ResourceInfo> resources = 
+            resourceIndex != null ? resourceIndex.values() : new ArrayList<ResourceInfo>();
+        resourceIndex = new CatalogInfoIndex<ResourceInfo>();
+        for( ResourceInfo r : resources ) {
+            if ( !LazyCatalogInfo.isLazy(r) ) {
+                resolve(r);
+            }
+            resourceIndex.add(r, keys(r));
         }
         
         //layers
-        if ( layers == null ) {
-            layers = new CopyOnWriteArrayList<LayerInfo>();
-        }
+        List<LayerInfo> layers = 
+            layerIndex != null ? layerIndex.values() : new ArrayList<LayerInfo>();
+        layerIndex = new CatalogInfoIndex<LayerInfo>();
         for ( LayerInfo l : layers ) { 
-            resolve(l);
+            if ( !LazyCatalogInfo.isLazy(l) ) {
+                resolve(l);
+            }
+            layerIndex.add(l, keys(l));
         }
         
         //layer groups
-        if ( layerGroups == null ) {
-            layerGroups = new ArrayList<LayerGroupInfo>();    
-        }
+        List<LayerGroupInfo> layerGroups = 
+            layerGroupIndex != null ? layerGroupIndex.list() : new ArrayList<LayerGroupInfo>();
+        layerGroupIndex = new CatalogInfoIndex<LayerGroupInfo>();
         for ( LayerGroupInfo lg : layerGroups ) {
             resolve(lg);
+            layerGroupIndex.add(lg, keys(lg));
         }
         
         //maps
-        if ( maps == null ) {
-            maps = new ArrayList<MapInfo>();
-        }
+        List<MapInfo> maps = mapIndex != null ? mapIndex.list() : new ArrayList<MapInfo>();
+        mapIndex = new CatalogInfoIndex<MapInfo>();
         for ( MapInfo m : maps ) {
             resolve(m);
+            mapIndex.add(m, keys(m));
+        }
+        
+        bindMaterializers();
+    }
+    
+    /**
+     * Returns the distinct values of a workspace/namespace map, skipping the default entries.
+     */
+    <T> List<T> values(Map<String, T> map) {
+        List<T> values = new ArrayList<T>();
+        for ( Map.Entry<String, T> e : map.entrySet() ) {
+            if ( e.getKey() == null || e.getKey().equals(Catalog.DEFAULT) ) {
+                continue;
+            }
+            values.add( e.getValue() );
         }
+        return values;
     }
     
     protected void resolve(WorkspaceInfo workspace) {
@@ -1034,59 +1212,44 @@ public class DefaultCatalogFacade implements CatalogFacade {
             //do an optimized sync
             DefaultCatalogFacade other = (DefaultCatalogFacade) dao;
             
-            other.stores = stores;
             other.defaultStores = defaultStores;
-            other.resources = resources;
             other.namespaces = namespaces;
             other.workspaces = workspaces;
-            other.layers = layers;
-            other.maps = maps;
-            other.layerGroups = layerGroups;
             other.styles = styles;
+            other.workspaceIndex = workspaceIndex;
+            other.namespaceIndex = namespaceIndex;
+            other.storeIndex = storeIndex;
+            other.resourceIndex = resourceIndex;
+            other.layerIndex = layerIndex;
+            other.layerGroupIndex = layerGroupIndex;
+            other.mapIndex = mapIndex;
+            other.styleIndex = styleIndex;
+            other.defaultWorkspace = defaultWorkspace;
+            other.defaultNamespace = defaultNamespace;
+            
+            //placeholders not loaded yet are now loaded by the other facade
+            other.bindMaterializers();
         }
         else {
             //do a manual import
-            for (Map.Entry<String,WorkspaceInfo> e : workspaces.entrySet()) {
-                if (e.getKey() != null && !"default".equals(e.getKey())) {
-                    dao.add(e.getValue());
-                }
-            }
-            for (Map.Entry<String,NamespaceInfo> e : namespaces.entrySet()) {
-                if (e.getKey() != null && !"default".equals(e.getKey())) {
-                    dao.add(e.getValue());
-                }
-            }
-            
-            for (Iterator k = stores.keySet().iterator(); k.hasNext();) {
-                Class key = (Class) k.next();
-                Collection<StoreInfo> val = stores.getCollection(key);
-                for (StoreInfo s : val) {
-                    dao.add(s);
-                }
-            }
-            
-            for (Iterator k = resources.keySet().iterator(); k.hasNext();) {
-                Class key = (Class) k.next();
-                Collection<ResourceInfo> val = resources.getCollection(key);
-                for (ResourceInfo r : val) {
-                    dao.add(r);
-                }
-            }
-            
-            for (StyleInfo s : styles) { dao.add(s); }
-            for (LayerInfo l : layers) { dao.add(l); }
-            for (LayerGroupInfo lg : layerGroups) { dao.add(lg); }
-            for (MapInfo m : maps) { dao.add(m); }
+            for (WorkspaceInfo ws : workspaceIndex.list()) { dao.add(ws); }
+            for (NamespaceInfo ns : namespaceIndex.list()) { dao.add(ns); }
+            for (StoreInfo s : storeIndex.list()) { dao.add(s); }
+            for (ResourceInfo r : resourceIndex.list()) { dao.add(r); }
+            for (StyleInfo s : styleIndex.list()) { dao.add(s); }
+            for (LayerInfo l : layerIndex.list()) { dao.add(l); }
+            for (LayerGroupInfo lg : layerGroupIndex.list()) { dao.add(lg); }
+            for (MapInfo m : mapIndex.list()) { dao.add(m); }
             
-            if (workspaces.containsKey(null)) {
-                dao.setDefaultWorkspace(workspaces.get(null));
+            if (defaultWorkspace != null) {
+                dao.setDefaultWorkspace(defaultWorkspace);
             }
-            if (namespaces.containsKey(null)) {
-                dao.setDefaultNamespace(namespaces.get(null));
+            if (defaultNamespace != null) {
+                dao.setDefaultNamespace(defaultNamespace);
             }
             
             for (Map.Entry<String, DataStoreInfo> e : defaultStores.entrySet()) {
-                WorkspaceInfo ws = workspaces.get(e.getKey());
+                WorkspaceInfo ws = workspaceIndex.get(e.getKey());
                 dao.setDefaultDataStore(ws, e.getValue());
             }
         }
@@ -0,0 +1,149 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Placeholder for a catalog object whose loading has been deferred until first access.
+ * <p>
+ * The placeholder is a dynamic proxy implementing the interface of the object it stands for. It
+ * only knows about the few properties needed to index it (id, name and references to its parents)
+ * and fails on any other method call. {@link DefaultCatalogFacade} never hands out placeholders,
+ * it replaces them with the real object, obtained from the {@link Loader}, the first time they are
+ * looked up.
+ * </p>
+ */
+public class LazyCatalogInfo implements InvocationHandler {
+
+    static final Logger LOGGER = Logging.getLogger(LazyCatalogInfo.class);
+
+    /**
+     * Loads the real object a placeholder stands for.
+     */
+    public static interface Loader {
+
+        /**
+         * Loads the object for the specified catalog, references to other objects may be left
+         * as {@link ResolvingProxy} instances, they are resolved once the object is loaded.
+         */
+        CatalogInfo load(Catalog catalog) throws Exception;
+    }
+
+    /**
+     * Creates a new placeholder.
+     *
+     * @param clazz The interface of the object.
+     * @param properties The properties known without loading the object, keyed by property name,
+     *  must contain at least "id".
+     * @param loader The loader of the object.
+     */
+    public static <T extends CatalogInfo> T create(Class<T> clazz, Map<String, Object> properties,
+            Loader loader) {
+        if (properties.get("id") == null) {
+            throw new IllegalArgumentException("Placeholder id must not be null");
+        }
+        LazyCatalogInfo h = new LazyCatalogInfo(clazz, properties, loader);
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class[] { clazz }, h));
+    }
+
+    /**
+     * Determines if an object is a placeholder for an object not loaded yet.
+     */
+    public static boolean isLazy(Object object) {
+        return handler(object) != null;
+    }
+
+    static LazyCatalogInfo handler(Object object) {
+        if (object instanceof Proxy) {
+            InvocationHandler h = Proxy.getInvocationHandler(object);
+            if (h instanceof LazyCatalogInfo) {
+                return (LazyCatalogInfo) h;
+            }
+        }
+        return null;
+    }
+
+    Class<? extends CatalogInfo> clazz;
+
+    Map<String, Object> properties;
+
+    Loader loader;
+
+    /**
+     * flag indicating the load has been attempted, guarded by this
+     */
+    boolean loaded;
+
+    /**
+     * the loaded object, null if the load failed, guarded by this
+     */
+    CatalogInfo object;
+
+    LazyCatalogInfo(Class<? extends CatalogInfo> clazz, Map<String, Object> properties,
+            Loader loader) {
+        this.clazz = clazz;
+        this.properties = properties;
+        this.loader = loader;
+    }
+
+    /**
+     * Loads the object, returning null if loading failed.
+     * <p>
+     * Callers must hold the lock on this handler, and are expected to finish setting up the object
+     * before releasing it.
+     * </p>
+     */
+    CatalogInfo load(Catalog catalog) {
+        if (!loaded) {
+            loaded = true;
+            try {
+                object = loader.load(catalog);
+            }
+            catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + this, e);
+            }
+            //the loader is no longer needed
+            loader = null;
+        }
+        return object;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        }
+        if ("hashCode".equals(name) && (args == null || args.length == 0)) {
+            return properties.get("id").hashCode();
+        }
+        if ("toString".equals(name) && (args == null || args.length == 0)) {
+            return toString();
+        }
+
+        if (name.startsWith("get") && name.length() > 3 && (args == null || args.length == 0)) {
+            String property = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+            if (properties.containsKey(property)) {
+                return properties.get(property);
+            }
+        }
+
+        throw new IllegalStateException(this + " has not been loaded, unable to call " + name);
+    }
+
+    @Override
+    public String toString() {
+        return clazz.getSimpleName() + "[" + properties.get("id") + "]";
+    }
+}
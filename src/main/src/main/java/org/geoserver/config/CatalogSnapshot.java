@@ -0,0 +1,335 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.ParallelCatalogLoader.StoreContents;
+
+/**
+ * Binary snapshot of the store subtrees of a data directory, used to speed up restarts when the
+ * configuration did not change.
+ * <p>
+ * Each store directory (the store along with its resources and layers) is stored as a separate
+ * entry, made of a fingerprint of the files in the directory (names, sizes and modification
+ * times) and of the java serialized form of the objects as parsed from xml. On load an entry is
+ * used only if the fingerprint still matches the directory on disk, otherwise the directory is
+ * parsed from xml again and the entry replaced.
+ * </p>
+ * <p>
+ * Entries are serialized before the objects are added to the catalog, so references to other
+ * catalog objects are still unresolved proxies, which are written out as plain references.
+ * </p>
+ */
+class CatalogSnapshot {
+
+    static Logger LOGGER = GeoServerLoader.LOGGER;
+
+    /**
+     * format version, to be increased on any change to the format or to the serialized classes
+     */
+    static final int VERSION = 3;
+
+    static final int MAGIC = 0x47534353;
+
+    /**
+     * the files making up a store directory
+     */
+    static final String[] STORE_FILES = { "datastore.xml", "coveragestore.xml", "wmsstore.xml" };
+
+    static final String[] RESOURCE_FILES =
+        { "featuretype.xml", "coverage.xml", "wmslayer.xml", "layer.xml" };
+
+    File file;
+
+    /**
+     * entries read from disk
+     */
+    Map<String, Entry> entries = Collections.emptyMap();
+
+    /**
+     * entries to write back
+     */
+    Map<String, Entry> updated = new ConcurrentHashMap<String, Entry>();
+
+    AtomicInteger hits = new AtomicInteger();
+
+    CatalogSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the snapshot from disk, a missing or unreadable snapshot results in an empty one.
+     */
+    void read() {
+        Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            String path = in.readUTF();
+                            Entry e = new Entry();
+                            e.fingerprint = in.readUTF();
+                            e.data = new byte[in.readInt()];
+                            in.readFully(e.data);
+                            entries.put(path, e);
+                        }
+                    }
+                    else {
+                        LOGGER.info("Ignoring catalog snapshot written by a different version");
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read catalog snapshot " + file, e);
+                entries.clear();
+            }
+        }
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the contents of a store directory, or null if the snapshot does not contain it or
+     * the directory changed since the snapshot has been taken.
+     */
+    StoreContents get(String path, String fingerprint) {
+        Entry e = entries.get(path);
+        if (e == null || !e.fingerprint.equals(fingerprint)) {
+            return null;
+        }
+
+        try {
+            StoreContents sc = (StoreContents) deserialize(e.data);
+            updated.put(path, e);
+            hits.incrementAndGet();
+            return sc;
+        }
+        catch (Exception ex) {
+            LOGGER.log(Level.FINE, "Unable to read snapshot of " + path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the contents of a store directory, must be called before the objects are added to
+     * the catalog.
+     */
+    void put(String path, String fingerprint, StoreContents contents) {
+        Entry e = new Entry();
+        e.fingerprint = fingerprint;
+        try {
+            e.data = serialize(contents);
+            updated.put(path, e);
+        }
+        catch (Exception ex) {
+            //some object is not serializable, just leave the directory out of the snapshot
+            LOGGER.log(Level.FINE, "Unable to snapshot " + path, ex);
+        }
+    }
+
+    /**
+     * Writes the snapshot back to disk, the previous snapshot is replaced only once the new one
+     * has been fully written out.
+     */
+    void write() throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(updated.size());
+            for (Map.Entry<String, Entry> e : updated.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue().fingerprint);
+                out.writeInt(e.getValue().data.length);
+                out.write(e.getValue().data);
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            tmp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getSize() {
+        return updated.size();
+    }
+
+    /**
+     * Computes the fingerprint of a store directory.
+     */
+    static String fingerprint(File sd) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, sd, STORE_FILES);
+
+        File[] dirs = sd.listFiles();
+        if (dirs != null) {
+            //listing order is file system dependent
+            Arrays.sort(dirs);
+            for (File d : dirs) {
+                if (d.isDirectory()) {
+                    sb.append('/').append(d.getName());
+                    append(sb, d, RESOURCE_FILES);
+                }
+            }
+        }
+
+        //digest it, the description grows with the number of resources in the store
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return hex.toString();
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void append(StringBuilder sb, File dir, String[] names) {
+        for (String name : names) {
+            File f = new File(dir, name);
+            long lastModified = f.lastModified();
+            if (lastModified != 0) {
+                sb.append(';').append(name).append(':').append(lastModified).append(':')
+                    .append(f.length());
+            }
+        }
+    }
+
+    static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new SnapshotOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new SnapshotInputStream(new ByteArrayInputStream(data));
+        try {
+            return in.readObject();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    static class Entry {
+        String fingerprint;
+        byte[] data;
+    }
+
+    /**
+     * Serialized form of an unresolved reference to another catalog object.
+     */
+    static class Reference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String ref;
+        Class<?> clazz;
+
+        Reference(String ref, Class<?> clazz) {
+            this.ref = ref;
+            this.clazz = clazz;
+        }
+    }
+
+    static class SnapshotOutputStream extends ObjectOutputStream {
+
+        SnapshotOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Proxy) {
+                InvocationHandler h = Proxy.getInvocationHandler(obj);
+                if (h instanceof ResolvingProxy) {
+                    return new Reference(((ResolvingProxy) h).getRef(),
+                        obj.getClass().getInterfaces()[0]);
+                }
+            }
+            return obj;
+        }
+    }
+
+    static class SnapshotInputStream extends ObjectInputStream {
+
+        SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof Reference) {
+                Reference r = (Reference) obj;
+                return ResolvingProxy.create(r.ref, r.clazz);
+            }
+            return obj;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            //use the class loader of the web application rather than the system one
+            try {
+                return Class.forName(desc.getName(), false, CatalogSnapshot.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
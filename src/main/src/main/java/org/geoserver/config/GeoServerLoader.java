@@ -69,6 +69,29 @@ public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
+    /**
+     * Number of threads used to read the catalog from the data directory, values greater than 
+     * one enable the parallel loader.
+     * 
+     * @see ParallelCatalogLoader
+     */
+    public static final String LOADER_THREADS = "GEOSERVER_LOADER_THREADS";
+    
+    /**
+     * Boolean flag enabling the binary snapshot of the catalog, used to speed up restarts.
+     * 
+     * @see CatalogSnapshot
+     */
+    public static final String CATALOG_SNAPSHOT = "GEOSERVER_CATALOG_SNAPSHOT";
+    
+    /**
+     * Boolean flag enabling the lazy catalog, in which resources and layers are loaded on first 
+     * access.
+     * 
+     * @see LazyCatalogLoader
+     */
+    public static final String LAZY_CATALOG = "GEOSERVER_LAZY_CATALOG";
+    
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
@@ -231,6 +254,21 @@ public abstract class GeoServerLoader {
      * Reads the catalog from disk.
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        int threads = getLoaderThreads();
+        boolean snapshot = Boolean.parseBoolean( GeoServerExtensions.getProperty( CATALOG_SNAPSHOT ) );
+        boolean lazy = Boolean.parseBoolean( GeoServerExtensions.getProperty( LAZY_CATALOG ) );
+        if ( threads > 1 || snapshot || lazy ) {
+            ParallelCatalogLoader loader = new ParallelCatalogLoader( this, xp, Math.max( threads, 1 ) );
+            if ( snapshot ) {
+                File dir = resourceLoader.findOrCreateDirectory( "temp" );
+                loader.setSnapshot( new CatalogSnapshot( new File( dir, "catalog.snapshot" ) ) );
+            }
+            if ( lazy ) {
+                loader.setLazy( new LazyCatalogLoader( this ) );
+            }
+            return loader.read();
+        }
+        
         Catalog catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
@@ -534,6 +572,23 @@ public abstract class GeoServerLoader {
         return catalog;
     }
     
+    /**
+     * Returns the number of threads to use when reading the catalog, as specified by the 
+     * {@link #LOADER_THREADS} property.
+     */
+    int getLoaderThreads() {
+        String value = GeoServerExtensions.getProperty( LOADER_THREADS );
+        if ( value != null ) {
+            try {
+                return Integer.parseInt( value.trim() );
+            }
+            catch( NumberFormatException e ) {
+                LOGGER.warning( "Invalid value for " + LOADER_THREADS + ": " + value );
+            }
+        }
+        return 1;
+    }
+    
     /**
      * Reads the legacy (1.x) catalog from disk.
      */
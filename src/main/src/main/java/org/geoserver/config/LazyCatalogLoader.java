@@ -0,0 +1,305 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.DefaultCatalogFacade;
+import org.geoserver.catalog.impl.LazyCatalogInfo;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.util.XStreamPersister;
+
+/**
+ * Support for the lazy catalog mode of {@link ParallelCatalogLoader}.
+ * <p>
+ * In lazy mode resources and layers are not depersisted on startup. Their files are only scanned
+ * for the id, name and references to other objects, which are enough to add placeholders to the
+ * catalog (see {@link LazyCatalogInfo}). The files are depersisted the first time the objects are
+ * looked up through the catalog.
+ * </p>
+ * <p>
+ * The mode is enabled by setting the <code>GEOSERVER_LAZY_CATALOG</code> system property,
+ * environment variable or servlet context parameter to true.
+ * </p>
+ */
+class LazyCatalogLoader {
+
+    static Logger LOGGER = GeoServerLoader.LOGGER;
+
+    /**
+     * the elements scanned for, references are stored as the value of the id (or name) child
+     */
+    static final String ID = "id";
+    static final String NAME = "name";
+    static final String NAMESPACE = "namespace";
+    static final String STORE = "store";
+    static final String RESOURCE = "resource";
+    static final String DEFAULT_STYLE = "defaultStyle";
+    static final String STYLES = "styles";
+
+    static XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    GeoServerLoader loader;
+
+    /**
+     * persister used to load objects on access, not bound to any catalog so that references are
+     * left as proxies and resolved by the catalog facade once the object is loaded
+     */
+    XStreamPersister xp;
+
+    LazyCatalogLoader(GeoServerLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Scans a resource or layer file for the properties needed to index it, without
+     * depersisting it.
+     *
+     * @return The scanned values keyed by element name, references to styles are a list.
+     */
+    HashMap<String, Object> scan(File f, boolean layer) throws Exception {
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        ArrayList<String> styles = new ArrayList<String>();
+
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+            XMLStreamReader r = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                String parent = null;
+                while (r.hasNext()) {
+                    int e = r.next();
+                    if (e == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String name = r.getLocalName();
+                        if (depth == 2) {
+                            parent = name;
+                            if (ID.equals(name) || NAME.equals(name)) {
+                                values.put(name, r.getElementText().trim());
+                                depth--;
+                            }
+                            else if (NAMESPACE.equals(name) || STORE.equals(name)
+                                || RESOURCE.equals(name) || DEFAULT_STYLE.equals(name)) {
+                                String ref = reference(r);
+                                depth--;
+                                if (ref != null) {
+                                    values.put(name, ref);
+                                }
+                            }
+                        }
+                        else if (depth == 3 && STYLES.equals(parent)) {
+                            String ref = reference(r);
+                            depth--;
+                            if (ref != null) {
+                                styles.add(ref);
+                            }
+                        }
+                    }
+                    else if (e == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+
+                    //resource files can be large (attributes, metadata), stop as soon as possible
+                    if (!layer && values.containsKey(ID) && values.containsKey(NAME)
+                            && values.containsKey(NAMESPACE) && values.containsKey(STORE)) {
+                        break;
+                    }
+                }
+            }
+            finally {
+                r.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        if (layer) {
+            values.put(STYLES, styles);
+        }
+        return values;
+    }
+
+    /**
+     * Reads a reference, positioned on the start element, leaving the reader on the matching
+     * end element.
+     */
+    String reference(XMLStreamReader r) throws Exception {
+        String ref = null;
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int e = r.next();
+            if (e == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (ref == null && depth == 2) {
+                    ref = r.getElementText().trim();
+                    depth--;
+                }
+            }
+            else if (e == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+            else if (depth == 1 && (e == XMLStreamConstants.CHARACTERS
+                    || e == XMLStreamConstants.CDATA)) {
+                text.append(r.getText());
+            }
+        }
+        if (ref == null && text.toString().trim().length() > 0) {
+            ref = text.toString().trim();
+        }
+        return ref;
+    }
+
+    /**
+     * Adds a placeholder for a scanned resource.
+     *
+     * @return The placeholder, or null if the references could not be resolved in which case the
+     * resource should be loaded right away.
+     */
+    ResourceInfo addResource(Catalog catalog, File f, Class<? extends ResourceInfo> clazz,
+            Map<String, Object> scanned) {
+        DefaultCatalogFacade facade = facade(catalog);
+        String id = (String) scanned.get(ID);
+        String name = (String) scanned.get(NAME);
+        if (facade == null || id == null || name == null || catalog.getResource(id, ResourceInfo.class) != null) {
+            return null;
+        }
+
+        StoreInfo store = resolve(catalog, (String) scanned.get(STORE), StoreInfo.class);
+        if (store == null) {
+            return null;
+        }
+        NamespaceInfo ns = catalog.getDefaultNamespace();
+        if (scanned.get(NAMESPACE) != null) {
+            ns = resolve(catalog, (String) scanned.get(NAMESPACE), NamespaceInfo.class);
+        }
+        if (ns == null || catalog.getResourceByName(ns, name, ResourceInfo.class) != null) {
+            return null;
+        }
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(ID, id);
+        properties.put(NAME, name);
+        properties.put(NAMESPACE, ns);
+        properties.put(STORE, store);
+
+        ResourceInfo resource = LazyCatalogInfo.create(clazz, properties, new FileLoader(f, clazz));
+        facade.addLazy(resource);
+        return resource;
+    }
+
+    /**
+     * Adds a placeholder for a scanned layer.
+     *
+     * @return false if the references could not be resolved, in which case the layer should be
+     * loaded right away.
+     */
+    boolean addLayer(Catalog catalog, File f, ResourceInfo resource, Map<String, Object> scanned) {
+        DefaultCatalogFacade facade = facade(catalog);
+        String id = (String) scanned.get(ID);
+        String ref = (String) scanned.get(RESOURCE);
+        if (facade == null || id == null || catalog.getLayer(id) != null
+                || !(resource.getId().equals(ref) || resource.getName().equals(ref))) {
+            return false;
+        }
+
+        StyleInfo defaultStyle = null;
+        if (scanned.get(DEFAULT_STYLE) != null) {
+            defaultStyle = resolve(catalog, (String) scanned.get(DEFAULT_STYLE), StyleInfo.class);
+            if (defaultStyle == null) {
+                return false;
+            }
+        }
+        Set<StyleInfo> styles = new LinkedHashSet<StyleInfo>();
+        for (String s : (List<String>) scanned.get(STYLES)) {
+            StyleInfo style = resolve(catalog, s, StyleInfo.class);
+            if (style == null) {
+                return false;
+            }
+            styles.add(style);
+        }
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(ID, id);
+        properties.put(NAME, resource.getName());
+        properties.put(RESOURCE, resource);
+        properties.put(DEFAULT_STYLE, defaultStyle);
+        properties.put(STYLES, styles);
+
+        facade.addLazy(LazyCatalogInfo.create(LayerInfo.class, properties,
+            new FileLoader(f, LayerInfo.class)));
+        return true;
+    }
+
+    DefaultCatalogFacade facade(Catalog catalog) {
+        if (catalog instanceof CatalogImpl
+                && ((CatalogImpl) catalog).getFacade() instanceof DefaultCatalogFacade) {
+            return (DefaultCatalogFacade) ((CatalogImpl) catalog).getFacade();
+        }
+        return null;
+    }
+
+    <T extends CatalogInfo> T resolve(Catalog catalog, String ref, Class<T> clazz) {
+        if (ref == null) {
+            return null;
+        }
+        T resolved = ResolvingProxy.resolve(catalog, ResolvingProxy.create(ref, clazz));
+        return resolved != null ? CatalogImpl.unwrap(resolved) : null;
+    }
+
+    /**
+     * Returns the persister used to load objects on access.
+     */
+    synchronized XStreamPersister persister() {
+        if (xp == null) {
+            xp = loader.xpf.createXMLPersister();
+        }
+        return xp;
+    }
+
+    /**
+     * Loads a placeholder from its file.
+     */
+    class FileLoader implements LazyCatalogInfo.Loader {
+        File file;
+        Class<? extends CatalogInfo> clazz;
+
+        FileLoader(File file, Class<? extends CatalogInfo> clazz) {
+            this.file = file;
+            this.clazz = clazz;
+        }
+
+        public CatalogInfo load(Catalog catalog) throws Exception {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Loading " + file.getAbsolutePath());
+            }
+            return loader.depersist(persister(), file, clazz);
+        }
+    }
+}
@@ -0,0 +1,742 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerResourceLoader;
+
+/**
+ * Reads the catalog from a 2.x style data directory using a pool of threads.
+ * <p>
+ * Loading happens in three phases:
+ * <ol>
+ *   <li><b>parse</b>: styles, workspaces, every store directory (along with its resources
+ *   and layers) and layer groups are depersisted in parallel. At this point the catalog is empty
+ *   so references between objects are left unresolved.
+ *   <li><b>add</b>: the parsed objects are resolved and added to the catalog from a single thread,
+ *   in the very same order used by {@link GeoServerLoader#readCatalog(XStreamPersister)}, so that
+ *   the resulting catalog is identical to the one loaded sequentially.
+ *   <li><b>connect</b>: enabled data stores are connected to in parallel, disabling the ones
+ *   that fail.
+ * </ol>
+ * The time spent in each phase is logged at the end of the load.
+ * </p>
+ * <p>
+ * When a {@link CatalogSnapshot} is set, store directories that did not change since the last
+ * start are read from the snapshot rather than parsed from xml.
+ * </p>
+ * <p>
+ * When a {@link LazyCatalogLoader} is set, resources and layers are only scanned during the parse
+ * phase and added to the catalog as placeholders, loaded on first access.
+ * </p>
+ * <p>
+ * The mode is enabled by setting the <code>GEOSERVER_LOADER_THREADS</code> system property,
+ * environment variable or servlet context parameter to a number of threads greater than one.
+ * </p>
+ */
+class ParallelCatalogLoader {
+
+    static Logger LOGGER = GeoServerLoader.LOGGER;
+
+    GeoServerLoader loader;
+    GeoServerResourceLoader resourceLoader;
+    XStreamPersister xp;
+    int threads;
+
+    CatalogSnapshot snapshot;
+
+    LazyCatalogLoader lazy;
+
+    Catalog catalog;
+
+    ParallelCatalogLoader(GeoServerLoader loader, XStreamPersister xp, int threads) {
+        this.loader = loader;
+        this.resourceLoader = loader.resourceLoader;
+        this.xp = xp;
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the snapshot used to avoid parsing store directories that did not change.
+     */
+    void setSnapshot(CatalogSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Sets the lazy loader, enabling deferred loading of resources and layers.
+     */
+    void setLazy(LazyCatalogLoader lazy) {
+        this.lazy = lazy;
+    }
+
+    Catalog read() throws Exception {
+        catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        //parse without a catalog, references to other objects are kept as proxies and resolved
+        // in the add phase, once the objects they point to have been added
+        xp.setCatalog( null );
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+        try {
+            //parse
+            long t = System.currentTimeMillis();
+            if ( snapshot != null ) {
+                snapshot.read();
+            }
+
+            File styles = resourceLoader.find( "styles" );
+            List<Future<StyleInfo>> styleFutures = new ArrayList<Future<StyleInfo>>();
+            for ( final File sf : loader.list(styles,new SuffixFileFilter(".xml") ) ) {
+                //handle the .xml.xml case
+                if (new File(styles,sf.getName()+".xml").exists()) {
+                    continue;
+                }
+                styleFutures.add(executor.submit(new Callable<StyleInfo>() {
+                    public StyleInfo call() throws Exception {
+                        try {
+                            return loader.depersist( xp, sf, StyleInfo.class );
+                        }
+                        catch( Exception e ) {
+                            LOGGER.log( Level.WARNING, "Failed to load style from file '" + sf.getName() + "'" , e );
+                            return null;
+                        }
+                    }
+                }));
+            }
+
+            File workspaces = resourceLoader.find( "workspaces" );
+            List<Future<WorkspaceContents>> wsFutures = new ArrayList<Future<WorkspaceContents>>();
+            List<List<Future<StoreContents>>> storeFutures = new ArrayList<List<Future<StoreContents>>>();
+            for ( final File wsd : loader.list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+                wsFutures.add(executor.submit(new Callable<WorkspaceContents>() {
+                    public WorkspaceContents call() throws Exception {
+                        return parseWorkspace(wsd);
+                    }
+                }));
+
+                List<Future<StoreContents>> stores = new ArrayList<Future<StoreContents>>();
+                for ( final File sd : loader.list(wsd, DirectoryFileFilter.INSTANCE) ) {
+                    stores.add(executor.submit(new Callable<StoreContents>() {
+                        public StoreContents call() throws Exception {
+                            return loadStore(sd, wsd.getName() + "/" + sd.getName());
+                        }
+                    }));
+                }
+                storeFutures.add(stores);
+            }
+
+            File layergroups = resourceLoader.find( "layergroups" );
+            List<Future<LayerGroupInfo>> lgFutures = new ArrayList<Future<LayerGroupInfo>>();
+            for ( final File lgf : loader.list( layergroups, new SuffixFileFilter( ".xml" ) ) ) {
+                lgFutures.add(executor.submit(new Callable<LayerGroupInfo>() {
+                    public LayerGroupInfo call() throws Exception {
+                        try {
+                            return loader.depersist( xp, lgf, LayerGroupInfo.class );
+                        }
+                        catch( Exception e ) {
+                            LOGGER.log( Level.WARNING, "Failed to load layer group '" + lgf.getName() + "'", e );
+                            return null;
+                        }
+                    }
+                }));
+            }
+
+            //wait for parsing to be done before touching the catalog
+            List<StyleInfo> parsedStyles = getAll(styleFutures);
+            List<WorkspaceContents> parsedWorkspaces = getAll(wsFutures);
+            List<List<StoreContents>> parsedStores = new ArrayList<List<StoreContents>>();
+            for ( List<Future<StoreContents>> stores : storeFutures ) {
+                parsedStores.add( getAll(stores) );
+            }
+            List<LayerGroupInfo> parsedLayerGroups = getAll(lgFutures);
+            xp.setCatalog( catalog );
+
+            long parse = System.currentTimeMillis() - t;
+            
+            //write out the snapshot for the next start, before the objects get modified
+            // by the catalog
+            if ( snapshot != null ) {
+                LOGGER.info( "Loaded " + snapshot.getHits() + " of " + snapshot.getSize() 
+                    + " store directories from the catalog snapshot" );
+                if ( snapshot.getHits() < snapshot.getSize() 
+                        || snapshot.getSize() != snapshot.entries.size() ) {
+                    try {
+                        snapshot.write();
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Unable to write catalog snapshot", e );
+                    }
+                }
+            }
+
+            //add
+            t = System.currentTimeMillis();
+            for ( StyleInfo s : parsedStyles ) {
+                if ( s == null ) {
+                    continue;
+                }
+                try {
+                    catalog.add( s );
+                    LOGGER.info( "Loaded style '" + s.getName() + "'" );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load style '" + s.getName() + "'" , e );
+                }
+            }
+
+            List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+            if ( workspaces != null ) {
+                addWorkspaces(workspaces, parsedWorkspaces);
+                for ( List<StoreContents> stores : parsedStores ) {
+                    for ( StoreContents sc : stores ) {
+                        if ( sc != null ) {
+                            addStore(sc, dataStores);
+                        }
+                    }
+                }
+            }
+            else {
+                LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+            }
+
+            for ( LayerGroupInfo lg : parsedLayerGroups ) {
+                if ( lg == null ) {
+                    continue;
+                }
+                try {
+                    if(lg.getLayers() == null || lg.getLayers().size() == 0) {
+                        LOGGER.warning("Skipping empty layer group '" + lg.getName() + "', it is invalid");
+                        continue;
+                    }
+                    resolve(lg);
+                    catalog.add( lg );
+
+                    LOGGER.info( "Loaded layer group '" + lg.getName() + "'" );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load layer group '" + lg.getName() + "'", e );
+                }
+            }
+            long add = System.currentTimeMillis() - t;
+
+            //connect
+            t = System.currentTimeMillis();
+            List<Future<?>> connects = new ArrayList<Future<?>>();
+            for ( final DataStoreInfo ds : dataStores ) {
+                connects.add(executor.submit(new Runnable() {
+                    public void run() {
+                        connect( ds );
+                    }
+                }));
+            }
+            for ( Future<?> f : connects ) {
+                get( f );
+            }
+            long connect = System.currentTimeMillis() - t;
+
+            LOGGER.info( "Catalog loaded with " + threads + " threads in " + (parse + add + connect)
+                + " ms (parse: " + parse + " ms, add: " + add + " ms, connect: " + connect + " ms)");
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        return catalog;
+    }
+
+    /**
+     * Parses the workspace and namespace of a workspace directory.
+     */
+    WorkspaceContents parseWorkspace(File wsd) {
+        WorkspaceContents wc = new WorkspaceContents();
+        wc.dir = wsd;
+
+        File f = new File( wsd, "workspace.xml");
+        if ( !f.exists() ) {
+            return null;
+        }
+        try {
+            wc.workspace = loader.depersist( xp, f, WorkspaceInfo.class );
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, "Failed to load workspace '" + wsd.getName() + "'" , e );
+            return null;
+        }
+
+        File nsf = new File( wsd, "namespace.xml" );
+        if ( nsf.exists() ) {
+            try {
+                wc.namespace = loader.depersist( xp, nsf, NamespaceInfo.class );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load namespace for '" + wsd.getName() + "'" , e );
+            }
+        }
+        return wc;
+    }
+
+    /**
+     * Loads a store directory from the snapshot if available and still valid, parsing it 
+     * otherwise.
+     */
+    StoreContents loadStore(File sd, String path) {
+        if ( snapshot == null ) {
+            return parseStore(sd);
+        }
+        
+        //lazy and regular contents are kept apart, the snapshot may be shared among both modes
+        if ( lazy != null ) {
+            path = "lazy:" + path;
+        }
+        String fingerprint = CatalogSnapshot.fingerprint(sd);
+        StoreContents sc = snapshot.get(path, fingerprint);
+        if ( sc != null ) {
+            sc.dir = sd;
+            return sc;
+        }
+        
+        sc = parseStore(sd);
+        if ( sc != null ) {
+            snapshot.put(path, fingerprint, sc);
+        }
+        return sc;
+    }
+    
+    /**
+     * Parses a store directory along with all the resources and layers it contains.
+     */
+    StoreContents parseStore(File sd) {
+        StoreContents sc = new StoreContents();
+        sc.dir = sd;
+
+        String resourceFile;
+        File f = new File( sd, "datastore.xml" );
+        if ( f.exists() ) {
+            resourceFile = "featuretype.xml";
+            try {
+                sc.store = loader.depersist( xp, f, DataStoreInfo.class );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+        else if ( (f = new File( sd, "coveragestore.xml" )).exists() ) {
+            resourceFile = "coverage.xml";
+            try {
+                sc.store = loader.depersist( xp, f, CoverageStoreInfo.class );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+        else if ( (f = new File( sd, "wmsstore.xml" )).exists() ) {
+            resourceFile = "wmslayer.xml";
+            try {
+                sc.store = loader.depersist( xp, f, WMSStoreInfo.class );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
+                return null;
+            }
+        }
+        else {
+            LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+            return null;
+        }
+
+        for ( File rd : loader.list(sd,DirectoryFileFilter.INSTANCE) ) {
+            f = new File( rd, resourceFile );
+            if ( !f.exists() ) {
+                LOGGER.warning( "Ignoring resource directory " + rd.getAbsolutePath() );
+                continue;
+            }
+
+            ResourceContents rc = new ResourceContents();
+            rc.dir = rd.getName();
+            if ( lazy != null ) {
+                try {
+                    rc.scannedResource = lazy.scan( f, false );
+                    File lf = new File( rd, "layer.xml" );
+                    if ( lf.exists() ) {
+                        rc.scannedLayer = lazy.scan( lf, true );
+                    }
+                    sc.resources.add( rc );
+                    continue;
+                }
+                catch( Exception e ) {
+                    //fall back on regular parsing
+                    LOGGER.log( Level.FINE, "Failed to scan resource '" + rd.getName() +"'", e);
+                    rc.scannedResource = rc.scannedLayer = null;
+                }
+            }
+            try {
+                rc.resource = loader.depersist( xp, f, resourceClass(sc.store) );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load resource '" + rd.getName() +"'", e);
+                continue;
+            }
+
+            f = new File( rd, "layer.xml" );
+            if ( f.exists() ) {
+                try {
+                    rc.layer = loader.depersist( xp, f, LayerInfo.class );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load layer for resource '"
+                        + rc.resource.getName() +"'", e);
+                }
+            }
+            sc.resources.add( rc );
+        }
+        return sc;
+    }
+
+    String resourceFile(StoreInfo store) {
+        if ( store instanceof DataStoreInfo ) {
+            return "featuretype.xml";
+        }
+        if ( store instanceof CoverageStoreInfo ) {
+            return "coverage.xml";
+        }
+        return "wmslayer.xml";
+    }
+
+    Class<? extends ResourceInfo> resourceClass(StoreInfo store) {
+        if ( store instanceof DataStoreInfo ) {
+            return FeatureTypeInfo.class;
+        }
+        if ( store instanceof CoverageStoreInfo ) {
+            return CoverageInfo.class;
+        }
+        return WMSLayerInfo.class;
+    }
+
+    /**
+     * Adds the workspaces and namespaces to the catalog, setting up the defaults.
+     */
+    void addWorkspaces(File workspaces, List<WorkspaceContents> parsed) {
+        File dws = new File(workspaces, "default.xml");
+        WorkspaceInfo defaultWorkspace = null;
+        if (dws.exists()) {
+            try {
+                defaultWorkspace = loader.depersist(xp, dws, WorkspaceInfo.class);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            }
+            catch( Exception e ) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            }
+        }
+        else {
+            LOGGER.warning("No default workspace was found.");
+        }
+
+        for ( WorkspaceContents wc : parsed ) {
+            if ( wc == null ) {
+                continue;
+            }
+
+            WorkspaceInfo ws = wc.workspace;
+            try {
+                catalog.add( ws );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load workspace '" + wc.dir.getName() + "'" , e );
+                continue;
+            }
+            LOGGER.info( "Loaded workspace '" + ws.getName() +"'");
+
+            NamespaceInfo ns = wc.namespace;
+            if ( ns != null ) {
+                try {
+                    catalog.add( ns );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load namespace for '" + wc.dir.getName() + "'" , e );
+                    ns = null;
+                }
+            }
+
+            //set the default workspace, see GeoServerLoader#readCatalog
+            if (defaultWorkspace != null ) {
+                if (ws.getName().equals(defaultWorkspace.getName())) {
+                    catalog.setDefaultWorkspace(ws);
+                    if (ns != null) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+            }
+            else {
+                //create the default.xml file
+                defaultWorkspace = catalog.getDefaultWorkspace();
+                if (defaultWorkspace != null) {
+                    try {
+                        loader.persist(xp, defaultWorkspace, dws);
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to persist default workspace '" +
+                            wc.dir.getName() + "'" , e );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a store with its resources and layers to the catalog.
+     */
+    void addStore(StoreContents sc, List<DataStoreInfo> dataStores) {
+        StoreInfo store = sc.store;
+        try {
+            resolve(store);
+            catalog.add( store );
+            LOGGER.info( "Loaded store '" + store.getName() +"'");
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, "Failed to load store '" + sc.dir.getName() +"'", e);
+            return;
+        }
+
+        if ( store instanceof DataStoreInfo && store.isEnabled() ) {
+            dataStores.add( (DataStoreInfo) store );
+        }
+
+        for ( ResourceContents rc : sc.resources ) {
+            if ( rc.scannedResource != null && addLazy(sc, rc) ) {
+                continue;
+            }
+
+            ResourceInfo r = rc.resource;
+            if ( r == null ) {
+                continue;
+            }
+            try {
+                resolve(r);
+                catalog.add( r );
+                LOGGER.info( "Loaded resource '" + r.getName() +"'");
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load resource '" + r.getName() +"'", e);
+                continue;
+            }
+
+            LayerInfo l = rc.layer;
+            if ( l != null ) {
+                try {
+                    resolve(l);
+                    catalog.add( l );
+                    LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load layer for resource '" + r.getName() +"'", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds placeholders for a scanned resource and its layer, if the references can't be 
+     * resolved the resource and layer are parsed instead, to be added right away.
+     * 
+     * @return true if the placeholders have been added.
+     */
+    boolean addLazy(StoreContents sc, ResourceContents rc) {
+        File rd = new File( sc.dir, rc.dir );
+        File f = new File( rd, resourceFile(sc.store) );
+        Class<? extends ResourceInfo> clazz = resourceClass(sc.store);
+
+        ResourceInfo r = lazy.addResource( catalog, f, clazz, rc.scannedResource );
+        if ( r != null ) {
+            File lf = new File( rd, "layer.xml" );
+            if ( rc.scannedLayer == null 
+                    || lazy.addLayer( catalog, lf, r, rc.scannedLayer ) ) {
+                LOGGER.info( "Indexed resource '" + r.getName() + "'" );
+                return true;
+            }
+
+            //the resource is fine, the layer has to be loaded though
+            try {
+                LayerInfo l = loader.depersist( xp, lf, LayerInfo.class );
+                resolve(l);
+                catalog.add( l );
+                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load layer for resource '" + r.getName() +"'", e);
+            }
+            return true;
+        }
+
+        //load both right away
+        try {
+            rc.resource = loader.depersist( xp, f, clazz );
+            File lf = new File( rd, "layer.xml" );
+            if ( rc.scannedLayer != null ) {
+                rc.layer = loader.depersist( xp, lf, LayerInfo.class );
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, "Failed to load resource '" + rd.getName() +"'", e);
+        }
+        return false;
+    }
+
+    /**
+     * Connects to the data store to determine if it should be disabled.
+     */
+    void connect(DataStoreInfo ds) {
+        try {
+            ds.getDataStore(null);
+        }
+        catch( Throwable t ) {
+            LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+            LOGGER.log( Level.INFO, "", t );
+
+            ds.setError(t);
+            ds.setEnabled(false);
+        }
+    }
+
+    //
+    // reference resolution, objects were parsed against an empty catalog so references to other
+    // objects are still proxies
+    //
+    void resolve(StoreInfo store) {
+        store.setWorkspace( resolve(store.getWorkspace()) );
+    }
+
+    void resolve(ResourceInfo resource) {
+        resource.setStore( resolve(resource.getStore()) );
+        resource.setNamespace( resolve(resource.getNamespace()) );
+    }
+
+    void resolve(LayerInfo layer) {
+        layer.setResource( resolve(layer.getResource()) );
+        layer.setDefaultStyle( resolve(layer.getDefaultStyle()) );
+
+        Set<StyleInfo> styles = new LinkedHashSet<StyleInfo>();
+        for ( StyleInfo s : layer.getStyles() ) {
+            styles.add( resolve(s) );
+        }
+        layer.getStyles().clear();
+        layer.getStyles().addAll( styles );
+    }
+
+    void resolve(LayerGroupInfo layerGroup) {
+        List<LayerInfo> layers = layerGroup.getLayers();
+        for ( int i = 0; i < layers.size(); i++ ) {
+            layers.set( i, resolve(layers.get(i)) );
+        }
+        List<StyleInfo> styles = layerGroup.getStyles();
+        for ( int i = 0; i < styles.size(); i++ ) {
+            if ( styles.get(i) != null ) {
+                styles.set( i, resolve(styles.get(i)) );
+            }
+        }
+    }
+
+    <T> T resolve(T object) {
+        if ( object == null ) {
+            return null;
+        }
+        T resolved = ResolvingProxy.resolve( catalog, object );
+        //leave unresolvable references around, the catalog will complain about them
+        return resolved != null ? (T) CatalogImpl.unwrap( resolved ) : object;
+    }
+
+    <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        }
+        catch( ExecutionException e ) {
+            if ( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    <T> List<T> getAll(List<Future<T>> futures) throws Exception {
+        List<T> result = new ArrayList<T>();
+        for ( Future<T> f : futures ) {
+            result.add( get(f) );
+        }
+        return result;
+    }
+
+    static class WorkspaceContents {
+        File dir;
+        WorkspaceInfo workspace;
+        NamespaceInfo namespace;
+    }
+
+    static class StoreContents implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        transient File dir;
+        StoreInfo store;
+        List<ResourceContents> resources = new ArrayList<ResourceContents>();
+    }
+
+    static class ResourceContents implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String dir;
+        ResourceInfo resource;
+        LayerInfo layer;
+
+        //lazy mode, the values scanned from the resource and layer files
+        HashMap<String, Object> scannedResource;
+        HashMap<String, Object> scannedLayer;
+    }
+
+    static class LoaderThreadFactory implements ThreadFactory {
+        AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread( r, "GeoServerLoader-" + count.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.rmi.server.UID;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -22,7 +23,6 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.MultiHashMap;
 import org.geoserver.catalog.AttributeTypeInfo;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
@@ -50,6 +50,7 @@ import org.geoserver.catalog.impl.AttributeTypeInfoImpl;
 import org.geoserver.catalog.impl.AttributionInfoImpl;
 import org.geoserver.catalog.impl.AuthorityURL;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.CatalogInfoIndex;
 import org.geoserver.catalog.impl.CoverageDimensionImpl;
 import org.geoserver.catalog.impl.CoverageInfoImpl;
 import org.geoserver.catalog.impl.CoverageStoreInfoImpl;
@@ -294,13 +295,10 @@ public class XStreamPersister {
         xs.omitField(impl(Catalog.class), "LOGGER");
         
         xs.omitField(impl(DefaultCatalogFacade.class), "catalog");
-        xs.omitField(impl(DefaultCatalogFacade.class), "resources");
-        xs.omitField(impl(DefaultCatalogFacade.class), "layers");
-        xs.omitField(impl(DefaultCatalogFacade.class), "maps");
-        xs.omitField(impl(DefaultCatalogFacade.class), "layerGroups");
         
-        xs.registerLocalConverter(DefaultCatalogFacade.class, "stores",
-                new StoreMultiHashMapConverter());
+        xs.aliasField("stores", DefaultCatalogFacade.class, "storeIndex");
+        xs.registerLocalConverter(DefaultCatalogFacade.class, "storeIndex",
+                new StoreIndexConverter());
         xs.registerLocalConverter(DefaultCatalogFacade.class, "namespaces",
                 new SpaceMapConverter("namespace"));
         xs.registerLocalConverter(DefaultCatalogFacade.class, "workspaces",
@@ -1335,15 +1333,19 @@ public class XStreamPersister {
     /**
      * Converter for multi hash maps containing coverage stores and data stores.
      */
-    static class StoreMultiHashMapConverter implements Converter {
+    /**
+     * Converter for the index of the catalog stores, the stores are indexed by id only, the
+     * facade rebuilds the other keys once the catalog is resolved.
+     */
+    static class StoreIndexConverter implements Converter {
         public boolean canConvert(Class type) {
-            return MultiHashMap.class.equals(type);
+            return CatalogInfoIndex.class.equals(type);
         }
 
         public void marshal(Object source, HierarchicalStreamWriter writer,
                 MarshallingContext context) {
-            MultiHashMap map = (MultiHashMap) source;
-            for (Object v : map.values()) {
+            CatalogInfoIndex<StoreInfo> index = (CatalogInfoIndex<StoreInfo>) source;
+            for (StoreInfo v : index.values()) {
                 if (v instanceof DataStoreInfo) {
                     writer.startNode("dataStore");
                     context.convertAnother(v);
@@ -1359,24 +1361,28 @@ public class XStreamPersister {
 
         public Object unmarshal(HierarchicalStreamReader reader,
                 UnmarshallingContext context) {
-            MultiHashMap map = new MultiHashMap();
+            CatalogInfoIndex<StoreInfo> index = new CatalogInfoIndex<StoreInfo>();
             
             while( reader.hasMoreChildren() ) {
                 reader.moveDown();
                 
-                Object o = 0;
+                StoreInfo o = null;
                 if ( "dataStore".equals( reader.getNodeName() ) ) {
-                    o = context.convertAnother( map, DataStoreInfoImpl.class );
+                    o = (StoreInfo) context.convertAnother( index, DataStoreInfoImpl.class );
                 }
                 else {
-                    o = context.convertAnother( map, CoverageStoreInfoImpl.class );
+                    o = (StoreInfo) context.convertAnother( index, CoverageStoreInfoImpl.class );
                 }
-                map.put( o.getClass(), o );
+                //the index tracks objects by id
+                if ( o.getId() == null ) {
+                    OwsUtils.set( o, "id", o.getClass().getSimpleName() + "-" + new UID() );
+                }
+                index.add( o, Collections.<String>emptyList() );
                 
                 reader.moveUp();
             }
             
-            return map;
+            return index;
         }
     }
 
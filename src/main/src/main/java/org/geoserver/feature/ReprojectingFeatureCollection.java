@@ -9,11 +9,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.geoserver.catalog.ResourcePool;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.FactoryRegistryException;
-import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureTypes;
 import org.geotools.feature.IllegalAttributeException;
 import org.geotools.feature.SchemaException;
@@ -23,7 +23,6 @@ import org.geotools.filter.spatial.ReprojectingFilterVisitor;
 import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
-import org.geotools.referencing.ReferencingFactoryFinder;
 import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -79,11 +78,6 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
      */
     HashMap /* <CoordinateReferenceSystem,GeometryCoordinateSequenceTransformer> */transformers;
 
-    /**
-     * Transformation hints
-     */
-    Hints hints = new Hints(Hints.LENIENT_DATUM_SHIFT, Boolean.TRUE);
-
     public ReprojectingFeatureCollection(
             SimpleFeatureCollection delegate,
             CoordinateReferenceSystem target) throws SchemaException, OperationNotFoundException,
@@ -100,9 +94,8 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
         CoordinateReferenceSystem source = delegate.getSchema().getCoordinateReferenceSystem();
 
         if (source != null) {
-            MathTransform2D tx = (MathTransform2D) ReferencingFactoryFinder
-                    .getCoordinateOperationFactory(hints).createOperation(source, target)
-                    .getMathTransform();
+            MathTransform2D tx = (MathTransform2D) ResourcePool.findMathTransform(source, target,
+                    true);
 
             GeometryCoordinateSequenceTransformer transformer = new GeometryCoordinateSequenceTransformer();
             transformer.setMathTransform(tx);
@@ -276,9 +269,8 @@ public class ReprojectingFeatureCollection extends DecoratingFeatureCollection {
                             MathTransform2D tx;
 
                             try {
-                                tx = (MathTransform2D) ReferencingFactoryFinder
-                                        .getCoordinateOperationFactory(hints).createOperation(crs,
-                                                target).getMathTransform();
+                                tx = (MathTransform2D) ResourcePool.findMathTransform(crs,
+                                        target, true);
                             } catch (Exception e) {
                                 String msg = "Could not transform for crs: " + crs;
                                 throw (IOException) new IOException(msg).initCause(e);
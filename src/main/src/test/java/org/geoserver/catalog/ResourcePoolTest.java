@@ -11,7 +11,12 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -25,8 +30,11 @@ import org.geoserver.test.GeoServerTestSupport;
 import org.geotools.data.DataAccess;
 import org.geotools.factory.GeoTools;
 import org.geotools.feature.NameImpl;
+import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.w3c.dom.Element;
 
 /**
@@ -227,4 +235,152 @@ public class ResourcePoolTest extends GeoServerTestSupport {
         getGeoServer().reload();
         
     }
+    
+    public void testConcurrentDataStoreLoading() throws Exception {
+        final ResourcePool pool = new ResourcePool(getCatalog());
+        final DataStoreInfo info = getCatalog().getDataStoreByName(MockData.CITE_PREFIX);
+        
+        List<Callable<DataAccess>> tasks = new ArrayList<Callable<DataAccess>>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(new Callable<DataAccess>() {
+                public DataAccess call() throws Exception {
+                    return pool.getDataStore(info);
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<DataAccess>> results = executor.invokeAll(tasks);
+            DataAccess first = results.get(0).get();
+            for (Future<DataAccess> f : results) {
+                assertSame(first, f.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        
+        //loaded once, every other lookup either waited or hit the cache
+        ResourcePool.CacheStatistics stats = pool.getDataStoreCacheStatistics();
+        assertEquals(1, stats.getMisses());
+        assertEquals(7, stats.getHits() + stats.getWaits());
+        assertEquals(0, stats.getFailures());
+    }
+    
+    public void testInvalidatedWhileLoading() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        final List<Object> disposed = new ArrayList<Object>();
+        final ResourcePool.CatalogResourceCache<String, Object> cache = 
+            pool.new CatalogResourceCache<String, Object>() {
+            @Override
+            protected void dispose(String key, Object object) {
+                disposed.add(object);
+            }
+        };
+        
+        final List<Object> loaded = new ArrayList<Object>();
+        Object object = cache.get("key", new Callable<Object>() {
+            public Object call() throws Exception {
+                Object object = new Object();
+                if (loaded.isEmpty()) {
+                    //invalidated while loading
+                    cache.remove("key");
+                }
+                loaded.add(object);
+                return object;
+            }
+        });
+        
+        //the first load is disposed rather than leaked, the second one is cached
+        assertEquals(2, loaded.size());
+        assertEquals(1, disposed.size());
+        assertSame(loaded.get(0), disposed.get(0));
+        assertSame(loaded.get(1), object);
+        assertSame(object, cache.get("key"));
+    }
+    
+    public void testFeatureTypeRefresh() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        pool.setFeatureTypeRefreshInterval(1);
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        
+        final List<FeatureType> disposed = new ArrayList<FeatureType>();
+        pool.addListener(new ResourcePool.Listener() {
+            public void disposed(FeatureTypeInfo featureType, FeatureType ft) {
+                disposed.add(ft);
+            }
+            public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+            }
+            public void disposed(DataStoreInfo dataStore, DataAccess da) {
+            }
+        });
+        
+        FeatureType ft1 = pool.getFeatureType(info);
+        List<AttributeTypeInfo> atts1 = pool.getAttributes(info);
+        Thread.sleep(10);
+        
+        //stale, still served from the cache while being refreshed
+        assertSame(ft1, pool.getFeatureType(info));
+        
+        FeatureType ft2 = ft1;
+        for (int i = 0; i < 100 && ft2 == ft1; i++) {
+            Thread.sleep(50);
+            ft2 = pool.getFeatureType(info);
+        }
+        assertNotSame(ft1, ft2);
+        assertEquals(ft1, ft2);
+        
+        //the resource is still there, swapping it is not a disposal
+        assertTrue(disposed.isEmpty());
+        
+        //the attributes are rebuilt along with the feature type
+        List<AttributeTypeInfo> atts2 = atts1;
+        for (int i = 0; i < 100 && atts2 == atts1; i++) {
+            Thread.sleep(50);
+            atts2 = pool.getAttributes(info);
+        }
+        assertNotSame(atts1, atts2);
+        assertEquals(atts1.size(), atts2.size());
+        pool.dispose();
+    }
+    
+    public void testFeatureTypeTTL() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        
+        //not cached by default
+        assertNotSame(pool.getFeatureType(info, false), pool.getFeatureType(info, false));
+        
+        pool.setFeatureTypeTTL(60000);
+        FeatureType ft = pool.getFeatureType(info, false);
+        assertSame(ft, pool.getFeatureType(info, false));
+        
+        //cleared along with the feature type
+        pool.clear(info);
+        assertNotSame(ft, pool.getFeatureType(info, false));
+        pool.dispose();
+    }
+
+    public void testMathTransformCache() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        CoordinateReferenceSystem source = pool.getCRS("EPSG:4326");
+        CoordinateReferenceSystem target = pool.getCRS("EPSG:32633");
+        assertSame(source, pool.getCRS("EPSG:4326"));
+        assertEquals(2, pool.getCRSCacheStatistics().getMisses());
+        assertEquals(1, pool.getCRSCacheStatistics().getHits());
+        
+        //the transform cache is shared among all pools
+        pool.dispose();
+        long misses = pool.getMathTransformCacheStatistics().getMisses();
+        long hits = pool.getMathTransformCacheStatistics().getHits();
+        MathTransform tx = pool.getMathTransform(source, target, true);
+        assertSame(tx, ResourcePool.findMathTransform(source, target, true));
+        assertNotSame(tx, pool.getMathTransform(target, source, true));
+        assertEquals(misses + 2, pool.getMathTransformCacheStatistics().getMisses());
+        assertEquals(hits + 1, pool.getMathTransformCacheStatistics().getHits());
+        pool.dispose();
+    }
 }
@@ -1031,6 +1031,29 @@ public class CatalogImplTest extends TestCase {
         assertEquals( l, l2 );
     }
     
+    public void testLookupsAfterRename() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ns.getPrefix(), ft.getName());
+        ft2.setName( "renamed" );
+        catalog.save( ft2 );
+
+        assertNull( catalog.getFeatureTypeByName(ns.getPrefix(), "ftName") );
+        assertNotNull( catalog.getFeatureTypeByName(ns.getPrefix(), "renamed") );
+        assertNotNull( catalog.getFeatureTypeByDataStore(ds, "renamed") );
+        assertNotNull( catalog.getLayerByName( "renamed" ) );
+        assertEquals( 1, catalog.getLayers( ft2 ).size() );
+        assertEquals( 1, catalog.getLayers( s ).size() );
+
+        DataStoreInfo ds2 = catalog.getDataStoreByName(ws.getName(), ds.getName());
+        ds2.setName( "renamedStore" );
+        catalog.save( ds2 );
+
+        assertNotNull( catalog.getDataStoreByName(ws.getName(), "renamedStore") );
+        assertEquals( 1, catalog.getStoresByWorkspace(ws, DataStoreInfo.class).size() );
+        assertEquals( 1, catalog.getFeatureTypesByStore( ds2 ).size() );
+    }
+
     public void testRemoveLayer() {
         addLayer();
         assertEquals( 1, catalog.getLayers().size() );
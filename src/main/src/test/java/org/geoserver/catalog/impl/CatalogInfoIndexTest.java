@@ -0,0 +1,117 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.StyleInfo;
+
+public class CatalogInfoIndexTest extends TestCase {
+
+    CatalogInfoIndex<StyleInfo> index;
+
+    @Override
+    protected void setUp() throws Exception {
+        index = new CatalogInfoIndex<StyleInfo>();
+    }
+
+    StyleInfo style(String id, String name) {
+        StyleInfoImpl s = new StyleInfoImpl(null);
+        s.setId(id);
+        s.setName(name);
+        return s;
+    }
+
+    public void testLookups() {
+        StyleInfo s1 = style("s1", "a");
+        StyleInfo s2 = style("s2", "b");
+        StyleInfo s3 = style("s3", "a");
+
+        index.add(s1, Arrays.asList("name/a", "parent/p1"));
+        index.add(s2, Arrays.asList("name/b", "parent/p1"));
+        index.add(s3, Arrays.asList("name/a", "parent/p2"));
+
+        assertEquals(3, index.size());
+        assertSame(s2, index.get("s2"));
+        assertNull(index.get("s4"));
+
+        assertSame(s1, index.first("name/a"));
+        assertEquals(Arrays.asList(s1, s2), index.list("parent/p1", StyleInfo.class));
+        assertTrue(index.list("parent/p3", StyleInfo.class).isEmpty());
+        assertEquals(Arrays.asList(s1, s2, s3), index.list());
+    }
+
+    public void testReindex() {
+        StyleInfo s1 = style("s1", "a");
+        StyleInfo s2 = style("s2", "b");
+        index.add(s1, Arrays.asList("name/a"));
+        index.add(s2, Arrays.asList("name/b"));
+
+        s1.setName("c");
+        index.reindex(s1, Arrays.asList("name/c"));
+
+        assertNull(index.first("name/a"));
+        assertSame(s1, index.first("name/c"));
+
+        //position is preserved
+        assertEquals(Arrays.asList(s1, s2), index.list());
+    }
+
+    public void testValuesDoNotMaterialize() {
+        final StyleInfo loaded = style("s2", "b");
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("id", "s2");
+        properties.put("name", "b");
+        StyleInfo placeholder = LazyCatalogInfo.create(StyleInfo.class, properties, 
+            new LazyCatalogInfo.Loader() {
+                public CatalogInfo load(Catalog catalog) throws Exception {
+                    return loaded;
+                }
+            });
+
+        final List<StyleInfo> materialized = new ArrayList<StyleInfo>();
+        index.setMaterializer(new CatalogInfoIndex.Materializer<StyleInfo>() {
+            public StyleInfo materialize(StyleInfo info) {
+                materialized.add(info);
+                return loaded;
+            }
+        });
+
+        StyleInfo s1 = style("s1", "a");
+        index.add(s1, Arrays.asList("name/a"));
+        index.add(placeholder, Arrays.asList("name/b"));
+
+        List<StyleInfo> values = index.values(StyleInfo.class);
+        assertEquals(2, values.size());
+        assertSame(placeholder, values.get(1));
+        assertEquals("s2", values.get(1).getId());
+        assertEquals("b", values.get(1).getName());
+        assertTrue(materialized.isEmpty());
+
+        assertEquals(Arrays.asList(s1, loaded), index.list());
+        assertEquals(Arrays.asList(placeholder), materialized);
+    }
+
+    public void testRemove() {
+        StyleInfo s1 = style("s1", "a");
+        index.add(s1, Arrays.asList("name/a"));
+
+        //equals is value based, removal goes by id
+        assertFalse(index.remove(style("s2", "a")));
+        assertTrue(index.remove(style("s1", "x")));
+
+        assertNull(index.get("s1"));
+        assertNull(index.first("name/a"));
+        assertTrue(index.keys.isEmpty());
+    }
+}
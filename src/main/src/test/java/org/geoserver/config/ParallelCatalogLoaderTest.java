@@ -0,0 +1,257 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.DefaultCatalogFacade;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.ParallelCatalogLoader.ResourceContents;
+import org.geoserver.config.ParallelCatalogLoader.StoreContents;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerTestSupport;
+
+public class ParallelCatalogLoaderTest extends GeoServerTestSupport {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        super.setUpInternal();
+
+        //write out a 2.x style catalog
+        Catalog catalog = getCatalog();
+        catalog.addListener(new GeoServerPersister(getResourceLoader(),
+            new XStreamPersisterFactory().createXMLPersister()));
+
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("acme");
+        catalog.add(ws);
+
+        NamespaceInfo ns = catalog.getFactory().createNamespace();
+        ns.setPrefix("acme");
+        ns.setURI("http://acme");
+        catalog.add(ns);
+
+        StyleInfo s = catalog.getFactory().createStyle();
+        s.setName("acmestyle");
+        s.setFilename("acmestyle.sld");
+        catalog.add(s);
+
+        for (int i = 0; i < 3; i++) {
+            DataStoreInfo ds = catalog.getFactory().createDataStore();
+            ds.setName("store" + i);
+            ds.setWorkspace(ws);
+            catalog.add(ds);
+
+            for (int j = 0; j < 5; j++) {
+                FeatureTypeInfo ft = catalog.getFactory().createFeatureType();
+                ft.setName("ft" + i + "_" + j);
+                ft.setNamespace(ns);
+                ft.setStore(catalog.getDataStoreByName("acme", "store" + i));
+                catalog.add(ft);
+
+                LayerInfo l = catalog.getFactory().createLayer();
+                l.setResource(catalog.getFeatureTypeByName("acme", ft.getName()));
+                l.setDefaultStyle(catalog.getStyleByName("acmestyle"));
+                catalog.add(l);
+            }
+        }
+    }
+
+    public void testSameAsSequential() throws Exception {
+        GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+
+        Catalog sequential = loader.readCatalog(xp);
+        Catalog parallel = new ParallelCatalogLoader(loader, xp, 4).read();
+
+        assertEquals(ids(sequential.getWorkspaces()), ids(parallel.getWorkspaces()));
+        assertEquals(ids(sequential.getNamespaces()), ids(parallel.getNamespaces()));
+        assertEquals(ids(sequential.getStyles()), ids(parallel.getStyles()));
+        assertEquals(ids(sequential.getDataStores()), ids(parallel.getDataStores()));
+        assertEquals(ids(sequential.getFeatureTypes()), ids(parallel.getFeatureTypes()));
+        assertEquals(ids(sequential.getLayers()), ids(parallel.getLayers()));
+        assertEquals(ids(sequential.getLayerGroups()), ids(parallel.getLayerGroups()));
+        assertEquals(id(sequential.getDefaultWorkspace()), id(parallel.getDefaultWorkspace()));
+
+        //references have been resolved
+        FeatureTypeInfo ft = parallel.getFeatureTypeByName("acme", "ft1_2");
+        assertNotNull(ft);
+        assertEquals("store1", ft.getStore().getName());
+        assertEquals("acme", ft.getStore().getWorkspace().getName());
+
+        LayerInfo l = parallel.getLayerByName("ft1_2");
+        assertNotNull(l);
+        assertEquals(ft.getId(), l.getResource().getId());
+        assertEquals("acmestyle", l.getDefaultStyle().getName());
+        assertEquals(15, parallel.getLayers(parallel.getStyleByName("acmestyle")).size());
+    }
+
+    public void testSnapshot() throws Exception {
+        GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        File file = new File(getResourceLoader().findOrCreateDirectory("temp"), "test.snapshot");
+
+        //first load writes out the snapshot
+        CatalogSnapshot snapshot = new CatalogSnapshot(file);
+        ParallelCatalogLoader pl = new ParallelCatalogLoader(loader, xp, 2);
+        pl.setSnapshot(snapshot);
+        Catalog first = pl.read();
+        assertEquals(0, snapshot.getHits());
+        assertTrue(file.exists());
+
+        //second load reads the stores from it
+        snapshot = new CatalogSnapshot(file);
+        pl = new ParallelCatalogLoader(loader, xp, 2);
+        pl.setSnapshot(snapshot);
+        Catalog second = pl.read();
+        assertTrue(snapshot.getHits() >= 3);
+        assertEquals(ids(first.getFeatureTypes()), ids(second.getFeatureTypes()));
+        assertEquals(ids(first.getLayers()), ids(second.getLayers()));
+
+        LayerInfo l = second.getLayerByName("ft1_2");
+        assertEquals("store1", l.getResource().getStore().getName());
+        assertEquals("acmestyle", l.getDefaultStyle().getName());
+
+        FeatureTypeInfo ft12 = second.getFeatureTypeByName("acme", "ft1_2");
+        assertEquals("store1", ft12.getStore().getName());
+        assertEquals("acme", ft12.getStore().getWorkspace().getName());
+        assertEquals("acme", ft12.getNamespace().getPrefix());
+        assertSame(second.getDataStoreByName("acme", "store1"), ft12.getStore());
+
+        //a changed store directory is parsed again
+        int hits = snapshot.getHits();
+        File ft = new File(getResourceLoader().find("workspaces", "acme", "store1", "ft1_2"), 
+            "featuretype.xml");
+        ft.setLastModified(ft.lastModified() + 10000);
+
+        snapshot = new CatalogSnapshot(file);
+        pl = new ParallelCatalogLoader(loader, xp, 2);
+        pl.setSnapshot(snapshot);
+        Catalog third = pl.read();
+        assertEquals(hits - 1, snapshot.getHits());
+        assertEquals(ids(first.getLayers()), ids(third.getLayers()));
+    }
+
+    public void testSnapshotReferences() throws Exception {
+        GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        File file = new File(getResourceLoader().findOrCreateDirectory("temp"), "refs.snapshot");
+
+        ParallelCatalogLoader pl = new ParallelCatalogLoader(loader, xp, 2);
+        pl.setSnapshot(new CatalogSnapshot(file));
+        Catalog catalog = pl.read();
+
+        //the snapshot holds references to the store and workspace, not resolved objects
+        CatalogSnapshot snapshot = new CatalogSnapshot(file);
+        snapshot.read();
+        File sd = getResourceLoader().find("workspaces", "acme", "store1");
+        StoreContents sc = snapshot.get("acme/store1", CatalogSnapshot.fingerprint(sd));
+        assertNotNull(sc);
+
+        DataStoreInfo ds = catalog.getDataStoreByName("acme", "store1");
+        assertEquals(ds.getWorkspace().getId(), ref(sc.store.getWorkspace()));
+        
+        ResourceInfo r = null;
+        for (ResourceContents rc : sc.resources) {
+            if ("ft1_2".equals(rc.resource.getName())) {
+                r = rc.resource;
+            }
+        }
+        assertNotNull(r);
+        assertEquals(ds.getId(), ref(r.getStore()));
+
+        //and they resolve once loaded from the snapshot
+        pl = new ParallelCatalogLoader(loader, xp, 2);
+        pl.setSnapshot(new CatalogSnapshot(file));
+        catalog = pl.read();
+
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName("acme", "ft1_2");
+        assertNotNull(ft);
+        assertEquals("store1", ft.getStore().getName());
+        assertEquals("acme", ft.getStore().getWorkspace().getName());
+    }
+
+    public void testLazy() throws Exception {
+        GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+
+        Catalog sequential = loader.readCatalog(xp);
+        ParallelCatalogLoader pl = new ParallelCatalogLoader(loader, xp, 2);
+        pl.setLazy(new LazyCatalogLoader(loader));
+        Catalog lazy = pl.read();
+
+        //names are listed without loading anything, the change below still shows up
+        DefaultCatalogFacade facade = (DefaultCatalogFacade) ((CatalogImpl) lazy).getFacade();
+        Map<String, String> names = facade.getLayerNames();
+        assertEquals(15, names.size());
+        assertTrue(names.containsValue("ft1_2"));
+        assertEquals(15, facade.getResourceNames(FeatureTypeInfo.class).size());
+        assertTrue(facade.getResourceNames(FeatureTypeInfo.class).containsValue("acme:ft1_2"));
+
+        //change a file after the load, the change shows up since the file is read on access
+        File f = new File(getResourceLoader().find("workspaces", "acme", "store1", "ft1_2"), 
+            "featuretype.xml");
+        String xml = FileUtils.readFileToString(f);
+        FileUtils.writeStringToFile(f, 
+            xml.replace("<name>ft1_2</name>", "<name>ft1_2</name><title>changed</title>"));
+
+        LayerInfo l = lazy.getLayerByName("ft1_2");
+        assertNotNull(l);
+        assertEquals("changed", l.getResource().getTitle());
+        assertEquals("store1", l.getResource().getStore().getName());
+        assertEquals("acmestyle", l.getDefaultStyle().getName());
+        assertEquals(LayerInfo.Type.VECTOR, l.getType());
+        assertSame(lazy, l.getResource().getCatalog());
+
+        assertEquals(ids(sequential.getFeatureTypes()), ids(lazy.getFeatureTypes()));
+        assertEquals(ids(sequential.getLayers()), ids(lazy.getLayers()));
+        assertEquals(5, lazy.getFeatureTypesByStore(
+            lazy.getDataStoreByName("acme", "store2")).size());
+        assertEquals(15, lazy.getLayers(lazy.getStyleByName("acmestyle")).size());
+        
+        //loaded objects can be modified as usual
+        FeatureTypeInfo ft = lazy.getFeatureTypeByName("acme", "ft0_0");
+        ft.setName("renamed");
+        lazy.save(ft);
+        assertNotNull(lazy.getLayerByName("renamed"));
+        assertNull(lazy.getLayerByName("ft0_0"));
+    }
+
+    String ref(Object proxy) {
+        assertTrue(proxy instanceof Proxy);
+        return ((ResolvingProxy) Proxy.getInvocationHandler(proxy)).getRef();
+    }
+
+    String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    List<String> ids(List<? extends CatalogInfo> infos) {
+        List<String> ids = new ArrayList<String>();
+        for (CatalogInfo info : infos) {
+            ids.add(info.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
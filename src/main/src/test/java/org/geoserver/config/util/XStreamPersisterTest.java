@@ -22,6 +22,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
@@ -423,6 +424,11 @@ public class XStreamPersisterTest extends TestCase {
         assertEquals( "bar", cs.getName() );
         assertEquals( ws, cs.getWorkspace() );
         
+        //stores are looked up through the index rebuilt on load
+        assertEquals( ds, catalog.getDataStoreByName( "foo", "foo" ) );
+        assertEquals( cs, catalog.getStore( cs.getId(), CoverageStoreInfo.class ) );
+        assertEquals( 2, catalog.getStoresByWorkspace( ws, StoreInfo.class ).size() );
+        
         assertEquals( 1, catalog.getStyles().size() );
         s = catalog.getStyles().get(0);
         assertEquals( "style", s.getName() );
@@ -0,0 +1,367 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Service;
+
+/**
+ * Lookup tables used by the {@link Dispatcher} to find the extensions handling a request.
+ * <p>
+ * The tables are built once from the extensions registered in the application context, so that
+ * dispatching a request is a matter of a few hash lookups rather than of scanning all the
+ * extensions of each type. Lookups depending on the class of the request or of the result are
+ * computed on first use and remembered, the number of such classes being small.
+ * </p>
+ * <p>
+ * The tables are immutable once built, the dispatcher drops them and builds new ones when the
+ * application context is refreshed.
+ * </p>
+ */
+class DispatchTables {
+
+    /**
+     * services, and services keyed by lower case id sorted by ascending version
+     */
+    List<Service> serviceList;
+    Map<String, List<Service>> services;
+
+    /**
+     * kvp readers, and kvp readers keyed by request bean class
+     */
+    List<KvpRequestReader> kvpReaders;
+    Map<Class, KvpRequestReader> kvpReadersByType = new ConcurrentHashMap<Class, KvpRequestReader>();
+
+    /**
+     * xml readers, and xml readers keyed by element with lower case namespace and local name
+     */
+    List<XmlRequestReader> xmlReaderList;
+    Map<QName, List<XmlRequestReader>> xmlReaders;
+
+    /**
+     * xml readers keyed by local name only, used for requests that do not specify a namespace,
+     * readers for the same element in different services are left out
+     */
+    Map<String, List<XmlRequestReader>> xmlReadersByLocalName;
+
+    /**
+     * responses, and responses keyed by result class and output format
+     */
+    List<Response> responses;
+    Map<ResponseKey, List<Response>> responsesByResult =
+        new ConcurrentHashMap<ResponseKey, List<Response>>();
+
+    /**
+     * all the output formats declared by responses, in lower case
+     */
+    Set<String> outputFormats;
+
+    /**
+     * exception handlers keyed by service
+     */
+    Map<Service, ServiceExceptionHandler> exceptionHandlers;
+
+    DispatchTables() {
+        loadServices();
+        loadKvpReaders();
+        loadXmlReaders();
+        loadResponses();
+        loadExceptionHandlers();
+    }
+
+    void loadServices() {
+        List<Service> list = GeoServerExtensions.extensions(Service.class);
+        if (!(new HashSet<Service>(list).size() == list.size())) {
+            String msg = "Two identical service descriptors found";
+            throw new IllegalStateException(msg);
+        }
+
+        serviceList = list;
+        services = new HashMap<String, List<Service>>();
+        for (Service s : list) {
+            String id = s.getId().toLowerCase();
+            List<Service> matches = services.get(id);
+            if (matches == null) {
+                matches = new ArrayList<Service>();
+                services.put(id, matches);
+            }
+            matches.add(s);
+        }
+
+        //sort by version, the sort is stable so services with the same version stay in order
+        for (List<Service> matches : services.values()) {
+            if (matches.size() > 1) {
+                Collections.sort(matches, new Comparator<Service>() {
+                    public int compare(Service s1, Service s2) {
+                        return s1.getVersion().compareTo(s2.getVersion());
+                    }
+                });
+            }
+        }
+    }
+
+    void loadKvpReaders() {
+        kvpReaders = GeoServerExtensions.extensions(KvpRequestReader.class);
+        if (!(new HashSet<KvpRequestReader>(kvpReaders).size() == kvpReaders.size())) {
+            String msg = "Two identical kvp readers found";
+            throw new IllegalStateException(msg);
+        }
+    }
+
+    void loadXmlReaders() {
+        List<XmlRequestReader> list = GeoServerExtensions.extensions(XmlRequestReader.class);
+        if (!(new HashSet<XmlRequestReader>(list).size() == list.size())) {
+            String msg = "Two identical xml readers found";
+            for (int i = 0; i < list.size(); i++) {
+                XmlRequestReader r1 = list.get(i);
+                for (int j = i + 1; j < list.size(); j++) {
+                    XmlRequestReader r2 = list.get(j);
+                    if(r1.equals(r2)) {
+                        msg += ": " + r1 + " and " + r2;
+                        break;
+                    }
+                }
+            }
+            throw new IllegalStateException(msg);
+        }
+
+        xmlReaderList = list;
+        xmlReaders = new HashMap<QName, List<XmlRequestReader>>();
+        xmlReadersByLocalName = new HashMap<String, List<XmlRequestReader>>();
+        for (XmlRequestReader r : list) {
+            QName element = r.getElement();
+            add(xmlReaders, new QName(element.getNamespaceURI().toLowerCase(),
+                element.getLocalPart().toLowerCase()), r);
+            add(xmlReadersByLocalName, element.getLocalPart(), r);
+        }
+
+        //readers matched on local name only must all belong to the same service
+        for (List<XmlRequestReader> matches : xmlReadersByLocalName.values()) {
+            Iterator<XmlRequestReader> itr = matches.iterator();
+            XmlRequestReader first = itr.next();
+            while (itr.hasNext()) {
+                if (!first.getServiceId().equals(itr.next().getServiceId())) {
+                    matches.clear();
+                    break;
+                }
+            }
+        }
+    }
+
+    void loadResponses() {
+        responses = GeoServerExtensions.extensions(Response.class);
+        outputFormats = new HashSet<String>();
+        for (Response r : responses) {
+            for (Object outputFormat : r.getOutputFormats()) {
+                outputFormats.add(((String) outputFormat).toLowerCase());
+            }
+        }
+    }
+
+    void loadExceptionHandlers() {
+        exceptionHandlers = new HashMap<Service, ServiceExceptionHandler>();
+        for (ServiceExceptionHandler seh :
+                GeoServerExtensions.extensions(ServiceExceptionHandler.class)) {
+            for (Object s : seh.getServices()) {
+                //first handler declaring the service wins
+                if (!exceptionHandlers.containsKey(s)) {
+                    exceptionHandlers.put((Service) s, seh);
+                }
+            }
+        }
+    }
+
+    <K> void add(Map<K, List<XmlRequestReader>> map, K key, XmlRequestReader r) {
+        List<XmlRequestReader> matches = map.get(key);
+        if (matches == null) {
+            matches = new ArrayList<XmlRequestReader>();
+            map.put(key, matches);
+        }
+        matches.add(r);
+    }
+
+    /**
+     * Returns the services with the specified id, sorted by ascending version.
+     *
+     * @return The matching services, or null if none match.
+     */
+    List<Service> services(String id) {
+        return services.get(id.toLowerCase());
+    }
+
+    /**
+     * Returns the kvp reader for a request bean class, the reader with the most specific request
+     * bean type wins.
+     */
+    KvpRequestReader kvpReader(Class type) {
+        KvpRequestReader kvpReader = kvpReadersByType.get(type);
+        if (kvpReader != null) {
+            return kvpReader;
+        }
+
+        List<KvpRequestReader> matches = new ArrayList<KvpRequestReader>();
+        for (KvpRequestReader r : kvpReaders) {
+            if (r.getRequestBean().isAssignableFrom(type)) {
+                matches.add(r);
+            }
+        }
+
+        if (matches.isEmpty()) {
+            return null;
+        }
+
+        if (matches.size() > 1) {
+            //sort by class hierarchy
+            Collections.sort(matches, new Comparator<KvpRequestReader>() {
+                public int compare(KvpRequestReader kvp1, KvpRequestReader kvp2) {
+                    if (kvp2.getRequestBean().isAssignableFrom(kvp1.getRequestBean())) {
+                        return -1;
+                    }
+                    return 1;
+                }
+            });
+        }
+
+        kvpReader = matches.get(0);
+        kvpReadersByType.put(type, kvpReader);
+        return kvpReader;
+    }
+
+    /**
+     * Returns the xml readers for an element, namespace and local name are matched ignoring
+     * case.
+     *
+     * @return The matching readers, never null.
+     */
+    List<XmlRequestReader> xmlReaders(String namespace, String element) {
+        List<XmlRequestReader> matches = null;
+        if (namespace != null && element != null) {
+            matches = xmlReaders.get(new QName(namespace.toLowerCase(), element.toLowerCase()));
+        }
+        return matches != null ? matches : Collections.<XmlRequestReader>emptyList();
+    }
+
+    /**
+     * Returns the xml readers for an element local name, provided they all belong to the same
+     * service.
+     *
+     * @return The matching readers, never null.
+     */
+    List<XmlRequestReader> xmlReaders(String element) {
+        List<XmlRequestReader> matches = xmlReadersByLocalName.get(element);
+        return matches != null ? matches : Collections.<XmlRequestReader>emptyList();
+    }
+
+    /**
+     * Returns the responses able to encode a result in the specified output format, in the order
+     * they were registered. The responses still have to be checked against the operation.
+     *
+     * @param result The class of the result.
+     * @param outputFormat The requested output format, may be null.
+     *
+     * @return The matching responses, never null.
+     */
+    List<Response> responses(Class result, String outputFormat) {
+        //formats no response declares all end up with the responses declaring no format
+        String format = null;
+        if (outputFormat != null) {
+            format = outputFormat.toLowerCase();
+            if (!outputFormats.contains(format)) {
+                format = ResponseKey.UNKNOWN_FORMAT;
+            }
+        }
+
+        ResponseKey key = new ResponseKey(result, format);
+        List<Response> matches = responsesByResult.get(key);
+        if (matches != null) {
+            return matches;
+        }
+
+        matches = new ArrayList<Response>();
+        O: for (Response r : responses) {
+            if (!r.getBinding().isAssignableFrom(result)) {
+                continue;
+            }
+
+            //filter by output format
+            Set formats = r.getOutputFormats();
+            if (outputFormat != null && !formats.isEmpty() && !formats.contains(outputFormat)) {
+                //must do a case insensitive check
+                for (Object of : formats) {
+                    if (outputFormat.equalsIgnoreCase((String) of)) {
+                        matches.add(r);
+                        continue O;
+                    }
+                }
+                continue;
+            }
+            matches.add(r);
+        }
+
+        matches = Collections.unmodifiableList(matches);
+        responsesByResult.put(key, matches);
+        return matches;
+    }
+
+    /**
+     * Returns the exception handler for a service, or null if no handler declares it.
+     */
+    ServiceExceptionHandler exceptionHandler(Service service) {
+        return exceptionHandlers.get(service);
+    }
+
+    /**
+     * Key of the responses lookup.
+     */
+    static class ResponseKey {
+
+        /**
+         * marker for the output formats no response declares, compared by identity
+         */
+        static final String UNKNOWN_FORMAT = new String("");
+
+        Class result;
+        String outputFormat;
+
+        ResponseKey(Class result, String outputFormat) {
+            this.result = result;
+            this.outputFormat = outputFormat;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResponseKey)) {
+                return false;
+            }
+            ResponseKey other = (ResponseKey) obj;
+            if (result != other.result) {
+                return false;
+            }
+            if (outputFormat == UNKNOWN_FORMAT || other.outputFormat == UNKNOWN_FORMAT) {
+                return outputFormat == other.outputFormat;
+            }
+            return outputFormat == null ? other.outputFormat == null
+                : outputFormat.equals(other.outputFormat);
+        }
+
+        @Override
+        public int hashCode() {
+            return result.hashCode() * 17 + (outputFormat != null ? outputFormat.hashCode() : 0);
+        }
+    }
+}
@@ -10,9 +10,11 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.charset.Charset;
@@ -57,6 +59,10 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -65,6 +71,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 
@@ -119,7 +126,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -148,12 +155,32 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * lookup tables for services, readers, responses and exception handlers, built on first use
+     * and dropped when the application context is refreshed
+     */
+    static volatile DispatchTables tables;
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
     /** SOAP mime type */
     static final String SOAP_MIME = "application/soap+xml";
 
+    /**
+     * pull parser factory, used to parse the root element of xml requests
+     */
+    XmlPullParserFactory xppFactory;
+    {
+        try {
+            xppFactory = XmlPullParserFactory.newInstance();
+            xppFactory.setNamespaceAware(true);
+            xppFactory.setValidating(false);
+        } catch (XmlPullParserException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * document builder, used to parse SOAP requests
      */
@@ -192,6 +219,7 @@ public class Dispatcher extends AbstractController {
     protected void initApplicationContext(ApplicationContext context) {
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
+        tables = null;
         
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
@@ -209,6 +237,30 @@ public class Dispatcher extends AbstractController {
         }
     }
     
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent || event instanceof ContextClosedEvent) {
+            //extensions may have changed
+            tables = null;
+        }
+    }
+
+    /**
+     * Returns the dispatch lookup tables, building them if need be.
+     */
+    static DispatchTables tables() {
+        DispatchTables t = tables;
+        if (t == null) {
+            synchronized (Dispatcher.class) {
+                t = tables;
+                if (t == null) {
+                    t = new DispatchTables();
+                    tables = t;
+                }
+            }
+        }
+        return t;
+    }
+    
     protected void preprocessRequest(HttpServletRequest request)
         throws Exception {
         //set the charset
@@ -332,16 +384,18 @@ public class Dispatcher extends AbstractController {
                 request.setInput(reader(httpRequest));
             }
 
-            char[] req = new char[xmlPostRequestLogBufferSize];
-            int read = request.getInput().read(req, 0, xmlPostRequestLogBufferSize);
-
+            //only read what is going to be logged, and no more than can be reset, a single char
+            // is enough to tell an empty body
+            int size = 0;
             if (logger.isLoggable(Level.FINE)) {
-                if (read == -1) {
-                    request.setInput(null);
-                } else if (read < xmlPostRequestLogBufferSize) {
-                    logger.fine("Raw XML request: " + new String(req));
-                } else if (xmlPostRequestLogBufferSize == 0) {
-                    // logging disabled --> do nothing
+                size = Math.min(xmlPostRequestLogBufferSize, XML_LOOKAHEAD);
+            }
+            char[] req = new char[Math.max(size, 1)];
+            int read = request.getInput().read(req, 0, req.length);
+
+            if (size > 0 && read > 0) {
+                if (read < size) {
+                    logger.fine("Raw XML request: " + new String(req, 0, read));
                 } else {
                     logger.fine("Raw XML request starts with: " + new String(req) + "...");
                 }
@@ -452,7 +506,7 @@ public class Dispatcher extends AbstractController {
         } 
         //check the body
         if (req.getInput() != null) {
-            Map xml = readOpPost(req.getInput());
+            Map xml = readOpPost(req.getInput(), req);
             if (req.getService() == null) {
                 req.setService(normalize((String) xml.get("service")));    
             }
@@ -782,36 +836,15 @@ public class Dispatcher extends AbstractController {
         throws Throwable {
         //step 6: write response
         if (result != null) {
-            //look up respones
-            List responses = GeoServerExtensions.extensions(Response.class);
+            //look up respones, already filtered by binding and output format
+            List responses = new ArrayList(
+                tables().responses(result.getClass(), req.getOutputFormat()));
 
-            //first filter by binding, and canHandle
-         O: for (Iterator itr = responses.iterator(); itr.hasNext();) {
+            //filter by canHandle
+            for (Iterator itr = responses.iterator(); itr.hasNext();) {
                 Response response = (Response) itr.next();
 
-                Class binding = response.getBinding();
-
-                if (!binding.isAssignableFrom(result.getClass())
-                        || !response.canHandle(opDescriptor)) {
-                    itr.remove();
-
-                    continue;
-                }
-
-                //filter by output format
-                Set outputFormats = response.getOutputFormats();
-
-                if ((req.getOutputFormat() != null) && (!outputFormats.isEmpty())
-                        && !outputFormats.contains(req.getOutputFormat())) {
-                    
-                    //must do a case insensitive check
-                    for ( Iterator of = outputFormats.iterator(); of.hasNext(); ) {
-                        String outputFormat = (String) of.next();
-                        if( req.getOutputFormat().equalsIgnoreCase( outputFormat ) ) {
-                            continue O;
-                        }
-                    }
-                    
+                if (!response.canHandle(opDescriptor)) {
                     itr.remove();
                 }
             }
@@ -995,19 +1028,11 @@ public class Dispatcher extends AbstractController {
     }
     
     Collection loadServices() {
-        Collection services = GeoServerExtensions.extensions(Service.class);
-
-        if (!(new HashSet(services).size() == services.size())) {
-            String msg = "Two identical service descriptors found";
-            throw new IllegalStateException(msg);
-        }
-
-        return services;
+        return new ArrayList(tables().serviceList);
     }
 
     Service findService(String id, String ver) throws ServiceException {
         Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
         
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
@@ -1016,160 +1041,40 @@ public class Dispatcher extends AbstractController {
             id = id.substring(id.indexOf("/") + 1);
         }
 
-        //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
-
-        if (matches.isEmpty()) {
+        //match on service, the matches are sorted by version
+        List<Service> matches = tables().services(id);
+        if (matches == null) {
             return null;
         }
 
-        Service sBean = null;
-
-        //if multiple, use version to filter match
-        if (matches.size() > 1) {
-            List vmatches = new ArrayList(matches);
-
-            //match up the version
-            if (version != null) {
-                //version specified, look for a match
-                for (Iterator itr = vmatches.iterator(); itr.hasNext();) {
-                    Service s = (Service) itr.next();
-
-                    if (version.equals(s.getVersion())) {
-                        continue;
-                    }
-
-                    itr.remove();
+        if (matches.size() > 1 && version != null) {
+            //version specified, look for a match, highest version wins among equals
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                if (version.equals(matches.get(i).getVersion())) {
+                    return matches.get(i);
                 }
-
-                if (vmatches.isEmpty()) {
-                    //no matching version found, drop out and next step 
-                    // will sort to return highest version
-                    vmatches = new ArrayList(matches);
-                }
-            }
-
-            //multiple services found, sort by version
-            if (vmatches.size() > 1) {
-                //use highest version
-                Comparator comparator = new Comparator() {
-                        public int compare(Object o1, Object o2) {
-                            Service s1 = (Service) o1;
-                            Service s2 = (Service) o2;
-
-                            return s1.getVersion().compareTo(s2.getVersion());
-                        }
-                    };
-
-                Collections.sort(vmatches, comparator);
             }
-
-            sBean = (Service) vmatches.get(vmatches.size() - 1);
-        } else {
-            //only a single match, that was easy
-            sBean = (Service) matches.get(0);
         }
 
-        return sBean;
+        //no version match, use highest version
+        return matches.get(matches.size() - 1);
     }
 
     public static Collection loadKvpRequestReaders() {
-        Collection kvpReaders = GeoServerExtensions.extensions(KvpRequestReader.class);
-
-        if (!(new HashSet(kvpReaders).size() == kvpReaders.size())) {
-            String msg = "Two identical kvp readers found";
-            throw new IllegalStateException(msg);
-        }
-
-        return kvpReaders;
+        return new ArrayList(tables().kvpReaders);
     }
 
     public static KvpRequestReader findKvpRequestReader(Class type) {
-        Collection kvpReaders = loadKvpRequestReaders();
-
-        List matches = new ArrayList();
-
-        for (Iterator itr = kvpReaders.iterator(); itr.hasNext();) {
-            KvpRequestReader kvpReader = (KvpRequestReader) itr.next();
-
-            if (kvpReader.getRequestBean().isAssignableFrom(type)) {
-                matches.add(kvpReader);
-            }
-        }
-
-        if (matches.isEmpty()) {
-            return null;
-        }
-
-        if (matches.size() > 1) {
-            //sort by class hierarchy
-            Comparator comparator = new Comparator() {
-                    public int compare(Object o1, Object o2) {
-                        KvpRequestReader kvp1 = (KvpRequestReader) o1;
-                        KvpRequestReader kvp2 = (KvpRequestReader) o2;
-
-                        if (kvp2.getRequestBean().isAssignableFrom(kvp1.getRequestBean())) {
-                            return -1;
-                        }
-
-                        return 1;
-                    }
-                };
-
-            Collections.sort(matches, comparator);
-        }
-
-        return (KvpRequestReader) matches.get(0);
+        return tables().kvpReader(type);
     }
 
     Collection loadXmlReaders() {
-        List<XmlRequestReader> xmlReaders = GeoServerExtensions.extensions(XmlRequestReader.class);
-
-        if (!(new HashSet<XmlRequestReader>(xmlReaders).size() == xmlReaders.size())) {
-        
-            String msg = "Two identical xml readers found";
-            for (int i = 0; i < xmlReaders.size(); i++) {
-                XmlRequestReader r1 = xmlReaders.get(i);
-                for (int j = i + 1; j < xmlReaders.size(); j++) {
-                    XmlRequestReader r2 = xmlReaders.get(j);
-                    if(r1.equals(r2)) {
-                        msg += ": " + r1 + " and " + r2;
-                        break;
-                    }
-                }
-                
-            }
-            
-            throw new IllegalStateException(msg);
-        }
-
-        return xmlReaders;
+        return new ArrayList(tables().xmlReaderList);
     }
 
     XmlRequestReader findXmlReader(String namespace, String element, String serviceId, String ver) {
-        Collection xmlReaders = loadXmlReaders();
-
         //first just match on namespace, element
-        List matches = new ArrayList();
-
-        for (Iterator itr = xmlReaders.iterator(); itr.hasNext();) {
-            XmlRequestReader xmlReader = (XmlRequestReader) itr.next();
-            QName xmlElement = xmlReader.getElement();
-
-            if (xmlElement.getLocalPart().equalsIgnoreCase(element)) {
-                if (xmlElement.getNamespaceURI().equalsIgnoreCase(namespace)) {
-                    matches.add(xmlReader);
-                }
-            }
-        }
+        List matches = tables().xmlReaders(namespace, element);
 
         if (matches.isEmpty()) {
             //do a more lax serach, search only on the element name if the 
@@ -1179,27 +1084,8 @@ public class Dispatcher extends AbstractController {
                     + " xml reader by element name only";
                 logger.info( msg );
                 
-                for ( Iterator itr = xmlReaders.iterator(); itr.hasNext(); ) {
-                    XmlRequestReader xmlReader = (XmlRequestReader) itr.next();
-                    if ( xmlReader.getElement().getLocalPart().equals( element ) ) {
-                        matches.add( xmlReader );
-                    }
-                }
-                
-                if ( !matches.isEmpty() ) {
-                    //we found some matches, make sure they are all in the 
-                    // same service
-                    Iterator itr = matches.iterator();
-                    XmlRequestReader first = (XmlRequestReader) itr.next();
-                    while( itr.hasNext() ) {
-                        XmlRequestReader xmlReader = (XmlRequestReader ) itr.next();
-                        if (!first.getServiceId().equals(xmlReader.getServiceId())) {
-                            //abort
-                            matches.clear();
-                            break;
-                        }
-                    }
-                }
+                //readers found this way are all in the same service
+                matches = tables().xmlReaders( element );
             }
         }
         
@@ -1389,37 +1275,12 @@ public class Dispatcher extends AbstractController {
             return null;
         }
 
-        //create stream parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-
-        //parse root element
-        XmlPullParser parser = factory.newPullParser();
-        //parser.setInput(input, "UTF-8");
-        parser.setInput(input);
-        parser.nextTag();
-
-        String namespace = (parser.getNamespace() != null) ? parser.getNamespace() : "";
-        String element = parser.getName();
-        String version = null;
-        String service = null;
-
-        for (int i = 0; i < parser.getAttributeCount(); i++) {
-            if ("version".equals(parser.getAttributeName(i))) {
-                version = parser.getAttributeValue(i);
-            }
-            if ("service".equals(parser.getAttributeName(i))) {
-                service = parser.getAttributeValue(i);
-            }
-        }
-        
-        
-
-        parser.setInput(null);
-
-        //reset input stream
-        input.reset();
+        //parse root element, unless already done while dispatching
+        RootElement root = root(input, request);
+        String namespace = root.namespace;
+        String element = root.name;
+        String version = root.attributes.get("version");
+        String service = root.attributes.get("service");
 
         XmlRequestReader xmlReader = findXmlReader(namespace, element, service, version);
         if (xmlReader == null ) {
@@ -1446,33 +1307,48 @@ public class Dispatcher extends AbstractController {
     }
 
     Map readOpPost(BufferedReader input) throws Exception {
-        //create stream parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
+        return readOpPost(input, null);
+    }
 
-        //parse root element
-        XmlPullParser parser = factory.newPullParser();
-        parser.setInput(input);
-        parser.nextTag();
+    Map readOpPost(BufferedReader input, Request request) throws Exception {
+        RootElement root = root(input, request);
 
         Map map = new HashMap();
-        map.put("request", parser.getName());
-
-        for (int i = 0; i < parser.getAttributeCount(); i++) {
-            String attName = parser.getAttributeName(i);
+        map.put("request", root.name);
 
-            if ("service".equals(attName)) {
-                map.put("service", parser.getAttributeValue(i));
+        for (String attName : new String[] { "service", "version", "outputFormat" }) {
+            if (root.attributes.containsKey(attName)) {
+                map.put(attName, root.attributes.get(attName));
             }
+        }
 
-            if ("version".equals(parser.getAttributeName(i))) {
-                map.put("version", parser.getAttributeValue(i));
-            }
+        return map;
+    }
 
-            if ("outputFormat".equals(attName)) {
-                map.put("outputFormat", parser.getAttributeValue(i));
-            }
+    /**
+     * Returns the root element of an xml request body.
+     * <p>
+     * The root element is parsed once and remembered by the request, as long as its input is not
+     * replaced. Parsing is limited to the xml lookahead, so the input can always be reset to be
+     * handed over to the xml reader, which parses the body in a single streaming pass.
+     * </p>
+     */
+    RootElement root(BufferedReader input, Request request) throws Exception {
+        if (request != null && request.root != null && request.root.input == input) {
+            return request.root;
+        }
+
+        //parse root element
+        XmlPullParser parser = xppFactory.newPullParser();
+        parser.setInput(new LookaheadReader(input, XML_LOOKAHEAD));
+        parser.nextTag();
+
+        RootElement root = new RootElement();
+        root.input = input;
+        root.namespace = (parser.getNamespace() != null) ? parser.getNamespace() : "";
+        root.name = parser.getName();
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            root.attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
         }
 
         //close parser + release resources
@@ -1481,7 +1357,10 @@ public class Dispatcher extends AbstractController {
         //reset the input stream
         input.reset();
 
-        return map;
+        if (request != null) {
+            request.root = root;
+        }
+        return root;
     }
 
     void exception(Throwable t, Service service, Request request) {
@@ -1571,17 +1450,7 @@ public class Dispatcher extends AbstractController {
 
         if (service != null) {
             //look up the service exception handler
-            Collection handlers = GeoServerExtensions.extensions(ServiceExceptionHandler.class);
-            for (Iterator h = handlers.iterator(); h.hasNext();) {
-                ServiceExceptionHandler seh = (ServiceExceptionHandler) h.next();
-
-                if (seh.getServices().contains(service)) {
-                    //found one,
-                    handler = seh;
-
-                    break;
-                }
-            }
+            handler = tables().exceptionHandler(service);
         }
 
         if (handler == null) {
@@ -1612,4 +1481,69 @@ public class Dispatcher extends AbstractController {
         this.xmlPostRequestLogBufferSize = bufferSize;
     }
 
+    /**
+     * Root element of an xml request.
+     */
+    static class RootElement {
+        /** the input the element was read from */
+        BufferedReader input;
+
+        String namespace;
+        String name;
+        Map<String, String> attributes = new HashMap<String, String>();
+    }
+
+    /**
+     * Reader ending after a fixed number of chars, used to make sure the parse of the root element
+     * does not read past the point the input can be reset to.
+     */
+    static class LookaheadReader extends FilterReader {
+        int remaining;
+
+        LookaheadReader(Reader in, int lookahead) {
+            super(in);
+            this.remaining = lookahead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int c = super.read();
+            if (c != -1) {
+                remaining--;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(cbuf, off, Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            //the underlying input is still to be read
+        }
+    }
 }
@@ -55,6 +55,11 @@ public class Request {
      */
     protected BufferedReader input;
 
+    /**
+     * root element of the xml body, parsed once for all on first access
+     */
+    Dispatcher.RootElement root;
+
     /**
      * The ows service,request,version
      */
@@ -0,0 +1,100 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Schedules the actions enforcing the timeouts of requests, such as stopping a rendering that
+ * takes too long, on a single thread shared by all requests.
+ * <p>
+ * Using a timer per request would create and destroy a thread for each of them. The actions
+ * are expected to be quick, since they all run one after the other in the same thread, they
+ * should only flag the request as timed out and ask it to stop.
+ * </p>
+ * <p>
+ * Requests completing before their timeout must cancel the action through
+ * {@link #cancel(ScheduledFuture)}, which also takes care of removing the cancelled actions
+ * from the scheduler queue from time to time.
+ * </p>
+ * <p>
+ * The class is registered as a bean only so that the scheduler thread is shut down along with
+ * the application context, see {@link #destroy()}.
+ * </p>
+ */
+public class TimeoutScheduler implements DisposableBean {
+
+    /**
+     * number of cancellations after which the cancelled actions are removed from the queue
+     */
+    static final int PURGE_INTERVAL = 1000;
+
+    static volatile ScheduledThreadPoolExecutor scheduler;
+
+    static final AtomicInteger cancelled = new AtomicInteger();
+
+    static ScheduledThreadPoolExecutor scheduler() {
+        if (scheduler == null) {
+            synchronized (TimeoutScheduler.class) {
+                if (scheduler == null) {
+                    scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GeoServerTimeouts");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Schedules an action to be run once the timeout elapses.
+     *
+     * @param action The action to run, it must not block.
+     * @param timeout The timeout, in milliseconds.
+     *
+     * @return The handle to cancel the action with.
+     */
+    public static ScheduledFuture<?> schedule(Runnable action, long timeout) {
+        return scheduler().schedule(action, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels an action, if it has not run yet.
+     *
+     * @return true if the action was cancelled, false if it already ran.
+     */
+    public static boolean cancel(ScheduledFuture<?> handle) {
+        boolean result = handle.cancel(false);
+        if (result && cancelled.incrementAndGet() % PURGE_INTERVAL == 0) {
+            //cancelled actions stay in the queue until their delay elapses otherwise
+            scheduler().purge();
+        }
+        return result;
+    }
+
+    /**
+     * Shuts down the scheduler, the actions still pending are dropped. The scheduler is
+     * recreated if more actions get scheduled afterwards.
+     */
+    public void destroy() throws Exception {
+        synchronized (TimeoutScheduler.class) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+                scheduler = null;
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletInputStream;
@@ -18,6 +19,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.TestCase;
 
+import org.geoserver.platform.Service;
 import org.geoserver.test.CodeExpectingHttpServletResponse;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
 
@@ -108,6 +110,33 @@ public class DispatcherTest extends TestCase {
         assertEquals("hello", map.get("service"));
     }
 
+    public void testReadOpPostParsesRootOnce() throws Exception {
+        String body = "<Hello service=\"hello\" version=\"1.0.0\" message=\"Hello world!\"/>";
+        
+        Dispatcher dispatcher = new Dispatcher();
+        BufferedReader input = new BufferedReader(new InputStreamReader(
+            new MockServletInputStream(body.getBytes())));
+        input.mark(2048);
+
+        Request req = new Request();
+        req.setInput(input);
+
+        Map map = dispatcher.readOpPost(input, req);
+        assertEquals("Hello", map.get("request"));
+        assertEquals("1.0.0", map.get("version"));
+        assertNotNull(req.root);
+        assertSame(req.root, dispatcher.root(input, req));
+        
+        //the input is left untouched for the xml reader
+        assertEquals(body, input.readLine());
+        
+        //a replaced input is parsed again
+        BufferedReader other = new BufferedReader(new InputStreamReader(
+            new MockServletInputStream("<Goodbye/>".getBytes())));
+        other.mark(2048);
+        assertEquals("Goodbye", dispatcher.readOpPost(other, req).get("request"));
+    }
+
     public void testParseKVP() throws Exception {
         URL url = getClass().getResource("applicationContext.xml");
 
@@ -354,4 +383,32 @@ public class DispatcherTest extends TestCase {
         dispatcher.handleRequest(request, response);
         assertEquals(HttpServletResponse.SC_NO_CONTENT, response.getStatusCode());
     }
+
+    public void testDispatchTables() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        assertNull(Dispatcher.tables);
+        
+        Service service = dispatcher.findService("HELLO", "2.0.0");
+        assertNotNull(service);
+        assertEquals("hello", service.getId());
+        assertNull(dispatcher.findService("goodbye", null));
+        assertNotNull(Dispatcher.tables);
+        
+        assertTrue(Dispatcher.findKvpRequestReader(Message.class) instanceof MessageKvpRequestReader);
+        assertTrue(dispatcher.findXmlReader("", "Hello", null, null) instanceof MessageXmlParser);
+        assertNull(dispatcher.findXmlReader("http://foo", "Hello", null, null));
+        
+        List<Response> responses = Dispatcher.tables().responses(Message.class, "text/plain");
+        assertEquals(1, responses.size());
+        assertSame(responses, Dispatcher.tables().responses(Message.class, "text/foo"));
+        assertTrue(Dispatcher.tables().responses(String.class, null).isEmpty());
+        
+        //refreshing the context drops the tables
+        context.refresh();
+        assertNull(Dispatcher.tables);
+    }
 }
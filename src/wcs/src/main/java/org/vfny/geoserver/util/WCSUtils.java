@@ -18,6 +18,7 @@ import javax.media.jai.Interpolation;
 
 import org.geoserver.catalog.CoverageDimensionInfo;
 import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.ResourcePool;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.wcs.WCSInfo;
@@ -355,7 +356,7 @@ public class WCSUtils {
             final CoordinateReferenceSystem requestCRS = requestedEnvelope.getCoordinateReferenceSystem();
             final CoordinateReferenceSystem nativeCRS = reader.getCrs();
             if(!CRS.equalsIgnoreMetadata(requestCRS, nativeCRS)) {
-                requestedEnvelope = CRS.transform(CRS.findMathTransform(requestCRS, nativeCRS, true), requestedEnvelope);
+                requestedEnvelope = CRS.transform(ResourcePool.findMathTransform(requestCRS, nativeCRS, true), requestedEnvelope);
             }
             // intersect with the native envelope, we cannot read outside of it
             requestedEnvelope.intersect(reader.getOriginalEnvelope());
@@ -42,6 +42,7 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.ResourcePool;
 import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.util.CoverageUtils;
@@ -487,7 +488,7 @@ public class DefaultWebCoverageService100 implements WebCoverageService100 {
             GeneralEnvelope destinationEnvelope = (GeneralEnvelope) getHorizontalEnvelope(computeIntersectionEnvelope(
                     requestedEnvelope, nativeEnvelope));
             if(targetCRS != null) {
-                MathTransform mt = CRS.findMathTransform(nativeCRS, targetCRS);
+                MathTransform mt = ResourcePool.findMathTransform(nativeCRS, targetCRS, false);
                 destinationEnvelope = CRS.transform(mt, destinationEnvelope);
                 destinationEnvelope.setCoordinateReferenceSystem(targetCRS);
             }
@@ -528,7 +529,7 @@ public class DefaultWebCoverageService100 implements WebCoverageService100 {
         }
         
         // create transformation and check that it is not the identity again
-        final MathTransform transform= CRS.findMathTransform(originalCRS, horizontalCRS);
+        final MathTransform transform= ResourcePool.findMathTransform(originalCRS, horizontalCRS, false);
         if(transform.isIdentity()) {
             return originalEnvelope;
         }
@@ -556,7 +557,7 @@ public class DefaultWebCoverageService100 implements WebCoverageService100 {
             MathTransform destinationToSourceTransform = null;
             // STEP 1: reproject requested BBox to native CRS if needed
             if (!CRS.equalsIgnoreMetadata(requestCRS, nativeCRS))
-                destinationToSourceTransform = CRS.findMathTransform(requestCRS, nativeCRS, true);
+                destinationToSourceTransform = ResourcePool.findMathTransform(requestCRS, nativeCRS, true);
             // now transform the requested envelope to source crs
             if (destinationToSourceTransform != null && !destinationToSourceTransform.isIdentity()) {
                 retVal = CRS.transform(destinationToSourceTransform,
@@ -614,7 +615,7 @@ public class DefaultWebCoverageService100 implements WebCoverageService100 {
             // STEP 1 reproject the requested envelope to the coverage geographic bbox
             if (!CRS.equalsIgnoreMetadata(nativeCRS, requestCRS)) {
                 // try to convert the requested bbox to the coverage geocrs
-                final MathTransform requestCRSToCoverageGeographicCRS2D = CRS.findMathTransform(
+                final MathTransform requestCRSToCoverageGeographicCRS2D = ResourcePool.findMathTransform(
                         requestCRS, nativeGeoCRS, true);
                 if (!requestCRSToCoverageGeographicCRS2D.isIdentity()) {
                     requestedBBOXInNativeGeographicCRS = CRS.transform(
@@ -637,7 +638,7 @@ public class DefaultWebCoverageService100 implements WebCoverageService100 {
 
             // now go back to the coverage native CRS in order to compute an approximate requested
             // resolution
-            final MathTransform transform = CRS.findMathTransform(nativeGeoCRS, requestCRS, true);
+            final MathTransform transform = ResourcePool.findMathTransform(nativeGeoCRS, requestCRS, true);
             final GeneralEnvelope approximateRequestedBBox = CRS.transform(transform,
                     requestedBBOXInNativeGeographicCRS);
             approximateRequestedBBox.setCoordinateReferenceSystem(requestCRS);
@@ -38,6 +38,7 @@ import net.opengis.wcs11.TimeSequenceType;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageDimensionInfo;
 import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.ResourcePool;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.util.CoverageUtils;
 import org.geoserver.ows.util.RequestUtils;
@@ -180,7 +181,7 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
                     // otherwise we need to transform
                     final CoordinateReferenceSystem bboxCRS = CRS.decode(bbox.getCrs());
                     requestedEnvelope.setCoordinateReferenceSystem(bboxCRS);
-                    bboxToNativeTx = CRS.findMathTransform(bboxCRS, nativeCRS,true);
+                    bboxToNativeTx = ResourcePool.findMathTransform(bboxCRS, nativeCRS, true);
                     if(!bboxToNativeTx.isIdentity()){
 	                    requestedEnvelopeInSourceCRS = CRS.transform(bboxToNativeTx,requestedEnvelope);
 	                    requestedEnvelopeInSourceCRS.setCoordinateReferenceSystem(nativeCRS);
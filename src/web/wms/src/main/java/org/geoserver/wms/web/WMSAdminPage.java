@@ -14,6 +14,7 @@ import java.util.regex.Pattern;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.markup.html.AjaxLink;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.CheckBox;
 import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.Form;
@@ -32,10 +33,12 @@ import org.geoserver.web.services.BaseServiceAdminPage;
 import org.geoserver.web.util.MapModel;
 import org.geoserver.web.wicket.FileExistsValidator;
 import org.geoserver.web.wicket.LiveCollectionModel;
+import org.geoserver.web.wicket.ParamResourceModel;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
+import org.geoserver.wms.map.QuickTileCache;
 import org.geoserver.wms.web.publish.LayerAuthoritiesAndIdentifiersPanel;
 import org.geotools.referencing.CRS;
 
@@ -52,6 +55,9 @@ public class WMSAdminPage extends BaseServiceAdminPage<WMSInfo> {
     
     static final List<String> KML_SUPEROVERLAY_MODES = Arrays.asList(new String[] {WMS.KML_SUPEROVERLAY_MODE_AUTO, 
             WMS.KML_SUPEROVERLAY_MODE_RASTER, WMS.KML_SUPEROVERLAY_MODE_OVERVIEW, WMS.KML_SUPEROVERLAY_MODE_HYBRID, WMS.KML_SUPEROVERLAY_MODE_CACHED});
+    
+    static final List<String> META_TILE_CACHE_POLICIES = Arrays.asList(new String[] {
+            QuickTileCache.EvictionPolicy.LRU.name(), QuickTileCache.EvictionPolicy.LFU.name()});
 
     public WMSAdminPage() {
         super();
@@ -169,6 +175,24 @@ public class WMSAdminPage extends BaseServiceAdminPage<WMSInfo> {
         TextField<Integer> kmScoreField = new TextField<Integer>("kml.kmscore", kmScore, Integer.class);
         kmScoreField.add(new RangeValidator<Integer>(0, 100));
         form.add(kmScoreField);
+        
+        // meta tile cache
+        MapModel metaTileCacheSize = defaultedModel(metadataModel, WMS.META_TILE_CACHE_SIZE, WMS.META_TILE_CACHE_SIZE_DEFAULT);
+        TextField<Integer> metaTileCacheSizeField = new TextField<Integer>("metaTileCache.size", metaTileCacheSize, Integer.class);
+        metaTileCacheSizeField.add(new MinimumValidator<Integer>(0));
+        form.add(metaTileCacheSizeField);
+        MapModel metaTileCachePolicy = defaultedModel(metadataModel, WMS.META_TILE_CACHE_POLICY, WMS.META_TILE_CACHE_POLICY_DEFAULT);
+        form.add(new DropDownChoice("metaTileCache.policy", metaTileCachePolicy, META_TILE_CACHE_POLICIES));
+        MapModel offHeapSize = defaultedModel(metadataModel, WMS.META_TILE_OFFHEAP_CACHE_SIZE, WMS.META_TILE_OFFHEAP_CACHE_SIZE_DEFAULT);
+        TextField<Integer> offHeapSizeField = new TextField<Integer>("metaTileCache.offHeapSize", offHeapSize, Integer.class);
+        offHeapSizeField.add(new MinimumValidator<Integer>(0));
+        form.add(offHeapSizeField);
+        form.add(new CheckBox("metaTileCache.offHeapMapped", defaultedModel(metadataModel, WMS.META_TILE_OFFHEAP_CACHE_MAPPED, WMS.META_TILE_OFFHEAP_CACHE_MAPPED_DEFAULT)));
+        QuickTileCache cache = (QuickTileCache) getGeoServerApplication().getBean("metaTileCache");
+        form.add(new Label("metaTileCache.statistics", new ParamResourceModel("metaTileCacheStatistics", this, 
+                cache.getMetaTileCount(), cache.getSize() / 1024, cache.getHits(), cache.getMisses(), cache.getEvictions())));
+        form.add(new Label("metaTileCache.offHeapStatistics", new ParamResourceModel("metaTileCacheOffHeapStatistics", this, 
+                cache.getOffHeapMetaTileCount(), cache.getOffHeapSize() / 1024, cache.getOffHeapHits())));
     }
     
     MapModel defaultedModel(IModel baseModel, String key, Object defaultValue) {
@@ -97,6 +97,18 @@ public class WMSLayerConfig extends LayerConfigurationPanel {
         styleContainer.add(renderingBuffer);
         
         add(new TextField("wmsPath", new PropertyModel(layerModel, "path")));
+        
+        // meta tiling used by the WMS when serving tiled requests
+        PropertyModel metadata = new PropertyModel(layerModel, "metadata");
+        TextField metaTilingX = new TextField("metaTilingX", new MapModel(metadata, LayerInfo.META_TILING_X), Integer.class);
+        metaTilingX.add(NumberValidator.minimum(1));
+        add(metaTilingX);
+        TextField metaTilingY = new TextField("metaTilingY", new MapModel(metadata, LayerInfo.META_TILING_Y), Integer.class);
+        metaTilingY.add(NumberValidator.minimum(1));
+        add(metaTilingY);
+        TextField metaTilingGutter = new TextField("metaTilingGutter", new MapModel(metadata, LayerInfo.META_TILING_GUTTER), Integer.class);
+        metaTilingGutter.add(NumberValidator.minimum(0));
+        add(metaTilingGutter);
 
         // authority URLs and identifiers for this layer
         LayerAuthoritiesAndIdentifiersPanel authAndIds;
@@ -17,6 +17,7 @@ import net.opengis.wfs.TransactionType;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wfs.request.DescribeFeatureTypeRequest;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetCapabilitiesRequest;
@@ -117,6 +118,7 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
         throws WFSException {
         GetFeature getFeature = new GetFeature(getServiceInfo(), catalog);
         getFeature.setFilterFactory(filterFactory);
+        getFeature.setCountCache(GeoServerExtensions.bean(FeatureCountCache.class));
 
         return getFeature.run(new GetFeatureRequest.WFS11(request));
     }
@@ -0,0 +1,302 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.config.GeoServer;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the number of features matched by GetFeature queries, so that clients polling
+ * resultType=hits requests do not cause a count against the store each time.
+ * <p>
+ * Counts are keyed by feature type, filter, sql view parameters and user, the latter since
+ * data security rules may hide features to some users. Entries expire after a configurable
+ * amount of time and are invalidated as soon as a WFS transaction touching their feature type
+ * is committed. A count running while its feature type gets invalidated is returned but not
+ * cached. Changes made to the data outside of WFS transactions are picked up only once the
+ * entries expire.
+ * </p>
+ * <p>
+ * The cache is configured through the WFS service metadata:
+ * <ul>
+ *   <li>{@link #ENABLED}: whether counts are cached, defaults to false</li>
+ *   <li>{@link #TIMEOUT}: the number of seconds a count is kept, defaults to 60</li>
+ *   <li>{@link #ESTIMATED}: whether hits requests can be answered with an estimated count,
+ *   defaults to false. Estimated counts come from the store itself when it can count without
+ *   scanning the data, in which case the count is cached as usual, or from an expired or
+ *   invalidated entry of the cache otherwise, as long
+ *   as it is not older than {@link #MAX_ESTIMATE_AGE} times the timeout. Only when neither is
+ *   available the features are counted.</li>
+ * </ul>
+ * </p>
+ */
+public class FeatureCountCache implements TransactionPlugin {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureCountCache.class);
+
+    public static final String ENABLED = "countCache";
+    public static final String TIMEOUT = "countCacheTimeout";
+    public static final String ESTIMATED = "countEstimated";
+
+    static final int DEFAULT_TIMEOUT = 60;
+
+    /**
+     * maximum number of cached counts, the least recently used ones are dropped first
+     */
+    static final int MAX_ENTRIES = 1000;
+
+    /**
+     * age past which a count is not used as an estimate anymore, in timeouts
+     */
+    static final int MAX_ESTIMATE_AGE = 10;
+
+    GeoServer gs;
+
+    /**
+     * cached counts, access ordered
+     */
+    Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * number of invalidations by feature type local name, guarded by entries. Counts are cached
+     * only if the number did not change while counting
+     */
+    Map<String, Long> sequences = new HashMap<String, Long>();
+
+    /**
+     * feature types touched by the transaction running in the current thread
+     */
+    ThreadLocal<Set<QName>> changed = new ThreadLocal<Set<QName>>();
+
+    public FeatureCountCache(GeoServer gs) {
+        this.gs = gs;
+    }
+
+    /**
+     * Returns true if counts are being cached.
+     */
+    public boolean isEnabled() {
+        Boolean enabled = metadata().get(ENABLED, Boolean.class);
+        return enabled != null && enabled;
+    }
+
+    /**
+     * Returns the number of features matched by a query, looking it up in the cache first.
+     *
+     * @param typeName The qualified name of the feature type the source belongs to.
+     * @param source The source to count from.
+     * @param query The query, paging and sorting are ignored.
+     * @param estimate Whether an estimated count is acceptable.
+     */
+    public int getCount(QName typeName, FeatureSource source, Query query, boolean estimate)
+            throws IOException {
+        MetadataMap metadata = metadata();
+        Integer timeout = metadata.get(TIMEOUT, Integer.class);
+        long expiry = (timeout != null ? timeout : DEFAULT_TIMEOUT) * 1000l;
+        estimate = estimate && Boolean.TRUE.equals(metadata.get(ESTIMATED, Boolean.class));
+
+        Query q = new Query(query);
+        q.setStartIndex(null);
+        q.setMaxFeatures(Query.DEFAULT_MAX);
+        q.setSortBy(null);
+
+        Key key = new Key(typeName, q);
+        Entry entry;
+        long sequence;
+        synchronized (entries) {
+            entry = entries.get(key);
+            sequence = sequence(typeName);
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.valid && now - entry.time < expiry) {
+            return entry.count;
+        }
+
+        if (estimate) {
+            //the store might be able to count quickly, otherwise stick with what we know
+            int count = source.getCount(q);
+            if (count >= 0) {
+                put(key, count, now, sequence);
+                return count;
+            }
+            if (entry != null && now - entry.time < expiry * MAX_ESTIMATE_AGE) {
+                return entry.count;
+            }
+        }
+
+        int count = source.getFeatures(q).size();
+        put(key, count, now, sequence);
+        return count;
+    }
+
+    /**
+     * Caches a count, unless the feature type has been invalidated since the count started.
+     */
+    void put(Key key, int count, long time, long sequence) {
+        synchronized (entries) {
+            if (sequence(key.typeName) == sequence) {
+                entries.put(key, new Entry(count, time));
+            }
+        }
+    }
+
+    /**
+     * Returns the invalidation sequence of a feature type, callers must hold the lock on entries.
+     */
+    long sequence(QName typeName) {
+        Long sequence = sequences.get(typeName.getLocalPart());
+        return sequence != null ? sequence : 0;
+    }
+
+    /**
+     * Invalidates the counts of a feature type, if the name has no namespace the counts of all
+     * the feature types with the same local name are invalidated.
+     */
+    public void invalidate(QName typeName) {
+        boolean local = typeName.getNamespaceURI() == null || "".equals(typeName.getNamespaceURI());
+        synchronized (entries) {
+            //tracked by local name, a count running against a feature type with the same local
+            // name in another namespace is just not cached
+            sequences.put(typeName.getLocalPart(), sequence(typeName) + 1);
+            for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+                QName name = e.getKey().typeName;
+                if (local ? name.getLocalPart().equals(typeName.getLocalPart()) 
+                        : name.equals(typeName)) {
+                    //keep the count around for estimates
+                    e.getValue().valid = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached counts.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        changed.remove();
+        return request;
+    }
+
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (event.getLayerName() == null) {
+            return;
+        }
+        //events are sent before the changes are committed, a count run in between would cache
+        // the previous state, wait for the commit to invalidate
+        Set<QName> names = changed.get();
+        if (names == null) {
+            names = new HashSet<QName>();
+            changed.set(names);
+        }
+        names.add(event.getLayerName());
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+    }
+
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        Set<QName> names = changed.get();
+        changed.remove();
+        if (!committed || names == null) {
+            return;
+        }
+        for (QName name : names) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Invalidating cached counts of " + name);
+            }
+            invalidate(name);
+        }
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    MetadataMap metadata() {
+        return gs.getService(WFSInfo.class).getMetadata();
+    }
+
+    static class Key {
+        QName typeName;
+        Filter filter;
+        Object viewParams;
+        String user;
+
+        Key(QName typeName, Query query) {
+            this.typeName = typeName;
+            this.filter = query.getFilter();
+            this.viewParams = query.getHints() != null ?
+                query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS) : null;
+
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            this.user = auth != null ? auth.getName() : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return typeName.equals(other.typeName) && eq(filter, other.filter)
+                && eq(viewParams, other.viewParams) && eq(user, other.user);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = typeName.hashCode();
+            hash = hash * 31 + (filter != null ? filter.hashCode() : 0);
+            hash = hash * 31 + (viewParams != null ? viewParams.hashCode() : 0);
+            return hash * 31 + (user != null ? user.hashCode() : 0);
+        }
+
+        boolean eq(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    static class Entry {
+        int count;
+        long time;
+        volatile boolean valid = true;
+
+        Entry(int count, long time) {
+            this.count = count;
+            this.time = time;
+        }
+    }
+}
@@ -44,6 +44,7 @@ import org.geotools.data.Join;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.SchemaException;
 import org.geotools.filter.FilterCapabilities;
@@ -75,6 +76,7 @@ import org.opengis.filter.PropertyIsNull;
 import org.opengis.filter.expression.ExpressionVisitor;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import org.opengis.filter.spatial.BBOX;
 import org.opengis.filter.spatial.Beyond;
 import org.opengis.filter.spatial.BinarySpatialOperator;
@@ -113,6 +115,24 @@ import org.xml.sax.helpers.NamespaceSupport;
  */
 public class GetFeature {
     public static final String SQL_VIEW_PARAMS = "GS_SQL_VIEW_PARAMS";
+
+    /**
+     * request metadata key of the paging cursor token, see {@link PagingCursor}
+     */
+    public static final String PAGING_CURSOR = "GS_PAGING_CURSOR";
+
+    /**
+     * WFS metadata key of the flag controlling whether the next links of sorted WFS 2.0 
+     * responses page by key rather than by offset, defaults to false
+     */
+    public static final String KEYSET_PAGING = "keysetPaging";
+
+    /**
+     * feature type metadata key of the name of the attribute uniquely identifying its features,
+     * usually the primary key, used as the last sort key when paging by key. Feature types 
+     * without it are paged by offset
+     */
+    public static final String KEYSET_PAGING_KEY = "keysetPagingKey";
     
     /** Standard logging instance for class */
     private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.vfny.geoserver.requests");
@@ -175,6 +195,9 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /** cache of feature counts */
+    FeatureCountCache countCache;
+
     /**
      * Creates the WFS 1.0/1.1 GetFeature operation.
      */
@@ -226,6 +249,13 @@ public class GetFeature {
         this.storedQueryProvider = storedQueryProvider;
     }
 
+    /**
+     * Sets the cache used to look up the number of features matched by queries.
+     */
+    public void setCountCache(FeatureCountCache countCache) {
+        this.countCache = countCache;
+    }
+
     public FeatureCollectionResponse run(GetFeatureRequest request)
         throws WFSException {
         List<Query> queries = request.getQueries();
@@ -311,6 +341,10 @@ public class GetFeature {
         int totalOffset = request.getStartIndex() != null ? request.getStartIndex().intValue() : -1;
         int offset = totalOffset;
 
+        //position into the result set to page from, mutually exclusive with the offset
+        PagingCursor cursor = getPagingCursor(request);
+        PagingCursor nextCursor = null;
+
         List results = new ArrayList();
         try {
             for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
@@ -461,8 +495,31 @@ public class GetFeature {
                     queryMaxFeatures = metaMaxFeatures;
                 }
                 Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
-                org.geotools.data.Query gtQuery = toDataQuery(query, filter, offset, queryMaxFeatures, 
+
+                // when paging by key start from the cursor position
+                boolean keysetPaging = isKeysetPageable(request, query, metas);
+                if (keysetPaging && cursor == null) {
+                    // nulls sort differently in each store, page those results by offset
+                    keysetPaging = !hasNullSortValues(query, meta, filter, source, request, 
+                        viewParam, joins);
+                }
+                List<SortBy> keysetOrder = keysetPaging ? keysetSortBy(query, meta) : null;
+                Filter pageFilter = filter;
+                if (cursor != null) {
+                    if (!keysetPaging || !cursor.matches(meta.getPrefixedName(), keysetOrder)) {
+                        throw new WFSException(request, "The cursor does not match the query, " +
+                            "it can only be used with the sorted query it was generated for", 
+                            "InvalidParameterValue").locator("cursor");
+                    }
+                    Filter keyset = cursor.toFilter(filterFactory, sortBindings(keysetOrder, meta));
+                    pageFilter = filter != null ? filterFactory.and(filter, keyset) : keyset;
+                }
+
+                org.geotools.data.Query gtQuery = toDataQuery(query, pageFilter, offset, queryMaxFeatures, 
                     source, request, allPropNames.get(0), viewParam, joins);
+                if (keysetPaging) {
+                    gtQuery.setSortBy(keysetOrder.toArray(new SortBy[keysetOrder.size()]));
+                }
 
                 LOGGER.fine("Query is " + query + "\n To gt2: " + gtQuery);
 
@@ -494,7 +551,16 @@ public class GetFeature {
 
                 int size = 0;
                 if (calculateSize) {
-                    size = features.size();
+                    if (request.isResultTypeHits() && isCountCached(joins)) {
+                        //only the number is needed, derive it from the count of all the matches
+                        org.geotools.data.Query q2 = toDataQuery(query, pageFilter, 0, 
+                            Integer.MAX_VALUE, source, request, allPropNames.get(0), viewParam, joins);
+                        int matched = countCache.getCount(typeName(meta), source, q2, true);
+                        size = Math.max(0, Math.min(queryMaxFeatures, matched - Math.max(offset, 0)));
+                    }
+                    else {
+                        size = features.size();
+                    }
                 }
                 
                 //update the count
@@ -510,7 +576,7 @@ public class GetFeature {
                     else {
                         //no features might have been because of the offset that was specified, check 
                         // the size of the same query but with no offset
-                        org.geotools.data.Query q2 = toDataQuery(query, filter, 0, queryMaxFeatures, 
+                        org.geotools.data.Query q2 = toDataQuery(query, pageFilter, 0, queryMaxFeatures, 
                             source, request, allPropNames.get(0), viewParam, joins);
                         
                         //int size2 = getFeatures(request, source, q2).size();
@@ -526,16 +592,29 @@ public class GetFeature {
                 if (totalCount > -1) {
                     //check maxFeatures and offset, if they are unset we can use the size we 
                     // calculated above
-                    if (calculateSize && queryMaxFeatures == Integer.MAX_VALUE && offset == 0) {
+                    if (calculateSize && queryMaxFeatures == Integer.MAX_VALUE && offset == 0 
+                        && cursor == null) {
                         totalCount += size;
                     }
                     else {
                         org.geotools.data.Query q2 = toDataQuery(query, filter, 0, Integer.MAX_VALUE, 
                             source, request, allPropNames.get(0), viewParam, joins);
-                        totalCount += source.getFeatures(q2).size();
+                        if (isCountCached(joins)) {
+                            totalCount += countCache.getCount(typeName(meta), source, q2, 
+                                request.isResultTypeHits());
+                        }
+                        else {
+                            totalCount += source.getFeatures(q2).size();
+                        }
                     }
                 }
 
+                // a full page, the next one starts after its last feature
+                if (keysetPaging && size > 0 && size == queryMaxFeatures) {
+                    nextCursor = nextCursor(meta, query, keysetOrder, source, pageFilter, 
+                        Math.max(totalOffset, 0) + size - 1, request, viewParam, joins);
+                }
+
                 // we may need to shave off geometries we did load only to make bounds
                 // computation happy
                 // TODO: support non-SimpleFeature geometry shaving
@@ -608,7 +687,191 @@ public class GetFeature {
             lockId = response.getLockId();
         }
 
-        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
+        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId,
+            cursor, nextCursor);
+    }
+
+    /**
+     * Returns true if the count of the features matched by a query can be looked up in the 
+     * count cache, which does not handle joins.
+     */
+    boolean isCountCached(List<Join> joins) {
+        return countCache != null && joins == null && countCache.isEnabled();
+    }
+
+    QName typeName(FeatureTypeInfo meta) {
+        return new QName(meta.getNamespace().getURI(), meta.getName());
+    }
+
+    /**
+     * Decodes the paging cursor specified by the client, if any.
+     */
+    PagingCursor getPagingCursor(GetFeatureRequest request) {
+        String token = request.getMetadata() != null ? 
+            (String) request.getMetadata().get(PAGING_CURSOR) : null;
+        if (token == null) {
+            return null;
+        }
+
+        if (request.getStartIndex() != null) {
+            throw new WFSException(request, "The cursor and startIndex parameters are mutually " +
+                "exclusive", "InvalidParameterValue").locator("cursor");
+        }
+        try {
+            return PagingCursor.decode(token);
+        }
+        catch (IllegalArgumentException e) {
+            throw new WFSException(request, "Invalid cursor: " + token, e, 
+                "InvalidParameterValue").locator("cursor");
+        }
+    }
+
+    /**
+     * Determines if a query can be paged by key, which requires keyset paging to be enabled and
+     * a WFS 2.0 request for the results of a single simple feature type with a unique key, 
+     * sorted by non geometric properties.
+     */
+    boolean isKeysetPageable(GetFeatureRequest request, Query query, List<FeatureTypeInfo> metas) 
+        throws IOException {
+        Boolean enabled = wfs.getMetadata().get(KEYSET_PAGING, Boolean.class);
+        if (enabled == null || !enabled || !request.getVersion().startsWith("2") 
+            || !request.isResultTypeResults() || request.getQueries().size() != 1 
+            || metas.size() != 1 || !(metas.get(0).getFeatureType() instanceof SimpleFeatureType)
+            || metas.get(0).getMetadata().get(KEYSET_PAGING_KEY, String.class) == null) {
+            return false;
+        }
+
+        List<SortBy> sortBy = query.getSortBy();
+        if (sortBy == null || sortBy.isEmpty()) {
+            return false;
+        }
+        FeatureType featureType = metas.get(0).getFeatureType();
+        for (SortBy sb : keysetSortBy(query, metas.get(0))) {
+            if (sb.getPropertyName() == null) {
+                return false;
+            }
+            Object att = sb.getPropertyName().evaluate(featureType);
+            if (!(att instanceof AttributeDescriptor) || att instanceof GeometryDescriptor) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    List<Class> sortBindings(List<SortBy> sortBy, FeatureTypeInfo meta) throws IOException {
+        FeatureType featureType = meta.getFeatureType();
+        List<Class> bindings = new ArrayList<Class>();
+        for (SortBy sb : sortBy) {
+            AttributeDescriptor att = 
+                (AttributeDescriptor) sb.getPropertyName().evaluate(featureType);
+            bindings.add(att.getType().getBinding());
+        }
+        return bindings;
+    }
+
+    List<PropertyName> sortProperties(Query query) {
+        List<PropertyName> props = new ArrayList<PropertyName>();
+        for (SortBy sb : query.getSortBy()) {
+            props.add(sb.getPropertyName());
+        }
+        return props;
+    }
+
+    /**
+     * Returns the sort order of a query paged by key, the sort properties followed by the 
+     * unique key of the feature type, so that the order is total.
+     */
+    List<SortBy> keysetSortBy(Query query, FeatureTypeInfo meta) {
+        List<SortBy> sortBy = new ArrayList<SortBy>(query.getSortBy());
+        String key = meta.getMetadata().get(KEYSET_PAGING_KEY, String.class);
+        sortBy.add(filterFactory.sort(key, SortOrder.ASCENDING));
+        return sortBy;
+    }
+
+    /**
+     * Determines if any of the features matched by a query has a null value for one of the
+     * sort properties.
+     */
+    boolean hasNullSortValues(Query query, FeatureTypeInfo meta, Filter filter, 
+        FeatureSource<? extends FeatureType, ? extends Feature> source, GetFeatureRequest request,
+        Map<String, String> viewParam, List<Join> joins) throws IOException {
+        FeatureType featureType = meta.getFeatureType();
+        List<Filter> nulls = new ArrayList<Filter>();
+        for (SortBy sb : keysetSortBy(query, meta)) {
+            AttributeDescriptor att = 
+                (AttributeDescriptor) sb.getPropertyName().evaluate(featureType);
+            if (att.isNillable()) {
+                nulls.add(filterFactory.isNull(sb.getPropertyName()));
+            }
+        }
+        if (nulls.isEmpty()) {
+            return false;
+        }
+
+        Filter nullFilter = nulls.size() == 1 ? nulls.get(0) : filterFactory.or(nulls);
+        if (filter != null) {
+            nullFilter = filterFactory.and(filter, nullFilter);
+        }
+        org.geotools.data.Query q = toDataQuery(query, nullFilter, 0, 1, source, request, 
+            sortProperties(query), viewParam, joins);
+        q.setSortBy(null);
+        FeatureIterator<? extends Feature> it = source.getFeatures(q).features();
+        try {
+            return it.hasNext();
+        }
+        finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Creates the cursor pointing after the last feature of a page, by reading the sort values
+     * of the last feature.
+     *
+     * @param sortBy The sort order of the page, ending with the unique key.
+     * @param pageFilter The filter the page was read with.
+     * @param last The position of the last feature of the page among the features matching
+     * the page filter.
+     *
+     * @return The cursor, or null if the page cannot be paged by key.
+     */
+    PagingCursor nextCursor(FeatureTypeInfo meta, Query query, List<SortBy> sortBy,
+        FeatureSource<? extends FeatureType, ? extends Feature> source, Filter pageFilter, 
+        int last, GetFeatureRequest request, Map<String, String> viewParam, List<Join> joins) 
+        throws IOException {
+        //read just the last feature of the page
+        List<PropertyName> properties = new ArrayList<PropertyName>();
+        for (SortBy sb : sortBy) {
+            properties.add(sb.getPropertyName());
+        }
+        org.geotools.data.Query q = toDataQuery(query, pageFilter, last, 1, source, request, 
+            properties, viewParam, joins);
+        q.setSortBy(sortBy.toArray(new SortBy[sortBy.size()]));
+        Feature lastFeature = null;
+        FeatureIterator<? extends Feature> it = source.getFeatures(q).features();
+        try {
+            if (it.hasNext()) {
+                lastFeature = it.next();
+            }
+        }
+        finally {
+            it.close();
+        }
+        if (lastFeature == null) {
+            //removed in the meantime
+            return null;
+        }
+
+        List<Object> values = new ArrayList<Object>(sortBy.size());
+        for (PropertyName property : properties) {
+            Object value = property.evaluate(lastFeature);
+            if (value == null) {
+                //ruled out before paging by key, unless added in the meantime
+                return null;
+            }
+            values.add(value);
+        }
+        return new PagingCursor(meta.getPrefixedName(), sortBy, values);
     }
 
     protected void processStoredQueries(GetFeatureRequest request) {
@@ -642,6 +905,19 @@ public class GetFeature {
      */
     protected FeatureCollectionResponse buildResults(GetFeatureRequest request, int offset, int maxFeatures, 
         int count, int total, List results, String lockId) {
+        return buildResults(request, offset, maxFeatures, count, total, results, lockId, null, null);
+    }
+
+    /**
+     * Allows subclasses to alter the result generation
+     *
+     * @param cursor The cursor the features were read from, or null.
+     * @param nextCursor The cursor to read the next page from, or null if the next page is 
+     * read by offset, or there is no next page.
+     */
+    protected FeatureCollectionResponse buildResults(GetFeatureRequest request, int offset, int maxFeatures, 
+        int count, int total, List results, String lockId, PagingCursor cursor, 
+        PagingCursor nextCursor) {
 
         FeatureCollectionResponse result = request.createResponse();
         result.setNumberOfFeatures(BigInteger.valueOf(count));
@@ -685,7 +961,14 @@ public class GetFeature {
                 result.setPrevious(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
             }
 
-            if (count > 0) {
+            if (count > 0 && nextCursor != null) {
+                //next, by key
+                kvp.remove("STARTINDEX");
+                kvp.put("CURSOR", nextCursor.encode());
+                kvp.put("count", String.valueOf(maxFeatures));
+                result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
+            }
+            else if (count > 0 && cursor == null) {
                 //next
 
                 //calculate the count of the next result set 
@@ -758,6 +1041,20 @@ public class GetFeature {
         if (filter != null) {
             kvp.put("FILTER", filter.toString());
         }
+        if (queries.size() == 1 && q.getSortBy() != null && !q.getSortBy().isEmpty()) {
+            StringBuilder sortBy = new StringBuilder();
+            for (SortBy sb : q.getSortBy()) {
+                if (sb.getPropertyName() == null) {
+                    continue;
+                }
+                sortBy.append(sb.getPropertyName().getPropertyName()).append(" ")
+                    .append(sb.getSortOrder() == SortOrder.DESCENDING ? "DESC" : "ASC").append(",");
+            }
+            if (sortBy.length() > 0) {
+                sortBy.setLength(sortBy.length()-1);
+                kvp.put("SORTBY", sortBy.toString());
+            }
+        }
         return kvp;
     }
 
@@ -1147,8 +1444,9 @@ O:      for (String propName : query.getPropertyNames()) {
                             );
                             CoordinateReferenceSystem crs = null;
                             try {
-                                crs = CRS.decode( filter.getSRS() );
-                                e = CRS.transform(CRS.findMathTransform(crs, geo, true), e);
+                                ResourcePool pool = catalog.getResourcePool();
+                                crs = pool.getCRS( filter.getSRS() );
+                                e = CRS.transform(pool.getMathTransform(crs, geo, true), e);
                             } 
                             catch( Exception ex ) {
                                 throw new WFSException( request, ex );
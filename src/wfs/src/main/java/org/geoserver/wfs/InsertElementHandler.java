@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -33,10 +34,10 @@ import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureStore;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureStore;
-import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.operation.projection.PointOutsideEnvelopeException;
 import org.opengis.feature.simple.SimpleFeature;
@@ -60,6 +61,24 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
      * logger
      */
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+    
+    /**
+     * Key of the WFS metadata entry holding the number of features of the same type written to 
+     * the store at once, zero or less meaning all the features of an insert element at once.
+     * <p>
+     * This only bounds the size of each call to the store, it does not bound memory usage: the
+     * insert element is parsed as a whole before being executed, so all of its features are held
+     * in memory regardless of the batch size. The transaction listeners see a single pre and post
+     * insert event per feature type.
+     * </p>
+     */
+    public static final String INSERT_BATCH_SIZE = "insertBatchSize";
+    
+    /**
+     * Default number of features written to the store at once
+     */
+    public static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
+    
     private FilterFactory filterFactory;
 
     public InsertElementHandler(GeoServer gs, FilterFactory filterFactory) {
@@ -85,22 +104,21 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
 
         try {
             // group features by their schema
-            HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
-
+            Map<SimpleFeatureType, List<SimpleFeature>> schema2features = 
+                new LinkedHashMap<SimpleFeatureType, List<SimpleFeature>>();
             
             List featureList = insert.getFeatures();
             for (Iterator f = featureList.iterator(); f.hasNext();) {
                 SimpleFeature feature = (SimpleFeature) f.next();
                 SimpleFeatureType schema = feature.getFeatureType();
-                SimpleFeatureCollection collection;
-                collection = (SimpleFeatureCollection) schema2features.get(schema);
 
-                if (collection == null) {
-                    collection = new DefaultFeatureCollection(null, schema);
-                    schema2features.put(schema, collection);
+                List<SimpleFeature> features = schema2features.get(schema);
+                if (features == null) {
+                    features = new ArrayList<SimpleFeature>();
+                    schema2features.put(schema, features);
                 }
 
-                collection.add(feature);
+                features.add(feature);
             }
 
             // JD: change from set fo list because if inserting
@@ -109,81 +127,11 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
             // JD: change from list to map so that the map can later be
             // processed and we can report the fids back in the same order
             // as they were supplied
-            Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
-
-            for (Iterator c = schema2features.values().iterator(); c.hasNext();) {
-                SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
-                SimpleFeatureType schema = collection.getSchema();
-
-                final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
-                SimpleFeatureStore store;
-                store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
-
-                if (store == null) {
-                    throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
-                        + "'");
-                }
+            Map<String, LinkedList<FeatureId>> schema2fids = new HashMap<String, LinkedList<FeatureId>>();
 
-                if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if(getInfo().isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
-                    
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
-                    if(defaultGeometry != null) {
-                        CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
-                        if (target != null) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
-                    
-                    // Need to use the namespace here for the
-                    // lookup, due to our weird
-                    // prefixed internal typenames. see
-                    // http://jira.codehaus.org/secure/ViewIssue.jspa?key=GEOS-143
-
-                    // Once we get our datastores making features
-                    // with the correct namespaces
-                    // we can do something like this:
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.getFeatureTypeInfo(schema.getTypeName(),
-                    // schema.getNamespace());
-                    // until then (when geos-144 is resolved) we're
-                    // stuck with:
-                    // QName qName = (QName) typeNames.get( i );
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.featureType( qName.getPrefix(),
-                    // qName.getLocalPart() );
-
-                    // this is possible with the insert hack above.
-                    LOGGER.finer("Use featureValidation to check contents of insert");
-
-                    // featureValidation(
-                    // typeInfo.getDataStore().getId(), schema,
-                    // collection );
-                    List<FeatureId> fids = schema2fids.get(schema.getTypeName());
-
-                    if (fids == null) {
-                        fids = new LinkedList<FeatureId>();
-                        schema2fids.put(schema.getTypeName(), fids);
-                    }
-
-                    //fire pre insert event
-                    TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
-                            request, elementName, collection);
-                    event.setSource( insert );
-                    
-                    listener.dataStoreChange( event );
-                    fids.addAll(store.addFeatures(collection));
-                    
-                    //fire post insert event
-                    SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
-                    event = new TransactionEvent(TransactionEventType.POST_INSERT, request, elementName, features, insert );
-                    listener.dataStoreChange( event );
-                }
+            for (Map.Entry<SimpleFeatureType, List<SimpleFeature>> e : schema2features.entrySet()) {
+                insert(insert, request, e.getKey(), e.getValue(), featureStores, schema2fids, 
+                    listener);
             }
 
             // report back fids, we need to keep the same order the
@@ -193,7 +141,7 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                 SimpleFeatureType schema = feature.getFeatureType();
 
                 // get the next fid
-                LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
+                LinkedList<FeatureId> fids = schema2fids.get(schema.getTypeName());
                 FeatureId fid = fids.removeFirst();
 
                 response.addInsertedFeature(insert.getHandle(), fid);
@@ -210,6 +158,121 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
+    /**
+     * Writes out the features of the insert element sharing the same schema, firing the pre and 
+     * post insert events for them.
+     * <p>
+     * The features are handed to the store in batches of {@link #getBatchSize()} features, the
+     * listeners still see a single pre and post insert event covering all of them. Only the store
+     * writes are batched, the features are already in memory when getting here.
+     * </p>
+     */
+    void insert(Insert insert, TransactionRequest request, SimpleFeatureType schema, 
+        List<SimpleFeature> features, Map featureStores, Map<String, LinkedList<FeatureId>> schema2fids,
+        TransactionListener listener) throws Exception {
+
+        final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
+        SimpleFeatureStore store;
+        store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
+
+        if (store == null) {
+            throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
+                + "'");
+        }
+
+        SimpleFeatureCollection collection = new ListFeatureCollection(schema, features);
+
+        // if we really need to, make sure we are inserting coordinates that do
+        // match the CRS area of validity
+        if(getInfo().isCiteCompliant()) {
+            checkFeatureCoordinatesRange(collection);
+        }
+        
+        // reprojection
+        final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
+        if(defaultGeometry != null) {
+            CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
+            if (target != null) {
+                collection = new ReprojectingFeatureCollection(collection, target);
+            }
+        }
+        
+        // Need to use the namespace here for the
+        // lookup, due to our weird
+        // prefixed internal typenames. see
+        // http://jira.codehaus.org/secure/ViewIssue.jspa?key=GEOS-143
+
+        // Once we get our datastores making features
+        // with the correct namespaces
+        // we can do something like this:
+        // FeatureTypeInfo typeInfo =
+        // catalog.getFeatureTypeInfo(schema.getTypeName(),
+        // schema.getNamespace());
+        // until then (when geos-144 is resolved) we're
+        // stuck with:
+        // QName qName = (QName) typeNames.get( i );
+        // FeatureTypeInfo typeInfo =
+        // catalog.featureType( qName.getPrefix(),
+        // qName.getLocalPart() );
+
+        // this is possible with the insert hack above.
+        LOGGER.finer("Use featureValidation to check contents of insert");
+
+        // featureValidation(
+        // typeInfo.getDataStore().getId(), schema,
+        // collection );
+        LinkedList<FeatureId> fids = schema2fids.get(schema.getTypeName());
+
+        if (fids == null) {
+            fids = new LinkedList<FeatureId>();
+            schema2fids.put(schema.getTypeName(), fids);
+        }
+
+        //fire pre insert event
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
+                request, elementName, collection);
+        event.setSource( insert );
+        
+        listener.dataStoreChange( event );
+        List<FeatureId> added = new ArrayList<FeatureId>();
+        int batchSize = getBatchSize();
+        List<SimpleFeature> batch = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = collection.features();
+        try {
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() >= batchSize) {
+                    added.addAll(store.addFeatures(
+                        new ListFeatureCollection(collection.getSchema(), batch)));
+                    batch = new ArrayList<SimpleFeature>();
+                }
+            }
+        }
+        finally {
+            it.close();
+        }
+        if (!batch.isEmpty()) {
+            added.addAll(store.addFeatures(new ListFeatureCollection(collection.getSchema(), batch)));
+        }
+        fids.addAll(added);
+        
+        //fire post insert event
+        SimpleFeatureCollection inserted = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(added)));
+        event = new TransactionEvent(TransactionEventType.POST_INSERT, request, elementName, inserted, insert );
+        listener.dataStoreChange( event );
+    }
+
+    /**
+     * Returns the number of features of the same type written to the store at once, as set by 
+     * the {@link #INSERT_BATCH_SIZE} entry of the WFS metadata.
+     */
+    int getBatchSize() {
+        Integer batchSize = getInfo().getMetadata().get(INSERT_BATCH_SIZE, Integer.class);
+        if (batchSize == null) {
+            return DEFAULT_INSERT_BATCH_SIZE;
+        }
+        return batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+    }
     
     /**
      * Checks that all features coordinates are within the expected coordinate range
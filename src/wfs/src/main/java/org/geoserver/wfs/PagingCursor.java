@@ -0,0 +1,258 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.geotools.util.Converters;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Position of a client in a sorted result set, used to page through it by key rather than
+ * by offset.
+ * <p>
+ * The cursor holds the values of the sort properties of the last feature of a page. The last
+ * sort property must be a key uniquely identifying the features, such as the primary key, so
+ * that the sort order is total and the values identify a single position in the result set.
+ * The next page is obtained by filtering the features whose sort values come after the cursor
+ * ones. Unlike a start index this lets the data store use its indexes, so that every page costs
+ * the same regardless of its depth, and features added or removed before the cursor do not
+ * shift the following pages.
+ * </p>
+ * <p>
+ * The sort values cannot be null, a filter cannot tell where each store sorts nulls.
+ * </p>
+ * <p>
+ * Cursors are handed to clients as opaque tokens through the "cursor" vendor parameter of the
+ * next link of WFS 2.0 responses, see {@link #encode()} and {@link #decode(String)}.
+ * </p>
+ */
+public class PagingCursor {
+
+    /**
+     * version of the token format
+     */
+    static final byte VERSION = 3;
+
+    /**
+     * value type markers
+     */
+    static final byte STRING = 1;
+    static final byte DATE = 2;
+
+    /**
+     * prefixed name of the feature type being paged
+     */
+    String typeName;
+
+    /**
+     * sort properties, directions and values of the last feature returned
+     */
+    List<String> properties = new ArrayList<String>();
+    List<Boolean> ascending = new ArrayList<Boolean>();
+    List<Object> values = new ArrayList<Object>();
+
+    /**
+     * Creates a new cursor.
+     *
+     * @param sortBy The sort order of the query, made of property names only, the last one
+     * being a unique key.
+     * @param values The values of the sort properties, none of them can be null.
+     */
+    public PagingCursor(String typeName, List<SortBy> sortBy, List<Object> values) {
+        this.typeName = typeName;
+        for (SortBy sb : sortBy) {
+            properties.add(sb.getPropertyName().getPropertyName());
+            ascending.add(sb.getSortOrder() != SortOrder.DESCENDING);
+        }
+        for (Object value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException("Cursor values cannot be null");
+            }
+        }
+        this.values.addAll(values);
+    }
+
+    PagingCursor() {
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * Returns the values of the sort properties, converted to the specified bindings.
+     */
+    public List<Object> getValues(List<Class> bindings) {
+        List<Object> converted = new ArrayList<Object>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            converted.add(convert(values.get(i), bindings.get(i)));
+        }
+        return converted;
+    }
+
+    /**
+     * Returns true if the cursor was created for the specified type and sort order.
+     */
+    public boolean matches(String typeName, List<SortBy> sortBy) {
+        if (!this.typeName.equals(typeName) || sortBy == null || sortBy.size() != properties.size()) {
+            return false;
+        }
+        for (int i = 0; i < properties.size(); i++) {
+            SortBy sb = sortBy.get(i);
+            if (sb.getPropertyName() == null
+                    || !properties.get(i).equals(sb.getPropertyName().getPropertyName())
+                    || ascending.get(i) != (sb.getSortOrder() != SortOrder.DESCENDING)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the filter selecting the features after the cursor, that is the features whose
+     * sort values come after the cursor ones in the sort order.
+     *
+     * @param bindings The bindings of the sort properties, used to convert the cursor values.
+     */
+    public Filter toFilter(FilterFactory2 ff, List<Class> bindings) {
+        int n = properties.size();
+        List<Literal> literals = new ArrayList<Literal>(n);
+        for (Object value : getValues(bindings)) {
+            literals.add(ff.literal(value));
+        }
+
+        // (p1 > v1) or (p1 = v1 and p2 > v2) or ... the last property being unique no feature
+        // equals the cursor on all of them
+        List<Filter> or = new ArrayList<Filter>(n);
+        for (int i = 0; i < n; i++) {
+            List<Filter> and = new ArrayList<Filter>(i + 1);
+            for (int j = 0; j < i; j++) {
+                and.add(ff.equals(ff.property(properties.get(j)), literals.get(j)));
+            }
+            PropertyName property = ff.property(properties.get(i));
+            and.add(ascending.get(i) ? ff.greater(property, literals.get(i))
+                : ff.less(property, literals.get(i)));
+            or.add(and.size() == 1 ? and.get(0) : ff.and(and));
+        }
+        return or.size() == 1 ? or.get(0) : ff.or(or);
+    }
+
+    Object convert(Object value, Class binding) {
+        if (value instanceof Date) {
+            long time = ((Date) value).getTime();
+            if (java.sql.Timestamp.class.isAssignableFrom(binding)) {
+                return new java.sql.Timestamp(time);
+            }
+            if (java.sql.Date.class.isAssignableFrom(binding)) {
+                return new java.sql.Date(time);
+            }
+            if (java.sql.Time.class.isAssignableFrom(binding)) {
+                return new java.sql.Time(time);
+            }
+            return value;
+        }
+        Object converted = Converters.convert(value, binding);
+        return converted != null ? converted : value;
+    }
+
+    /**
+     * Encodes the cursor as an url safe token.
+     */
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeUTF(typeName);
+            out.writeShort(properties.size());
+            for (int i = 0; i < properties.size(); i++) {
+                out.writeUTF(properties.get(i));
+                out.writeBoolean(ascending.get(i));
+
+                Object value = values.get(i);
+                if (value instanceof Date) {
+                    out.writeByte(DATE);
+                    out.writeLong(((Date) value).getTime());
+                }
+                else {
+                    out.writeByte(STRING);
+                    out.writeUTF(value.toString());
+                }
+            }
+            out.flush();
+
+            //url safe variant of base 64, without padding
+            String token = new String(Base64.encodeBase64(bytes.toByteArray()), "ASCII");
+            token = token.replace('+', '-').replace('/', '_');
+            int end = token.length();
+            while (end > 0 && token.charAt(end - 1) == '=') {
+                end--;
+            }
+            return token.substring(0, end);
+        }
+        catch (IOException e) {
+            //in memory, can't happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decodes a cursor from a token created by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException If the token is not valid.
+     */
+    public static PagingCursor decode(String token) throws IllegalArgumentException {
+        StringBuilder sb = new StringBuilder(token.trim().replace('-', '+').replace('_', '/'));
+        while (sb.length() % 4 != 0) {
+            sb.append('=');
+        }
+
+        try {
+            byte[] bytes = Base64.decodeBase64(sb.toString().getBytes("ASCII"));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Unsupported cursor version");
+            }
+
+            PagingCursor cursor = new PagingCursor();
+            cursor.typeName = in.readUTF();
+            int n = in.readShort();
+            if (n <= 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            for (int i = 0; i < n; i++) {
+                cursor.properties.add(in.readUTF());
+                cursor.ascending.add(in.readBoolean());
+
+                byte type = in.readByte();
+                switch (type) {
+                case DATE: cursor.values.add(new Date(in.readLong())); break;
+                case STRING: cursor.values.add(in.readUTF()); break;
+                default:
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+            }
+            return cursor;
+        }
+        catch (IOException e) {
+            throw (IllegalArgumentException) new IllegalArgumentException("Invalid cursor")
+                .initCause(e);
+        }
+    }
+}
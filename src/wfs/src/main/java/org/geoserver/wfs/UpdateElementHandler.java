@@ -207,7 +207,8 @@ public class UpdateElementHandler extends AbstractTransactionElementHandler {
                         try {
                             //TODO: this code should be shared with the code
                             // from ReprojectingFeatureCollection --JD
-                            MathTransform tx = CRS.findMathTransform(source, target, true);
+                            MathTransform tx = geoServer.getCatalog().getResourcePool()
+                                .getMathTransform(source, target, true);
                             GeometryCoordinateSequenceTransformer gtx = 
                                 new GeometryCoordinateSequenceTransformer();
                             gtx.setMathTransform(tx);
@@ -309,6 +309,14 @@ public class GetFeatureKvpRequestReader extends WFSKvpRequestReader {
             req.getMetadata().put(GetFeature.SQL_VIEW_PARAMS, viewParams);
         }
 
+        // paging cursor, decoded by the operation
+        if(kvp.containsKey("cursor")) {
+            if(req.getMetadata() == null) {
+                req.setMetadata(new HashMap());
+            }
+            req.getMetadata().put(GetFeature.PAGING_CURSOR, kvp.get("cursor"));
+        }
+
         return request;
     }
 
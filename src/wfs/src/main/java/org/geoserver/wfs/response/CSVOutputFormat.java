@@ -8,9 +8,11 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.NumberFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
@@ -18,6 +20,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
@@ -28,11 +31,28 @@ import org.geotools.feature.type.DateUtil;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTWriter;
 
 /**
  * WFS output format for a GetFeature operation in which the outputFormat is "csv".
  * The refence specification for this format can be found in this RFC:
  * http://www.rfc-editor.org/rfc/rfc4180.txt
+ * <p>
+ * The output is UTF-8 encoded. Besides the {@link GeometryFormatOptions} the GEOMETRY format
+ * option controls how geometries are written out, see {@link GeometryEncoding}.
+ * </p>
  *
  * @author Justin Deoliveira, OpenGeo, jdeolive@opengeo.org
  * @author Sebastian Benthall, OpenGeo, seb@opengeo.org
@@ -49,14 +69,14 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     }
     
     /**
-     * @return "text/csv";
+     * @return "text/csv; charset=UTF-8";
      */
     @Override
     public String getMimeType(Object value, Operation operation)
                throws ServiceException {
         // won't allow browsers to open it directly, but that's the mime
-        // state in the RFC
-        return "text/csv";
+        // state in the RFC. The RFC does not mandate a charset, declare the one we write
+        return "text/csv; charset=UTF-8";
     }
 
     @Override
@@ -78,33 +98,63 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     protected void write(FeatureCollectionResponse featureCollection,
             OutputStream output, Operation getFeature) throws IOException,
             ServiceException {
-    	   //write out content here
+        //parse the format options before anything gets written out
+        GetFeatureRequest request = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
+        GeometryFormatOptions options = new GeometryFormatOptions(request.getFormatOptions());
+        GeometryEncoding encoding = GeometryEncoding.parse(request.getFormatOptions());
         
-        //create a writer
-        BufferedWriter w = new BufferedWriter( new OutputStreamWriter( output ) );
+        //create a writer, the RFC does not mandate a charset, UTF-8 is what most readers expect
+        BufferedWriter w = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
                    
         //get the feature collection
         SimpleFeatureCollection fc = 
             (SimpleFeatureCollection) featureCollection.getFeature().get(0);
            
-        //write out the header
+        //write out the header, figuring out which columns hold geometries
         SimpleFeatureType ft = fc.getSchema();
-        w.write("FID,");
+        boolean[] geometries = new boolean[ft.getAttributeCount()];
+        w.write("FID");
         for ( int i = 0; i < ft.getAttributeCount(); i++ ) {
             AttributeDescriptor ad = ft.getDescriptor( i );
-            w.write( prepCSVField(ad.getLocalName()) );
-               
-            if ( i < ft.getAttributeCount()-1 ) {
-               w.write( "," );
+            geometries[i] = ad instanceof GeometryDescriptor;
+            if (geometries[i] && encoding == GeometryEncoding.NONE) {
+                continue;
+            }
+            w.write(',');
+            if (geometries[i] && encoding == GeometryEncoding.XY) {
+                writeCSVField(ad.getLocalName() + "_x", w);
+                w.write(',');
+                writeCSVField(ad.getLocalName() + "_y", w);
+            }
+            else {
+                writeCSVField(ad.getLocalName(), w);
             }
         }
         // by RFC each line is terminated by CRLF
         w.write( "\r\n" );
         
-        // prepare the formatter for numbers
-        NumberFormat coordFormatter = NumberFormat.getInstance(Locale.US);
-        coordFormatter.setMaximumFractionDigits(getInfo().getGeoServer().getGlobal().getNumDecimals());
-        coordFormatter.setGroupingUsed(false);
+        // prepare the formatters for numbers, neither uses scientific notation, as OpenOffice 
+        // won't recognize that as a number
+        CoordinateFormatter formatter = new CoordinateFormatter();
+        formatter.setNumDecimals(options.hasDecimals() ? options.decimals 
+            : getInfo().getGeoServer().getGlobal().getNumDecimals());
+        NumberFormat numberFormat = null;
+
+        // geometries are written out as plain WKT unless rounded or simplified
+        WKTWriter wktWriter = null;
+        WKTEncoder wktEncoder = null;
+        WKBHexEncoder wkbEncoder = null;
+        if (encoding == GeometryEncoding.WKT) {
+            if (options.hasDecimals() || options.hasSimplify()) {
+                wktEncoder = new WKTEncoder(w, options);
+            }
+            else {
+                wktWriter = new WKTWriter();
+            }
+        }
+        else if (encoding == GeometryEncoding.WKB) {
+            wkbEncoder = new WKBHexEncoder(w);
+        }
            
         //write out the features
         SimpleFeatureIterator i = fc.features();
@@ -112,33 +162,72 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             while( i.hasNext() ) {
                 SimpleFeature f = i.next();
                 // dump fid
-                w.write(prepCSVField(f.getID()));
-                w.write(",");
+                writeCSVField(f.getID(), w);
                 // dump attributes
                 for ( int j = 0; j < f.getAttributeCount(); j++ ) {
                     Object att = f.getAttribute( j );
-                    if ( att != null ) {
-                        String value = null;
-                        if(att instanceof Number) {
-                            // don't allow scientific notation in the output, as OpenOffice won't 
-                            // recognize that as a number 
-                            value = coordFormatter.format(att);
-                        } else if(att instanceof Date) {
-                            // serialize dates in ISO format
-                            if(att instanceof java.sql.Date)
-                                value = DateUtil.serializeSqlDate((java.sql.Date) att);
-                            else if(att instanceof java.sql.Time)
-                                value = DateUtil.serializeSqlTime((java.sql.Time) att);
-                            else
-                                value = DateUtil.serializeDateTime((Date) att);
-                        } else {
-                            // everything else we just "toString"
-                            value = att.toString();
+                    if (geometries[j]) {
+                        if (encoding == GeometryEncoding.NONE) {
+                            continue;
+                        }
+                        w.write(',');
+                        Geometry g = (Geometry) att;
+                        if (encoding == GeometryEncoding.XY) {
+                            writeXY(g, formatter, w);
                         }
-                        w.write( prepCSVField(value) );
+                        else if (g != null) {
+                            if (wkbEncoder != null) {
+                                wkbEncoder.write(g);
+                            }
+                            else {
+                                // wkt always contains spaces and often commas, always quote it
+                                w.write('"');
+                                if (wktEncoder != null) {
+                                    wktEncoder.write(g);
+                                }
+                                else {
+                                    wktWriter.write(g, w);
+                                }
+                                w.write('"');
+                            }
+                        }
+                        continue;
                     }
-                    if ( j < f.getAttributeCount()-1 ) {
-                        w.write(",");    
+
+                    w.write(',');
+                    if (att == null) {
+                        continue;
+                    }
+                    if (att instanceof Double || att instanceof Float) {
+                        double d = ((Number) att).doubleValue();
+                        if (Double.isNaN(d) || Double.isInfinite(d)) {
+                            w.write(Double.toString(d));
+                        }
+                        else {
+                            formatter.format(d, w);
+                        }
+                    } else if (att instanceof Integer || att instanceof Long 
+                            || att instanceof Short || att instanceof Byte) {
+                        formatter.format(((Number) att).longValue(), w);
+                    } else if (att instanceof Number) {
+                        // big decimals and the like
+                        if (numberFormat == null) {
+                            numberFormat = NumberFormat.getInstance(Locale.US);
+                            numberFormat.setMaximumFractionDigits(formatter.getNumDecimals());
+                            numberFormat.setGroupingUsed(false);
+                        }
+                        w.write(numberFormat.format(att));
+                    } else if(att instanceof Date) {
+                        // serialize dates in ISO format
+                        if(att instanceof java.sql.Date)
+                            w.write(DateUtil.serializeSqlDate((java.sql.Date) att));
+                        else if(att instanceof java.sql.Time)
+                            w.write(DateUtil.serializeSqlTime((java.sql.Time) att));
+                        else
+                            w.write(DateUtil.serializeDateTime((Date) att));
+                    } else {
+                        // everything else we just "toString"
+                        writeCSVField(att.toString(), w);
                     }
                 }
                 // by RFC each line is terminated by CRLF
@@ -151,25 +240,56 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         w.flush();
     }
     
+    /**
+     * Writes out the coordinates of a point, or of a point inside any other geometry, as two
+     * columns. Null and empty geometries result in two empty columns.
+     */
+    void writeXY(Geometry g, CoordinateFormatter formatter, Writer w) throws IOException {
+        if (g == null || g.isEmpty()) {
+            w.write(',');
+            return;
+        }
+        Point p = g instanceof Point ? (Point) g : g.getInteriorPoint();
+        formatter.format(p.getX(), w);
+        w.write(',');
+        formatter.format(p.getY(), w);
+    }
+    
     /*
      * The CSV "spec" explains that fields with certain properties must be
      * delimited by double quotes, and also that double quotes within fields
-     * must be escaped.  This method takes a field and returns one that
-     * obeys the CSV spec.
+     * must be escaped.  This method writes out a field obeying the CSV spec,
+     * scanning it only once and copying it as is in the common case of a field
+     * that needs no quoting.
      */    
-    private String prepCSVField(String field){
-    	// "embedded double-quote characters must be represented by a pair of double-quote characters."
-    	String mod = field.replaceAll("\"", "\"\"");
-    	
-    	/*
-    	 * Enclose string in double quotes if it contains double quotes, commas, or newlines
-    	 */
-    	if(mod.matches(".*(\"|\n|,).*")){
-    		mod = "\"" + mod + "\"";
-    	}
-    	
-		return mod;
+    static void writeCSVField(String field, Writer w) throws IOException {
+        int n = field.length();
+        int i = 0;
+        while (i < n) {
+            char c = field.charAt(i);
+            if (c == '"' || c == ',' || c == '\n' || c == '\r') {
+                break;
+            }
+            i++;
+        }
+        if (i == n) {
+            w.write(field);
+            return;
+        }
     	
+        // enclose in double quotes, and represent embedded double-quote characters 
+        // by a pair of double-quote characters
+        w.write('"');
+        int start = 0;
+        for (; i < n; i++) {
+            if (field.charAt(i) == '"') {
+                w.write(field, start, i + 1 - start);
+                w.write('"');
+                start = i + 1;
+            }
+        }
+        w.write(field, start, n - start);
+        w.write('"');
     }
     
     @Override
@@ -177,4 +297,172 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     	return "CSV";
     }
 
+    /**
+     * How the geometry columns are written out, controlled by the GEOMETRY format option, for
+     * example {@code &format_options=GEOMETRY:XY}
+     * <ul>
+     *   <li>WKT: a single column holding the geometry as well known text, the default</li>
+     *   <li>WKB: a single column holding the hex encoded well known binary of the geometry</li>
+     *   <li>XY: two columns holding the coordinates of the geometry if it is a point, of a 
+     *   point inside it otherwise</li>
+     *   <li>NONE: geometries are left out</li>
+     * </ul>
+     */
+    enum GeometryEncoding {
+        WKT, WKB, XY, NONE;
+
+        static final String OPTION = "GEOMETRY";
+
+        /**
+         * Parses the encoding from the format options of a request.
+         *
+         * @throws WFSException If the option has an invalid value.
+         */
+        static GeometryEncoding parse(Map<String, ?> formatOptions) throws WFSException {
+            Object value = formatOptions != null ? formatOptions.get(OPTION) : null;
+            if (value == null) {
+                return WKT;
+            }
+            try {
+                return valueOf(value.toString().trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                throw new WFSException("Invalid " + OPTION + " format option: " + value 
+                    + ", should be one of WKT, WKB, XY, NONE", "InvalidParameterValue", 
+                    "format_options");
+            }
+        }
+    }
+
+    /**
+     * Writes geometries out as hex encoded WKB, reusing the same character buffer.
+     */
+    static class WKBHexEncoder {
+
+        static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+        Writer out;
+        WKBWriter wkbWriter = new WKBWriter();
+        char[] buffer = new char[256];
+
+        WKBHexEncoder(Writer out) {
+            this.out = out;
+        }
+
+        void write(Geometry g) throws IOException {
+            byte[] wkb = wkbWriter.write(g);
+            if (buffer.length < wkb.length * 2) {
+                buffer = new char[wkb.length * 2];
+            }
+            for (int i = 0; i < wkb.length; i++) {
+                buffer[i * 2] = HEX[(wkb[i] >> 4) & 0xF];
+                buffer[i * 2 + 1] = HEX[wkb[i] & 0xF];
+            }
+            out.write(buffer, 0, wkb.length * 2);
+        }
+    }
+
+    /**
+     * Streams geometries out as WKT, rounding coordinates to a fixed number of decimals and
+     * decimating lines and rings as specified by the format options.
+     */
+    static class WKTEncoder {
+
+        Writer out;
+        CoordinateFormatter formatter = new CoordinateFormatter();
+        CoordinateDecimator decimator;
+
+        WKTEncoder(Writer out, GeometryFormatOptions options) {
+            this.out = out;
+            formatter.setNumDecimals(options.decimals);
+            if (options.hasSimplify()) {
+                decimator = new CoordinateDecimator(options.simplify);
+            }
+        }
+
+        void write(Geometry g) throws IOException {
+            out.write(g.getGeometryType().toUpperCase());
+            if (g.isEmpty()) {
+                out.write(" EMPTY");
+                return;
+            }
+            out.write(' ');
+            text(g);
+        }
+
+        /**
+         * Writes the tagged text of a geometry, without the geometry type.
+         */
+        void text(Geometry g) throws IOException {
+            if (g instanceof Point) {
+                out.write('(');
+                coordinate(((Point) g).getCoordinateSequence(), 0);
+                out.write(')');
+            }
+            else if (g instanceof LineString) {
+                sequence(((LineString) g).getCoordinateSequence(), 
+                    g.getGeometryType().equals("LinearRing") ? 4 : 2);
+            }
+            else if (g instanceof Polygon) {
+                Polygon p = (Polygon) g;
+                out.write('(');
+                sequence(p.getExteriorRing().getCoordinateSequence(), 4);
+                for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                    out.write(", ");
+                    sequence(p.getInteriorRingN(i).getCoordinateSequence(), 4);
+                }
+                out.write(')');
+            }
+            else if (g instanceof MultiPoint || g instanceof MultiLineString 
+                    || g instanceof MultiPolygon) {
+                out.write('(');
+                for (int i = 0; i < g.getNumGeometries(); i++) {
+                    if (i > 0) {
+                        out.write(", ");
+                    }
+                    text(g.getGeometryN(i));
+                }
+                out.write(')');
+            }
+            else if (g instanceof GeometryCollection) {
+                out.write('(');
+                for (int i = 0; i < g.getNumGeometries(); i++) {
+                    if (i > 0) {
+                        out.write(", ");
+                    }
+                    write(g.getGeometryN(i));
+                }
+                out.write(')');
+            }
+        }
+
+        void sequence(CoordinateSequence cs, int minPoints) throws IOException {
+            out.write('(');
+            if (decimator == null) {
+                for (int i = 0; i < cs.size(); i++) {
+                    if (i > 0) {
+                        out.write(", ");
+                    }
+                    coordinate(cs, i);
+                }
+            }
+            else {
+                int n = decimator.decimate(cs, minPoints);
+                int[] kept = decimator.kept;
+                for (int i = 0; i < n; i++) {
+                    if (i > 0) {
+                        out.write(", ");
+                    }
+                    coordinate(cs, kept[i]);
+                }
+            }
+            out.write(')');
+        }
+
+        void coordinate(CoordinateSequence cs, int i) throws IOException {
+            formatter.format(cs.getOrdinate(i, 0), out);
+            out.write(' ');
+            formatter.format(cs.getOrdinate(i, 1), out);
+        }
+    }
 }
@@ -0,0 +1,79 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+
+/**
+ * Drops the points of a coordinate sequence that are closer than a distance to the previously
+ * kept point, the way the renderer decimates geometries to the size of a pixel.
+ * <p>
+ * The decimation works on the sequence as it is being encoded, without creating new
+ * geometries: {@link #decimate(CoordinateSequence, int)} fills a reusable buffer with the
+ * indexes of the points to write out. The first and last points are always kept, and sequences
+ * that would end up with less points than required (two for lines, four for rings) are kept
+ * as they are.
+ * </p>
+ * <p>
+ * Instances are not thread safe, each encoder should use its own.
+ * </p>
+ */
+class CoordinateDecimator {
+
+    /**
+     * distance below which points are dropped, in the units of the coordinates
+     */
+    double distance;
+
+    /**
+     * indexes of the points kept by the last decimation
+     */
+    int[] kept = new int[64];
+
+    CoordinateDecimator(double distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * Decimates a sequence.
+     *
+     * @param cs The sequence.
+     * @param minPoints The minimum number of points the decimated sequence must have.
+     *
+     * @return The number of points kept, their indexes are the first elements of {@link #kept}.
+     */
+    int decimate(CoordinateSequence cs, int minPoints) {
+        final int n = cs.size();
+        if (kept.length < n) {
+            kept = new int[Math.max(n, kept.length * 2)];
+        }
+
+        int count = 0;
+        if (distance > 0 && n > minPoints) {
+            double lx = cs.getOrdinate(0, 0);
+            double ly = cs.getOrdinate(0, 1);
+            kept[count++] = 0;
+            for (int i = 1; i < n - 1; i++) {
+                double x = cs.getOrdinate(i, 0);
+                double y = cs.getOrdinate(i, 1);
+                if (Math.abs(x - lx) >= distance || Math.abs(y - ly) >= distance) {
+                    kept[count++] = i;
+                    lx = x;
+                    ly = y;
+                }
+            }
+            kept[count++] = n - 1;
+        }
+
+        if (count < minPoints || count == 0) {
+            //not decimated, or decimated too much
+            for (int i = 0; i < n; i++) {
+                kept[i] = i;
+            }
+            count = n;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,154 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Formats numbers into a reusable buffer, rounding them to a fixed number of decimals and
+ * omitting the trailing zeros of the fractional part.
+ * <p>
+ * Instances are not thread safe, each encoder should use its own.
+ * </p>
+ */
+class CoordinateFormatter {
+
+    /**
+     * powers of ten used to round to a fixed number of decimals
+     */
+    static final long[] POWERS = new long[18];
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i-1] * 10;
+        }
+    }
+
+    /**
+     * maximum absolute scaled value that can be rounded to a long without losing digits
+     */
+    static final double MAX_SCALED = 1e15;
+
+    /**
+     * number of decimals numbers are rounded to, -1 for full precision
+     */
+    int numDecimals = -1;
+
+    /**
+     * buffer numbers are formatted into
+     */
+    char[] buffer = new char[32];
+
+    /**
+     * Sets the number of decimals numbers are rounded to, a negative value meaning full
+     * precision.
+     */
+    void setNumDecimals(int numDecimals) {
+        this.numDecimals = numDecimals < 0 ? -1 : Math.min(numDecimals, POWERS.length - 1);
+    }
+
+    int getNumDecimals() {
+        return numDecimals;
+    }
+
+    /**
+     * Writes out a number rounded to the number of decimals of the formatter.
+     */
+    void format(double value, Writer out) throws IOException {
+        format(value, numDecimals, out);
+    }
+
+    /**
+     * Writes out a number rounded to the specified number of decimals, -1 for full precision.
+     * Values that are not finite are written out as "null".
+     */
+    void format(double value, int decimals, Writer out) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write("null");
+            return;
+        }
+
+        if (decimals < 0) {
+            if (value == (long) value && Math.abs(value) < MAX_SCALED) {
+                format((long) value, out);
+            }
+            else {
+                out.write(Double.toString(value));
+            }
+            return;
+        }
+
+        double abs = Math.abs(value);
+        long scale = POWERS[decimals];
+        if (abs * scale >= MAX_SCALED) {
+            //too many digits to round through a long
+            out.write(BigDecimal.valueOf(value).setScale(decimals, BigDecimal.ROUND_HALF_UP)
+                .stripTrailingZeros().toPlainString());
+            return;
+        }
+
+        long scaled = Math.round(abs * scale);
+        long intPart = scaled / scale;
+        long fracPart = scaled % scale;
+
+        int pos = 0;
+        if (value < 0 && scaled != 0) {
+            buffer[pos++] = '-';
+        }
+        pos = format(intPart, buffer, pos);
+        if (fracPart != 0) {
+            buffer[pos++] = '.';
+            //zero pad the fraction to the number of decimals, then drop the trailing zeros
+            int end = pos + decimals;
+            for (int i = end - 1; i >= pos; i--) {
+                buffer[i] = (char) ('0' + fracPart % 10);
+                fracPart /= 10;
+            }
+            pos = end;
+            while (buffer[pos - 1] == '0') {
+                pos--;
+            }
+        }
+        out.write(buffer, 0, pos);
+    }
+
+    /**
+     * Writes out an integer.
+     */
+    void format(long value, Writer out) throws IOException {
+        int len = format(value, buffer, 0);
+        out.write(buffer, 0, len);
+    }
+
+    /**
+     * Formats a long into a buffer, returning the position after the last digit.
+     */
+    static int format(long value, char[] buffer, int pos) {
+        if (value == Long.MIN_VALUE) {
+            String s = Long.toString(value);
+            s.getChars(0, s.length(), buffer, pos);
+            return pos + s.length();
+        }
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+
+        //count digits
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
@@ -10,8 +10,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
-import net.sf.json.JSONException;
-
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -76,19 +76,25 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
 
         WFSInfo wfs = getInfo();
         
+        // parse the geometry options before anything gets written out
+        GetFeatureRequest gft = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
+        GeometryFormatOptions options = new GeometryFormatOptions(gft.getFormatOptions());
+
         // TODO: investigate setting proper charsets in this
         // it's part of the constructor, just need to hook it up.
         Writer outWriter = new BufferedWriter(
             new OutputStreamWriter(output,wfs.getGeoServer().getGlobal().getCharset()));
         
         // let's check if a callback has been set
-        GetFeatureRequest gft = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
         String callback = (String) gft.getFormatOptions().get("CALLBACK");
         if(callback != null && !"".equals(callback)) {
             outWriter.write(callback + "(");
         }
 
-        GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
+        GeoJSONWriter jsonWriter = new GeoJSONWriter(outWriter);
+        jsonWriter.setNumDecimals(options.hasDecimals() ? options.decimals 
+            : getNumDecimals(featureCollection.getFeature()));
+        jsonWriter.setSimplifyDistance(options.simplify);
 
         // execute should of set all the header information
         // including the lockID
@@ -98,171 +104,181 @@ public class GeoJSONOutputFormat extends WFSGetFeatureOutputFormat {
 
         // FeatureResults[] featureResults = (FeatureResults[]) resultsList
         // .toArray(new FeatureResults[resultsList.size()]);
-        LOGGER.info("about to encode JSON");
+        LOGGER.fine("about to encode JSON");
 
         // Generate bounds for every feature?
         boolean featureBounding = wfs.isFeatureBounding();
         boolean hasGeom = false;
 
-        try {
-            jsonWriter.object().key("type").value("FeatureCollection");
-            jsonWriter.key("features");
-            jsonWriter.array();
+        jsonWriter.object().key("type").value("FeatureCollection");
+        jsonWriter.key("features");
+        jsonWriter.array();
 
-            CoordinateReferenceSystem crs = null;
-            for (int i = 0; i < resultsList.size(); i++) {
-                FeatureCollection collection = (FeatureCollection) resultsList
-                .get(i);
-                FeatureIterator iterator = collection.features();
+        CoordinateReferenceSystem crs = null;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList
+            .get(i);
+            FeatureIterator iterator = collection.features();
 
-                try {
-                    SimpleFeatureType fType;
-                    List<AttributeDescriptor> types;
+            try {
+                SimpleFeatureType fType;
+                List<AttributeDescriptor> types;
 
-                    while (iterator.hasNext()) {
-                        SimpleFeature feature = (SimpleFeature) iterator.next();
-                        jsonWriter.object();
-                        jsonWriter.key("type").value("Feature");
-                        jsonWriter.key("id").value(feature.getID());
+                while (iterator.hasNext()) {
+                    SimpleFeature feature = (SimpleFeature) iterator.next();
+                    jsonWriter.object();
+                    jsonWriter.key("type").value("Feature");
+                    jsonWriter.key("id").value(feature.getID());
 
-                        fType = feature.getFeatureType();
-                        types = fType.getAttributeDescriptors();
+                    fType = feature.getFeatureType();
+                    types = fType.getAttributeDescriptors();
 
-                        GeometryDescriptor defaultGeomType = fType.getGeometryDescriptor();
+                    GeometryDescriptor defaultGeomType = fType.getGeometryDescriptor();
 
-                        if (crs == null && defaultGeomType != null)
-                            crs = fType.getGeometryDescriptor().getCoordinateReferenceSystem();
+                    if (crs == null && defaultGeomType != null)
+                        crs = fType.getGeometryDescriptor().getCoordinateReferenceSystem();
 
-                        jsonWriter.key("geometry");
-                        Geometry aGeom = (Geometry) feature.getDefaultGeometry();
+                    jsonWriter.key("geometry");
+                    Geometry aGeom = (Geometry) feature.getDefaultGeometry();
 
-                        if (aGeom == null) {
-                            // In case the default geometry is not set, we will
-                            // just use the first geometry we find
-                            for (int j = 0; j < types.size() && aGeom == null; j++) {
-                                Object value = feature.getAttribute(j);
-                                if (value != null && value instanceof Geometry) {
-                                    aGeom = (Geometry) value;
-                                }
+                    if (aGeom == null) {
+                        // In case the default geometry is not set, we will
+                        // just use the first geometry we find
+                        for (int j = 0; j < types.size() && aGeom == null; j++) {
+                            Object value = feature.getAttribute(j);
+                            if (value != null && value instanceof Geometry) {
+                                aGeom = (Geometry) value;
                             }
                         }
-                        // Write the geometry, whether it is a null or not
-                        if (aGeom != null) {
-                            jsonWriter.writeGeom(aGeom);
-                            hasGeom = true;
-                        } else {
-                            jsonWriter.value(null);
-                        }
-                        if (defaultGeomType != null)
-                            jsonWriter.key("geometry_name").value(
-                                    defaultGeomType.getLocalName());
-
-                        jsonWriter.key("properties");
-                        jsonWriter.object();
-
-                        for (int j = 0; j < types.size(); j++) {
-                            Object value = feature.getAttribute(j);
-                            AttributeDescriptor ad = types.get(j);
-
-                            if (value != null) {
-                                if (value instanceof Geometry) {
-                                    // This is an area of the spec where they
-                                    // decided to 'let convention evolve', 
-                                    // that is how to handle multiple
-                                    // geometries. My take is to print the
-                                    // geometry here if it's not the default. 
-                                    // If it's the default that you already
-                                    // printed above, so you don't need it here.
-                                    if (ad.equals(defaultGeomType)) {
-                                        // Do nothing, we wrote it above
-                                        // jsonWriter.value("geometry_name");
-                                    } else {
-                                        jsonWriter.key(ad.getLocalName());
-                                        jsonWriter.writeGeom((Geometry) value);
-                                    }
+                    }
+                    // Write the geometry, whether it is a null or not
+                    if (aGeom != null) {
+                        jsonWriter.writeGeom(aGeom);
+                        hasGeom = true;
+                    } else {
+                        jsonWriter.value(null);
+                    }
+                    if (defaultGeomType != null)
+                        jsonWriter.key("geometry_name").value(
+                                defaultGeomType.getLocalName());
+
+                    jsonWriter.key("properties");
+                    jsonWriter.object();
+
+                    for (int j = 0; j < types.size(); j++) {
+                        Object value = feature.getAttribute(j);
+                        AttributeDescriptor ad = types.get(j);
+
+                        if (value != null) {
+                            if (value instanceof Geometry) {
+                                // This is an area of the spec where they
+                                // decided to 'let convention evolve', 
+                                // that is how to handle multiple
+                                // geometries. My take is to print the
+                                // geometry here if it's not the default. 
+                                // If it's the default that you already
+                                // printed above, so you don't need it here.
+                                if (ad.equals(defaultGeomType)) {
+                                    // Do nothing, we wrote it above
+                                    // jsonWriter.value("geometry_name");
                                 } else {
                                     jsonWriter.key(ad.getLocalName());
-                                    jsonWriter.value(value);
+                                    jsonWriter.writeGeom((Geometry) value);
                                 }
-
                             } else {
                                 jsonWriter.key(ad.getLocalName());
-                                jsonWriter.value(null);
+                                jsonWriter.value(value);
                             }
+
+                        } else {
+                            jsonWriter.key(ad.getLocalName());
+                            jsonWriter.value(null);
                         }
-                        // Bounding box for feature in properties
+                    }
+                    // Bounding box for feature in properties
+                    if (featureBounding) {
                         ReferencedEnvelope refenv = new ReferencedEnvelope(feature.getBounds());
-                        if (featureBounding && !refenv.isEmpty())
+                        if (!refenv.isEmpty())
                             jsonWriter.writeBoundingBox(refenv);
-
-                        jsonWriter.endObject(); // end the properties
-                        jsonWriter.endObject(); // end the feature
                     }
-                } // catch an exception here?
-                finally {
-                    collection.close(iterator);
-                }
 
-            }
-
-            jsonWriter.endArray(); // end features
-
-            // Coordinate Referense System, currently only if the namespace is
-            // EPSG
-            if (crs != null) {
-                Set<ReferenceIdentifier> ids = crs.getIdentifiers();
-                // WKT defined crs might not have identifiers at all
-                if(ids != null && ids.size() > 0) {
-                    NamedIdentifier namedIdent = (NamedIdentifier) ids.iterator().next();
-                    String csStr = namedIdent.getCodeSpace().toUpperCase();
-    
-                    if (csStr.equals("EPSG")) {
-                        jsonWriter.key("crs");
-                        jsonWriter.object();
-                        jsonWriter.key("type").value(csStr);
-                        jsonWriter.key("properties");
-                        jsonWriter.object();
-                        jsonWriter.key("code");
-                        jsonWriter.value(namedIdent.getCode());
-                        jsonWriter.endObject(); // end properties
-                        jsonWriter.endObject(); // end crs
-                    }
+                    jsonWriter.endObject(); // end the properties
+                    jsonWriter.endObject(); // end the feature
                 }
+            } // catch an exception here?
+            finally {
+                collection.close(iterator);
             }
 
-            // Bounding box for featurecollection
-            if (hasGeom) {
-                ReferencedEnvelope e = null;
-                for (int i = 0; i < resultsList.size(); i++) {
-                    FeatureCollection collection = (FeatureCollection) resultsList
-                    .get(i);
-                    if (e == null) {
-                        e = collection.getBounds();
-                    } else {
-                        e.expandToInclude(collection.getBounds());
-                    }
+        }
 
+        jsonWriter.endArray(); // end features
+
+        // Coordinate Referense System, currently only if the namespace is
+        // EPSG
+        if (crs != null) {
+            Set<ReferenceIdentifier> ids = crs.getIdentifiers();
+            // WKT defined crs might not have identifiers at all
+            if(ids != null && ids.size() > 0) {
+                NamedIdentifier namedIdent = (NamedIdentifier) ids.iterator().next();
+                String csStr = namedIdent.getCodeSpace().toUpperCase();
+
+                if (csStr.equals("EPSG")) {
+                    jsonWriter.key("crs");
+                    jsonWriter.object();
+                    jsonWriter.key("type").value(csStr);
+                    jsonWriter.key("properties");
+                    jsonWriter.object();
+                    jsonWriter.key("code");
+                    jsonWriter.value(namedIdent.getCode());
+                    jsonWriter.endObject(); // end properties
+                    jsonWriter.endObject(); // end crs
                 }
+            }
+        }
 
-                if (e != null) {
-                    jsonWriter.writeBoundingBox(e);
+        // Bounding box for featurecollection
+        if (hasGeom) {
+            ReferencedEnvelope e = null;
+            for (int i = 0; i < resultsList.size(); i++) {
+                FeatureCollection collection = (FeatureCollection) resultsList
+                .get(i);
+                if (e == null) {
+                    e = collection.getBounds();
+                } else {
+                    e.expandToInclude(collection.getBounds());
                 }
+
             }
 
-            jsonWriter.endObject(); // end featurecollection
-            outWriter.flush();
-            if(callback != null && !"".equals(callback)) {
-                outWriter.write(")");
-                outWriter.flush();
+            if (e != null) {
+                jsonWriter.writeBoundingBox(e);
             }
+        }
 
-        } catch (JSONException jsonException) {
-            ServiceException serviceException = new ServiceException("Error: "
-                    + jsonException.getMessage());
-            serviceException.initCause(jsonException);
-            throw serviceException;
+        jsonWriter.endObject(); // end featurecollection
+        jsonWriter.flush();
+        if(callback != null && !"".equals(callback)) {
+            outWriter.write(")");
+            outWriter.flush();
         }
 
     }
 
+    /**
+     * Returns the number of decimals coordinates are rounded to, the maximum of the values set on
+     * the feature types being encoded, or -1 for full precision if none is set.
+     */
+    int getNumDecimals(List featureCollections) {
+        int numDecimals = -1;
+        Catalog catalog = gs.getCatalog();
+        for (Object fc : featureCollections) {
+            FeatureTypeInfo info = 
+                catalog.getFeatureTypeByName(((FeatureCollection) fc).getSchema().getName());
+            if (info != null && info.getNumDecimals() > 0) {
+                numDecimals = Math.max(numDecimals, info.getNumDecimals());
+            }
+        }
+        return numDecimals;
+    }
 }
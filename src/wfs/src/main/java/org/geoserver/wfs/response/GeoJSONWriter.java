@@ -0,0 +1,390 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streaming GeoJSON encoder.
+ * <p>
+ * Unlike {@link GeoJSONBuilder} this class does not go through the generic json-lib value
+ * handling, it writes straight to the underlying writer keeping track only of the nesting level.
+ * Coordinates are read directly from the {@link CoordinateSequence} of geometries and formatted
+ * into a reusable buffer, so that encoding a feature does not allocate any object other than
+ * those needed to look up its attributes.
+ * </p>
+ * <p>
+ * The writer does not validate the structure of the document, callers are expected to pair
+ * the calls to {@link #object()} / {@link #array()} with the matching end calls, and to call
+ * {@link #key(String)} only inside objects.
+ * </p>
+ */
+public class GeoJSONWriter {
+
+    Writer out;
+
+    /**
+     * formats numbers, holds the number of decimals coordinates are rounded to
+     */
+    CoordinateFormatter formatter = new CoordinateFormatter();
+
+    /**
+     * drops coordinates closer than the simplification distance, null when not simplifying
+     */
+    CoordinateDecimator decimator;
+
+    /**
+     * flags indicating whether an element has already been written at each nesting level
+     */
+    boolean[] written = new boolean[16];
+    int depth = 0;
+
+    /**
+     * flag indicating a key has been written and its value is expected
+     */
+    boolean afterKey = false;
+
+    public GeoJSONWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Sets the number of decimals coordinates are rounded to, a negative value meaning full
+     * precision.
+     */
+    public void setNumDecimals(int numDecimals) {
+        formatter.setNumDecimals(numDecimals);
+    }
+
+    public int getNumDecimals() {
+        return formatter.getNumDecimals();
+    }
+
+    /**
+     * Sets the distance, in the units of the coordinates, below which consecutive coordinates
+     * of lines and rings are dropped. A value of zero or less disables the simplification.
+     */
+    public void setSimplifyDistance(double distance) {
+        decimator = distance > 0 ? new CoordinateDecimator(distance) : null;
+    }
+
+    public double getSimplifyDistance() {
+        return decimator != null ? decimator.distance : 0;
+    }
+
+    public GeoJSONWriter object() throws IOException {
+        separator();
+        out.write('{');
+        push();
+        return this;
+    }
+
+    public GeoJSONWriter endObject() throws IOException {
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    public GeoJSONWriter array() throws IOException {
+        separator();
+        out.write('[');
+        push();
+        return this;
+    }
+
+    public GeoJSONWriter endArray() throws IOException {
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+    public GeoJSONWriter key(String key) throws IOException {
+        separator();
+        string(key);
+        out.write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes out a value, dates and calendars are encoded as ISO 8601 strings and geometries
+     * as GeoJSON geometries.
+     */
+    public GeoJSONWriter value(Object value) throws IOException {
+        if (value instanceof Geometry) {
+            return writeGeom((Geometry) value);
+        }
+
+        separator();
+        if (value == null) {
+            out.write("null");
+        }
+        else if (value instanceof Double) {
+            number(((Double) value).doubleValue(), -1);
+        }
+        else if (value instanceof Float) {
+            float f = ((Float) value).floatValue();
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                out.write("null");
+            }
+            else if (f == (long) f) {
+                integer((long) f);
+            }
+            else {
+                //going through double would add spurious digits
+                out.write(Float.toString(f));
+            }
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            integer(((Number) value).longValue());
+        }
+        else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            out.write(value.toString());
+        }
+        else if (value instanceof Number) {
+            number(((Number) value).doubleValue(), -1);
+        }
+        else if (value instanceof Boolean) {
+            out.write(((Boolean) value).booleanValue() ? "true" : "false");
+        }
+        else if (value instanceof java.util.Date || value instanceof Calendar) {
+            string(Converters.convert(value, String.class));
+        }
+        else {
+            string(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Writes out a number, rounded to the number of decimals set on the writer.
+     */
+    public GeoJSONWriter value(double value) throws IOException {
+        separator();
+        formatter.format(value, out);
+        return this;
+    }
+
+    /**
+     * Writes any geometry object.
+     */
+    public GeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type");
+        string(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType != GeoJSONBuilder.MULTIGEOMETRY) {
+            key("coordinates");
+            afterKey = false;
+
+            switch (geometryType) {
+            case GeoJSONBuilder.POINT:
+                Point point = (Point) geometry;
+                coordinate(point.getX(), point.getY());
+                break;
+            case GeoJSONBuilder.LINESTRING:
+                coordinates(((LineString) geometry).getCoordinateSequence(), 2);
+                break;
+            case GeoJSONBuilder.MULTIPOINT:
+                out.write('[');
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    Point p = (Point) geometry.getGeometryN(i);
+                    coordinate(p.getX(), p.getY());
+                }
+                out.write(']');
+                break;
+            case GeoJSONBuilder.POLYGON:
+                polygon((Polygon) geometry);
+                break;
+            case GeoJSONBuilder.MULTILINESTRING:
+                out.write('[');
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    coordinates(((LineString) geometry.getGeometryN(i)).getCoordinateSequence(), 2);
+                }
+                out.write(']');
+                break;
+            case GeoJSONBuilder.MULTIPOLYGON:
+                out.write('[');
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    polygon((Polygon) geometry.getGeometryN(i));
+                }
+                out.write(']');
+                break;
+            }
+        }
+        else {
+            GeometryCollection collection = (GeometryCollection) geometry;
+            key("geometries");
+            array();
+            for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
+                writeGeom(collection.getGeometryN(i));
+            }
+            endArray();
+        }
+
+        return endObject();
+    }
+
+    /**
+     * Writes an envelope as a "bbox" array [minX,minY,maxX,maxY].
+     */
+    public GeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        array();
+        value(env.getMinX());
+        value(env.getMinY());
+        value(env.getMaxX());
+        value(env.getMaxY());
+        return endArray();
+    }
+
+    /**
+     * Flushes the underlying writer.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    void polygon(Polygon polygon) throws IOException {
+        out.write('[');
+        coordinates(polygon.getExteriorRing().getCoordinateSequence(), 4);
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            out.write(',');
+            coordinates(polygon.getInteriorRingN(i).getCoordinateSequence(), 4);
+        }
+        out.write(']');
+    }
+
+    /**
+     * Writes out a sequence, decimating it if a simplification distance is set.
+     *
+     * @param minPoints The minimum number of points of the sequence, 2 for lines and 4 for rings.
+     */
+    void coordinates(CoordinateSequence cs, int minPoints) throws IOException {
+        out.write('[');
+        if (decimator == null) {
+            for (int i = 0, n = cs.size(); i < n; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                coordinate(cs.getOrdinate(i, 0), cs.getOrdinate(i, 1));
+            }
+        }
+        else {
+            int n = decimator.decimate(cs, minPoints);
+            int[] kept = decimator.kept;
+            for (int i = 0; i < n; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                coordinate(cs.getOrdinate(kept[i], 0), cs.getOrdinate(kept[i], 1));
+            }
+        }
+        out.write(']');
+    }
+
+    void coordinate(double x, double y) throws IOException {
+        out.write('[');
+        formatter.format(x, out);
+        out.write(',');
+        formatter.format(y, out);
+        out.write(']');
+    }
+
+    /**
+     * Writes the separator required before a new element, if any.
+     */
+    void separator() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+            return;
+        }
+        if (depth > 0) {
+            if (written[depth]) {
+                out.write(',');
+            }
+            written[depth] = true;
+        }
+    }
+
+    void push() {
+        depth++;
+        if (depth == written.length) {
+            boolean[] grown = new boolean[written.length * 2];
+            System.arraycopy(written, 0, grown, 0, written.length);
+            written = grown;
+        }
+        written[depth] = false;
+    }
+
+    /**
+     * Writes out a quoted and escaped string.
+     */
+    void string(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20 || c == '\u2028' || c == '\u2029') {
+                out.write(s, start, i - start);
+                start = i + 1;
+                switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\b': out.write("\\b"); break;
+                case '\f': out.write("\\f"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    out.write("\\u");
+                    String hex = Integer.toHexString(c);
+                    for (int j = hex.length(); j < 4; j++) {
+                        out.write('0');
+                    }
+                    out.write(hex);
+                }
+            }
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+
+    void integer(long value) throws IOException {
+        formatter.format(value, out);
+    }
+
+    /**
+     * Writes out a number rounded to the specified number of decimals, -1 for full precision.
+     */
+    void number(double value, int decimals) throws IOException {
+        formatter.format(value, decimals, out);
+    }
+}
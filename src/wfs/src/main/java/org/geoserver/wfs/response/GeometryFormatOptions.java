@@ -0,0 +1,83 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.util.Map;
+
+import org.geoserver.wfs.WFSException;
+
+/**
+ * The format options controlling how geometries are encoded by the text based output formats.
+ * <ul>
+ *   <li>DECIMALS: the number of decimals coordinates are rounded to, for example
+ *   {@code &format_options=DECIMALS:4}</li>
+ *   <li>SIMPLIFY: the distance, in the units of the output coordinate reference system, below
+ *   which consecutive points are dropped. Clients usually set it to the size of a pixel of
+ *   the map the features are drawn on, for example {@code &format_options=SIMPLIFY:0.001}</li>
+ * </ul>
+ */
+class GeometryFormatOptions {
+
+    static final String DECIMALS = "DECIMALS";
+
+    static final String SIMPLIFY = "SIMPLIFY";
+
+    /**
+     * the number of decimals, -1 when not specified
+     */
+    int decimals = -1;
+
+    /**
+     * the simplification distance, 0 when not specified
+     */
+    double simplify = 0;
+
+    /**
+     * Parses the options from the format options of a request.
+     *
+     * @throws WFSException If an option has an invalid value.
+     */
+    GeometryFormatOptions(Map<String, ?> formatOptions) throws WFSException {
+        if (formatOptions == null) {
+            return;
+        }
+
+        Object value = formatOptions.get(DECIMALS);
+        if (value != null) {
+            try {
+                decimals = Integer.parseInt(value.toString().trim());
+            }
+            catch (NumberFormatException e) {
+                decimals = -1;
+            }
+            if (decimals < 0) {
+                throw new WFSException("Invalid " + DECIMALS + " format option: " + value, 
+                    "InvalidParameterValue", "format_options");
+            }
+        }
+
+        value = formatOptions.get(SIMPLIFY);
+        if (value != null) {
+            try {
+                simplify = Double.parseDouble(value.toString().trim());
+            }
+            catch (NumberFormatException e) {
+                simplify = -1;
+            }
+            if (!(simplify >= 0) || Double.isInfinite(simplify)) {
+                throw new WFSException("Invalid " + SIMPLIFY + " format option: " + value, 
+                    "InvalidParameterValue", "format_options");
+            }
+        }
+    }
+
+    boolean hasDecimals() {
+        return decimals >= 0;
+    }
+
+    boolean hasSimplify() {
+        return simplify > 0;
+    }
+}
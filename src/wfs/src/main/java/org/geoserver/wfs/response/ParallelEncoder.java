@@ -0,0 +1,215 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Runs the independent parts of an output format encoding, such as the shapefiles of a
+ * SHAPE-ZIP or the sheets of a workbook, concurrently on a pool shared by all requests.
+ * <p>
+ * The pool has one thread per available processor, so that a handful of multi layer requests
+ * cannot starve the server. The first task runs in the calling thread, the others in the pool;
+ * the dispatcher request is made available to the pooled tasks, so that anything depending on
+ * it (file name templates, request dumps) behaves as in the calling thread.
+ * </p>
+ * <p>
+ * The pool is shut down when the application context is, the class is registered as a bean
+ * for this purpose.
+ * </p>
+ */
+public class ParallelEncoder implements DisposableBean {
+
+    static volatile ExecutorService pool;
+
+    static ExecutorService pool() {
+        ExecutorService executor = pool;
+        if (executor == null) {
+            synchronized (ParallelEncoder.class) {
+                if (pool == null) {
+                    pool = Executors.newFixedThreadPool(
+                        Runtime.getRuntime().availableProcessors(), new EncoderThreadFactory());
+                }
+                executor = pool;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Runs the tasks and waits for all of them to complete.
+     * <p>
+     * If a task fails the ones not yet started are cancelled and the failure is rethrown, as is
+     * if it is an {@link IOException} or an unchecked exception, wrapped in an
+     * {@link IOException} otherwise.
+     * </p>
+     *
+     * @return The results of the tasks, in the same order as the tasks.
+     */
+    public static <T> List<T> run(List<? extends Callable<T>> tasks) throws IOException {
+        return run(tasks, true);
+    }
+
+    /**
+     * Runs the tasks and waits for all of them to complete, see {@link #run(List)}.
+     *
+     * @param parallel Whether the tasks can run concurrently, if false they are run one after
+     * the other in the calling thread.
+     */
+    public static <T> List<T> run(List<? extends Callable<T>> tasks, boolean parallel)
+            throws IOException {
+        List<Future<T>> futures = submit(tasks, parallel);
+        try {
+            List<T> results = new ArrayList<T>(tasks.size());
+            for (Future<T> future : futures) {
+                results.add(get(future));
+            }
+            return results;
+        }
+        finally {
+            cancel(futures);
+        }
+    }
+
+    /**
+     * Starts running the tasks, without waiting for them to complete.
+     * <p>
+     * The results are meant to be consumed in order with {@link #get(Future)}, so that each one
+     * can be used as soon as it is available while the following tasks are still running. The
+     * first task, or all of them if they cannot run concurrently, run in the calling thread when
+     * their result is asked for. The caller must {@link #cancel(List)} the futures once done.
+     * </p>
+     *
+     * @param parallel Whether the tasks can run concurrently.
+     *
+     * @return The futures of the tasks, in the same order as the tasks.
+     */
+    public static <T> List<Future<T>> submit(List<? extends Callable<T>> tasks, boolean parallel) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        if (!parallel || tasks.size() <= 1 || Runtime.getRuntime().availableProcessors() == 1) {
+            for (Callable<T> task : tasks) {
+                futures.add(new CallerFuture<T>(task));
+            }
+            return futures;
+        }
+
+        final Request request = Dispatcher.REQUEST.get();
+        futures.add(new CallerFuture<T>(tasks.get(0)));
+        try {
+            for (final Callable<T> task : tasks.subList(1, tasks.size())) {
+                futures.add(pool().submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        Dispatcher.REQUEST.set(request);
+                        try {
+                            return task.call();
+                        }
+                        finally {
+                            Dispatcher.REQUEST.remove();
+                        }
+                    }
+                }));
+            }
+        }
+        catch (RuntimeException e) {
+            cancel(futures);
+            throw e;
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for a task started by {@link #submit(List, boolean)} to complete and returns its 
+     * result, rethrowing its failure the same way {@link #run(List)} does.
+     */
+    public static <T> T get(Future<T> future) throws IOException {
+        try {
+            if (future instanceof CallerFuture) {
+                ((CallerFuture<T>) future).run();
+            }
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+        catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while encoding").initCause(e);
+        }
+    }
+
+    /**
+     * Cancels the tasks not completed yet, no-op for the completed ones.
+     */
+    public static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Shuts down the pool, waiting a bit for the running tasks to complete.
+     */
+    public static void shutdown() throws InterruptedException {
+        ExecutorService executor;
+        synchronized (ParallelEncoder.class) {
+            executor = pool;
+            pool = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    public void destroy() throws Exception {
+        shutdown();
+    }
+
+    static IOException rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return (IOException) new IOException().initCause(t);
+    }
+
+    /**
+     * Future of a task running in the thread asking for its result.
+     */
+    static class CallerFuture<T> extends FutureTask<T> {
+        CallerFuture(Callable<T> task) {
+            super(task);
+        }
+    }
+
+    static class EncoderThreadFactory implements ThreadFactory {
+        AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServerEncoder-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -6,6 +6,7 @@ package org.geoserver.wfs.response;
  
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -21,16 +22,21 @@ import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -75,8 +81,10 @@ import org.geotools.xml.Encoder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.Name;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -109,6 +117,17 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     public static final String GS_SHAPEFILE_CHARSET = "GS-SHAPEFILE-CHARSET";
     public static final String SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI = "SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI";
     
+    /**
+     * Key of the boolean WFS metadata entry enabling the streaming mode, in which shapefiles are
+     * encoded into the zip stream by {@link StreamingShapefileWriter} instead of being staged in
+     * a temporary directory through the shapefile data store. Each shapefile is still buffered
+     * in full, in memory and then in temporary files, before being written out
+     */
+    public static final String SHAPE_ZIP_STREAMING = "SHAPE-ZIP_STREAMING";
+    
+    static final String EMPTY_ZIP_WARNING = "The query result is empty, and the geometric type " 
+        + "of the features is unknwon:an empty point shapefile has been created to fill the zip file";
+    
     private static final Configuration templateConfig = new Configuration();
     
     private ApplicationContext applicationContext;
@@ -210,8 +229,13 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     /**
      * @see WFSGetFeatureOutputFormat#write(Object, OutputStream, Operation)
      */
-    public void write(List<SimpleFeatureCollection> collections, Charset charset, OutputStream output, 
-        GetFeatureRequest request) throws IOException, ServiceException {
+    public void write(List<SimpleFeatureCollection> collections, final Charset charset, OutputStream output, 
+        final GetFeatureRequest request) throws IOException, ServiceException {
+        if (isStreaming()) {
+            writeStreaming(collections, charset, output, request);
+            return;
+        }
+        
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
         File tempDir = IOUtils.createTempDirectory("shpziptemp");
@@ -222,22 +246,31 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
            // if an empty result out of feature type with unknown geometry is created, the
             // zip file will be empty and the zip output stream will break
             boolean shapefileCreated = false;
-            for (SimpleFeatureCollection curCollection : collections) {
-                
-                if(curCollection.getSchema().getGeometryDescriptor() == null) {
-                    throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
-                            + curCollection.getSchema() + " has no geometry field");
-                } 
-                Class geomType = curCollection.getSchema().getGeometryDescriptor().getType().getBinding();
-                if(GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
+            
+            // each collection goes to its own set of files, they can be written concurrently
+            final File dir = tempDir;
+            List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+            for (final SimpleFeatureCollection curCollection : collections) {
+                checkGeometry(curCollection, request);
+                if(isGeometryGeneric(curCollection)) {
                     // in this case we fan out the output to multiple shapefiles
-                    shapefileCreated |= writeCollectionToShapefiles(curCollection, tempDir, charset, request);
+                    tasks.add(new Callable<Boolean>() {
+                        public Boolean call() throws Exception {
+                            return writeCollectionToShapefiles(curCollection, dir, charset, request);
+                        }
+                    });
                 } else {
                     // simple case, only one and supported type
-                    writeCollectionToShapefile(curCollection, tempDir, charset, request);
-                    shapefileCreated = true;
+                    tasks.add(new Callable<Boolean>() {
+                        public Boolean call() throws Exception {
+                            writeCollectionToShapefile(curCollection, dir, charset, request);
+                            return true;
+                        }
+                    });
                 }
-
+            }
+            for (Boolean created : ParallelEncoder.run(tasks, isParallel(collections))) {
+                shapefileCreated |= created;
             }
             
             // take care of the case the output is completely empty
@@ -277,6 +310,237 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
     }
 
+    /**
+     * Returns true if the streaming mode is enabled in the WFS configuration
+     */
+    boolean isStreaming() {
+        Boolean streaming = gs.getService(WFSInfo.class).getMetadata().get(SHAPE_ZIP_STREAMING, 
+            Boolean.class);
+        return streaming != null && streaming.booleanValue();
+    }
+    
+    /**
+     * Streaming version of {@link #write(List, Charset, OutputStream, GetFeatureRequest)}, the
+     * shapefiles are encoded into spill buffers instead of being staged in a temporary directory,
+     * see {@link StreamingShapefileWriter}. Collections are encoded concurrently, the shapefiles
+     * of each collection are written out as soon as its encoding completes, once the ones of the
+     * previous collections have been written, while the following collections are still being
+     * encoded.
+     */
+    void writeStreaming(List<SimpleFeatureCollection> collections, final Charset charset, 
+        OutputStream output, final GetFeatureRequest request) throws IOException, ServiceException {
+        ZipOutputStream zipOut = new ZipOutputStream(output);
+        
+        // all the writers created, to release their buffers whatever happens 
+        final List<StreamingShapefileWriter> created = 
+            Collections.synchronizedList(new ArrayList<StreamingShapefileWriter>());
+        List<Future<List<StreamingShapefileWriter>>> futures = 
+            new ArrayList<Future<List<StreamingShapefileWriter>>>();
+        try {
+            List<Callable<List<StreamingShapefileWriter>>> tasks = 
+                new ArrayList<Callable<List<StreamingShapefileWriter>>>();
+            for (final SimpleFeatureCollection curCollection : collections) {
+                checkGeometry(curCollection, request);
+                final boolean fanOut = isGeometryGeneric(curCollection);
+                tasks.add(new Callable<List<StreamingShapefileWriter>>() {
+                    public List<StreamingShapefileWriter> call() throws Exception {
+                        // fan out generic geometries to multiple shapefiles
+                        return fanOut ? 
+                            streamCollectionToShapefiles(curCollection, charset, request, created) :
+                            streamCollectionToShapefile(curCollection, charset, request, created);
+                    }
+                });
+            }
+            
+            // if an empty result out of feature type with unknown geometry is created, the
+            // zip file will be empty and the zip output stream will break
+            boolean shapefileCreated = false;
+            futures = ParallelEncoder.submit(tasks, isParallel(collections));
+            for (Future<List<StreamingShapefileWriter>> future : futures) {
+                for (StreamingShapefileWriter writer : ParallelEncoder.get(future)) {
+                    writer.writeTo(zipOut);
+                    // release the buffers right away instead of waiting for the others
+                    writer.dispose();
+                    shapefileCreated = true;
+                }
+            }
+            
+            // take care of the case the output is completely empty
+            if(!shapefileCreated) {
+                SimpleFeatureCollection fc = remapCollectionSchema(collections.get(0), Point.class);
+                streamCollectionToShapefile(fc, charset, request, created).get(0).writeTo(zipOut);
+                zipOut.putNextEntry(new ZipEntry("README.TXT"));
+                zipOut.write(EMPTY_ZIP_WARNING.getBytes());
+                zipOut.closeEntry();
+            }
+            
+            // dump the request
+            final Request dispatched = Dispatcher.REQUEST.get();
+            if(dispatched != null && request != null) {
+                try {
+                    // the xml encoder might close the stream it writes to, go through a buffer
+                    ByteArrayOutputStream dump = new ByteArrayOutputStream();
+                    writeRequestDump(dispatched, request, dump);
+                    zipOut.putNextEntry(new ZipEntry(getRequestDumpName(collections.get(0))));
+                    dump.writeTo(zipOut);
+                    zipOut.closeEntry();
+                } catch(IOException e) {
+                    throw new WFSException(request, "Failed to dump the WFS request");
+                }
+            }
+            
+            zipOut.finish();
+        } finally {
+            // stop the encodings still running before releasing their writers
+            ParallelEncoder.cancel(futures);
+            for (StreamingShapefileWriter writer : created) {
+                writer.dispose();
+            }
+        }
+    }
+    
+    private void checkGeometry(SimpleFeatureCollection c, GetFeatureRequest request) {
+        if(c.getSchema().getGeometryDescriptor() == null) {
+            throw new WFSException(request, "Cannot write geometryless shapefiles, yet " 
+                    + c.getSchema() + " has no geometry field");
+        } 
+    }
+    
+    private boolean isGeometryGeneric(SimpleFeatureCollection c) {
+        Class geomType = c.getSchema().getGeometryDescriptor().getType().getBinding();
+        return GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType);
+    }
+    
+    /**
+     * Collections can be written concurrently unless some of them share the same type, and
+     * would thus end up in the same files
+     */
+    private boolean isParallel(List<SimpleFeatureCollection> collections) {
+        Set<Name> names = new HashSet<Name>();
+        for (SimpleFeatureCollection c : collections) {
+            if(!names.add(c.getSchema().getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Encodes one featurecollection to an appropriately named shapefile, ready to be written
+     * out to the zip stream
+     */
+    private List<StreamingShapefileWriter> streamCollectionToShapefile(SimpleFeatureCollection c, 
+        Charset charset, GetFeatureRequest request, List<StreamingShapefileWriter> created) {
+        FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
+        c = remapCollectionSchema(c, null);
+        String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, null);
+        
+        try {
+            StreamingShapefileWriter writer = new StreamingShapefileWriter(fileName, c.getSchema(), 
+                charset, StreamingShapefileWriter.DEFAULT_SPILL_THRESHOLD);
+            created.add(writer);
+            SimpleFeatureIterator it = c.features();
+            try {
+                while(it.hasNext()) {
+                    writer.write(it.next());
+                }
+            } finally {
+                it.close();
+            }
+            writer.setPrj(getPrj(c.getSchema(), request));
+            return Collections.singletonList(writer);
+        } catch (FactoryException fe) {
+            LOGGER.log(Level.WARNING,
+                    "Error while getting EPSG code from FeatureType", fe);
+            throw new ServiceException(fe);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING,
+                "Error while writing featuretype '" + c.getSchema().getTypeName() + "' to shapefile.", ioe);
+            throw new ServiceException(ioe);
+        }
+    }
+    
+    /**
+     * Encodes one featurecollection with a generic geometry type to a group of shapefiles, one 
+     * per geometry type, see 
+     * {@link #writeCollectionToShapefiles(SimpleFeatureCollection, File, Charset, GetFeatureRequest)}
+     * @return the shapefiles, empty if the collection contains no geometry
+     */
+    private List<StreamingShapefileWriter> streamCollectionToShapefiles(SimpleFeatureCollection c, 
+        Charset charset, GetFeatureRequest request, List<StreamingShapefileWriter> created) {
+        FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
+        c = remapCollectionSchema(c, null);
+        SimpleFeatureType schema = c.getSchema();
+        
+        // keep the order in which geometry types are found
+        Map<Class, StreamingShapefileWriter> writers = new LinkedHashMap<Class, StreamingShapefileWriter>();
+        try {
+            SimpleFeatureIterator it = c.features();
+            try {
+                while(it.hasNext()) {
+                    SimpleFeature f = it.next();
+                    
+                    if(f.getDefaultGeometry() == null) {
+                        LOGGER.warning("Skipping " + f.getID() + " as its geometry is null");
+                        continue;
+                    }
+                    
+                    Map<String, Object> map = getGeometryType((Geometry) f.getDefaultGeometry());
+                    Class<?> target = (Class<?>) map.get("target");
+                    StreamingShapefileWriter writer = writers.get(target);
+                    if(writer == null) {
+                        String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, 
+                            (String) map.get("geometryType"));
+                        writer = new StreamingShapefileWriter(fileName, 
+                            retype(f.getFeatureType(), target, fileName), charset, 
+                            StreamingShapefileWriter.DEFAULT_SPILL_THRESHOLD);
+                        created.add(writer);
+                        writers.put(target, writer);
+                    }
+                    writer.write(f);
+                }
+            } finally {
+                it.close();
+            }
+            
+            if(!writers.isEmpty()) {
+                String prj = getPrj(schema, request);
+                for (StreamingShapefileWriter writer : writers.values()) {
+                    writer.setPrj(prj);
+                }
+            }
+            return new ArrayList<StreamingShapefileWriter>(writers.values());
+        } catch (FactoryException fe) {
+            LOGGER.log(Level.WARNING,
+                    "Error while getting EPSG code from FeatureType", fe);
+            throw new ServiceException(fe);    
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING,
+                "Error while writing featuretype '" + schema.getTypeName() + "' to shapefile.", ioe);
+            throw new ServiceException(ioe);
+        }
+    }
+    
+    /**
+     * Returns the contents of the .prj file for a schema, in ESRI format if requested and
+     * available, in OGC format otherwise. 
+     * @return the projection WKT, or null if the schema has no CRS
+     */
+    private String getPrj(SimpleFeatureType schema, GetFeatureRequest request) 
+        throws FactoryException, IOException {
+        CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+        if(crs == null) {
+            return null;
+        }
+        if(useEsriFormat(request)) {
+            String esri = getESRIPrj(schema);
+            if(esri != null) {
+                return esri;
+            }
+        }
+        return crs.toWKT();
+    }
+
     /**
      * Dumps the request
      * @param simpleFeatureCollection
@@ -289,49 +553,56 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
         
         // build the target file
-        FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc);
-        String fileName = new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
-        File target = new File(tempDir, fileName);
+        File target = new File(tempDir, getRequestDumpName(fc));
         
         try {
-            if(request.isGet()) {
-                final HttpServletRequest httpRequest = request.getHttpRequest();
-                String url = httpRequest.getRequestURL().append("?").append(httpRequest.getQueryString()).toString();
-                FileUtils.writeStringToFile(target, url);
-            } else {
-                org.geotools.xml.Configuration cfg = null;
-                QName elementName = null;
-                if(gft.getVersion().equals("1.1.0")) {
-                    cfg = new WFSConfiguration();
-                    elementName = WFS.GetFeature;
-                } else {
-                    cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
-                    elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
-                }
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(target);
-                    Encoder encoder = new Encoder(cfg);
-                    encoder.setIndenting(true);
-                    encoder.setIndentSize(2);
-                    encoder.encode(gft, elementName, fos);
-                } finally {
-                    if(fos != null)
-                        fos.close();
-                }
+            FileOutputStream fos = new FileOutputStream(target);
+            try {
+                writeRequestDump(request, gft, fos);
+            } finally {
+                fos.close();
             }
         } catch(IOException e) {
             throw new WFSException(gft, "Failed to dump the WFS request");
         }
+    }
         
+    private String getRequestDumpName(SimpleFeatureCollection fc) {
+        FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc);
+        return new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
+    }
+    
+    /**
+     * Writes out the request, either the GET url or the POST body re-encoded as xml
+     */
+    private void writeRequestDump(Request request, GetFeatureRequest gft, OutputStream out) 
+        throws IOException {
+        if(request.isGet()) {
+            final HttpServletRequest httpRequest = request.getHttpRequest();
+            String url = httpRequest.getRequestURL().append("?").append(httpRequest.getQueryString()).toString();
+            out.write(url.getBytes());
+        } else {
+            org.geotools.xml.Configuration cfg = null;
+            QName elementName = null;
+            if(gft.getVersion().equals("1.1.0")) {
+                cfg = new WFSConfiguration();
+                elementName = WFS.GetFeature;
+            } else {
+                cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
+                elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
+            }
+            Encoder encoder = new Encoder(cfg);
+            encoder.setIndenting(true);
+            encoder.setIndentSize(2);
+            encoder.encode(gft, elementName, out);
+        }
     }
 
     private void createEmptyZipWarning(File tempDir) throws IOException {
         PrintWriter pw = null;
         try {
             pw = new PrintWriter(new File(tempDir, "README.TXT"));
-            pw.print("The query result is empty, and the geometric type of the features is unknwon:" +
-            		"an empty point shapefile has been created to fill the zip file");
+            pw.print(EMPTY_ZIP_WARNING);
         } finally {
             pw.close();
         }
@@ -431,11 +702,15 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             String fileName, SimpleFeatureType remappedSchema) throws FactoryException,
             IOException, FileNotFoundException {
         
-        boolean useEsriFormat = false;
+        if (useEsriFormat(request)) {
+            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+        }
+    }
         
+    private boolean useEsriFormat(GetFeatureRequest request) {
         // if the request originates from the WPS we won't actually have any GetFeatureType request
         if(request == null) {
-            return;
+            return false;
         }
         
         Map<String, ?> formatOptions = request.getFormatOptions();
@@ -444,49 +719,61 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             WFSInfo bean = gs.getService(WFSInfo.class);
             MetadataMap metadata = bean.getMetadata();
             Boolean defaultIsEsri = metadata.get(SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI, Boolean.class);
-            useEsriFormat = defaultIsEsri != null && defaultIsEsri.booleanValue();
+            return defaultIsEsri != null && defaultIsEsri.booleanValue();
         }else{
-            useEsriFormat = "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
-        }
-        
-        if (useEsriFormat) {
-            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+            return "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
         }
     }
 
     private void replaceOGCPrjFileByESRIPrjFile(File tempDir, String fileName,
             SimpleFeatureType remappedSchema) throws FactoryException, IOException,
             FileNotFoundException {
+        String data = getESRIPrj(remappedSchema);
+        if (data != null) {
+            File prjShapeFile = new File(tempDir, fileName + ".prj");
+            prjShapeFile.delete();
+
+            BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Looks up the ESRI WKT of the schema CRS in user_projections/esri.properties
+     * @return the ESRI WKT, or null if not found
+     */
+    private String getESRIPrj(SimpleFeatureType remappedSchema) throws FactoryException, 
+        IOException {
         final Integer epsgCode = CRS.lookupEpsgCode(remappedSchema.getGeometryDescriptor()
                 .getCoordinateReferenceSystem(), true);
         if(epsgCode == null){
             LOGGER.info("Can't find the EPSG code for the shapefile CRS");
-            return;
+            return null;
         }
         File file = resourceLoader.find("user_projections", "esri.properties");
 
         if (file != null && file.exists()) {
             Properties properties = new Properties();
-            properties.load(new FileInputStream(file));
+            FileInputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
 
             String data = (String) properties.get(epsgCode.toString());
-
-            if (data != null) {
-                File prjShapeFile = new File(tempDir, fileName + ".prj");
-                prjShapeFile.delete();
-
-                BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
-                try {
-                    out.write(data);
-                } finally {
-                    out.close();
-                }
-            } else {
+            if (data == null) {
                 LOGGER.info("Requested shapefile with ESRI WKT .prj format but couldn't find an entry for ESPG code "
                         + epsgCode + " in esri.properties");
             }
+            return data;
         } else {
             LOGGER.info("Requested shapefile with ESRI WKT .prj format but the esri.properties file does not exist in the user_projections directory");
+            return null;
         }
     }
     
@@ -669,21 +956,8 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         StoreWriter storeWriter = writers.get(target);
         if(storeWriter == null) {
             // retype the schema
-            SimpleFeatureType original = f.getFeatureType();
-            SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
-            for (AttributeDescriptor d : original.getAttributeDescriptors()) {
-                if(Geometry.class.isAssignableFrom(d.getType().getBinding())) {
-                    GeometryDescriptor gd = (GeometryDescriptor) d;
-                    builder.add(gd.getLocalName(), target, gd.getCoordinateReferenceSystem());
-                    builder.setDefaultGeometry(gd.getLocalName());
-                } else {
-                    builder.add(d);
-                }
-            }
-            builder.setNamespaceURI(original.getName().getURI());
             String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, geometryType);
-            builder.setName(fileName);
-            SimpleFeatureType retyped = builder.buildFeatureType();
+            SimpleFeatureType retyped = retype(f.getFeatureType(), target, fileName);
             
             // create the datastore for the current geom type
             DataStore dstore = buildStore(tempDir, charset, retyped);
@@ -697,6 +971,25 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         return storeWriter.writer;
     }
     
+    /**
+     * Retypes a schema with a generic geometry to one with the specified geometry type 
+     */
+    private SimpleFeatureType retype(SimpleFeatureType original, Class<?> target, String fileName) {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        for (AttributeDescriptor d : original.getAttributeDescriptors()) {
+            if(Geometry.class.isAssignableFrom(d.getType().getBinding())) {
+                GeometryDescriptor gd = (GeometryDescriptor) d;
+                builder.add(gd.getLocalName(), target, gd.getCoordinateReferenceSystem());
+                builder.setDefaultGeometry(gd.getLocalName());
+            } else {
+                builder.add(d);
+            }
+        }
+        builder.setNamespaceURI(original.getName().getURI());
+        builder.setName(fileName);
+        return builder.buildFeatureType();
+    }
+    
     private Map<String, Object> getGeometryType(Geometry g) {
     	Class<?> target;
         String geometryType = null;
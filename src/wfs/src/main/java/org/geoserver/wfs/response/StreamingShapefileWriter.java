@@ -0,0 +1,498 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.data.shapefile.shp.JTSUtilities;
+import org.geotools.data.shapefile.shp.ShapeHandler;
+import org.geotools.data.shapefile.shp.ShapeType;
+import org.geotools.feature.FeatureTypes;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Encodes a shapefile into the entries of a zip stream, without going through a shapefile data
+ * store and a temporary directory.
+ * <p>
+ * This is not a streaming encoder: the headers of the .shp, .shx and .dbf files contain the
+ * number of records, the file length and the bounds of the geometries, and zip entries cannot be
+ * patched once written, so all the records are encoded in a .shp and a .dbf spill buffer as
+ * features are read, and the entries are written out only once the last feature has been
+ * encoded. Each spill buffer is kept in memory up to a threshold, then moved to a temporary file,
+ * so large outputs still use as much temporary disk space as the shapefiles themselves. The .shx
+ * index is computed from the record lengths.
+ * </p>
+ * <p>
+ * The schema is expected to respect the shapefile constraints already (single geometry, field
+ * names at most 10 chars long), attribute columns are created the same way the shapefile data
+ * store does.
+ * </p>
+ */
+class StreamingShapefileWriter {
+
+    static final Logger LOGGER = Logging.getLogger(StreamingShapefileWriter.class);
+
+    /**
+     * default amount of bytes each of the .shp and .dbf buffers keeps in memory
+     */
+    static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    /**
+     * shapefile header length in bytes
+     */
+    static final int HEADER_LENGTH = 100;
+
+    /**
+     * file name, without extension
+     */
+    String name;
+
+    Charset charset;
+
+    /**
+     * the shape type, determined by the first non null geometry
+     */
+    ShapeType shapeType;
+    ShapeHandler handler;
+
+    /**
+     * shape type to use if no geometry is written
+     */
+    ShapeType defaultShapeType;
+
+    /**
+     * the dbf columns, and the indexes of the attributes they are filled from
+     */
+    DbaseFileHeader dbfHeader;
+    int[] attributes;
+    Object[] record;
+    DbaseFileWriter dbfWriter;
+
+    /**
+     * length of the header the dbf writer wrote at the start of the dbf buffer
+     */
+    long dbfHeaderLength;
+
+    SpillBuffer shp;
+    SpillBuffer dbf;
+
+    /**
+     * number of records, and length of each record content in 16 bit words
+     */
+    int count;
+    int[] lengths = new int[1024];
+
+    Envelope bounds = new Envelope();
+
+    /**
+     * contents of the .prj file, null if none should be written
+     */
+    String prj;
+
+    /**
+     * buffer records are encoded into
+     */
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    StreamingShapefileWriter(String name, SimpleFeatureType schema, Charset charset,
+            int spillThreshold) throws IOException {
+        this.name = name;
+        this.charset = charset;
+
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        defaultShapeType = gd != null ? shapeType(gd.getType().getBinding()) : ShapeType.NULL;
+
+        createDbaseHeader(schema);
+        shp = new SpillBuffer(spillThreshold);
+        dbf = new SpillBuffer(spillThreshold);
+
+        //the writer writes out the header right away, it will be written again once the number
+        // of records is known
+        dbfWriter = new DbaseFileWriter(dbfHeader, Channels.newChannel(dbf), charset);
+        dbfHeaderLength = dbf.size();
+    }
+
+    /**
+     * Creates the dbf columns, following the same rules as the shapefile data store.
+     */
+    void createDbaseHeader(SimpleFeatureType schema) throws IOException {
+        dbfHeader = new DbaseFileHeader();
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            AttributeDescriptor ad = schema.getDescriptor(i);
+            Class<?> binding = ad.getType().getBinding();
+            String colName = ad.getLocalName();
+
+            int fieldLen = FeatureTypes.getFieldLength(ad);
+            if (fieldLen <= 0) {
+                fieldLen = 255;
+            }
+
+            if (Geometry.class.isAssignableFrom(binding)) {
+                continue;
+            }
+            else if (binding == Integer.class || binding == Short.class || binding == Byte.class) {
+                dbfHeader.addColumn(colName, 'N', Math.min(fieldLen, 9), 0);
+            }
+            else if (binding == Long.class) {
+                dbfHeader.addColumn(colName, 'N', Math.min(fieldLen, 19), 0);
+            }
+            else if (binding == BigInteger.class) {
+                dbfHeader.addColumn(colName, 'N', Math.min(fieldLen, 33), 0);
+            }
+            else if (Number.class.isAssignableFrom(binding)) {
+                int l = Math.min(fieldLen, 33);
+                dbfHeader.addColumn(colName, 'N', l, Math.max(l - 2, 0));
+            }
+            else if (java.util.Date.class.isAssignableFrom(binding)) {
+                dbfHeader.addColumn(colName, 'D', fieldLen, 0);
+            }
+            else if (binding == Boolean.class) {
+                dbfHeader.addColumn(colName, 'L', 1, 0);
+            }
+            else if (CharSequence.class.isAssignableFrom(binding)) {
+                dbfHeader.addColumn(colName, 'C', Math.min(254, fieldLen), 0);
+            }
+            else {
+                throw new IOException("Unable to write attribute " + colName + " of type "
+                    + binding.getName() + " to a shapefile");
+            }
+            indexes.add(i);
+        }
+
+        attributes = new int[indexes.size()];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = indexes.get(i);
+        }
+        record = new Object[attributes.length];
+    }
+
+    /**
+     * Encodes a feature.
+     */
+    void write(SimpleFeature f) throws IOException {
+        Geometry g = (Geometry) f.getDefaultGeometry();
+
+        //record content length in bytes, including the shape type
+        int length;
+        if (g == null) {
+            length = 4;
+            buffer.clear();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(count + 1);
+            buffer.putInt(length / 2);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(ShapeType.NULL.id);
+        }
+        else {
+            if (shapeType == null) {
+                shapeType = JTSUtilities.findBestGeometryType(g);
+                handler = shapeType.getShapeHandler(new GeometryFactory());
+            }
+            g = JTSUtilities.convertToCollection(g, shapeType);
+            length = handler.getLength(g);
+            if (buffer.capacity() < length + 8) {
+                buffer = ByteBuffer.allocate(Math.max(length + 8, buffer.capacity() * 2));
+            }
+
+            buffer.clear();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(count + 1);
+            buffer.putInt(length / 2);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(shapeType.id);
+            handler.write(buffer, g);
+            bounds.expandToInclude(g.getEnvelopeInternal());
+        }
+        shp.write(buffer.array(), 0, buffer.position());
+
+        if (count == lengths.length) {
+            int[] grown = new int[lengths.length * 2];
+            System.arraycopy(lengths, 0, grown, 0, lengths.length);
+            lengths = grown;
+        }
+        lengths[count++] = length / 2;
+
+        for (int i = 0; i < attributes.length; i++) {
+            record[i] = f.getAttribute(attributes[i]);
+        }
+        dbfWriter.write(record);
+    }
+
+    /**
+     * Sets the contents of the .prj file, null to omit it.
+     */
+    void setPrj(String prj) {
+        this.prj = prj;
+    }
+
+    /**
+     * Returns the number of features written so far.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Writes out the .shp, .shx, .dbf and .cst entries, and the .prj one if set.
+     */
+    void writeTo(ZipOutputStream zip) throws IOException {
+        ShapeType type = shapeType != null ? shapeType : defaultShapeType;
+
+        // close the dbf writer so that it writes out whatever it still holds, no more records
+        // can be written past this point
+        closeDbaseWriter();
+
+        // shp, file length is in 16 bit words
+        zip.putNextEntry(new ZipEntry(name + ".shp"));
+        zip.write(header(type, (int) ((HEADER_LENGTH + shp.size()) / 2)));
+        shp.writeTo(zip, 0);
+        zip.closeEntry();
+
+        // shx, fixed size records pointing at the shp ones
+        zip.putNextEntry(new ZipEntry(name + ".shx"));
+        zip.write(header(type, HEADER_LENGTH / 2 + 4 * count));
+        ByteBuffer index = ByteBuffer.allocate(8 * 1024);
+        index.order(ByteOrder.BIG_ENDIAN);
+        int offset = HEADER_LENGTH / 2;
+        for (int i = 0; i < count; i++) {
+            if (index.remaining() < 8) {
+                zip.write(index.array(), 0, index.position());
+                index.clear();
+            }
+            index.putInt(offset);
+            index.putInt(lengths[i]);
+            offset += 4 + lengths[i];
+        }
+        zip.write(index.array(), 0, index.position());
+        zip.closeEntry();
+
+        // dbf, with the header rewritten now that the number of records is known
+        dbfHeader.setNumRecords(count);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        dbfHeader.writeHeader(Channels.newChannel(header));
+        zip.putNextEntry(new ZipEntry(name + ".dbf"));
+        header.writeTo(zip);
+        dbf.writeTo(zip, dbfHeaderLength);
+        zip.closeEntry();
+
+        if (prj != null) {
+            zip.putNextEntry(new ZipEntry(name + ".prj"));
+            zip.write(prj.getBytes());
+            zip.closeEntry();
+        }
+
+        // dump the charset, for debugging and control purposes (.cst is not a standard extension)
+        zip.putNextEntry(new ZipEntry(name + ".cst"));
+        zip.write(charset.name().getBytes());
+        zip.closeEntry();
+    }
+
+    /**
+     * Releases the dbf writer and the spill buffers, the entries cannot be written past this 
+     * point.
+     */
+    void dispose() {
+        try {
+            closeDbaseWriter();
+        }
+        catch (IOException e) {
+            LOGGER.fine("Error closing dbf writer: " + e.getMessage());
+        }
+        shp.dispose();
+        dbf.dispose();
+    }
+
+    void closeDbaseWriter() throws IOException {
+        if (dbfWriter != null) {
+            DbaseFileWriter writer = dbfWriter;
+            dbfWriter = null;
+            writer.close();
+        }
+    }
+
+    /**
+     * Encodes the header shared by the .shp and .shx files.
+     */
+    byte[] header(ShapeType type, int fileLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.order(ByteOrder.BIG_ENDIAN);
+        header.putInt(9994);
+        for (int i = 0; i < 5; i++) {
+            header.putInt(0);
+        }
+        header.putInt(fileLength);
+
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(1000);
+        header.putInt(type.id);
+        if (bounds.isNull()) {
+            header.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+        }
+        else {
+            header.putDouble(bounds.getMinX()).putDouble(bounds.getMinY());
+            header.putDouble(bounds.getMaxX()).putDouble(bounds.getMaxY());
+        }
+        // z and m ranges
+        header.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+        return header.array();
+    }
+
+    /**
+     * Maps a geometry binding to the matching two dimensional shape type.
+     */
+    static ShapeType shapeType(Class<?> binding) {
+        if (Point.class.isAssignableFrom(binding)) {
+            return ShapeType.POINT;
+        }
+        if (MultiPoint.class.isAssignableFrom(binding)) {
+            return ShapeType.MULTIPOINT;
+        }
+        if (LineString.class.isAssignableFrom(binding)
+                || MultiLineString.class.isAssignableFrom(binding)) {
+            return ShapeType.ARC;
+        }
+        if (Polygon.class.isAssignableFrom(binding)
+                || MultiPolygon.class.isAssignableFrom(binding)) {
+            return ShapeType.POLYGON;
+        }
+        return ShapeType.NULL;
+    }
+
+    /**
+     * Output stream keeping its contents in memory up to a threshold, and in a temporary file
+     * past it.
+     */
+    static class SpillBuffer extends OutputStream {
+
+        int threshold;
+        Memory memory = new Memory();
+        File file;
+        OutputStream fileOut;
+        long size;
+
+        SpillBuffer(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && memory.size() + len > threshold) {
+                spill();
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            }
+            else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        void spill() throws IOException {
+            file = File.createTempFile("shpzip", ".tmp");
+            fileOut = new BufferedOutputStream(new FileOutputStream(file));
+            memory.writeTo(fileOut);
+            memory = null;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * Copies the contents to a stream, skipping the specified number of bytes.
+         */
+        void writeTo(OutputStream out, long skip) throws IOException {
+            if (fileOut == null) {
+                memory.writeTo(out, (int) skip);
+                return;
+            }
+
+            fileOut.flush();
+            InputStream in = new FileInputStream(file);
+            try {
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        throw new IOException("Unexpected end of spill file " + file);
+                    }
+                    skip -= skipped;
+                }
+                byte[] b = new byte[8192];
+                int n;
+                while ((n = in.read(b)) != -1) {
+                    out.write(b, 0, n);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        void dispose() {
+            memory = null;
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                }
+                catch (IOException e) {
+                    LOGGER.fine("Error closing spill file " + file + ": " + e.getMessage());
+                }
+                if (!file.delete()) {
+                    LOGGER.warning("Could not delete spill file " + file);
+                }
+                fileOut = null;
+            }
+        }
+    }
+
+    /**
+     * Byte array stream that can write out its contents without copying them.
+     */
+    static class Memory extends ByteArrayOutputStream {
+        void writeTo(OutputStream out, int skip) throws IOException {
+            out.write(buf, skip, count - skip);
+        }
+    }
+}
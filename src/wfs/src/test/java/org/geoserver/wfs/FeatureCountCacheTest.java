@@ -0,0 +1,144 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.geoserver.data.test.MockData;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.filter.FilterFactory;
+import org.w3c.dom.Document;
+
+public class FeatureCountCacheTest extends WFSTestSupport {
+
+    @Override
+    protected void oneTimeSetUp() throws Exception {
+        super.oneTimeSetUp();
+
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(FeatureCountCache.ENABLED, true);
+        getGeoServer().save(wfs);
+    }
+
+    public void testCachedHits() throws Exception {
+        assertEquals("15", hits());
+
+        // changes made behind the back of the wfs go unnoticed until the count expires
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        FeatureStore store = (FeatureStore) getFeatureSource(MockData.FIFTEEN);
+        store.removeFeatures(ff.id(Collections.singleton(ff.featureId("Fifteen.3"))));
+        assertEquals("15", hits());
+
+        // a transaction invalidates the count
+        String delete = "<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+            + "xmlns:cdf=\"http://www.opengis.net/cite/data\" "
+            + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+            + "xmlns:wfs=\"http://www.opengis.net/wfs\"> "
+            + "<wfs:Delete typeName=\"cdf:Fifteen\"> "
+            + "<ogc:Filter> "
+            + "<ogc:FeatureId fid=\"Fifteen.1\"/> "
+            + "</ogc:Filter> "
+            + "</wfs:Delete> "
+            + "</wfs:Transaction>";
+        Document dom = postAsDOM("wfs", delete);
+        assertEquals(1, dom.getElementsByTagName("wfs:SUCCESS").getLength());
+        assertEquals("13", hits());
+    }
+
+    public void testInvalidatedOnCommit() throws Exception {
+        FeatureCountCache cache = 
+            (FeatureCountCache) applicationContext.getBean("wfsFeatureCountCache");
+        cache.clear();
+        cache.getCount(MockData.FIFTEEN, getFeatureSource(MockData.FIFTEEN), 
+            new Query(MockData.FIFTEEN.getLocalPart()), false);
+        FeatureCountCache.Entry entry = cache.entries.values().iterator().next();
+
+        // nothing happens until the transaction is committed
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null, 
+            MockData.FIFTEEN, null));
+        assertTrue(entry.valid);
+        cache.afterTransaction(null, null, false);
+        assertTrue(entry.valid);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null, 
+            MockData.FIFTEEN, null));
+        assertTrue(entry.valid);
+        cache.afterTransaction(null, null, true);
+        assertFalse(entry.valid);
+    }
+
+    public void testInvalidatedWhileCounting() throws Exception {
+        final FeatureCountCache cache = 
+            (FeatureCountCache) applicationContext.getBean("wfsFeatureCountCache");
+        cache.clear();
+
+        // a commit happening while counting, the count might be stale
+        FeatureSource source = source(new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getFeatures".equals(method.getName())) {
+                    cache.invalidate(MockData.FIFTEEN);
+                }
+                return method.invoke(getFeatureSource(MockData.FIFTEEN), args);
+            }
+        });
+        Query q = new Query(MockData.FIFTEEN.getLocalPart());
+        cache.getCount(MockData.FIFTEEN, source, q, false);
+        assertTrue(cache.entries.isEmpty());
+
+        cache.getCount(MockData.FIFTEEN, getFeatureSource(MockData.FIFTEEN), q, false);
+        assertEquals(1, cache.entries.size());
+    }
+
+    public void testStoreCountCached() throws Exception {
+        FeatureCountCache cache = 
+            (FeatureCountCache) applicationContext.getBean("wfsFeatureCountCache");
+        cache.clear();
+
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(FeatureCountCache.ESTIMATED, true);
+        getGeoServer().save(wfs);
+        try {
+            final int[] counts = new int[1];
+            FeatureSource source = source(new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("getCount".equals(method.getName())) {
+                        counts[0]++;
+                        return 42;
+                    }
+                    return method.invoke(getFeatureSource(MockData.FIFTEEN), args);
+                }
+            });
+            Query q = new Query(MockData.FIFTEEN.getLocalPart());
+            assertEquals(42, cache.getCount(MockData.FIFTEEN, source, q, true));
+            assertEquals(42, cache.getCount(MockData.FIFTEEN, source, q, true));
+            assertEquals(1, counts[0]);
+        }
+        finally {
+            wfs = getWFS();
+            wfs.getMetadata().remove(FeatureCountCache.ESTIMATED);
+            getGeoServer().save(wfs);
+        }
+    }
+
+    FeatureSource source(InvocationHandler h) {
+        return (FeatureSource) Proxy.newProxyInstance(getClass().getClassLoader(), 
+            new Class[] { SimpleFeatureSource.class }, h);
+    }
+
+    String hits() throws Exception {
+        Document dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs" +
+            "&typename=cdf:Fifteen&resultType=hits");
+        return dom.getDocumentElement().getAttribute("numberOfFeatures");
+    }
+}
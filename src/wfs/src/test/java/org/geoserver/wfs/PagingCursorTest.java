@@ -0,0 +1,101 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+public class PagingCursorTest extends TestCase {
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    List<SortBy> sortBy = Arrays.asList(ff.sort("name", SortOrder.ASCENDING),
+        ff.sort("num", SortOrder.DESCENDING), ff.sort("id", SortOrder.ASCENDING));
+    List<Class> bindings = Arrays.asList((Class) String.class, Integer.class, Integer.class);
+
+    public void testEncodeDecode() throws Exception {
+        PagingCursor cursor = new PagingCursor("gs:Things", sortBy,
+            Arrays.asList((Object) "b", Integer.valueOf(5), Integer.valueOf(12)));
+        String token = cursor.encode();
+        assertTrue(token.matches("[A-Za-z0-9_\\-]+"));
+
+        PagingCursor decoded = PagingCursor.decode(token);
+        assertEquals("gs:Things", decoded.getTypeName());
+        assertEquals(Arrays.asList((Object) "b", Integer.valueOf(5), Integer.valueOf(12)), 
+            decoded.getValues(bindings));
+        assertTrue(decoded.matches("gs:Things", sortBy));
+        assertFalse(decoded.matches("gs:Others", sortBy));
+        assertFalse(decoded.matches("gs:Things", Arrays.asList(ff.sort("name", SortOrder.ASCENDING),
+            ff.sort("num", SortOrder.ASCENDING), ff.sort("id", SortOrder.ASCENDING))));
+    }
+
+    public void testEncodeDecodeDate() throws Exception {
+        Timestamp ts = new Timestamp(1234567890123l);
+        PagingCursor cursor = new PagingCursor("gs:Things",
+            Arrays.asList(ff.sort("when", SortOrder.ASCENDING)), Arrays.asList((Object) ts));
+
+        PagingCursor decoded = PagingCursor.decode(cursor.encode());
+        assertEquals(ts, decoded.getValues(Arrays.asList((Class) Timestamp.class)).get(0));
+    }
+
+    public void testNullValue() throws Exception {
+        try {
+            new PagingCursor("gs:Things", sortBy, Arrays.asList((Object) "b", null, 1));
+            fail("null values should have been rejected");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testDecodeInvalid() throws Exception {
+        try {
+            PagingCursor.decode("notAToken");
+            fail("invalid token should have been rejected");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testFilter() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("Things");
+        tb.add("name", String.class);
+        tb.add("num", Integer.class);
+        tb.add("id", Integer.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+
+        PagingCursor cursor = new PagingCursor("gs:Things", sortBy,
+            Arrays.asList((Object) "b", Integer.valueOf(5), Integer.valueOf(12)));
+        Filter filter = cursor.toFilter(ff, bindings);
+
+        // sorted by name ascending, then by num descending
+        assertFalse(filter.evaluate(feature(type, "a", 1, 20)));
+        assertFalse(filter.evaluate(feature(type, "b", 6, 20)));
+        assertTrue(filter.evaluate(feature(type, "b", 4, 1)));
+        assertTrue(filter.evaluate(feature(type, "c", 10, 1)));
+        
+        // then by key, the features sharing the values up to the cursor one were returned
+        assertFalse(filter.evaluate(feature(type, "b", 5, 11)));
+        assertFalse(filter.evaluate(feature(type, "b", 5, 12)));
+        assertTrue(filter.evaluate(feature(type, "b", 5, 13)));
+    }
+
+    SimpleFeature feature(SimpleFeatureType type, String name, int num, int id) {
+        return SimpleFeatureBuilder.build(type, new Object[] {name, num, id}, "Things." + id);
+    }
+}
@@ -102,6 +102,50 @@ public class TransactionListenerTest extends WFSTestSupport {
         assertEquals(fid, inserted.getIdentifier().getID());
     }
 
+    public void testInsertBatched() throws Exception {
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        wfs.getMetadata().put(InsertElementHandler.INSERT_BATCH_SIZE, 1);
+        getGeoServer().save(wfs);
+        
+        try {
+            // insert three features, written to the store one at a time
+            String insert = "<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"> "
+                    + "<wfs:Insert > ";
+            for (int i = 0; i < 3; i++) {
+                insert += "<cgf:Lines>"
+                    + "<cgf:lineStringProperty>"
+                    + "<gml:LineString>"
+                    + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                    + "494475.71056415,5433016.8189323 494982.70115662,5435041.95096618"
+                    + "</gml:coordinates>" + "</gml:LineString>"
+                    + "</cgf:lineStringProperty>" + "<cgf:id>b000" + i + "</cgf:id>"
+                    + "</cgf:Lines>";
+            }
+            insert += "</wfs:Insert>" + "</wfs:Transaction>";
+    
+            int features = listener.features.size();
+            Document dom = postAsDOM("wfs", insert);
+            assertEquals(3, dom.getElementsByTagName("ogc:FeatureId").getLength());
+            
+            // still a single pre and post insert event
+            assertEquals(2, listener.events.size());
+            TransactionEvent firstEvent = (TransactionEvent) listener.events.get(0);
+            assertEquals(TransactionEventType.PRE_INSERT, firstEvent.getType());
+            TransactionEvent secondEvent = (TransactionEvent) listener.events.get(1);
+            assertEquals(TransactionEventType.POST_INSERT, secondEvent.getType());
+            // three features from the pre-insert hook, three from the post-insert hook
+            assertEquals(6, listener.features.size() - features);
+        }
+        finally {
+            wfs.getMetadata().remove(InsertElementHandler.INSERT_BATCH_SIZE);
+            getGeoServer().save(wfs);
+        }
+    }
+
     public void testUpdate() throws Exception {
         // perform an update
         String insert = "<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
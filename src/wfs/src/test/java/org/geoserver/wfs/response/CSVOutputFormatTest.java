@@ -3,6 +3,7 @@ package org.geoserver.wfs.response;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,6 +13,7 @@ import net.opengis.wfs.WfsFactory;
 
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.Operation;
+import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geotools.data.FeatureSource;
@@ -27,8 +29,12 @@ import au.com.bytecode.opencsv.CSVReader;
 
 import com.mockrunner.mock.web.MockHttpServletResponse;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
 
 
 public class CSVOutputFormatTest extends WFSTestSupport {
@@ -41,7 +47,7 @@ public class CSVOutputFormatTest extends WFSTestSupport {
 //        System.out.println(resp.getOutputStreamContent());
         
         // check the mime type
-        assertEquals("text/csv", resp.getContentType());
+        assertEquals("text/csv; charset=UTF-8", resp.getContentType());
         
         // check the content disposition
         assertEquals("attachment; filename=PrimitiveGeoFeature.csv", resp.getHeader("Content-Disposition"));
@@ -103,6 +109,134 @@ public class CSVOutputFormatTest extends WFSTestSupport {
         assertEquals(f2.getAttribute("label"), lines.get(2)[2]);
     }
     
+    public void testGeometryFormatOptions() throws Exception {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.add("geom", LineString.class);
+        builder.add("value", Double.class);
+        builder.setName("lines");
+        SimpleFeatureType type = builder.buildFeatureType();
+
+        LineString line = (LineString) new WKTReader().read(
+            "LINESTRING(0.123456 0, 0.2 0.01, 0.31 0.02, 5.987654 6)");
+        MemoryDataStore data = new MemoryDataStore();
+        data.addFeature(SimpleFeatureBuilder.build(type, new Object[] {line, 1.23456}, null));
+        SimpleFeatureSource fs = data.getFeatureSource("lines");
+
+        GetFeatureType gft = WfsFactory.eINSTANCE.createGetFeatureType();
+        gft.getFormatOptions().put("DECIMALS", "2");
+        gft.getFormatOptions().put("SIMPLIFY", "0.5");
+        Operation op = new Operation("GetFeature", getServiceDescriptor10(), null, new Object[] {gft});
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(fs.getFeatures());
+
+        new CSVOutputFormat(getGeoServer()).write(fct, bos, op);
+
+        List<String[]> lines = readLines(bos.toString());
+        assertEquals(2, lines.size());
+        assertEquals("LINESTRING (0.12 0, 5.99 6)", lines.get(1)[1]);
+        assertEquals("1.23", lines.get(1)[2]);
+
+        // invalid values are reported
+        gft.getFormatOptions().put("DECIMALS", "-1");
+        try {
+            new CSVOutputFormat(getGeoServer()).write(fct, new ByteArrayOutputStream(), op);
+            fail("negative number of decimals should have been rejected");
+        }
+        catch (WFSException e) {
+            assertEquals("InvalidParameterValue", e.getCode());
+        }
+    }
+
+    public void testWriteCSVField() throws Exception {
+        StringWriter w = new StringWriter();
+        CSVOutputFormat.writeCSVField("plain value", w);
+        w.write('|');
+        CSVOutputFormat.writeCSVField("a,b", w);
+        w.write('|');
+        CSVOutputFormat.writeCSVField("say \"hi\"", w);
+        w.write('|');
+        CSVOutputFormat.writeCSVField("one\ntwo\nthree\r", w);
+        assertEquals("plain value|\"a,b\"|\"say \"\"hi\"\"\"|\"one\ntwo\nthree\r\"", 
+            w.toString());
+    }
+
+    public void testGeometryEncoding() throws Exception {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.add("geom", Geometry.class);
+        builder.add("label", String.class);
+        builder.setName("places");
+        SimpleFeatureType type = builder.buildFeatureType();
+
+        MemoryDataStore data = new MemoryDataStore();
+        data.addFeature(SimpleFeatureBuilder.build(type, new Object[] {
+            new WKTReader().read("POINT(1.5 2)"), "Z\u00fcrich"}, "places.1"));
+        data.addFeature(SimpleFeatureBuilder.build(type, new Object[] {
+            new WKTReader().read("POLYGON((0 0, 2 0, 2 2, 0 2, 0 0))"), "square"}, "places.2"));
+        data.addFeature(SimpleFeatureBuilder.build(type, new Object[] {null, "nowhere"}, 
+            "places.3"));
+        SimpleFeatureSource fs = data.getFeatureSource("places");
+
+        // xy columns
+        List<String[]> lines = readLines(writeCSV(fs, "XY"));
+        assertEquals(4, lines.size());
+        assertEquals("FID,geom_x,geom_y,label", join(lines.get(0)));
+        assertEquals("places.1,1.5,2,Z\u00fcrich", join(lines.get(1)));
+        assertEquals("places.2,1,1,square", join(lines.get(2)));
+        assertEquals("places.3,,,nowhere", join(lines.get(3)));
+
+        // hex encoded wkb
+        lines = readLines(writeCSV(fs, "wkb"));
+        assertEquals("FID,geom,label", join(lines.get(0)));
+        assertEquals(WKBWriter.toHex(new WKBWriter().write(
+            new WKTReader().read("POINT(1.5 2)"))), lines.get(1)[1]);
+        assertEquals("", lines.get(3)[1]);
+
+        // no geometries
+        lines = readLines(writeCSV(fs, "NONE"));
+        assertEquals("FID,label", join(lines.get(0)));
+        assertEquals("places.2,square", join(lines.get(2)));
+
+        // wkt is the default
+        lines = readLines(writeCSV(fs, null));
+        assertEquals("POINT (1.5 2)", lines.get(1)[1]);
+
+        try {
+            writeCSV(fs, "GML");
+            fail("unknown geometry encoding should have been rejected");
+        }
+        catch (WFSException e) {
+            assertEquals("InvalidParameterValue", e.getCode());
+        }
+    }
+
+    String writeCSV(SimpleFeatureSource fs, String geometryEncoding) throws Exception {
+        GetFeatureType gft = WfsFactory.eINSTANCE.createGetFeatureType();
+        if (geometryEncoding != null) {
+            gft.getFormatOptions().put("GEOMETRY", geometryEncoding);
+        }
+        Operation op = new Operation("GetFeature", getServiceDescriptor10(), null, new Object[] {gft});
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(fs.getFeatures());
+
+        new CSVOutputFormat(getGeoServer()).write(fct, bos, op);
+        return bos.toString("UTF-8");
+    }
+
+    String join(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
     /**
      * Convenience to read the csv content and 
      * @param csvContent
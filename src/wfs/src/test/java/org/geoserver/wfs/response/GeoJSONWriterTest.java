@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2001 - 2011 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONWriterTest extends TestCase {
+
+    StringWriter writer;
+    GeoJSONWriter json;
+
+    @Override
+    protected void setUp() throws Exception {
+        writer = new StringWriter();
+        json = new GeoJSONWriter(writer);
+    }
+
+    public void testSameAsBuilder() throws Exception {
+        String[] wkts = new String[] {
+            "POINT(1 2)",
+            "LINESTRING(0 0, 1.5 1.25, -3 4)",
+            "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+            "MULTIPOINT((0 0), (1 1))",
+            "MULTILINESTRING((0 0, 1 1), (2 2, 3 3))",
+            "MULTIPOLYGON(((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))"
+        };
+        for (String wkt : wkts) {
+            Geometry g = new WKTReader().read(wkt);
+
+            StringWriter expected = new StringWriter();
+            new GeoJSONBuilder(expected).writeGeom(g);
+
+            writer.getBuffer().setLength(0);
+            json.writeGeom(g);
+            assertEquals(expected.toString(), writer.toString());
+        }
+    }
+
+    public void testStructure() throws Exception {
+        json.object().key("type").value("FeatureCollection").key("features").array();
+        json.object().key("id").value("f.1").key("properties").object()
+            .key("int").value(Integer.valueOf(3)).key("double").value(Double.valueOf(0.5))
+            .key("bool").value(Boolean.TRUE).key("null").value(null).endObject().endObject();
+        json.object().key("id").value("f.2").endObject();
+        json.endArray();
+        json.writeBoundingBox(new Envelope(0, 1, 2, 3));
+        json.endObject();
+
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"id\":\"f.1\",\"properties\":{\"int\":3,\"double\":0.5,\"bool\":true,\"null\":null}},"
+            + "{\"id\":\"f.2\"}],\"bbox\":[0,2,1,3]}", writer.toString());
+    }
+
+    public void testEscape() throws Exception {
+        json.value("a\"b\\c\nd\u0001");
+        assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", writer.toString());
+    }
+
+    public void testNumDecimals() throws Exception {
+        json.setNumDecimals(2);
+        json.writeGeom(new WKTReader().read("LINESTRING(1.23456 -7.891, 0.001 -0.004, 2.5 100)"));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[1.23,-7.89],[0,0],[2.5,100]]}",
+            writer.toString());
+    }
+
+    public void testFullPrecision() throws Exception {
+        json.writeGeom(new WKTReader().read("POINT(0.123456789012 -1.5E-7)"));
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[0.123456789012,-1.5E-7]}",
+            writer.toString());
+    }
+
+    public void testSimplify() throws Exception {
+        json.setSimplifyDistance(1);
+        json.writeGeom(new WKTReader().read(
+            "LINESTRING(0 0, 0.5 0.5, 1 0.2, 1.2 0.3, 3 3, 3.1 3.1)"));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,0.2],[3,3],[3.1,3.1]]}",
+            writer.toString());
+    }
+
+    public void testSimplifyKeepsRings() throws Exception {
+        // the ring would collapse, it is written out as is
+        json.setSimplifyDistance(10);
+        json.writeGeom(new WKTReader().read("POLYGON((0 0, 1 0, 1 1, 0 0))"));
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[1,0],[1,1],[0,0]]]}",
+            writer.toString());
+    }
+
+    public void testWriteDate() throws Exception{
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        java.sql.Date date = new java.sql.Date(cal.getTimeInMillis());
+        json.object().key("date").value(date).endObject();
+        assertEquals("{\"date\":\"2011-10-25Z\"}", writer.toString());
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+
+public class ParallelEncoderTest extends TestCase {
+
+    public void testResultsInOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    Thread.sleep(10 - value);
+                    return value;
+                }
+            });
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ParallelEncoder.run(tasks));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), 
+            ParallelEncoder.run(tasks, false));
+    }
+
+    public void testSubmitInOrder() throws Exception {
+        final CountDownLatch firstDone = new CountDownLatch(1);
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                firstDone.countDown();
+                return 0;
+            }
+        });
+        tasks.add(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                // the first result is available before this one completes
+                firstDone.await();
+                return 1;
+            }
+        });
+        
+        for (boolean parallel : new boolean[] { true, false }) {
+            List<Future<Integer>> futures = ParallelEncoder.submit(tasks, parallel);
+            try {
+                assertEquals(Integer.valueOf(0), ParallelEncoder.get(futures.get(0)));
+                assertEquals(Integer.valueOf(1), ParallelEncoder.get(futures.get(1)));
+            }
+            finally {
+                ParallelEncoder.cancel(futures);
+            }
+        }
+    }
+
+    public void testShutdown() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 4; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return value;
+                }
+            });
+        }
+        ParallelEncoder.run(tasks);
+        
+        new ParallelEncoder().destroy();
+        assertNull(ParallelEncoder.pool);
+        
+        // a new pool is created on demand
+        assertEquals(Arrays.asList(0, 1, 2, 3), ParallelEncoder.run(tasks));
+    }
+
+    public void testRequestPropagated() throws Exception {
+        Request request = new Request();
+        Dispatcher.REQUEST.set(request);
+        try {
+            List<Callable<Request>> tasks = new ArrayList<Callable<Request>>();
+            for (int i = 0; i < 4; i++) {
+                tasks.add(new Callable<Request>() {
+                    public Request call() throws Exception {
+                        return Dispatcher.REQUEST.get();
+                    }
+                });
+            }
+            for (Request r : ParallelEncoder.run(tasks)) {
+                assertSame(request, r);
+            }
+        }
+        finally {
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
+    public void testFailure() throws Exception {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        tasks.add(new Callable<Object>() {
+            public Object call() throws Exception {
+                return null;
+            }
+        });
+        tasks.add(new Callable<Object>() {
+            public Object call() throws Exception {
+                throw new IOException("failed");
+            }
+        });
+        try {
+            ParallelEncoder.run(tasks);
+            fail("the failure should have been reported");
+        }
+        catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+}
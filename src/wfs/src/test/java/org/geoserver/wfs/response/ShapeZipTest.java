@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.namespace.QName;
 
@@ -32,6 +33,7 @@ import org.geoserver.platform.Operation;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -407,6 +409,126 @@ public class ShapeZipTest extends WFSTestSupport {
                 get4326_ESRI_WKTContent());
     }
 
+    public void testStreaming() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            SimpleFeatureCollection fc = getFeatureSource(MockData.BASIC_POLYGONS).getFeatures();
+            byte[] zip = writeOut(fc);
+
+            checkShapefileIntegrity(new String[] { "BasicPolygons" }, new ByteArrayInputStream(zip));
+            checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+            assertEquals(fc.size(), readBack(new ByteArrayInputStream(zip)).size());
+        } finally {
+            setupStreaming(getGeoServer(), false);
+        }
+    }
+
+    public void testStreamingMultiType() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(ALL_TYPES).getFeatures());
+
+            final String[] expectedTypes = new String[] { "AllTypesPoint", "AllTypesMPoint",
+                    "AllTypesPolygon", "AllTypesLine" };
+            checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
+            checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+        } finally {
+            setupStreaming(getGeoServer(), false);
+        }
+    }
+
+    public void testStreamingNullGeometries() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            SimpleFeatureCollection fc = getFeatureSource(NULLGEOM).getFeatures();
+            byte[] zip = writeOut(fc);
+
+            checkShapefileIntegrity(new String[] { "nullgeom" }, new ByteArrayInputStream(zip));
+            assertEquals(fc.size(), readBack(new ByteArrayInputStream(zip)).size());
+        } finally {
+            setupStreaming(getGeoServer(), false);
+        }
+    }
+
+    public void testStreamingEmptyResultMultiGeom() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(ALL_DOTS).getFeatures(Filter.EXCLUDE));
+
+            Set<String> names = new HashSet<String>();
+            ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+            zis.close();
+            assertTrue(names.contains("All_Types_Dots.shp"));
+            assertTrue(names.contains("README.TXT"));
+        } finally {
+            setupStreaming(getGeoServer(), false);
+        }
+    }
+
+    public void testStreamingSpill() throws Exception {
+        // a tiny threshold forces the records out to the spill files
+        SimpleFeatureCollection fc = getFeatureSource(MockData.BASIC_POLYGONS).getFeatures();
+        StreamingShapefileWriter writer = new StreamingShapefileWriter("BasicPolygons", 
+            fc.getSchema(), Charset.forName("ISO-8859-1"), 16);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            Iterator<SimpleFeature> it = fc.iterator();
+            try {
+                while (it.hasNext()) {
+                    writer.write(it.next());
+                }
+            } finally {
+                fc.close(it);
+            }
+            assertNotNull(writer.shp.file);
+
+            ZipOutputStream zip = new ZipOutputStream(bos);
+            writer.writeTo(zip);
+            zip.finish();
+        } finally {
+            writer.dispose();
+        }
+        assertFalse(writer.shp.file.exists());
+
+        SimpleFeatureCollection read = readBack(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(fc.size(), read.size());
+        assertEquals(fc.getBounds().getMinX(), read.getBounds().getMinX(), 1e-9);
+        assertEquals(fc.getBounds().getMaxY(), read.getBounds().getMaxY(), 1e-9);
+    }
+
+    private void setupStreaming(GeoServer geoServer, boolean value) {
+        WFSInfo wfsInfo = geoServer.getService(WFSInfo.class);
+        wfsInfo.getMetadata().put(ShapeZipOutputFormat.SHAPE_ZIP_STREAMING, value);
+        geoServer.save(wfsInfo);
+    }
+
+    /**
+     * Unzips the shapefile contained in the stream and returns its features
+     */
+    private SimpleFeatureCollection readBack(InputStream in) throws IOException {
+        ZipInputStream zis = new ZipInputStream(in);
+        File tempFolder = createTempFolder("shp_");
+        File shapeFile = null;
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            File f = new File(tempFolder, entry.getName());
+            if (entry.getName().endsWith(".shp")) {
+                shapeFile = f;
+            }
+            FileOutputStream out = new FileOutputStream(f);
+            copyStream(zis, out);
+            out.close();
+        }
+        zis.close();
+
+        ShapefileDataStore ds = new ShapefileDataStore(shapeFile.toURL());
+        return DataUtilities.collection(ds.getFeatureSource().getFeatures());
+    }
+
     /**
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
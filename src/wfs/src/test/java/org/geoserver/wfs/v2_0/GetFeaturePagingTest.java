@@ -18,6 +18,8 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wfs.GetFeature;
+import org.geoserver.wfs.WFSInfo;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -487,6 +489,90 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '14']", dom);
     }
 
+    public void testKeysetPagingGET() throws Exception {
+        setKeysetPaging(true);
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=gs:Fifteen&sortBy=num DESC&count=6");
+            XMLAssert.assertXpathEvaluatesTo("6", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '14']", doc);
+            XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '9']", doc);
+
+            // the next page is read by key
+            KvpMap kvp = toKvpMap(doc.getDocumentElement().getAttribute("next"));
+            assertNotNull(kvp.get("CURSOR"));
+            assertNull(kvp.get("STARTINDEX"));
+        
+            String next = doc.getDocumentElement().getAttribute("next");
+            doc = getAsDOM(next.substring(next.indexOf("wfs")));
+            XMLAssert.assertXpathEvaluatesTo("6", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '8']", doc);
+            XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '3']", doc);
+            XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched", doc);
+            assertFalse(doc.getDocumentElement().hasAttribute("previous"));
+
+            next = doc.getDocumentElement().getAttribute("next");
+            doc = getAsDOM(next.substring(next.indexOf("wfs")));
+            XMLAssert.assertXpathEvaluatesTo("3", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '0']", doc);
+            assertFalse(doc.getDocumentElement().hasAttribute("next"));
+        }
+        finally {
+            setKeysetPaging(false);
+        }
+    }
+
+    public void testKeysetPagingDisabledByDefault() throws Exception {
+        Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+            "typename=gs:Fifteen&sortBy=num DESC&count=6");
+        KvpMap kvp = toKvpMap(doc.getDocumentElement().getAttribute("next"));
+        assertNull(kvp.get("CURSOR"));
+        assertEquals("6", kvp.get("STARTINDEX"));
+    }
+
+    public void testKeysetPagingInvalidCursor() throws Exception {
+        setKeysetPaging(true);
+        try {
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=gs:Fifteen&sortBy=num ASC&count=5");
+            String cursor = (String) toKvpMap(doc.getDocumentElement().getAttribute("next"))
+                .get("CURSOR");
+
+            // different sort order
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=gs:Fifteen&sortBy=num DESC&count=5&cursor=" + cursor);
+            assertEquals("ows:ExceptionReport", doc.getDocumentElement().getNodeName());
+            XMLAssert.assertXpathExists("//ows:Exception[@exceptionCode = 'InvalidParameterValue' " +
+                "and @locator = 'cursor']", doc);
+
+            // garbage
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&" +
+                "typename=gs:Fifteen&sortBy=num ASC&count=5&cursor=abc");
+            assertEquals("ows:ExceptionReport", doc.getDocumentElement().getNodeName());
+            XMLAssert.assertXpathExists("//ows:Exception[@exceptionCode = 'InvalidParameterValue' " +
+                "and @locator = 'cursor']", doc);
+        }
+        finally {
+            setKeysetPaging(false);
+        }
+    }
+
+    void setKeysetPaging(boolean enabled) throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(GetFeature.KEYSET_PAGING, enabled);
+        getGeoServer().save(wfs);
+
+        // num is unique
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("gs", "Fifteen");
+        if (enabled) {
+            ft.getMetadata().put(GetFeature.KEYSET_PAGING_KEY, "num");
+        }
+        else {
+            ft.getMetadata().remove(GetFeature.KEYSET_PAGING_KEY);
+        }
+        getCatalog().save(ft);
+    }
+
     public void testNextPreviousHitsGET() throws Exception {
         doTestNextPreviousHitsGET("gs:Fifteen");
         doTestNextPreviousHitsGET("cdf:Fifteen");
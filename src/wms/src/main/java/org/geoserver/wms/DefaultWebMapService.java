@@ -143,6 +143,22 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Max number of groups of layers a single request can render in parallel, values lower than
+     * 2 disable parallel layer rendering
+     */
+    private static Integer MAX_PARALLEL_LAYERS = null;
+
+    /**
+     * Size of the thread pool shared by all requests to render layers in parallel
+     */
+    private static Integer LAYER_RENDERING_POOL_SIZE = null;
+
+    /**
+     * Pool used to render layers in parallel
+     */
+    static ExecutorService LAYER_RENDERING_POOL;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -262,6 +278,22 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // parallel layer rendering, off by default
+        if (MAX_PARALLEL_LAYERS == null) {
+            String layers = GeoServerExtensions.getProperty("MAX_PARALLEL_LAYERS", context);
+            if (layers == null)
+                MAX_PARALLEL_LAYERS = 1;
+            else
+                MAX_PARALLEL_LAYERS = Integer.valueOf(layers);
+        }
+        if (LAYER_RENDERING_POOL_SIZE == null) {
+            String size = GeoServerExtensions.getProperty("LAYER_RENDERING_POOL_SIZE", context);
+            if (size == null)
+                LAYER_RENDERING_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+            else
+                LAYER_RENDERING_POOL_SIZE = Integer.valueOf(size);
+        }
     }
 
     /**
@@ -303,6 +335,17 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return MAX_FILTER_RULES;
     }
     
+    /**
+     * Returns the max number of groups of layers a single GetMap request can render in parallel,
+     * a value lower than 2 means layers are rendered sequentially (the default unless the user
+     * sets the MAX_PARALLEL_LAYERS property)
+     * 
+     * @return
+     */
+    public static int getMaxParallelLayers() {
+        return MAX_PARALLEL_LAYERS == null ? 1 : MAX_PARALLEL_LAYERS;
+    }
+
     /**
      * If true (default) the direct raster rendering path is enabled
      * @return
@@ -718,12 +761,38 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the app wide pool used to render layers in parallel, its size is bounded by the
+     * LAYER_RENDERING_POOL_SIZE property so that parallel rendering cannot multiply the
+     * number of threads allowed by the control flow limits
+     * 
+     * @return
+     */
+    public static ExecutorService getLayerRenderingPool() {
+        if (LAYER_RENDERING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (LAYER_RENDERING_POOL == null) {
+                    int size = LAYER_RENDERING_POOL_SIZE != null ? LAYER_RENDERING_POOL_SIZE
+                            : Runtime.getRuntime().availableProcessors() * 2;
+                    LAYER_RENDERING_POOL = Executors.newFixedThreadPool(Math.max(1, size));
+                }
+            }
+        }
+
+        return LAYER_RENDERING_POOL;
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        if (LAYER_RENDERING_POOL != null) {
+            LAYER_RENDERING_POOL.shutdown();
+            LAYER_RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            LAYER_RENDERING_POOL = null;
+        }
     }
 
 }
@@ -406,7 +406,8 @@ public class GetFeatureInfo {
         Polygon pixelRect = getEnvelopeFilter(x, y, width, height, bbox, radius);
         if ((requestedCRS != null) && !CRS.equalsIgnoreMetadata(dataCRS, requestedCRS)) {
             try {
-                MathTransform transform = CRS.findMathTransform(requestedCRS, dataCRS, true);
+                MathTransform transform = wms.getGeoServer().getCatalog().getResourcePool()
+                        .getMathTransform(requestedCRS, dataCRS, true);
                 pixelRect = (Polygon) JTS.transform(pixelRect, transform); // reprojected
             } catch (MismatchedDimensionException e) {
                 LOGGER.severe(e.getLocalizedMessage());
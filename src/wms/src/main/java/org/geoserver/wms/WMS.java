@@ -103,6 +103,10 @@ public class WMS implements ApplicationContextAware {
     public static final String MAX_RENDERING_TIME = "maxAnimatorRenderingTime";
     
     public static final String MAX_RENDERING_SIZE = "maxRenderingSize";
+
+    public static final String MAX_ANIMATOR_PARALLEL_FRAMES = "maxAnimatorParallelFrames";
+
+    public static final int MAX_ANIMATOR_PARALLEL_FRAMES_DEFAULT = 4;
     
     public static final String FRAMES_DELAY = "framesDelay";
 
@@ -111,6 +115,30 @@ public class WMS implements ApplicationContextAware {
     public static final String LOOP_CONTINUOUSLY = "loopContinuously";
 
     public static final Boolean LOOP_CONTINUOUSLY_DEFAULT = Boolean.FALSE;
+
+    public static final String META_TILE_CACHE_SIZE = "metaTileCacheSize";
+
+    public static final int META_TILE_CACHE_SIZE_DEFAULT = 65536;
+
+    public static final String META_TILE_CACHE_POLICY = "metaTileCachePolicy";
+
+    public static final String META_TILE_CACHE_POLICY_DEFAULT = "LRU";
+
+    public static final String META_TILE_OFFHEAP_CACHE_SIZE = "metaTileOffHeapCacheSize";
+
+    public static final int META_TILE_OFFHEAP_CACHE_SIZE_DEFAULT = 0;
+
+    public static final String META_TILE_OFFHEAP_CACHE_MAPPED = "metaTileOffHeapCacheMapped";
+
+    public static final Boolean META_TILE_OFFHEAP_CACHE_MAPPED_DEFAULT = Boolean.FALSE;
+
+    public static final String PNG_ENCODER = "pngEncoder";
+
+    public static final String PNG_ENCODER_DEFAULT = "IMAGEIO";
+
+    public static final String PNG_FILTER = "pngFilter";
+
+    public static final String PNG_DEFLATE_STRATEGY = "pngDeflateStrategy";
     
     static final Logger LOGGER = Logging.getLogger(WMS.class);
 
@@ -480,6 +508,16 @@ public class WMS implements ApplicationContextAware {
                         null, Long.class);
     }
 
+    /**
+     * The maximum number of animation frames being rendered, or rendered and waiting to be
+     * encoded, at any given time for a single animation request
+     */
+    public int getMaxAnimatorParallelFrames() {
+        WMSInfo serviceInfo = getServiceInfo();
+        return getMetadataValue(serviceInfo.getMetadata(), MAX_ANIMATOR_PARALLEL_FRAMES,
+                MAX_ANIMATOR_PARALLEL_FRAMES_DEFAULT, Integer.class);
+    }
+
     public Integer getFramesDelay() {
         WMSInfo serviceInfo = getServiceInfo();
         return getMetadataValue(serviceInfo.getMetadata(), FRAMES_DELAY,
@@ -492,6 +530,83 @@ public class WMS implements ApplicationContextAware {
                 LOOP_CONTINUOUSLY_DEFAULT, Boolean.class);
     }
 
+    /**
+     * The max amount of memory, in kilobytes, the meta tile cache can use to hold rendered tiles
+     * 
+     * @return the limit, or 0 if meta tile caching is disabled
+     */
+    public int getMetaTileCacheSize() {
+        WMSInfo serviceInfo = getServiceInfo();
+        Integer size = getMetadataValue(serviceInfo.getMetadata(), META_TILE_CACHE_SIZE,
+                META_TILE_CACHE_SIZE_DEFAULT, Integer.class);
+        return size < 0 ? 0 : size;
+    }
+
+    /**
+     * The eviction policy used by the meta tile cache, either "LRU" or "LFU"
+     */
+    public String getMetaTileCachePolicy() {
+        WMSInfo serviceInfo = getServiceInfo();
+        return getMetadataValue(serviceInfo.getMetadata(), META_TILE_CACHE_POLICY,
+                META_TILE_CACHE_POLICY_DEFAULT, String.class);
+    }
+
+    /**
+     * The size, in kilobytes, of the off heap storage used by the meta tile cache to hold the
+     * meta tiles evicted from memory
+     * 
+     * @return the size, or 0 if the off heap storage is disabled
+     */
+    public int getMetaTileOffHeapCacheSize() {
+        WMSInfo serviceInfo = getServiceInfo();
+        Integer size = getMetadataValue(serviceInfo.getMetadata(), META_TILE_OFFHEAP_CACHE_SIZE,
+                META_TILE_OFFHEAP_CACHE_SIZE_DEFAULT, Integer.class);
+        return size < 0 ? 0 : size;
+    }
+
+    /**
+     * Whether the off heap meta tile storage is a memory mapped file in the data directory (true)
+     * or direct memory (false)
+     */
+    public boolean isMetaTileOffHeapCacheMapped() {
+        WMSInfo serviceInfo = getServiceInfo();
+        return getMetadataValue(serviceInfo.getMetadata(), META_TILE_OFFHEAP_CACHE_MAPPED,
+                META_TILE_OFFHEAP_CACHE_MAPPED_DEFAULT, Boolean.class);
+    }
+
+    /**
+     * The PNG encoder used for GetMap responses, either "IMAGEIO" or "FAST", the latter being
+     * used only for the image layouts it supports
+     */
+    public String getPngEncoder() {
+        WMSInfo serviceInfo = getServiceInfo();
+        return getMetadataValue(serviceInfo.getMetadata(), PNG_ENCODER, PNG_ENCODER_DEFAULT,
+                String.class);
+    }
+
+    /**
+     * The scanline filter used by the "FAST" PNG encoder, one of "NONE", "SUB", "UP" or
+     * "ADAPTIVE"
+     * 
+     * @return the filter, or null for the default, "NONE"
+     */
+    public String getPngFilter() {
+        WMSInfo serviceInfo = getServiceInfo();
+        return getMetadataValue(serviceInfo.getMetadata(), PNG_FILTER, null, String.class);
+    }
+
+    /**
+     * The deflate strategy used by the "FAST" PNG encoder, one of "DEFAULT", "FILTERED" or
+     * "HUFFMAN_ONLY"
+     * 
+     * @return the strategy, or null to pick one depending on the filter
+     */
+    public String getPngDeflateStrategy() {
+        WMSInfo serviceInfo = getServiceInfo();
+        return getMetadataValue(serviceInfo.getMetadata(), PNG_DEFLATE_STRATEGY, null,
+                String.class);
+    }
+
     int getMetadataPercentage(MetadataMap metadata, String key, int defaultValue) {
         Integer parsedValue = Converters.convert(metadata.get(key), Integer.class);
         if (parsedValue == null)
@@ -51,6 +51,9 @@ public class WMSMapContent extends MapContent {
     /** suggested output tile size */
     private int tileSize = -1;
 
+    /** size of the gutter surrounding the tiles of a meta tile */
+    private int tileGutter;
+
     /** map rotation in degrees */
     private double angle;
 
@@ -62,6 +65,14 @@ public class WMSMapContent extends MapContent {
         this.tileSize = tileSize;
     }
 
+    public int getTileGutter() {
+        return tileGutter;
+    }
+
+    public void setTileGutter(int tileGutter) {
+        this.tileGutter = tileGutter;
+    }
+
     /**
      * the rendering buffer used to avoid issues with tiled rendering and big strokes that may cross
      * tile boundaries
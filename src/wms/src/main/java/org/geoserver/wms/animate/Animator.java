@@ -4,7 +4,6 @@
  */
 package org.geoserver.wms.animate;
 
-import java.awt.image.RenderedImage;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,15 +12,19 @@ import java.util.logging.Logger;
 
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
-import org.geoserver.wms.WebMap;
+import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMap;
-import org.geotools.styling.Style;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -121,17 +124,44 @@ public class Animator {
             request.getRawKvp().put("HEIGHT", String.valueOf(request.getHeight()));
         }
 
+        // look up the output format up front, there is no need to run a full GetMap for it
+        GetMapOutputFormat outputFormat = wmsConfiguration.getMapOutputFormat(request.getFormat());
+        if (outputFormat == null) {
+            throw new ServiceException("There is no support for creating maps in "
+                    + request.getFormat() + " format", "InvalidFormat");
+        }
+
         // initializing the catalog visitor. This takes care of producing single
-        // RenderedImages.
+        // RenderedImages, which are rendered while the animation is being encoded
         FrameCatalogVisitor visitor = new FrameCatalogVisitor();
         frameCatalog.getFrames(visitor);
-        RenderedImage imageList = visitor.produce(frameCatalog.getWmsConfiguration());
+        final FrameImageList frames = visitor.produce(frameCatalog.getWmsConfiguration());
 
-        // run a single getmap to get the right mime type and map context
-        WebMap wmsResponse = wms.getMap(request);
+        return new RenderedImageMap(buildMapContent(request), frames, outputFormat.getMimeType()) {
+            @Override
+            protected void disposeInternal() {
+                frames.dispose();
+                super.disposeInternal();
+            }
+        };
+    }
 
-        return new RenderedImageMap(((RenderedImageMap) wmsResponse).getMapContext(), imageList,
-                wmsResponse.getMimeType());
+    /**
+     * Builds the map context the animation frames are encoded with.
+     */
+    static WMSMapContent buildMapContent(GetMapRequest request) {
+        WMSMapContent mapContent = new WMSMapContent(request);
+        CoordinateReferenceSystem crs = request.getCrs() != null ? request.getCrs()
+                : DefaultGeographicCRS.WGS84;
+        mapContent.getViewport().setBounds(new ReferencedEnvelope(request.getBbox(), crs));
+        mapContent.setMapWidth(request.getWidth());
+        mapContent.setMapHeight(request.getHeight());
+        mapContent.setAngle(request.getAngle());
+        mapContent.setBgColor(request.getBgColor());
+        mapContent.setTransparent(request.isTransparent());
+        mapContent.setBuffer(request.getBuffer());
+        mapContent.setPaletteInverter(request.getPalette());
+        return mapContent;
     }
 
     /**
@@ -10,15 +10,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
-
-import javax.media.jai.RenderedImageList;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
@@ -35,8 +29,8 @@ import org.geoserver.wms.map.RenderedImageMapResponse;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br/>
- * The "visit" method initializes the runnables and the animatorExecutor service, while
- * the "produce" method runs the tasks and generated the frames images.
+ * The "visit" method initializes the frame loaders, while the "produce" method starts rendering
+ * them on the animatorExecutor service and returns the list of frames being rendered.
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
  */
@@ -48,12 +42,12 @@ public class FrameCatalogVisitor {
     int framesNumber;
 
     /**
-     * the list of runnables to be executed
+     * the list of frame loaders to be executed
      */
-    List<Future<RenderedImage>> tasks;
+    List<FrameLoader> loaders;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not yet initialied. 
+     * Adds a new frame loader to the list of frames to be produced.
      * @param request
      * @param wms
      * @param wmsConfiguration
@@ -61,87 +55,45 @@ public class FrameCatalogVisitor {
      * @param avalue
      */
     public void visit(final GetMapRequest request, WebMapService wms, WMS wmsConfiguration, String aparam, String avalue) {
-        if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+        if (this.loaders == null) {
+            this.loaders = new ArrayList<FrameLoader>();
         }
 
-        FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
-        
-        
-        final FutureTask<RenderedImage> task = new FutureTask<RenderedImage>(loader);
-        this.tasks.add(task);
+        this.loaders.add(new FrameLoader(request, wms, wmsConfiguration, aparam, avalue));
         this.framesNumber++;
-
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Starts producing the frames images on the Executor service.
+     * <p>
+     * The frames are rendered while they are being accessed, in order, with at most
+     * {@link WMS#getMaxAnimatorParallelFrames()} of them being rendered or waiting to be accessed
+     * at any given time. The returned list must be disposed once done with it.
+     * </p>
      * @param wmsConfiguration
      * @return
      * @throws IOException
      */
-    public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
-
-        long gifAnimatedSize = 0;
-
-        for (Future<RenderedImage> future : tasks) {
-            RenderedImage image = null;
-            try {
-                image = future.get();
-            } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
-            } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
-            }
-
-            if (image == null) {
-                continue;
-            }
-
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
-            }
-
-            images.add(image);
-        }
-
-        if (images == null || images.size() == 0) {
+    public FrameImageList produce(WMS wmsConfiguration) throws IOException {
+        if (loaders == null || loaders.size() == 0) {
             dispose();
             throw new IOException("Empty list of frames.");
         }
 
+        FrameImageList frames = new FrameImageList(loaders,
+                wmsConfiguration.getAnimatorExecutorService(),
+                wmsConfiguration.getMaxAnimatorParallelFrames(),
+                wmsConfiguration.getMaxRenderingSize());
         dispose();
-        return new RenderedImageList(images);
-    }
-
-    private long getImageSizeInBytes(RenderedImage image) {
-        int tileWidth = image.getTileWidth();
-        int tileLength = image.getNumXTiles();
-        int numBands = image.getSampleModel().getNumBands();
-        int[] sampleSize = image.getSampleModel().getSampleSize();
-
-        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+        return frames;
     }
 
     /**
-     * Suddenly stops the Executor service and clear instantiated visitors.
+     * Clears the instantiated frame loaders.
      */
     private void dispose() {
         this.framesNumber = 0;
-
-        if (this.tasks != null)
-            this.tasks.clear();
-        
-        this.tasks = null;
+        this.loaders = null;
     }
 
 }
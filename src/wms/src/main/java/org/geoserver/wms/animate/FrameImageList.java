@@ -0,0 +1,217 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedImageList;
+
+import org.geoserver.platform.ServiceException;
+import org.geotools.resources.image.ImageUtilities;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A list of animation frames rendered concurrently while they are being consumed.
+ * <p>
+ * At most <code>window</code> frames following the last one accessed are being rendered, or
+ * rendered and waiting to be accessed, at any given time. Accessing a frame blocks until it is
+ * rendered, lets go of the previous ones and schedules the rendering of the next frames. The
+ * frames are meant to be accessed in order, once, by the encoder of the animation, so that the
+ * memory used is bounded by the window instead of the number of frames.
+ * </p>
+ * <p>
+ * The first frame is kept until the list is disposed, as it backs the {@link RenderedImage}
+ * methods of the list.
+ * </p>
+ */
+public class FrameImageList extends RenderedImageList {
+
+    static final Logger LOGGER = Logging.getLogger(FrameImageList.class);
+
+    List<? extends Callable<RenderedImage>> loaders;
+
+    ExecutorService executor;
+
+    int window;
+
+    Long maxRenderingSize;
+
+    Future<RenderedImage>[] futures;
+
+    RenderedImage first;
+
+    /**
+     * number of frames submitted for rendering so far
+     */
+    int submitted;
+
+    /**
+     * index of the last frame accessed
+     */
+    int current = -1;
+
+    /**
+     * total size of the frames accessed so far
+     */
+    long renderingSize;
+
+    boolean disposed;
+
+    /**
+     * Creates the list and starts rendering the first frames.
+     *
+     * @param loaders The frame loaders, in animation order.
+     * @param executor The executor rendering the frames.
+     * @param window The maximum number of frames rendered ahead of the consumer.
+     * @param maxRenderingSize The maximum total size of the frames, or <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public FrameImageList(List<? extends Callable<RenderedImage>> loaders,
+            ExecutorService executor, int window, Long maxRenderingSize) {
+        super();
+        this.loaders = loaders;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.maxRenderingSize = maxRenderingSize;
+        this.futures = new Future[loaders.size()];
+        this.imageCollection = new Frames();
+
+        submit(this.window);
+    }
+
+    /**
+     * Stops rendering the frames not accessed yet and lets go of all the frames held.
+     */
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+
+        for (int i = 0; i < futures.length; i++) {
+            release(i);
+        }
+        if (first != null) {
+            disposeImage(first);
+            first = null;
+        }
+    }
+
+    void submit(int limit) {
+        limit = Math.min(limit, futures.length);
+        while (submitted < limit) {
+            futures[submitted] = executor.submit(loaders.get(submitted));
+            submitted++;
+        }
+    }
+
+    RenderedImage frame(int index) {
+        if (index == 0 && first != null) {
+            return first;
+        }
+        if (disposed || index <= current) {
+            // already consumed, or never going to be
+            return null;
+        }
+
+        // let go of the frames skipped and make sure the following ones are being rendered
+        for (int i = current + 1; i < index; i++) {
+            release(i);
+        }
+        current = index;
+        submit(index + window);
+
+        RenderedImage image;
+        try {
+            image = futures[index].get();
+        } catch (InterruptedException e) {
+            dispose();
+            throw new ServiceException("Interrupted while rendering animation frame " + index, e);
+        } catch (ExecutionException e) {
+            dispose();
+            throw new ServiceException("Failed to render animation frame " + index,
+                    e.getCause());
+        } finally {
+            futures[index] = null;
+        }
+
+        if (image != null) {
+            renderingSize += getImageSizeInBytes(image);
+            if (maxRenderingSize != null && renderingSize >= maxRenderingSize) {
+                disposeImage(image);
+                dispose();
+                throw new ServiceException("Max rendering size exceed!");
+            }
+            if (index == 0) {
+                first = image;
+            }
+        }
+        return image;
+    }
+
+    void release(int index) {
+        Future<RenderedImage> future = futures[index];
+        if (future == null) {
+            return;
+        }
+        futures[index] = null;
+
+        if (!future.cancel(true) && !future.isCancelled()) {
+            // rendered already, dispose of it
+            try {
+                disposeImage(future.get());
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Animation frame " + index + " failed to render", e);
+            }
+        }
+    }
+
+    static long getImageSizeInBytes(RenderedImage image) {
+        int tileWidth = image.getTileWidth();
+        int tileLength = image.getNumXTiles();
+        int numBands = image.getSampleModel().getNumBands();
+        int[] sampleSize = image.getSampleModel().getSampleSize();
+
+        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+    }
+
+    static void disposeImage(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
+    /**
+     * The list view of the frames backing the image list.
+     */
+    class Frames extends AbstractList<RenderedImage> {
+
+        @Override
+        public RenderedImage get(int index) {
+            if (index < 0 || index >= futures.length) {
+                throw new IndexOutOfBoundsException("Frame " + index + " out of "
+                        + futures.length);
+            }
+            return frame(index);
+        }
+
+        @Override
+        public int size() {
+            return futures.length;
+        }
+    }
+}
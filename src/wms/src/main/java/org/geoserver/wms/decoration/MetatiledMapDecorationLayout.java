@@ -36,6 +36,29 @@ public class MetatiledMapDecorationLayout extends MapDecorationLayout {
      * @see {Block#paint}
      */
     public void paint(Graphics2D g2d, Rectangle paintArea, WMSMapContent mapContent) { 
+        int metaTileSize = mapContent != null ? mapContent.getTileSize() : -1;
+        // the meta tile factors and gutter are configurable, use the actual tile grid, which
+        // is surrounded by the gutter. The gutter can be as large as the tiles, or larger, so
+        // it has to be taken out before counting the tiles
+        int gutter = mapContent != null ? Math.max(0, mapContent.getTileGutter()) : 0;
+        gutter = Math.min(gutter, Math.min(paintArea.width, paintArea.height) / 2);
+        int gridWidth = paintArea.width - 2 * gutter;
+        int gridHeight = paintArea.height - 2 * gutter;
+        if (metaTileSize > 0 && gridWidth >= metaTileSize && gridHeight >= metaTileSize) {
+            int cols = gridWidth / metaTileSize;
+            int rows = gridHeight / metaTileSize;
+            int offsetX = paintArea.x + gutter + (gridWidth - cols * metaTileSize) / 2;
+            int offsetY = paintArea.y + gutter + (gridHeight - rows * metaTileSize) / 2;
+            for (int i = 0; i < cols; i++) {
+                for (int j = 0; j < rows; j++) {
+                    Rectangle tileArea = new Rectangle(offsetX + i * metaTileSize, offsetY + j
+                            * metaTileSize, metaTileSize, metaTileSize);
+                    super.paint(g2d, tileArea, mapContent);
+                }
+            }
+            return;
+        }
+
         int width = paintArea.width / tileSize;
         int height = paintArea.height / tileSize;
 
@@ -0,0 +1,491 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.media.jai.PlanarImage;
+
+/**
+ * Reduces an image to a palette of at most 256 colors computed from the image itself, so that
+ * paletted formats get a good looking result whatever the style used to render the map.
+ * <p>
+ * Images using no more colors than the palette size are converted without loss. Otherwise the
+ * colors, reduced to 5 bits per channel and 3 bits of alpha, are sampled into a histogram that
+ * is split by median cut. Each reduced color is then looked up in the palette only once, the
+ * result being kept in a table indexed by the reduced color.
+ * </p>
+ * <p>
+ * Fully transparent pixels share a single palette entry. In bitmask mode, suitable for GIF, the
+ * pixels are either opaque or fully transparent, otherwise the palette holds translucent colors
+ * as well, which PNG supports.
+ * </p>
+ */
+public class ColorQuantizer {
+
+    /**
+     * number of reduced colors, 5 bits for each color channel and 3 for alpha
+     */
+    static final int BUCKETS = 1 << 18;
+
+    /**
+     * max number of pixels sampled to build the histogram
+     */
+    static final int MAX_SAMPLES = 256 * 1024;
+
+    int maxColors;
+
+    boolean bitmask;
+
+    /**
+     * Builds a new quantizer
+     *
+     * @param maxColors The max number of colors in the palette, at most 256
+     * @param bitmask Whether the palette can only contain opaque and fully transparent colors
+     */
+    public ColorQuantizer(int maxColors, boolean bitmask) {
+        this.maxColors = Math.max(2, Math.min(256, maxColors));
+        this.bitmask = bitmask;
+    }
+
+    /**
+     * Returns a paletted copy of the image
+     */
+    public BufferedImage quantize(RenderedImage image) {
+        BufferedImage source;
+        if (image instanceof BufferedImage) {
+            source = (BufferedImage) image;
+        } else {
+            source = PlanarImage.wrapRenderedImage(image).getAsBufferedImage();
+        }
+        boolean transparent = source.getColorModel().hasAlpha();
+
+        BufferedImage result = quantizeExact(source, transparent);
+        if (result == null) {
+            result = quantizeMedianCut(source, transparent);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a palette holding exactly the image colors, returns null if there are too many
+     */
+    BufferedImage quantizeExact(BufferedImage source, boolean transparent) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        // open addressing table of the colors found so far
+        int[] colors = new int[maxColors * 4];
+        boolean[] used = new boolean[colors.length];
+        int count = 0;
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(source, y, row);
+            for (int x = 0; x < width; x++) {
+                int color = normalize(row[x]);
+                int slot = slot(colors, used, color);
+                if (!used[slot]) {
+                    if (++count > maxColors) {
+                        return null;
+                    }
+                    used[slot] = true;
+                    colors[slot] = color;
+                }
+            }
+        }
+
+        int[] palette = new int[count];
+        int[] indexes = new int[colors.length];
+        int i = 0;
+        for (int slot = 0; slot < colors.length; slot++) {
+            if (used[slot]) {
+                palette[i] = colors[slot];
+                indexes[slot] = i++;
+            }
+        }
+
+        BufferedImage result = createImage(width, height, palette, transparent);
+        WritableRaster raster = result.getRaster();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+        for (int y = 0; y < height; y++) {
+            readRow(source, y, row);
+            int offset = y * stride;
+            for (int x = 0; x < width; x++) {
+                data[offset + x] = (byte) indexes[slot(colors, used, normalize(row[x]))];
+            }
+        }
+        return result;
+    }
+
+    static int slot(int[] colors, boolean[] used, int color) {
+        int slot = ((color * 0x9E3779B1) >>> 1) % colors.length;
+        while (used[slot] && colors[slot] != color) {
+            slot = (slot + 1) % colors.length;
+        }
+        return slot;
+    }
+
+    /**
+     * Builds the palette by median cut of the histogram of the reduced colors
+     */
+    BufferedImage quantizeMedianCut(BufferedImage source, boolean transparent) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        // sample the image into the histogram, index holds the position of each reduced color
+        // in the histogram arrays, plus one
+        int[] index = new int[BUCKETS];
+        Histogram histogram = new Histogram();
+        int step = (int) Math.ceil(Math.sqrt((double) width * height / MAX_SAMPLES));
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += step) {
+            readRow(source, y, row);
+            for (int x = 0; x < width; x += step) {
+                int color = normalize(row[x]);
+                if (color == 0) {
+                    continue;
+                }
+                int bucket = bucket(color);
+                int i = index[bucket] - 1;
+                if (i < 0) {
+                    i = histogram.add();
+                    index[bucket] = i + 1;
+                }
+                histogram.count(i, color);
+            }
+        }
+
+        // fully transparent pixels get their own entry
+        int colors = transparent ? maxColors - 1 : maxColors;
+        List<Box> boxes = medianCut(histogram, colors);
+        int[] palette = new int[boxes.size() + (transparent ? 1 : 0)];
+        int[] paletteOf = new int[histogram.size];
+        int offset = transparent ? 1 : 0;
+        for (int i = 0; i < boxes.size(); i++) {
+            Box box = boxes.get(i);
+            palette[i + offset] = box.average(histogram);
+            for (int j = box.start; j < box.end; j++) {
+                paletteOf[histogram.order[j]] = i + offset;
+            }
+        }
+
+        // map the pixels, the reduced colors missed by the sampling are looked up in the
+        // palette and stored in the index as negative values
+        BufferedImage result = createImage(width, height, palette, transparent);
+        WritableRaster raster = result.getRaster();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+        for (int y = 0; y < height; y++) {
+            readRow(source, y, row);
+            int rowOffset = y * stride;
+            for (int x = 0; x < width; x++) {
+                int color = normalize(row[x]);
+                int entry;
+                if (color == 0 && transparent) {
+                    entry = 0;
+                } else {
+                    int bucket = bucket(color);
+                    int i = index[bucket];
+                    if (i > 0) {
+                        entry = paletteOf[i - 1];
+                    } else if (i < 0) {
+                        entry = -i - 1;
+                    } else {
+                        entry = nearest(palette, offset, color);
+                        index[bucket] = -entry - 1;
+                    }
+                }
+                data[rowOffset + x] = (byte) entry;
+            }
+        }
+        return result;
+    }
+
+    List<Box> medianCut(Histogram histogram, int colors) {
+        List<Box> boxes = new ArrayList<Box>();
+        if (histogram.size == 0) {
+            return boxes;
+        }
+        histogram.order = new int[histogram.size];
+        for (int i = 0; i < histogram.size; i++) {
+            histogram.order[i] = i;
+        }
+        boxes.add(new Box(histogram, 0, histogram.size));
+
+        long[] keys = new long[histogram.size];
+        while (boxes.size() < colors) {
+            // split the box with most pixels and the widest color range
+            Box largest = null;
+            long largestScore = 0;
+            for (Box box : boxes) {
+                long score = (long) box.count * box.range();
+                if (box.end - box.start > 1 && score > largestScore) {
+                    largest = box;
+                    largestScore = score;
+                }
+            }
+            if (largest == null) {
+                break;
+            }
+
+            // sort along the widest channel and cut at the median
+            int channel = largest.widestChannel();
+            for (int i = largest.start; i < largest.end; i++) {
+                int color = histogram.order[i];
+                keys[i] = ((long) histogram.channel(color, channel) << 32) | color;
+            }
+            Arrays.sort(keys, largest.start, largest.end);
+            for (int i = largest.start; i < largest.end; i++) {
+                histogram.order[i] = (int) keys[i];
+            }
+            int half = largest.count / 2;
+            int sum = 0;
+            int cut = largest.start + 1;
+            for (int i = largest.start; i < largest.end - 1; i++) {
+                sum += histogram.count[histogram.order[i]];
+                if (sum >= half) {
+                    cut = i + 1;
+                    break;
+                }
+            }
+
+            boxes.remove(largest);
+            boxes.add(new Box(histogram, largest.start, cut));
+            boxes.add(new Box(histogram, cut, largest.end));
+        }
+        return boxes;
+    }
+
+    static int nearest(int[] palette, int offset, int color) {
+        int a = color >>> 24;
+        int r = (color >> 16) & 0xFF;
+        int g = (color >> 8) & 0xFF;
+        int b = color & 0xFF;
+        // an image made only of transparent pixels has no other entry
+        int best = offset < palette.length ? offset : 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = offset; i < palette.length; i++) {
+            int p = palette[i];
+            int da = (p >>> 24) - a;
+            int dr = ((p >> 16) & 0xFF) - r;
+            int dg = ((p >> 8) & 0xFF) - g;
+            int db = (p & 0xFF) - b;
+            int distance = da * da + dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Turns fully transparent pixels into 0, and in bitmask mode makes the others opaque
+     */
+    int normalize(int argb) {
+        int alpha = argb >>> 24;
+        if (bitmask) {
+            return alpha < 128 ? 0 : argb | 0xFF000000;
+        }
+        return alpha == 0 ? 0 : argb;
+    }
+
+    static int bucket(int argb) {
+        return ((argb >> 19) & 0x1F) << 13 | ((argb >> 11) & 0x1F) << 8
+                | ((argb >> 3) & 0x1F) << 3 | (argb >>> 29);
+    }
+
+    static BufferedImage createImage(int width, int height, int[] palette, boolean transparent) {
+        // the palette cannot be empty
+        int size = Math.max(1, palette.length);
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        byte[] a = new byte[size];
+        for (int i = 0; i < palette.length; i++) {
+            a[i] = (byte) (palette[i] >>> 24);
+            r[i] = (byte) (palette[i] >> 16);
+            g[i] = (byte) (palette[i] >> 8);
+            b[i] = (byte) palette[i];
+        }
+        IndexColorModel icm = transparent ? new IndexColorModel(8, size, r, g, b, a)
+                : new IndexColorModel(8, size, r, g, b);
+        return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, icm);
+    }
+
+    /**
+     * Reads a row of the image as non premultiplied ARGB values
+     */
+    static void readRow(BufferedImage image, int y, int[] row) {
+        ColorModel cm = image.getColorModel();
+        Raster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        if (cm instanceof ComponentColorModel && !cm.isAlphaPremultiplied()
+                && cm.getColorSpace().getType() == ColorSpace.TYPE_RGB
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getDataBuffer().getDataType() == DataBuffer.TYPE_BYTE
+                && (bands == 3 || bands == 4)) {
+            ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            int[] banks = csm.getBankIndices();
+            int[] offsets = csm.getBandOffsets();
+            byte[] rs = buffer.getData(banks[0]);
+            byte[] gs = buffer.getData(banks[1]);
+            byte[] bs = buffer.getData(banks[2]);
+            byte[] as = bands == 4 ? buffer.getData(banks[3]) : null;
+            int pixelStride = csm.getPixelStride();
+            int base = (y + image.getMinY() - raster.getSampleModelTranslateY())
+                    * csm.getScanlineStride()
+                    + (image.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+            int ro = buffer.getOffsets()[banks[0]] + base + offsets[0];
+            int go = buffer.getOffsets()[banks[1]] + base + offsets[1];
+            int bo = buffer.getOffsets()[banks[2]] + base + offsets[2];
+            int ao = as != null ? buffer.getOffsets()[banks[3]] + base + offsets[3] : 0;
+            for (int x = 0; x < row.length; x++) {
+                int alpha = as != null ? as[ao] & 0xFF : 0xFF;
+                row[x] = alpha << 24 | (rs[ro] & 0xFF) << 16 | (gs[go] & 0xFF) << 8
+                        | (bs[bo] & 0xFF);
+                ro += pixelStride;
+                go += pixelStride;
+                bo += pixelStride;
+                ao += pixelStride;
+            }
+        } else {
+            image.getRGB(image.getMinX(), image.getMinY() + y, row.length, 1, row, 0, row.length);
+        }
+    }
+
+    /**
+     * The sampled reduced colors, with their pixel count and the sums of their actual channel
+     * values
+     */
+    static class Histogram {
+
+        int size;
+
+        int[] count = new int[1024];
+
+        long[] alpha = new long[1024];
+
+        long[] red = new long[1024];
+
+        long[] green = new long[1024];
+
+        long[] blue = new long[1024];
+
+        /**
+         * colors, ordered by box
+         */
+        int[] order;
+
+        int add() {
+            if (size == count.length) {
+                int capacity = size * 2;
+                count = Arrays.copyOf(count, capacity);
+                alpha = Arrays.copyOf(alpha, capacity);
+                red = Arrays.copyOf(red, capacity);
+                green = Arrays.copyOf(green, capacity);
+                blue = Arrays.copyOf(blue, capacity);
+            }
+            return size++;
+        }
+
+        void count(int i, int argb) {
+            count[i]++;
+            alpha[i] += argb >>> 24;
+            red[i] += (argb >> 16) & 0xFF;
+            green[i] += (argb >> 8) & 0xFF;
+            blue[i] += argb & 0xFF;
+        }
+
+        /**
+         * Average value of a channel, 0 to 3 for alpha, red, green and blue
+         */
+        int channel(int i, int channel) {
+            long sum;
+            switch (channel) {
+            case 0: sum = alpha[i]; break;
+            case 1: sum = red[i]; break;
+            case 2: sum = green[i]; break;
+            default: sum = blue[i];
+            }
+            return (int) (sum / count[i]);
+        }
+    }
+
+    /**
+     * A range of the histogram colors, along with their bounds
+     */
+    static class Box {
+
+        int start;
+
+        int end;
+
+        int count;
+
+        int[] min = new int[] { 255, 255, 255, 255 };
+
+        int[] max = new int[4];
+
+        Box(Histogram histogram, int start, int end) {
+            this.start = start;
+            this.end = end;
+            for (int i = start; i < end; i++) {
+                int color = histogram.order[i];
+                count += histogram.count[color];
+                for (int c = 0; c < 4; c++) {
+                    int value = histogram.channel(color, c);
+                    min[c] = Math.min(min[c], value);
+                    max[c] = Math.max(max[c], value);
+                }
+            }
+        }
+
+        int widestChannel() {
+            int widest = 0;
+            for (int c = 1; c < 4; c++) {
+                if (max[c] - min[c] > max[widest] - min[widest]) {
+                    widest = c;
+                }
+            }
+            return widest;
+        }
+
+        int range() {
+            return max[widestChannel()] - min[widestChannel()];
+        }
+
+        /**
+         * The pixel weighted average color of the box
+         */
+        int average(Histogram histogram) {
+            long a = 0, r = 0, g = 0, b = 0, n = 0;
+            for (int i = start; i < end; i++) {
+                int color = histogram.order[i];
+                a += histogram.alpha[color];
+                r += histogram.red[color];
+                g += histogram.green[color];
+                b += histogram.blue[color];
+                n += histogram.count[color];
+            }
+            return (int) (a / n) << 24 | (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+        }
+    }
+}
@@ -8,9 +8,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -142,7 +140,8 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
             //
             try {
                 InverseColorMapOp paletteInverter = mapContent.getPaletteInverter();
-                ImageWorker iw = new ImageWorker(super.forceIndexed8Bitmask(originalImage, paletteInverter));
+                ImageWorker iw = new ImageWorker(super.forceIndexed8Bitmask(
+                        (RenderedImage) ril.get(0), paletteInverter));
                 iw.writeGIF(outStream, "LZW", 0.75f);
                 RasterCleaner.addImage(iw.getRenderedImage());
             } catch (IOException e) {
@@ -164,7 +163,6 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
         param.setCompressionQuality(0.75f);
 
         ImageOutputStream otStream = null;
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
         try {
             otStream = ImageIO.createImageOutputStream(outStream);
             gifWriter.setOutput(otStream);
@@ -182,25 +180,36 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 throw new ServiceException("Animate GIF delay invalid: " + delay);
 
             //
-            // Getting input files
+            // Getting input files, in order, as the frames might still be rendering
             //
             for (int i = 0; i < numfiles; i++) {
                 if (LOGGER.isLoggable(Level.FINE))
                     LOGGER.fine("Writing image " + i);
                 // get the image
                 RenderedImage ri = (RenderedImage) ril.get(i);
+                if (ri == null) {
+                    continue;
+                }
                 // convert it to gif compatible
                 InverseColorMapOp paletteInverter = mapContent.getPaletteInverter();
-                ri = super.forceIndexed8Bitmask(ri, paletteInverter);
-                if (ri != null) {
-                    // prepare metadata and write param
-                    final IIOMetadata imageMetadata = gifWriter.getDefaultImageMetadata(
-                            new ImageTypeSpecifier(ri), param);
-                    prepareMetadata(imageMetadata, loopContinuosly, delay);
-
-                    // write
-                    gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+                RenderedImage indexed = super.forceIndexed8Bitmask(ri, paletteInverter);
+                try {
+                    if (indexed != null) {
+                        // prepare metadata and write param
+                        final IIOMetadata imageMetadata = gifWriter.getDefaultImageMetadata(
+                                new ImageTypeSpecifier(indexed), param);
+                        prepareMetadata(imageMetadata, loopContinuosly, delay);
+
+                        // write
+                        gifWriter.writeToSequence(new IIOImage(indexed, null, imageMetadata),
+                                param);
+                    }
+                } finally {
+                    // let go of the frame as soon as it's written to free memory
+                    disposeImage(indexed);
+                    if (indexed != ri) {
+                        disposeImage(ri);
+                    }
                 }
             }
 
@@ -227,21 +236,20 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
             } catch (Exception e) {
                 // swallow
             }
-
-            // let go of the image chain as soon as possible to free memory
-            for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
-            }
         }
 
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Done writing animated gif");
     }
 
+    private static void disposeImage(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
@@ -26,7 +26,6 @@ import javax.media.jai.TiledImage;
 
 import org.geoserver.platform.ServiceException;
 import org.geotools.image.ImageWorker;
-import org.geotools.image.palette.CustomPaletteBuilder;
 import org.geotools.image.palette.InverseColorMapOp;
 
 /**
@@ -255,12 +254,10 @@ public class ImageUtils {
 
                 // //
                 //
-                // Build the CustomPaletteBuilder doing some good subsampling.
+                // Quantize the image colors into a bitmask palette.
                 //
                 // //
-                int subsx = 1 + (int) (Math.log(image.getWidth()) / Math.log(32));
-                int subsy = 1 + (int) (Math.log(image.getHeight()) / Math.log(32));
-                image = new CustomPaletteBuilder(image, 256, subsx, subsy, 1).buildPalette().getIndexedImage();
+                image = new ColorQuantizer(256, true).quantize(image);
             }
         }
 
@@ -103,10 +103,11 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                 // alter the map definition so that we build a meta-tile instead
                 // of just the tile
                 ReferencedEnvelope origEnv = mapContent.getRenderingArea();
-                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
-                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
-                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
+                mapContent.getViewport().setBounds(getRenderingEnvelope(key));
+                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactorX() + 2 * key.getGutter());
+                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactorY() + 2 * key.getGutter());
                 mapContent.setTileSize(key.getTileSize());
+                mapContent.setTileGutter(key.getGutter());
 
                 RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
 
@@ -122,6 +123,27 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         }
     }
 
+    /**
+     * Returns the area to be rendered for the meta tile, that is, the meta tile envelope expanded
+     * by the gutter
+     * 
+     * @param key
+     * @return
+     */
+    static ReferencedEnvelope getRenderingEnvelope(MetaTileKey key) {
+        ReferencedEnvelope envelope = key.getMetaTileEnvelope();
+        int gutter = key.getGutter();
+        if (gutter == 0) {
+            return envelope;
+        }
+
+        double resx = envelope.getWidth() / (key.getTileSize() * key.getMetaFactorX());
+        double resy = envelope.getHeight() / (key.getTileSize() * key.getMetaFactorY());
+        return new ReferencedEnvelope(envelope.getMinX() - gutter * resx, envelope.getMaxX()
+                + gutter * resx, envelope.getMinY() - gutter * resy, envelope.getMaxY() + gutter
+                * resy, envelope.getCoordinateReferenceSystem());
+    }
+
     /**
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#getOutputFormatNames()
@@ -161,7 +183,7 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
     /**
      * Splits the tile into a set of tiles, numbered from lower right and going up so that first row
-     * is 0,1,2,...,metaTileFactor, and so on. In the case of a 3x3 meta-tile, the layout is as
+     * is 0,1,2,...,metaTileFactorX, and so on. In the case of a 3x3 meta-tile, the layout is as
      * follows:
      * 
      * <pre>
@@ -170,15 +192,19 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      *    0 1 2
      * </pre>
      * 
+     * The gutter around the meta tile is discarded.
+     * 
      * @param key
      * @param metaTile
      * @param map
      * @return
      */
     private static RenderedImage[] split(MetaTileKey key, RenderedImage metaTile, WMSMapContent map) {
-        final int metaFactor = key.getMetaFactor();
-        final RenderedImage[] tiles = new RenderedImage[key.getMetaFactor() * key.getMetaFactor()];
+        final int metaFactorX = key.getMetaFactorX();
+        final int metaFactorY = key.getMetaFactorY();
+        final RenderedImage[] tiles = new RenderedImage[metaFactorX * metaFactorY];
         final int tileSize = key.getTileSize();
+        final int gutter = key.getGutter();
 
         // check image type 
         int type = 0;
@@ -189,10 +215,10 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         }
 
         // now do the splitting
-        for (int i = 0; i < metaFactor; i++) {
-            for (int j = 0; j < metaFactor; j++) {
-                int x = j * tileSize;
-                int y = (tileSize * (metaFactor - 1)) - (i * tileSize);
+        for (int i = 0; i < metaFactorY; i++) {
+            for (int j = 0; j < metaFactorX; j++) {
+                int x = gutter + j * tileSize;
+                int y = gutter + (tileSize * (metaFactorY - 1)) - (i * tileSize);
 
                 RenderedImage tile;
                 switch (type) {
@@ -229,7 +255,7 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
                 }
 
-                tiles[(i * key.getMetaFactor()) + j] = tile;
+                tiles[(i * metaFactorX) + j] = tile;
             }
         }
         
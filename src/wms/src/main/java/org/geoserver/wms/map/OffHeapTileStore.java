@@ -0,0 +1,533 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Second level storage for the {@link QuickTileCache} keeping the raw raster data of the meta
+ * tiles outside of the Java heap, either in direct byte buffers or in a memory mapped file.
+ * <p>
+ * The storage is split in fixed size blocks, each meta tile uses as many blocks as needed to hold
+ * its tiles, which are rebuilt as {@link BufferedImage} on lookup. When the storage is full the
+ * least recently used meta tiles are evicted.
+ * </p>
+ * <p>
+ * Once disposed the store can still be used by the threads holding on it, it just won't store
+ * anything anymore.
+ * </p>
+ */
+class OffHeapTileStore {
+
+    static final Logger LOGGER = Logging.getLogger(OffHeapTileStore.class);
+
+    /**
+     * Size of a storage block, a multiple of 8 so that no primitive value ever straddles two
+     * blocks
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Number of blocks in each segment (direct buffer or mapped region)
+     */
+    static final int SEGMENT_BLOCKS = 1024;
+
+    static final int SEGMENT_SIZE = BLOCK_SIZE * SEGMENT_BLOCKS;
+
+    ByteBuffer[] segments;
+
+    int[] freeBlocks;
+
+    int freeCount;
+
+    long capacity;
+
+    RandomAccessFile file;
+
+    File storageFile;
+
+    LinkedHashMap<MetaTileKey, StoredMetaTile> entries = new LinkedHashMap<MetaTileKey, StoredMetaTile>(
+            16, 0.75f, true);
+
+    long evictions;
+
+    /**
+     * Set once the storage has been released
+     */
+    boolean disposed;
+
+    /**
+     * Builds a store keeping data in direct byte buffers
+     *
+     * @param capacity the storage size in bytes
+     */
+    public OffHeapTileStore(long capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Builds a store keeping data in the specified memory mapped file, or in direct byte buffers
+     * if the file is null
+     *
+     * @param capacity the storage size in bytes
+     * @param storageFile the file used as storage, will be overwritten
+     */
+    public OffHeapTileStore(long capacity, File storageFile) {
+        int blocks = (int) Math.min(capacity / BLOCK_SIZE, Integer.MAX_VALUE);
+        this.capacity = (long) blocks * BLOCK_SIZE;
+        this.storageFile = storageFile;
+        this.segments = new ByteBuffer[(blocks + SEGMENT_BLOCKS - 1) / SEGMENT_BLOCKS];
+        // blocks are handed out from the end of the stack, lower blocks first, so that segments
+        // get allocated only when needed
+        this.freeBlocks = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            freeBlocks[i] = blocks - i - 1;
+        }
+        this.freeCount = blocks;
+    }
+
+    /**
+     * Stores the tiles of a meta tile, evicting older ones if necessary.
+     *
+     * @return true if the tiles have been stored, false if they could not fit in the store or
+     *         their layout is not supported
+     */
+    public synchronized boolean put(MetaTileKey key, RenderedImage[] tiles) {
+        if (disposed) {
+            return false;
+        }
+        remove(key);
+
+        StoredTile[] stored = new StoredTile[tiles.length];
+        Raster[] rasters = new Raster[tiles.length];
+        long length = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i].getColorModel() == null) {
+                return false;
+            }
+            rasters[i] = compactRaster(tiles[i]);
+            try {
+                stored[i] = new StoredTile(tiles[i].getColorModel(), rasters[i], length);
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.FINE, "Cannot store meta tile off heap", e);
+                return false;
+            }
+            length = stored[i].end;
+        }
+
+        int needed = (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (needed > freeBlocks.length) {
+            return false;
+        }
+        while (freeCount < needed) {
+            Iterator<Map.Entry<MetaTileKey, StoredMetaTile>> it = entries.entrySet().iterator();
+            StoredMetaTile eldest = it.next().getValue();
+            it.remove();
+            release(eldest);
+            evictions++;
+        }
+
+        StoredMetaTile entry = new StoredMetaTile(stored, new int[needed]);
+        for (int i = 0; i < needed; i++) {
+            entry.blocks[i] = freeBlocks[--freeCount];
+        }
+        try {
+            for (int i = 0; i < tiles.length; i++) {
+                write(entry, stored[i], rasters[i].getDataBuffer());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to store meta tile off heap", e);
+            release(entry);
+            return false;
+        }
+        entries.put(key, entry);
+
+        return true;
+    }
+
+    /**
+     * Gathers the tiles of a meta tile from the store
+     *
+     * @return the tiles, or null if the meta tile is not in the store
+     */
+    public synchronized RenderedImage[] get(MetaTileKey key) {
+        if (disposed) {
+            return null;
+        }
+        StoredMetaTile entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        RenderedImage[] tiles = new RenderedImage[entry.tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            StoredTile tile = entry.tiles[i];
+            DataBuffer db = read(entry, tile);
+            WritableRaster raster = Raster.createWritableRaster(tile.sampleModel, db, null);
+            tiles[i] = new BufferedImage(tile.colorModel, raster, tile.colorModel
+                    .isAlphaPremultiplied(), null);
+        }
+        return tiles;
+    }
+
+    /**
+     * Removes a meta tile from the store
+     */
+    public synchronized boolean remove(MetaTileKey key) {
+        StoredMetaTile entry = entries.remove(key);
+        if (entry != null) {
+            release(entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all the meta tiles containing the specified layer
+     */
+    public synchronized void invalidate(String layerName) {
+        for (Iterator<Map.Entry<MetaTileKey, StoredMetaTile>> it = entries.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<MetaTileKey, StoredMetaTile> entry = it.next();
+            if (entry.getKey().mapKey.layers.contains(layerName)) {
+                it.remove();
+                release(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes all the meta tiles from the store
+     */
+    public synchronized void clear() {
+        for (StoredMetaTile entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Releases the storage. The direct buffers are left to the garbage collector, the mapped file
+     * is closed and deleted. Later lookups are misses, and attempts to store are ignored.
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        entries.clear();
+        freeCount = 0;
+        segments = new ByteBuffer[0];
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the meta tile storage file", e);
+            }
+            file = null;
+            storageFile.delete();
+        }
+    }
+
+    /**
+     * The storage size, in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns true if the storage is a memory mapped file
+     */
+    public boolean isMapped() {
+        return storageFile != null;
+    }
+
+    /**
+     * The storage currently used, in bytes
+     */
+    public synchronized long getSize() {
+        if (disposed) {
+            return 0;
+        }
+        return (long) (freeBlocks.length - freeCount) * BLOCK_SIZE;
+    }
+
+    /**
+     * The number of meta tiles currently stored
+     */
+    public synchronized int getMetaTileCount() {
+        return entries.size();
+    }
+
+    /**
+     * The number of meta tiles evicted to make room for new ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Copies the tile data in a raster sized after the tile (the tiles split out of a meta tile
+     * usually share the meta tile raster)
+     */
+    static Raster compactRaster(RenderedImage tile) {
+        SampleModel sm = tile.getSampleModel().createCompatibleSampleModel(tile.getWidth(),
+                tile.getHeight());
+        WritableRaster raster = Raster.createWritableRaster(sm, new Point(tile.getMinX(), tile
+                .getMinY()));
+        tile.copyData(raster);
+        return raster;
+    }
+
+    void release(StoredMetaTile entry) {
+        for (int block : entry.blocks) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    /**
+     * Returns a buffer positioned at the beginning of the specified block, and limited to its end
+     */
+    ByteBuffer block(int block) throws IOException {
+        ByteBuffer segment = segment(block).duplicate();
+        int offset = (block % SEGMENT_BLOCKS) * BLOCK_SIZE;
+        segment.limit(offset + BLOCK_SIZE);
+        segment.position(offset);
+        return segment.slice().order(ByteOrder.nativeOrder());
+    }
+
+    ByteBuffer segment(int block) throws IOException {
+        int idx = block / SEGMENT_BLOCKS;
+        if (segments[idx] == null) {
+            int size = (int) Math.min(SEGMENT_SIZE, capacity - (long) idx * SEGMENT_SIZE);
+            if (storageFile == null) {
+                segments[idx] = ByteBuffer.allocateDirect(size);
+            } else {
+                if (file == null) {
+                    file = new RandomAccessFile(storageFile, "rw");
+                }
+                segments[idx] = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        (long) idx * SEGMENT_SIZE, size);
+            }
+        }
+        return segments[idx];
+    }
+
+    /**
+     * Writes the banks of the data buffer in the blocks of the entry
+     */
+    void write(StoredMetaTile entry, StoredTile tile, DataBuffer db) throws IOException {
+        long position = tile.start;
+        for (int bank = 0; bank < tile.banks; bank++) {
+            Object data = bankData(db, bank);
+            int elements = tile.bankSize;
+            int written = 0;
+            while (written < elements) {
+                ByteBuffer block = block(entry.blocks[(int) (position / BLOCK_SIZE)]);
+                block.position((int) (position % BLOCK_SIZE));
+                int n = Math.min(elements - written, block.remaining() / tile.elementSize);
+                switch (tile.dataType) {
+                case DataBuffer.TYPE_BYTE:
+                    block.put((byte[]) data, written, n);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    block.asShortBuffer().put((short[]) data, written, n);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    block.asIntBuffer().put((int[]) data, written, n);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    block.asFloatBuffer().put((float[]) data, written, n);
+                    break;
+                case DataBuffer.TYPE_DOUBLE:
+                    block.asDoubleBuffer().put((double[]) data, written, n);
+                    break;
+                }
+                written += n;
+                position += (long) n * tile.elementSize;
+            }
+            position = align(position);
+        }
+    }
+
+    /**
+     * Reads back the banks of a tile into a new data buffer
+     */
+    DataBuffer read(StoredMetaTile entry, StoredTile tile) {
+        DataBuffer db = createDataBuffer(tile);
+        long position = tile.start;
+        try {
+            for (int bank = 0; bank < tile.banks; bank++) {
+                Object data = bankData(db, bank);
+                int elements = tile.bankSize;
+                int read = 0;
+                while (read < elements) {
+                    ByteBuffer block = block(entry.blocks[(int) (position / BLOCK_SIZE)]);
+                    block.position((int) (position % BLOCK_SIZE));
+                    int n = Math.min(elements - read, block.remaining() / tile.elementSize);
+                    switch (tile.dataType) {
+                    case DataBuffer.TYPE_BYTE:
+                        block.get((byte[]) data, read, n);
+                        break;
+                    case DataBuffer.TYPE_USHORT:
+                    case DataBuffer.TYPE_SHORT:
+                        block.asShortBuffer().get((short[]) data, read, n);
+                        break;
+                    case DataBuffer.TYPE_INT:
+                        block.asIntBuffer().get((int[]) data, read, n);
+                        break;
+                    case DataBuffer.TYPE_FLOAT:
+                        block.asFloatBuffer().get((float[]) data, read, n);
+                        break;
+                    case DataBuffer.TYPE_DOUBLE:
+                        block.asDoubleBuffer().get((double[]) data, read, n);
+                        break;
+                    }
+                    read += n;
+                    position += (long) n * tile.elementSize;
+                }
+                position = align(position);
+            }
+        } catch (IOException e) {
+            // segments of stored entries are always allocated already
+            throw new IllegalStateException(e);
+        }
+        return db;
+    }
+
+    static Object bankData(DataBuffer db, int bank) {
+        switch (db.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            return ((DataBufferByte) db).getData(bank);
+        case DataBuffer.TYPE_USHORT:
+            return ((DataBufferUShort) db).getData(bank);
+        case DataBuffer.TYPE_SHORT:
+            return ((DataBufferShort) db).getData(bank);
+        case DataBuffer.TYPE_INT:
+            return ((DataBufferInt) db).getData(bank);
+        case DataBuffer.TYPE_FLOAT:
+            return ((DataBufferFloat) db).getData(bank);
+        case DataBuffer.TYPE_DOUBLE:
+            return ((DataBufferDouble) db).getData(bank);
+        default:
+            throw new IllegalArgumentException("Unsupported data type " + db.getDataType());
+        }
+    }
+
+    static DataBuffer createDataBuffer(StoredTile tile) {
+        switch (tile.dataType) {
+        case DataBuffer.TYPE_BYTE:
+            return new DataBufferByte(new byte[tile.banks][tile.bankSize], tile.bankSize,
+                    tile.offsets);
+        case DataBuffer.TYPE_USHORT:
+            return new DataBufferUShort(new short[tile.banks][tile.bankSize], tile.bankSize,
+                    tile.offsets);
+        case DataBuffer.TYPE_SHORT:
+            return new DataBufferShort(new short[tile.banks][tile.bankSize], tile.bankSize,
+                    tile.offsets);
+        case DataBuffer.TYPE_INT:
+            return new DataBufferInt(new int[tile.banks][tile.bankSize], tile.bankSize,
+                    tile.offsets);
+        case DataBuffer.TYPE_FLOAT:
+            return new DataBufferFloat(new float[tile.banks][tile.bankSize], tile.bankSize,
+                    tile.offsets);
+        case DataBuffer.TYPE_DOUBLE:
+            return new DataBufferDouble(new double[tile.banks][tile.bankSize], tile.bankSize,
+                    tile.offsets);
+        default:
+            throw new IllegalArgumentException("Unsupported data type " + tile.dataType);
+        }
+    }
+
+    /**
+     * Aligns the position to the next multiple of 8, so that each bank starts on a primitive
+     * boundary
+     */
+    static long align(long position) {
+        return (position + 7) & ~7l;
+    }
+
+    /**
+     * The layout of a single tile in the store
+     */
+    static class StoredTile {
+        ColorModel colorModel;
+
+        SampleModel sampleModel;
+
+        int dataType;
+
+        int elementSize;
+
+        int banks;
+
+        int bankSize;
+
+        int[] offsets;
+
+        long start;
+
+        long end;
+
+        StoredTile(ColorModel colorModel, Raster raster, long start) {
+            DataBuffer db = raster.getDataBuffer();
+            this.colorModel = colorModel;
+            this.sampleModel = raster.getSampleModel();
+            this.dataType = db.getDataType();
+            this.elementSize = DataBuffer.getDataTypeSize(dataType) / 8;
+            this.banks = db.getNumBanks();
+            this.bankSize = db.getSize();
+            this.offsets = db.getOffsets();
+            this.start = start;
+            long end = start;
+            for (int i = 0; i < banks; i++) {
+                end = align(end + (long) bankSize * elementSize);
+            }
+            this.end = end;
+            // validate the data type early
+            bankData(db, 0);
+        }
+    }
+
+    /**
+     * A meta tile in the store, the tiles and the blocks holding their data
+     */
+    static class StoredMetaTile {
+        StoredTile[] tiles;
+
+        int[] blocks;
+
+        StoredMetaTile(StoredTile[] tiles, int[] blocks) {
+            this.tiles = tiles;
+            this.blocks = blocks;
+        }
+    }
+}
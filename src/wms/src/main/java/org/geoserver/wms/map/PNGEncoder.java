@@ -0,0 +1,523 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * A PNG encoder for the image layouts produced by the renderer: 8 bit RGB, RGBA, gray and gray
+ * alpha images, and paletted images of 1, 2, 4 or 8 bits.
+ * <p>
+ * The scanlines are read straight from the image rasters, filtered and fed to a deflater reused
+ * across requests by each thread, skipping the generic machinery of the ImageIO writers. Use
+ * {@link #isSupported(RenderedImage)} to check whether an image can be encoded.
+ * </p>
+ */
+public class PNGEncoder {
+
+    static final Logger LOGGER = Logging.getLogger(PNGEncoder.class);
+
+    /**
+     * The scanline filters
+     */
+    public enum Filter {
+        /**
+         * No filtering, the default
+         */
+        NONE,
+        /**
+         * Difference with the pixel on the left
+         */
+        SUB,
+        /**
+         * Difference with the pixel above
+         */
+        UP,
+        /**
+         * Picks, for each scanline, the filter giving the smallest sum of differences
+         */
+        ADAPTIVE;
+
+        /**
+         * Parses a filter name, returning null if the name is null or not valid
+         */
+        public static Filter parse(String name) {
+            if (name == null) {
+                return null;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Unknown png filter '" + name + "', valid values are NONE, SUB, "
+                        + "UP and ADAPTIVE");
+                return null;
+            }
+        }
+    }
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+
+    static final byte[] PLTE = { 'P', 'L', 'T', 'E' };
+
+    static final byte[] TRNS = { 't', 'R', 'N', 'S' };
+
+    static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+
+    static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+
+    /**
+     * PNG filter types
+     */
+    static final int FILTER_NONE = 0;
+
+    static final int FILTER_SUB = 1;
+
+    static final int FILTER_UP = 2;
+
+    static final int FILTER_AVERAGE = 3;
+
+    static final int FILTER_PAETH = 4;
+
+    /**
+     * size of the IDAT chunks
+     */
+    static final int IDAT_SIZE = 32 * 1024;
+
+    /**
+     * The deflaters, one per thread
+     */
+    static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
+    int level;
+
+    Filter filter;
+
+    Integer strategy;
+
+    /**
+     * Builds a new encoder
+     *
+     * @param level The deflate level, between 0 and 9
+     * @param filter The scanline filter, or null for {@link Filter#NONE}
+     * @param strategy The deflate strategy, as in {@link Deflater#setStrategy(int)}, or null to
+     *        pick one depending on the filter
+     */
+    public PNGEncoder(int level, Filter filter, Integer strategy) {
+        this.level = Math.max(0, Math.min(9, level));
+        this.filter = filter;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Parses a deflate strategy name, "DEFAULT", "FILTERED" or "HUFFMAN_ONLY", returning null if
+     * the name is null or not valid
+     */
+    public static Integer parseStrategy(String name) {
+        if (name == null) {
+            return null;
+        }
+        String strategy = name.trim().toUpperCase();
+        if ("DEFAULT".equals(strategy)) {
+            return Deflater.DEFAULT_STRATEGY;
+        } else if ("FILTERED".equals(strategy)) {
+            return Deflater.FILTERED;
+        } else if ("HUFFMAN_ONLY".equals(strategy)) {
+            return Deflater.HUFFMAN_ONLY;
+        }
+        LOGGER.warning("Unknown png deflate strategy '" + name + "', valid values are DEFAULT, "
+                + "FILTERED and HUFFMAN_ONLY");
+        return null;
+    }
+
+    /**
+     * Returns true if the image layout is supported by the encoder
+     */
+    public static boolean isSupported(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        ColorModel cm = image.getColorModel();
+        if (sm.getDataType() != DataBuffer.TYPE_BYTE) {
+            return false;
+        }
+
+        if (cm instanceof IndexColorModel) {
+            if (sm instanceof MultiPixelPackedSampleModel) {
+                int bits = ((MultiPixelPackedSampleModel) sm).getPixelBitStride();
+                return (bits == 1 || bits == 2 || bits == 4)
+                        && ((IndexColorModel) cm).getMapSize() <= (1 << bits);
+            }
+            return sm instanceof ComponentSampleModel && sm.getNumBands() == 1
+                    && sm.getSampleSize(0) == 8 && ((IndexColorModel) cm).getMapSize() <= 256;
+        } else if (cm instanceof ComponentColorModel && sm instanceof ComponentSampleModel) {
+            for (int i = 0; i < sm.getNumBands(); i++) {
+                if (sm.getSampleSize(i) != 8) {
+                    return false;
+                }
+            }
+            if (cm.hasAlpha() && cm.isAlphaPremultiplied()) {
+                return false;
+            }
+            int colorSpace = cm.getColorSpace().getType();
+            int bands = sm.getNumBands();
+            if (colorSpace == ColorSpace.TYPE_RGB) {
+                return bands == (cm.hasAlpha() ? 4 : 3);
+            } else if (colorSpace == ColorSpace.TYPE_GRAY) {
+                return bands == (cm.hasAlpha() ? 2 : 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the image into the output stream, the image layout must be supported by the encoder
+     */
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        if (!isSupported(image)) {
+            throw new IllegalArgumentException("Unsupported image layout: " + image);
+        }
+
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // work out the png image type
+        int bitDepth = 8;
+        int colorType;
+        int bands = sm.getNumBands();
+        if (cm instanceof IndexColorModel) {
+            colorType = 3;
+            if (sm instanceof MultiPixelPackedSampleModel) {
+                bitDepth = ((MultiPixelPackedSampleModel) sm).getPixelBitStride();
+            }
+        } else if (cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+            colorType = cm.hasAlpha() ? 4 : 0;
+        } else {
+            colorType = cm.hasAlpha() ? 6 : 2;
+        }
+        int bitsPerPixel = bitDepth * bands;
+        int rowBytes = (width * bitsPerPixel + 7) / 8;
+        int bpp = Math.max(1, bitsPerPixel / 8);
+
+        // rendered maps are mostly made of flat areas that deflate matches better unfiltered,
+        // the sum of differences heuristic of the adaptive filter is meant for photos
+        Filter filter = this.filter != null ? this.filter : Filter.NONE;
+        int strategy = this.strategy != null ? this.strategy
+                : (filter == Filter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        setInt(header, 0, width);
+        setInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) colorType;
+        // compression, filter and interlace methods are all 0
+        writeChunk(out, IHDR, header, 0, header.length);
+
+        if (cm instanceof IndexColorModel) {
+            writePalette(out, (IndexColorModel) cm);
+        }
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setStrategy(strategy);
+        ChunkOutputStream chunks = new ChunkOutputStream(out, IDAT);
+        DeflaterOutputStream zip = new DeflaterOutputStream(chunks, deflater, IDAT_SIZE);
+
+        byte[] current = new byte[rowBytes];
+        byte[] previous = new byte[rowBytes];
+        byte[][] filtered = new byte[filter == Filter.ADAPTIVE ? 5 : 1][rowBytes + 1];
+
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        int maxY = minY + height;
+        if (image instanceof BufferedImage) {
+            Raster raster = ((BufferedImage) image).getRaster();
+            for (int y = minY; y < maxY; y++) {
+                readRow(raster, minX, y, width, current);
+                zip.write(filter(filter, current, previous, bpp, filtered));
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } else {
+            // go one row of tiles at a time
+            int tileHeight = image.getTileHeight();
+            for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+                int y0 = Math.max(minY, ty * tileHeight + image.getTileGridYOffset());
+                int y1 = Math.min(maxY, (ty + 1) * tileHeight + image.getTileGridYOffset());
+                if (y1 <= y0) {
+                    continue;
+                }
+                Raster raster;
+                if (image.getNumXTiles() == 1) {
+                    raster = image.getTile(image.getMinTileX(), ty);
+                } else {
+                    raster = image.getData(new Rectangle(minX, y0, width, y1 - y0));
+                }
+                for (int y = y0; y < y1; y++) {
+                    readRow(raster, minX, y, width, current);
+                    zip.write(filter(filter, current, previous, bpp, filtered));
+                    byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+            }
+        }
+        zip.finish();
+        chunks.finish();
+
+        writeChunk(out, IEND, new byte[0], 0, 0);
+        out.flush();
+    }
+
+    void writePalette(OutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        byte[] alphas = new byte[size];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            alphas[i] = (byte) icm.getAlpha(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, PLTE, palette, 0, palette.length);
+        if (lastTranslucent >= 0) {
+            // entries past the last translucent one are opaque
+            writeChunk(out, TRNS, alphas, 0, lastTranslucent + 1);
+        }
+    }
+
+    /**
+     * Reads a row of the image, in png layout, from the raster
+     */
+    void readRow(Raster raster, int minX, int y, int width, byte[] row) {
+        SampleModel sm = raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        int x = minX - raster.getSampleModelTranslateX();
+        int line = y - raster.getSampleModelTranslateY();
+
+        if (sm instanceof MultiPixelPackedSampleModel) {
+            MultiPixelPackedSampleModel mpp = (MultiPixelPackedSampleModel) sm;
+            int bits = mpp.getPixelBitStride();
+            byte[] data = buffer.getData();
+            if (mpp.getBitOffset(x) == 0) {
+                // same packing as png, copy the bytes over
+                System.arraycopy(data, buffer.getOffset() + mpp.getOffset(x, line), row, 0,
+                        row.length);
+            } else {
+                int pixelsPerByte = 8 / bits;
+                Arrays.fill(row, (byte) 0);
+                for (int i = 0; i < width; i++) {
+                    int sample = raster.getSample(minX + i, y, 0);
+                    int shift = 8 - bits * (i % pixelsPerByte + 1);
+                    row[i / pixelsPerByte] |= sample << shift;
+                }
+            }
+            return;
+        }
+
+        ComponentSampleModel csm = (ComponentSampleModel) sm;
+        int bands = csm.getNumBands();
+        int pixelStride = csm.getPixelStride();
+        int[] banks = csm.getBankIndices();
+        int[] bandOffsets = csm.getBandOffsets();
+        int rowOffset = line * csm.getScanlineStride() + x * pixelStride;
+        for (int b = 0; b < bands; b++) {
+            byte[] data = buffer.getData(banks[b]);
+            int offset = buffer.getOffsets()[banks[b]] + rowOffset + bandOffsets[b];
+            if (bands == 1 && pixelStride == 1) {
+                System.arraycopy(data, offset, row, 0, width);
+            } else {
+                for (int i = b; i < width * bands; i += bands) {
+                    row[i] = data[offset];
+                    offset += pixelStride;
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters a row, returning the filtered row prefixed by the filter type
+     */
+    byte[] filter(Filter filter, byte[] current, byte[] previous, int bpp, byte[][] filtered) {
+        switch (filter) {
+        case NONE:
+            return filter(FILTER_NONE, current, previous, bpp, filtered[0]);
+        case SUB:
+            return filter(FILTER_SUB, current, previous, bpp, filtered[0]);
+        case UP:
+            return filter(FILTER_UP, current, previous, bpp, filtered[0]);
+        default:
+            // pick the filter minimizing the sum of the absolute differences, libpng heuristic
+            byte[] best = null;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+                byte[] row = filter(type, current, previous, bpp, filtered[type]);
+                long sum = 0;
+                for (int i = 1; i < row.length && sum < bestSum; i++) {
+                    sum += Math.abs(row[i]);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = row;
+                }
+            }
+            return best;
+        }
+    }
+
+    byte[] filter(int type, byte[] current, byte[] previous, int bpp, byte[] row) {
+        row[0] = (byte) type;
+        int n = current.length;
+        switch (type) {
+        case FILTER_NONE:
+            System.arraycopy(current, 0, row, 1, n);
+            break;
+        case FILTER_SUB:
+            for (int i = 0; i < bpp && i < n; i++) {
+                row[i + 1] = current[i];
+            }
+            for (int i = bpp; i < n; i++) {
+                row[i + 1] = (byte) (current[i] - current[i - bpp]);
+            }
+            break;
+        case FILTER_UP:
+            for (int i = 0; i < n; i++) {
+                row[i + 1] = (byte) (current[i] - previous[i]);
+            }
+            break;
+        case FILTER_AVERAGE:
+            for (int i = 0; i < n; i++) {
+                int left = i >= bpp ? current[i - bpp] & 0xFF : 0;
+                row[i + 1] = (byte) (current[i] - ((left + (previous[i] & 0xFF)) >>> 1));
+            }
+            break;
+        case FILTER_PAETH:
+            for (int i = 0; i < n; i++) {
+                int a = i >= bpp ? current[i - bpp] & 0xFF : 0;
+                int b = previous[i] & 0xFF;
+                int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                int predictor = (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+                row[i + 1] = (byte) (current[i] - predictor);
+            }
+            break;
+        }
+        return row;
+    }
+
+    static void setInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(OutputStream out, byte[] type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] bytes = new byte[4];
+        setInt(bytes, 0, length);
+        out.write(bytes);
+        out.write(type);
+        out.write(data, offset, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data, offset, length);
+        setInt(bytes, 0, (int) crc.getValue());
+        out.write(bytes);
+    }
+
+    /**
+     * Splits the data written into chunks of the specified type
+     */
+    static class ChunkOutputStream extends OutputStream {
+
+        OutputStream out;
+
+        byte[] type;
+
+        byte[] buffer = new byte[IDAT_SIZE];
+
+        int count;
+
+        ChunkOutputStream(OutputStream out, byte[] type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, type, buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        /**
+         * Writes out the last chunk, without closing the underlying stream
+         */
+        void finish() throws IOException {
+            flushChunk();
+        }
+    }
+}
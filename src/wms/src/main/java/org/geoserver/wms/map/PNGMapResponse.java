@@ -4,6 +4,7 @@
  */
 package org.geoserver.wms.map;
 
+import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -92,7 +93,28 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         final String format = mapContent.getRequest().getFormat();
         if ("image/png8".equalsIgnoreCase(format) || (mapContent.getPaletteInverter() != null)) {
             InverseColorMapOp paletteInverter = mapContent.getPaletteInverter();
-            image = forceIndexed8Bitmask(image, paletteInverter);
+            boolean paletted = image.getColorModel() instanceof IndexColorModel
+                    && image.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE;
+            if (paletteInverter == null && !paletted) {
+                // png supports translucent palettes, no need to force a bitmask one
+                image = new ColorQuantizer(256, false).quantize(image);
+            } else if (paletteInverter != null || !paletted) {
+                image = forceIndexed8Bitmask(image, paletteInverter);
+            }
+        }
+
+        if ("FAST".equalsIgnoreCase(wms.getPngEncoder()) && PNGEncoder.isSupported(image)) {
+            // the compression percentage maps to the deflate levels
+            int level = Math.round(wms.getPngCompression() * 9 / 100f);
+            PNGEncoder encoder = new PNGEncoder(level, PNGEncoder.Filter.parse(wms.getPngFilter()),
+                    PNGEncoder.parseStrategy(wms.getPngDeflateStrategy()));
+            encoder.encode(image, outStream);
+            RasterCleaner.addImage(image);
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
         }
 
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
@@ -7,16 +7,37 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
@@ -26,20 +47,57 @@ import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * A memory bounded cache of the tiles generated by splitting meta tiles.
+ * <p>
+ * The cache keeps the tiles in an access ordered map and estimates the memory used by each meta
+ * tile from its rasters. When the configured budget ({@link WMS#getMetaTileCacheSize()}) is
+ * exceeded the least recently used meta tiles are evicted, or, under the least frequently used
+ * policy (see {@link WMS#getMetaTileCachePolicy()}), the least used among a sample of the least
+ * recently used ones. Catalog changes and WFS transactions invalidate only the meta tiles built out
+ * of the affected layers.
+ * </p>
+ * <p>
+ * Optionally, evicted meta tiles are moved to an {@link OffHeapTileStore}, keeping their rasters
+ * out of the Java heap, from which they are promoted back to memory when requested again (see
+ * {@link WMS#getMetaTileOffHeapCacheSize()}).
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * The eviction policies supported by the cache
+     */
+    public enum EvictionPolicy {
+        /** Least recently used meta tiles are evicted first */
+        LRU,
+        /** Least frequently used meta tiles are evicted first */
+        LFU
+    }
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
      */
     private static final Set ignoredParameters;
 
+    /**
+     * The meta tiling factor used for layers that do not specify one
+     */
+    static final int DEFAULT_META_FACTOR = 3;
+
     static {
         ignoredParameters = new HashSet();
         ignoredParameters.add("REQUEST");
@@ -57,30 +115,100 @@ public class QuickTileCache implements TransactionListener {
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * The cached meta tiles, from the least to the most recently used. All accesses must be
+     * synchronized on the map itself
+     */
+    private final LinkedHashMap<MetaTileKey, CacheElement> tileCache = new LinkedHashMap<MetaTileKey, CacheElement>(
+            16, 0.75f, true);
+
+    /**
+     * Number of least recently used meta tiles among which the least frequently used one is
+     * evicted under the {@link EvictionPolicy#LFU} policy
+     */
+    static final int LFU_SAMPLE_SIZE = 16;
+
+    /**
+     * Estimated memory used by the cached tiles, in bytes
+     */
+    private AtomicLong size = new AtomicLong();
+
+    private AtomicLong hits = new AtomicLong();
+
+    private AtomicLong misses = new AtomicLong();
+
+    private AtomicLong evictions = new AtomicLong();
+
+    private AtomicLong offHeapHits = new AtomicLong();
+
+    /**
+     * The second level, off heap storage, or null if disabled
+     */
+    private volatile OffHeapTileStore offHeapStore;
+
+    /**
+     * The configuration the off heap storage has been built with
+     */
+    private volatile long offHeapCapacity;
+
+    private volatile boolean offHeapMapped;
+
+    private WMS wms;
+
+    private Catalog catalog;
+
+    /**
+     * Cache size and policy used when no {@link WMS} configuration is available
+     */
+    private long maxSize;
+
+    private EvictionPolicy policy;
+
+    private long offHeapSize;
 
-    public QuickTileCache(GeoServer geoServer) {
+    public QuickTileCache(WMS wms) {
+        this.wms = wms;
+        GeoServer geoServer = wms.getGeoServer();
+        this.catalog = geoServer.getCatalog();
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
+        catalog.addListener(new CacheInvalidatingListener());
     }
 
     /**
      * For testing only
      */
     QuickTileCache() {
+        this(WMS.META_TILE_CACHE_SIZE_DEFAULT * 1024l, EvictionPolicy.LRU);
+    }
+
+    /**
+     * For testing only
+     */
+    QuickTileCache(long maxSize, EvictionPolicy policy) {
+        this(maxSize, policy, 0);
+    }
+
+    /**
+     * For testing only
+     */
+    QuickTileCache(long maxSize, EvictionPolicy policy, long offHeapSize) {
+        this.maxSize = maxSize;
+        this.policy = policy;
+        this.offHeapSize = offHeapSize;
     }
 
     /**
@@ -106,10 +234,19 @@ public class QuickTileCache implements TransactionListener {
         }
         MapKey mapKey = new MapKey(mapDefinition, normalize(bbox.getWidth() / request.getWidth()),
                 origin);
+        mapKey.layers = getLayerNames(request);
+        List<MapLayerInfo> layers = request.getLayers();
+        int metaFactorX = getMetaTilingParameter(layers, LayerInfo.META_TILING_X,
+                DEFAULT_META_FACTOR, 1);
+        int metaFactorY = getMetaTilingParameter(layers, LayerInfo.META_TILING_Y,
+                DEFAULT_META_FACTOR, 1);
+        int gutter = getMetaTilingParameter(layers, LayerInfo.META_TILING_GUTTER, 0, 0);
         Point tileCoords = getTileCoordinates(bbox, origin);
-        Point metaTileCoords = getMetaTileCoordinates(tileCoords);
-        ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        Point metaTileCoords = getMetaTileCoordinates(tileCoords, metaFactorX, metaFactorY);
+        ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords,
+                metaTileCoords, metaFactorX, metaFactorY);
+        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope, metaFactorX,
+                metaFactorY, gutter);
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -117,28 +254,80 @@ public class QuickTileCache implements TransactionListener {
         return (MetaTileKey) metaTileKeys.unique(key);
     }
 
-    private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
+    /**
+     * Collects the qualified names of the resources painted by the request, used to invalidate
+     * the cached tiles when one of them changes
+     */
+    private Set<String> getLayerNames(GetMapRequest request) {
+        Set<String> names = new HashSet<String>();
+        List<MapLayerInfo> layers = request.getLayers();
+        if (layers != null) {
+            for (MapLayerInfo layer : layers) {
+                ResourceInfo resource = layer.getResource();
+                names.add(resource != null ? resource.getPrefixedName() : layer.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the largest value of a meta tiling parameter among the layers of the map, or the
+     * default value if none of the layers specifies a valid one
+     */
+    int getMetaTilingParameter(List<MapLayerInfo> layers, String key, int defaultValue,
+            int minValue) {
+        int result = Integer.MIN_VALUE;
+        if (layers != null) {
+            for (MapLayerInfo layer : layers) {
+                LayerInfo layerInfo = layer.getLayerInfo();
+                if (layerInfo == null || layerInfo.getMetadata() == null) {
+                    continue;
+                }
+                Integer value = layerInfo.getMetadata().get(key, Integer.class);
+                if (value != null && value >= minValue && value > result) {
+                    result = value;
+                }
+            }
+        }
+        return result == Integer.MIN_VALUE ? defaultValue : result;
+    }
+
+    private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords,
+            Point metaTileCoords, int metaFactorX, int metaFactorY) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
         double miny = bbox.getMinY() + (metaTileCoords.y - tileCoords.y) * bbox.getHeight();
-        double maxx = minx + bbox.getWidth() * 3;
-        double maxy = miny + bbox.getHeight() * 3;
+        double maxx = minx + bbox.getWidth() * metaFactorX;
+        double maxy = miny + bbox.getHeight() * metaFactorY;
         return new ReferencedEnvelope(minx, maxx, miny, maxy, bbox.getCoordinateReferenceSystem());
     }
 
+    /**
+     * Given a tile, returns the coordinates of the 3x3 meta-tile that contains it (where the
+     * meta-tile coordinate is the coordinate of its lower left subtile)
+     * 
+     * @param tileCoords
+     * @return
+     */
+    Point getMetaTileCoordinates(Point tileCoords) {
+        return getMetaTileCoordinates(tileCoords, DEFAULT_META_FACTOR, DEFAULT_META_FACTOR);
+    }
+
     /**
      * Given a tile, returns the coordinates of the meta-tile that contains it (where the meta-tile
      * coordinate is the coordinate of its lower left subtile)
      * 
      * @param tileCoords
+     * @param metaFactorX the number of tiles in a meta tile along the horizontal axis
+     * @param metaFactorY the number of tiles in a meta tile along the vertical axis
      * @return
      */
-    Point getMetaTileCoordinates(Point tileCoords) {
+    Point getMetaTileCoordinates(Point tileCoords, int metaFactorX, int metaFactorY) {
         int x = tileCoords.x;
         int y = tileCoords.y;
-        int rx = x % 3;
-        int ry = y % 3;
-        int mtx = (rx == 0) ? x : ((x >= 0) ? (x - rx) : (x - 3 - rx));
-        int mty = (ry == 0) ? y : ((y >= 0) ? (y - ry) : (y - 3 - ry));
+        int rx = x % metaFactorX;
+        int ry = y % metaFactorY;
+        int mtx = (rx == 0) ? x : ((x >= 0) ? (x - rx) : (x - metaFactorX - rx));
+        int mty = (ry == 0) ? y : ((y >= 0) ? (y - ry) : (y - metaFactorY - ry));
 
         return new Point(mtx, mty);
     }
@@ -222,6 +411,11 @@ public class QuickTileCache implements TransactionListener {
 
         Point2D origin;
 
+        /**
+         * The qualified names of the layers in the map, not part of the key identity
+         */
+        Set<String> layers = Collections.emptySet();
+
         public MapKey(String mapDefinition, double resolution, Point2D origin) {
             super();
             this.mapDefinition = mapDefinition;
@@ -261,11 +455,26 @@ public class QuickTileCache implements TransactionListener {
 
         ReferencedEnvelope metaTileEnvelope;
 
+        int metaFactorX;
+
+        int metaFactorY;
+
+        int gutter;
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
+            this(mapKey, metaTileCoords, metaTileEnvelope, DEFAULT_META_FACTOR,
+                    DEFAULT_META_FACTOR, 0);
+        }
+
+        public MetaTileKey(MapKey mapKey, Point metaTileCoords,
+                ReferencedEnvelope metaTileEnvelope, int metaFactorX, int metaFactorY, int gutter) {
             super();
             this.mapKey = mapKey;
             this.metaTileCoords = metaTileCoords;
             this.metaTileEnvelope = metaTileEnvelope;
+            this.metaFactorX = metaFactorX;
+            this.metaFactorY = metaFactorY;
+            this.gutter = gutter;
         }
 
         public ReferencedEnvelope getMetaTileEnvelope() {
@@ -292,11 +501,31 @@ public class QuickTileCache implements TransactionListener {
             MetaTileKey other = (MetaTileKey) obj;
 
             return new EqualsBuilder().append(mapKey, other.mapKey)
-                    .append(metaTileCoords, other.metaTileCoords).isEquals();
+                    .append(metaTileCoords, other.metaTileCoords)
+                    .append(metaFactorX, other.metaFactorX)
+                    .append(metaFactorY, other.metaFactorY).append(gutter, other.gutter)
+                    .isEquals();
+        }
+
+        /**
+         * The number of tiles along the horizontal axis of the meta tile
+         */
+        public int getMetaFactorX() {
+            return metaFactorX;
+        }
+
+        /**
+         * The number of tiles along the vertical axis of the meta tile
+         */
+        public int getMetaFactorY() {
+            return metaFactorY;
         }
 
-        public int getMetaFactor() {
-            return 3;
+        /**
+         * The number of pixels rendered around the meta tile and discarded when splitting it
+         */
+        public int getGutter() {
+            return gutter;
         }
 
         public int getTileSize() {
@@ -315,14 +544,50 @@ public class QuickTileCache implements TransactionListener {
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        RenderedImage[] tiles = getTiles(key);
 
-        if (ce == null) {
+        if (tiles == null) {
             return null;
         }
 
-        return getTile(key, request, ce.tiles);
+        return getTile(key, request, tiles);
+    }
+
+    /**
+     * Gathers all the tiles of a meta tile from the cache, if available, updating the cache
+     * statistics
+     * 
+     * @param key
+     * @return
+     */
+    RenderedImage[] getTiles(MetaTileKey key) {
+        CacheElement ce;
+        synchronized (tileCache) {
+            // moves the meta tile at the end of the access order
+            ce = tileCache.get(key);
+            if (ce != null) {
+                ce.accesses++;
+            }
+        }
+
+        if (ce == null) {
+            OffHeapTileStore store = getOffHeapStore();
+            RenderedImage[] tiles = store != null ? store.get(key) : null;
+            if (tiles == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            // promote back to memory
+            offHeapHits.incrementAndGet();
+            store.remove(key);
+            storeTiles(key, tiles);
+            return tiles;
+        }
+
+        hits.incrementAndGet();
+        return ce.tiles;
     }
 
     /**
@@ -341,34 +606,367 @@ public class QuickTileCache implements TransactionListener {
         Point metaCoord = key.metaTileCoords;
 
         return tiles[tileCoord.x - metaCoord.x
-                + ((tileCoord.y - metaCoord.y) * key.getMetaFactor())];
+                + ((tileCoord.y - metaCoord.y) * key.getMetaFactorX())];
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
+     * Puts the specified tile array in the cache, evicting other meta tiles if the cache memory
+     * budget gets exceeded
      * 
      * @param key
-     * @param request
      * @param tiles
-     * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        long maxSize = getMaxSize();
+        CacheElement ce = new CacheElement(tiles);
+        if (ce.size > maxSize) {
+            // would not fit even in an empty cache
+            OffHeapTileStore store = getOffHeapStore();
+            if (store != null) {
+                store.put(key, tiles);
+            }
+            return;
+        }
+
+        List<Map.Entry<MetaTileKey, CacheElement>> evicted;
+        synchronized (tileCache) {
+            CacheElement previous = tileCache.put(key, ce);
+            size.addAndGet(ce.size);
+            if (previous != null) {
+                size.addAndGet(-previous.size);
+            }
+            evicted = evict(maxSize, key);
+        }
+
+        if (!evicted.isEmpty()) {
+            // copy the evicted tiles to the second level outside of the lock
+            OffHeapTileStore store = getOffHeapStore();
+            if (store != null) {
+                for (Map.Entry<MetaTileKey, CacheElement> entry : evicted) {
+                    store.put(entry.getKey(), entry.getValue().tiles);
+                }
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Meta tile cache evicted down to " + size.get() + " bytes, "
+                        + getMetaTileCount() + " meta tiles cached");
+            }
+        }
+    }
+
+    /**
+     * Removes meta tiles from the cache until the estimated memory usage goes under the
+     * specified size. Must be called while holding the lock on the tile cache.
+     * 
+     * @param maxSize
+     * @param stored the meta tile that has just been stored, which is never evicted (under LFU
+     *        it would otherwise be the first candidate, having no accesses yet)
+     * @return the evicted entries
+     */
+    List<Map.Entry<MetaTileKey, CacheElement>> evict(long maxSize, MetaTileKey stored) {
+        List<Map.Entry<MetaTileKey, CacheElement>> evicted = new ArrayList<Map.Entry<MetaTileKey, CacheElement>>();
+        boolean lfu = getPolicy() == EvictionPolicy.LFU;
+        while (size.get() > maxSize) {
+            // the iteration order is the access one, least recently used first
+            Map.Entry<MetaTileKey, CacheElement> victim = null;
+            int sampled = 0;
+            for (Map.Entry<MetaTileKey, CacheElement> entry : tileCache.entrySet()) {
+                if (entry.getKey() == stored) {
+                    continue;
+                }
+                if (victim == null || entry.getValue().accesses < victim.getValue().accesses) {
+                    victim = entry;
+                }
+                if (!lfu || ++sampled >= LFU_SAMPLE_SIZE) {
+                    break;
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+
+            tileCache.remove(victim.getKey());
+            size.addAndGet(-victim.getValue().size);
+            evictions.incrementAndGet();
+            evicted.add(new AbstractMap.SimpleImmutableEntry<MetaTileKey, CacheElement>(victim));
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes all the meta tiles containing the specified layer
+     * 
+     * @param layerName the layer qualified name, as returned by {@link ResourceInfo#getPrefixedName()}
+     */
+    public void invalidate(String layerName) {
+        synchronized (tileCache) {
+            for (Iterator<Map.Entry<MetaTileKey, CacheElement>> it = tileCache.entrySet()
+                    .iterator(); it.hasNext();) {
+                Map.Entry<MetaTileKey, CacheElement> entry = it.next();
+                if (entry.getKey().mapKey.layers.contains(layerName)) {
+                    it.remove();
+                    size.addAndGet(-entry.getValue().size);
+                }
+            }
+        }
+        OffHeapTileStore store = offHeapStore;
+        if (store != null) {
+            store.invalidate(layerName);
+        }
+    }
+
+    /**
+     * Removes all the meta tiles from the cache
+     */
+    public void clear() {
+        synchronized (tileCache) {
+            tileCache.clear();
+            size.set(0);
+        }
+        OffHeapTileStore store = offHeapStore;
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    /**
+     * Returns the off heap storage, making sure it reflects the current configuration
+     * 
+     * @return the storage, or null if disabled
+     */
+    OffHeapTileStore getOffHeapStore() {
+        long capacity = offHeapSize;
+        boolean mapped = false;
+        if (wms != null) {
+            capacity = wms.getMetaTileOffHeapCacheSize() * 1024l;
+            mapped = wms.isMetaTileOffHeapCacheMapped();
+        }
+        capacity = capacity / OffHeapTileStore.BLOCK_SIZE * OffHeapTileStore.BLOCK_SIZE;
+
+        // the configuration is written after the store, read it first
+        if (capacity == offHeapCapacity && mapped == offHeapMapped) {
+            return offHeapStore;
+        }
+
+        synchronized (this) {
+            OffHeapTileStore store = offHeapStore;
+            if (capacity == offHeapCapacity && mapped == offHeapMapped) {
+                return store;
+            }
+            if (store != null) {
+                store.dispose();
+            }
+            store = null;
+            if (capacity > 0) {
+                File file = null;
+                if (mapped) {
+                    try {
+                        file = getStorageFile();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Could not create the meta tile storage file, "
+                                + "using direct memory instead", e);
+                    }
+                }
+                store = new OffHeapTileStore(capacity, file);
+            }
+            offHeapStore = store;
+            offHeapCapacity = capacity;
+            offHeapMapped = mapped;
+            return store;
+        }
+    }
+
+    File getStorageFile() throws IOException {
+        if (catalog != null && catalog.getResourceLoader() != null) {
+            File dir = catalog.getResourceLoader().findOrCreateDirectory("temp", "metatiles");
+            return new File(dir, "metatiles.dat");
+        }
+        File file = File.createTempFile("metatiles", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * The max estimated memory, in bytes, the cache can use
+     */
+    public long getMaxSize() {
+        if (wms != null) {
+            return wms.getMetaTileCacheSize() * 1024l;
+        }
+        return maxSize;
+    }
+
+    /**
+     * The eviction policy currently in use
+     */
+    public EvictionPolicy getPolicy() {
+        if (wms != null) {
+            try {
+                return EvictionPolicy.valueOf(wms.getMetaTileCachePolicy().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Invalid meta tile cache policy " + wms.getMetaTileCachePolicy()
+                        + ", falling back on " + EvictionPolicy.LRU);
+                return EvictionPolicy.LRU;
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * The estimated memory, in bytes, used by the cached tiles
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * The number of meta tiles currently in the cache
+     */
+    public int getMetaTileCount() {
+        synchronized (tileCache) {
+            return tileCache.size();
+        }
+    }
+
+    /**
+     * The number of tile lookups that found the meta tile in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * The number of tile lookups that did not find the meta tile in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The number of meta tiles removed from the cache to respect the memory budget
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The number of tile lookups that found the meta tile in the off heap storage
+     */
+    public long getOffHeapHits() {
+        return offHeapHits.get();
+    }
+
+    /**
+     * The off heap storage used by the cached tiles, in bytes
+     */
+    public long getOffHeapSize() {
+        OffHeapTileStore store = offHeapStore;
+        return store != null ? store.getSize() : 0;
+    }
+
+    /**
+     * The number of meta tiles currently in the off heap storage
+     */
+    public int getOffHeapMetaTileCount() {
+        OffHeapTileStore store = offHeapStore;
+        return store != null ? store.getMetaTileCount() : 0;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        offHeapHits.set(0);
+    }
+
+    /**
+     * Estimates the memory used by the raster of the image, in bytes
+     */
+    static long estimateSize(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        long bitsPerPixel = 0;
+        for (int bits : sm.getSampleSize()) {
+            bitsPerPixel += bits;
+        }
+        return (long) image.getWidth() * image.getHeight() * bitsPerPixel / 8;
     }
 
     class CacheElement {
         RenderedImage[] tiles;
 
+        long size;
+
+        /**
+         * Number of hits, guarded by the lock on the tile cache
+         */
+        int accesses;
+
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            for (RenderedImage tile : tiles) {
+                size += estimateSize(tile);
+            }
         }
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        QName layerName = event.getLayerName();
+        if (layerName == null || catalog == null) {
+            clear();
+            return;
+        }
+
+        // the event layer name may not have a prefix, look it up from the namespace
+        String prefix = layerName.getPrefix();
+        NamespaceInfo ns = catalog.getNamespaceByURI(layerName.getNamespaceURI());
+        if (ns != null) {
+            prefix = ns.getPrefix();
+        }
+        if (prefix == null || "".equals(prefix)) {
+            clear();
+        } else {
+            invalidate(prefix + ":" + layerName.getLocalPart());
+        }
+    }
+
+    /**
+     * Invalidates the tiles of layers whose configuration changed. Changes to other catalog
+     * objects (styles, groups, stores...) can affect any layer, so they wipe out the whole cache
+     */
+    class CacheInvalidatingListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+            // a new layer cannot be part of any cached map
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            invalidate(event.getSource());
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            invalidate(event.getSource());
+        }
+
+        public void reloaded() {
+            clear();
+        }
+
+        void invalidate(CatalogInfo info) {
+            if (info instanceof LayerInfo) {
+                ResourceInfo resource = ((LayerInfo) info).getResource();
+                if (resource != null) {
+                    QuickTileCache.this.invalidate(resource.getPrefixedName());
+                }
+            } else if (info instanceof ResourceInfo) {
+                QuickTileCache.this.invalidate(((ResourceInfo) info).getPrefixedName());
+            } else {
+                clear();
+            }
+        }
     }
 }
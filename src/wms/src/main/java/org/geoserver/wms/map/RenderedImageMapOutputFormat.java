@@ -25,6 +25,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -310,6 +312,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         StreamingRenderer testRenderer = new StreamingRenderer();
         testRenderer.setMapContent(mapContent);
         memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        // ... and the images of the layers rendered in parallel, the first group is painted
+        // directly on the base image
+        final List<List<Layer>> layerGroups = groupLayers(mapContent.layers(),
+                getMaxParallelLayers());
+        memory += (layerGroups.size() - 1)
+                * ImageUtils.getDrawingSurfaceMemoryUse(paintArea.width, paintArea.height, null,
+                        true);
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -400,16 +409,6 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        GTRenderer renderer;
-        if (DefaultWebMapService.useShapefileRenderer()) {
-            renderer = new ShapefileRenderer();
-        } else {
-            StreamingRenderer sr = new StreamingRenderer();
-            sr.setThreadPool(DefaultWebMapService.getRenderingPool());
-            renderer = sr;
-        }
-        renderer.setMapContent(mapContent);
-        renderer.setJava2DHints(hints);
 
         // setup the renderer hints
         Map<Object, Object> rendererParams = new HashMap<Object, Object>();
@@ -465,7 +464,6 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 }
             }
         }
-        renderer.setRendererHints(rendererParams);
 
         // if abort already requested bail out
         // if (this.abortRequested) {
@@ -473,25 +471,62 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // return null;
         // }
 
-        // enforce no more than x rendering errors
-        int maxErrors = wms.getMaxRenderingErrors();
-        MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderer, maxErrors);
-
-        // Add a render listener that ignores well known rendering exceptions and reports back non
-        // ignorable ones
-        final RenderExceptionStrategy nonIgnorableExceptionListener;
-        nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
-        renderer.addRenderListener(nonIgnorableExceptionListener);
-
-        // setup the timeout enforcer (the enforcer is neutral when the timeout is 0)
-        int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
-        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
-                graphic);
-        timeout.start();
+        // setup a rendering for each group of layers, each with its own error checks and
+        // timeout enforcer (the enforcer is neutral when the timeout is 0). The first group
+        // paints directly on the map, the others on their own transparent image that is then
+        // composited over it
+        final int maxErrors = wms.getMaxRenderingErrors();
+        final int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
+        final List<LayersRendering> renderings = new ArrayList<LayersRendering>(layerGroups.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        boolean completed = false;
         try {
+            if (layerGroups.size() == 1) {
+                renderings.add(new LayersRendering(mapContent, mapContent, graphic, null,
+                        layerNames(mapContent.layers()), paintArea, hints, rendererParams));
+            } else {
+                for (int i = 0; i < layerGroups.size(); i++) {
+                    List<Layer> group = layerGroups.get(i);
+                    List<String> layerNames = layerNames(group);
+
+                    BufferedImage groupImage = null;
+                    Graphics2D groupGraphic = graphic;
+                    if (i > 0) {
+                        groupImage = ImageUtils.createImage(paintArea.width, paintArea.height,
+                                null, true);
+                        groupGraphic = ImageUtils.prepareTransparency(true, bgColor, groupImage,
+                                hintsMap);
+                        groupGraphic.setRenderingHints(hintsMap);
+                    }
+                    renderings.add(new LayersRendering(mapContent, subContent(mapContent,
+                            group), groupGraphic, groupImage, layerNames, paintArea, hints,
+                            rendererParams));
+                }
+            }
+
+            // start all the timeouts first, the time spent waiting for a thread counts too
+            for (LayersRendering rendering : renderings) {
+                rendering.timeout.start();
+            }
+            for (int i = 1; i < renderings.size(); i++) {
+                futures.add(DefaultWebMapService.getLayerRenderingPool().submit(renderings.get(i)));
+            }
+
             // finally render the image;
-            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
-                    mapContent.getRenderingTransform());
+            renderings.get(0).run();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (InterruptedException e) {
+                    throw new ServiceException("Interrupted while rendering the map", e);
+                } catch (ExecutionException e) {
+                    throw new ServiceException("Rendering process failed", e.getCause(),
+                            "internalError");
+                }
+                // composite the layers in order
+                graphic.drawImage(renderings.get(i + 1).image, 0, 0, null);
+            }
+            completed = true;
 
             // apply watermarking
             if (layout != null) {
@@ -502,33 +537,64 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 }
             }
         } finally {
-            timeout.stop();
+            if (!completed) {
+                // don't leave the other layers rendering on their own
+                for (LayersRendering rendering : renderings) {
+                    rendering.renderer.stopRendering();
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (Exception e) {
+                        // we're already failing, the original error is the relevant one
+                    }
+                }
+            }
+            for (LayersRendering rendering : renderings) {
+                rendering.dispose();
+            }
             graphic.dispose();
         }
 
-        // check if the request did timeout
-        if (timeout.isTimedOut()) {
-            throw new ServiceException(
-                    "This requested used more time than allowed and has been forcefully stopped. "
-                            + "Max rendering time is " + (maxRenderingTime / 1000.0) + "s");
-        }
+        for (LayersRendering rendering : renderings) {
+            // check if the request did timeout
+            if (rendering.timeout.isTimedOut()) {
+                throw new ServiceException(
+                        "This requested used more time than allowed and has been forcefully stopped. "
+                                + "Max rendering time is " + (maxRenderingTime / 1000.0) + "s");
+            }
 
-        // check if a non ignorable error occurred
-        if (nonIgnorableExceptionListener.exceptionOccurred()) {
-            Exception renderError = nonIgnorableExceptionListener.getException();
-            throw new ServiceException("Rendering process failed", renderError, "internalError");
+            // check if a non ignorable error occurred
+            if (rendering.exceptions.exceptionOccurred()) {
+                Exception renderError = rendering.exceptions.getException();
+                throw new ServiceException("Rendering process failed", renderError, "internalError");
+            }
         }
 
         // check if too many errors occurred
-        if (errorChecker.exceedsMaxErrors()) {
+        int errors = 0;
+        for (LayersRendering rendering : renderings) {
+            errors += rendering.errors.errors;
+        }
+        if (maxErrors > 0 && errors > maxErrors) {
+            Exception lastException = null;
+            for (LayersRendering rendering : renderings) {
+                if (rendering.errors.getLastException() != null) {
+                    lastException = rendering.errors.getLastException();
+                }
+            }
             throw new ServiceException("More than " + maxErrors
-                    + " rendering errors occurred, bailing out.", errorChecker.getLastException(),
+                    + " rendering errors occurred, bailing out.", lastException,
                     "internalError");
         }
 
         // if (!this.abortRequested) {
         if (palette != null && palette.getMapSize() < 256)
             image = optimizeSampleModel(preparedImage);
+        else if (palette == null && paletteInverter == null && isPaletteSupported()
+                && "image/png8".equalsIgnoreCase(request.getFormat()))
+            // compute the palette from the rendered map, once for all the tiles of a meta tile
+            image = new ColorQuantizer(256, false).quantize(preparedImage);
         else
             image = preparedImage;
         // }
@@ -537,6 +603,62 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return map;
     }
 
+    /**
+     * Returns the max number of groups of layers a request can render in parallel
+     */
+    int getMaxParallelLayers() {
+        return DefaultWebMapService.getMaxParallelLayers();
+    }
+
+    /**
+     * Returns the names the rendering timeouts of the specified layers are accounted to, that is,
+     * their titles, which GetMap sets to the prefixed layer names. Layers without a title are
+     * skipped.
+     */
+    static List<String> layerNames(List<Layer> layers) {
+        List<String> names = new ArrayList<String>();
+        for (Layer layer : layers) {
+            if (layer.getTitle() != null) {
+                names.add(layer.getTitle());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Splits the layers in at most <code>maxGroups</code> groups of consecutive layers, as
+     * balanced as possible. Each group is rendered on its own, the labels of a group are not
+     * checked for conflicts against the ones of the other groups and are painted below the
+     * groups above it.
+     */
+    static List<List<Layer>> groupLayers(List<Layer> layers, int maxGroups) {
+        int groups = Math.max(1, Math.min(maxGroups, layers.size()));
+        List<List<Layer>> result = new ArrayList<List<Layer>>(groups);
+        for (int i = 0; i < groups; i++) {
+            result.add(new ArrayList<Layer>(layers.subList(i * layers.size() / groups, (i + 1)
+                    * layers.size() / groups)));
+        }
+        return result;
+    }
+
+    /**
+     * Builds a map content for a subset of the layers of the map
+     */
+    WMSMapContent subContent(WMSMapContent mapContent, List<Layer> layers) {
+        WMSMapContent subContent = new WMSMapContent();
+        for (Layer layer : layers) {
+            subContent.addLayer(layer);
+        }
+        subContent.setRequest(mapContent.getRequest());
+        subContent.setMapHeight(mapContent.getMapHeight());
+        subContent.setMapWidth(mapContent.getMapWidth());
+        subContent.getViewport().setBounds(mapContent.getRenderingArea());
+        subContent.setBgColor(mapContent.getBgColor());
+        subContent.setBuffer(mapContent.getBuffer());
+        subContent.setTransparent(true);
+        return subContent;
+    }
+
     protected RenderedImageMap buildMap(final WMSMapContent mapContent, RenderedImage image) {
         RenderedImageMap map = new RenderedImageMap(mapContent, image, getMimeType());
         if(extension != null) {
@@ -815,7 +937,8 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         final boolean equalsMetadata=CRS.equalsIgnoreMetadata(mapCRS, coverageCRS);
         boolean sameCRS;
         try {
-            sameCRS = equalsMetadata?true:CRS.findMathTransform(mapCRS, coverageCRS,true).isIdentity();
+            sameCRS = equalsMetadata?true:wms.getGeoServer().getCatalog().getResourcePool()
+                .getMathTransform(mapCRS, coverageCRS,true).isIdentity();
         } catch (FactoryException e1) {
             final IOException ioe= new IOException();
             ioe.initCause(e1);
@@ -1340,4 +1463,85 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
     }
 
 
+    /**
+     * The rendering of a group of layers on a graphics, along with the checks enforced on it
+     */
+    class LayersRendering implements Runnable {
+
+        WMSMapContent mapContent;
+
+        WMSMapContent content;
+
+        Graphics2D graphic;
+
+        BufferedImage image;
+
+        GTRenderer renderer;
+
+        MaxErrorEnforcer errors;
+
+        RenderExceptionStrategy exceptions;
+
+        RenderingTimeoutEnforcer timeout;
+
+        Rectangle paintArea;
+
+        /**
+         * @param mapContent The whole map
+         * @param content The content holding the layers to render, either the whole map or a
+         *        subset of it
+         * @param image The image the graphics paints on, or null if it paints on the map
+         */
+        LayersRendering(WMSMapContent mapContent, WMSMapContent content, Graphics2D graphic,
+                BufferedImage image, List<String> layerNames, Rectangle paintArea,
+                RenderingHints hints, Map<Object, Object> rendererParams) {
+            this.mapContent = mapContent;
+            this.content = content;
+            this.graphic = graphic;
+            this.image = image;
+            this.paintArea = paintArea;
+
+            if (DefaultWebMapService.useShapefileRenderer()) {
+                renderer = new ShapefileRenderer();
+            } else {
+                StreamingRenderer sr = new StreamingRenderer();
+                sr.setThreadPool(DefaultWebMapService.getRenderingPool());
+                renderer = sr;
+            }
+            renderer.setMapContent(content);
+            renderer.setJava2DHints(hints);
+            renderer.setRendererHints(rendererParams);
+
+            // enforce no more than x rendering errors
+            errors = new MaxErrorEnforcer(renderer, wms.getMaxRenderingErrors());
+
+            // Add a render listener that ignores well known rendering exceptions and reports
+            // back non ignorable ones
+            exceptions = new RenderExceptionStrategy(renderer);
+            renderer.addRenderListener(exceptions);
+
+            timeout = new RenderingTimeoutEnforcer(wms.getMaxRenderingTime() * 1000, renderer,
+                    graphic, layerNames);
+        }
+
+        public void run() {
+            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
+                    mapContent.getRenderingTransform());
+        }
+
+        void dispose() {
+            timeout.stop();
+            if (image != null) {
+                graphic.dispose();
+            }
+            if (content != mapContent) {
+                // the layers are still used by the map, just release the sub content
+                for (Layer layer : new ArrayList<Layer>(content.layers())) {
+                    content.removeLayer(layer);
+                }
+                content.dispose();
+            }
+        }
+    }
+
 }
@@ -5,42 +5,68 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.geoserver.ows.util.TimeoutScheduler;
 import org.geotools.renderer.GTRenderer;
 
 /**
  * An utility class that can be used to set a strict timeout on rendering operations:
  * if the timeout elapses, the renderer will be asked to stop rendering and the graphics
  * will be disposed of to make extra sure the renderer cannot keep going on.
+ * <p>
+ * The timeout is enforced by the {@link TimeoutScheduler} shared by all requests. The number
+ * of timeouts is tracked for each layer, see {@link #getTimeoutCounts()}.
+ * </p>
  * @author Andrea Aime - OpenGeo
  */
 public class RenderingTimeoutEnforcer {
+
+    /**
+     * number of timeouts by layer name
+     */
+    static final Map<String, AtomicLong> TIMEOUT_COUNTS = new ConcurrentHashMap<String, AtomicLong>();
     
     long timeout;
     GTRenderer renderer;
     Graphics graphics;
-    Timer timer;
-    boolean timedOut = false;
+    List<String> layers;
+    ScheduledFuture<?> handle;
+    volatile boolean timedOut = false;
 
     public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics) {
+        this(timeout, renderer, graphics, null);
+    }
+
+    /**
+     * Builds an enforcer accounting the timeouts to the specified layers.
+     * 
+     * @param layers The names of the layers being rendered, may be null.
+     */
+    public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics, 
+            List<String> layers) {
         this.timeout = timeout;
         this.renderer = renderer;
         this.graphics = graphics;
+        this.layers = layers;
     }
 
     /**
      * Starts checking the rendering timeout (if timeout is positive, does nothing otherwise)
      */
     public void start() {
-        if(timer != null)
+        if(handle != null)
             throw new IllegalStateException("The timeout enforcer has already been started");
         
         if(timeout > 0) {
             timedOut = false;
-            timer = new Timer();
-            timer.schedule(new StopRenderingTask(), timeout);
+            handle = TimeoutScheduler.schedule(new StopRenderingTask(), timeout);
         }
     }
     
@@ -48,11 +74,9 @@ public class RenderingTimeoutEnforcer {
      * Stops the timeout check
      */
     public void stop() {
-        if(timer != null) {
-            timer.cancel();
-            timer.purge();
-            // timer.getTheHellOutOfDodge();
-            timer = null;
+        if(handle != null) {
+            TimeoutScheduler.cancel(handle);
+            handle = null;
         }
     }
     
@@ -62,11 +86,42 @@ public class RenderingTimeoutEnforcer {
     public boolean isTimedOut() {
         return timedOut;
     }
+
+    /**
+     * Returns the number of rendering timeouts that occurred for each layer since startup.
+     * Layers rendered together are all accounted for the timeout.
+     */
+    public static Map<String, Long> getTimeoutCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : TIMEOUT_COUNTS.entrySet()) {
+            counts.put(e.getKey(), e.getValue().get());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    static void countTimeout(String layer) {
+        AtomicLong count = TIMEOUT_COUNTS.get(layer);
+        if (count == null) {
+            synchronized (TIMEOUT_COUNTS) {
+                count = TIMEOUT_COUNTS.get(layer);
+                if (count == null) {
+                    count = new AtomicLong();
+                    TIMEOUT_COUNTS.put(layer, count);
+                }
+            }
+        }
+        count.incrementAndGet();
+    }
     
-    class StopRenderingTask extends TimerTask {
+    class StopRenderingTask implements Runnable {
 
-        @Override
         public void run() {
+            // account the timeout before flagging it, whoever sees the flag sees the counts too
+            if (layers != null) {
+                for (String layer : layers) {
+                    countTimeout(layer);
+                }
+            }
             // mark as timed out
             timedOut = true;
             
@@ -4,10 +4,17 @@
  */
 package org.geoserver.wms.animate;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.ByteArrayInputStream;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -20,7 +27,6 @@ import org.geoserver.data.test.MockData;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMSTestSupport;
 import org.geoserver.wms.WebMapService;
-import org.geoserver.wms.map.RenderedImageMap;
 
 import com.mockrunner.mock.web.MockHttpServletResponse;
 
@@ -103,10 +109,57 @@ public class AnimatorTest extends WMSTestSupport {
     	
     	assertEquals(4, visitor.framesNumber);
     	
-    	List<RenderedImageMap> frames = visitor.produce(getWMS());
+    	FrameImageList frames = visitor.produce(getWMS());
     	
     	assertNotNull(frames);
     	assertEquals(4, frames.size());
+    	try {
+    	    for (int i = 0; i < frames.size(); i++) {
+    	        assertNotNull(frames.get(i));
+    	    }
+    	} finally {
+    	    frames.dispose();
+    	}
+    }
+    
+    /**
+     * Testing the frames are rendered within the window and let go of once accessed.
+     */
+    public void testFrameWindow() throws Exception {
+        final List<Integer> rendered = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Callable<RenderedImage>> loaders = new ArrayList<Callable<RenderedImage>>();
+        for (int i = 0; i < 5; i++) {
+            final int frame = i;
+            loaders.add(new Callable<RenderedImage>() {
+                public RenderedImage call() throws Exception {
+                    rendered.add(frame);
+                    return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            FrameImageList frames = new FrameImageList(loaders, executor, 2, null);
+            assertEquals(5, frames.size());
+            
+            assertNotNull(frames.get(0));
+            assertNotNull(frames.get(1));
+            assertNotNull(frames.get(2));
+            // the frames following the window have not been scheduled yet
+            assertFalse(rendered.contains(4));
+            
+            // consumed frames are gone, but the first one
+            assertNull(frames.get(1));
+            assertNotNull(frames.get(0));
+            assertEquals(10, frames.getWidth());
+            
+            assertNotNull(frames.get(4));
+            frames.dispose();
+            assertNull(frames.get(0));
+        } finally {
+            executor.shutdown();
+        }
     }
     
     /**
@@ -9,6 +9,8 @@ import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
@@ -362,5 +364,39 @@ public class MapDecorationLayoutTest extends TestCase {
         
         dl.paint(g2d, new Rectangle(0, 0, 100, 100), null);
     }
+    
+    public void testMetatiledGutterLargerThanTiles() {
+        // a 2x2 meta tile of 100 pixels tiles, surrounded by a 150 pixels gutter
+        WMSMapContent mapContent = new WMSMapContent();
+        mapContent.setTileSize(100);
+        mapContent.setTileGutter(150);
+        Graphics2D g2d = createMockGraphics(500, 500);
+        
+        final List<Point> painted = new ArrayList<Point>();
+        MetatiledMapDecorationLayout dl = new MetatiledMapDecorationLayout();
+        dl.addBlock(new MapDecorationLayout.Block(
+            new MockMapDecoration(
+                new Dimension(10, 10),
+                new Rectangle(0, 0, 10, 10)
+            ) {
+                @Override
+                public void paint(Graphics2D g2d, Rectangle paintArea, WMSMapContent mapContent) {
+                    painted.add(paintArea.getLocation());
+                }
+            },
+            MapDecorationLayout.Block.Position.UL,
+            null,
+            new Point(0,0)
+        ));
+        
+        dl.paint(g2d, new Rectangle(0, 0, 500, 500), mapContent);
+        
+        // one decoration per tile, none in the gutter
+        assertEquals(4, painted.size());
+        assertTrue(painted.contains(new Point(150, 150)));
+        assertTrue(painted.contains(new Point(250, 150)));
+        assertTrue(painted.contains(new Point(150, 250)));
+        assertTrue(painted.contains(new Point(250, 250)));
+    }
         
 }
@@ -0,0 +1,95 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import junit.framework.TestCase;
+
+public class ColorQuantizerTest extends TestCase {
+
+    public void testFewColors() throws Exception {
+        BufferedImage image = new BufferedImage(50, 40, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 20, 20);
+        g.setColor(new Color(0, 0, 255, 128));
+        g.fillRect(10, 10, 30, 20);
+        g.dispose();
+
+        BufferedImage quantized = new ColorQuantizer(256, false).quantize(image);
+        IndexColorModel icm = (IndexColorModel) quantized.getColorModel();
+        assertEquals(4, icm.getMapSize());
+        assertEquals(Transparency.TRANSLUCENT, icm.getTransparency());
+        // no loss
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 50; x++) {
+                assertEquals(image.getRGB(x, y), quantized.getRGB(x, y));
+            }
+        }
+    }
+
+    public void testManyColors() throws Exception {
+        BufferedImage image = gradient(BufferedImage.TYPE_3BYTE_BGR);
+
+        BufferedImage quantized = new ColorQuantizer(256, false).quantize(image);
+        IndexColorModel icm = (IndexColorModel) quantized.getColorModel();
+        assertTrue(icm.getMapSize() <= 256);
+        assertEquals(Transparency.OPAQUE, icm.getTransparency());
+        assertSimilar(image, quantized, 16);
+    }
+
+    public void testBitmask() throws Exception {
+        BufferedImage image = gradient(BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(255, 255, 0, 100));
+        g.fillRect(0, 0, 50, 50);
+        g.setBackground(new Color(0, 0, 0, 0));
+        g.clearRect(200, 200, 56, 56);
+        g.dispose();
+
+        BufferedImage quantized = new ColorQuantizer(256, true).quantize(image);
+        IndexColorModel icm = (IndexColorModel) quantized.getColorModel();
+        assertTrue(icm.getMapSize() <= 256);
+        assertEquals(Transparency.BITMASK, icm.getTransparency());
+        assertEquals(0, quantized.getRGB(220, 220) >>> 24);
+        assertEquals(255, quantized.getRGB(10, 10) >>> 24);
+    }
+
+    public void testTransparent() throws Exception {
+        BufferedImage image = new BufferedImage(30, 30, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage quantized = new ColorQuantizer(256, false).quantize(image);
+        assertEquals(0, quantized.getRGB(15, 15) >>> 24);
+    }
+
+    BufferedImage gradient(int type) {
+        BufferedImage image = new BufferedImage(256, 256, type);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, 256, 256, Color.BLUE));
+        g.fillRect(0, 0, 256, 256);
+        g.setPaint(new GradientPaint(0, 256, Color.GREEN, 256, 0, Color.WHITE));
+        g.fillOval(40, 40, 180, 180);
+        g.dispose();
+        return image;
+    }
+
+    void assertSimilar(BufferedImage expected, BufferedImage actual, int tolerance) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int diff = Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF));
+                    assertTrue("Pixel " + x + "," + y + " differs by " + diff, diff <= tolerance);
+                }
+            }
+        }
+    }
+}
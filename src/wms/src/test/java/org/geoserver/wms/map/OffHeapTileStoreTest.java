@@ -0,0 +1,183 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+
+public class OffHeapTileStoreTest extends TestCase {
+
+    public void testRoundTripDirect() {
+        OffHeapTileStore store = new OffHeapTileStore(OffHeapTileStore.BLOCK_SIZE * 64);
+        checkRoundTrip(store, BufferedImage.TYPE_4BYTE_ABGR);
+        checkRoundTrip(store, BufferedImage.TYPE_INT_ARGB);
+        checkRoundTrip(store, BufferedImage.TYPE_BYTE_INDEXED);
+        checkRoundTrip(store, BufferedImage.TYPE_USHORT_GRAY);
+        store.dispose();
+    }
+
+    public void testRoundTripMapped() throws Exception {
+        File file = File.createTempFile("metatiles", ".dat");
+        OffHeapTileStore store = new OffHeapTileStore(OffHeapTileStore.BLOCK_SIZE * 64, file);
+        assertTrue(store.isMapped());
+        checkRoundTrip(store, BufferedImage.TYPE_4BYTE_ABGR);
+        store.dispose();
+        assertFalse(file.exists());
+    }
+
+    public void testSubImages() {
+        // tiles split out of a meta tile share the same raster
+        BufferedImage meta = new BufferedImage(300, 300, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = meta.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(100, 0, 100, 100);
+        g.dispose();
+        RenderedImage[] tiles = new RenderedImage[] { meta.getSubimage(0, 0, 100, 100),
+                meta.getSubimage(100, 0, 100, 100) };
+
+        OffHeapTileStore store = new OffHeapTileStore(OffHeapTileStore.BLOCK_SIZE * 64);
+        MetaTileKey key = key("layer");
+        assertTrue(store.put(key, tiles));
+        RenderedImage[] result = store.get(key);
+        assertEquals(0, ((BufferedImage) result[0]).getRGB(50, 50));
+        assertEquals(Color.RED.getRGB(), ((BufferedImage) result[1]).getRGB(50, 50));
+    }
+
+    public void testEviction() {
+        // each meta tile takes 2 blocks, room for two of them
+        OffHeapTileStore store = new OffHeapTileStore(OffHeapTileStore.BLOCK_SIZE * 4);
+        MetaTileKey k1 = key("layer1");
+        MetaTileKey k2 = key("layer2");
+        MetaTileKey k3 = key("layer3");
+        assertTrue(store.put(k1, tiles(BufferedImage.TYPE_INT_ARGB, 2)));
+        assertTrue(store.put(k2, tiles(BufferedImage.TYPE_INT_ARGB, 2)));
+        assertEquals(OffHeapTileStore.BLOCK_SIZE * 4, store.getSize());
+
+        // access k1, k2 becomes the eldest
+        assertNotNull(store.get(k1));
+        assertTrue(store.put(k3, tiles(BufferedImage.TYPE_INT_ARGB, 2)));
+        assertEquals(2, store.getMetaTileCount());
+        assertEquals(1, store.getEvictions());
+        assertNotNull(store.get(k1));
+        assertNull(store.get(k2));
+        assertNotNull(store.get(k3));
+
+        // too big to fit at all
+        assertFalse(store.put(key("layer4"), tiles(BufferedImage.TYPE_INT_ARGB, 5)));
+    }
+
+    public void testInvalidate() {
+        OffHeapTileStore store = new OffHeapTileStore(OffHeapTileStore.BLOCK_SIZE * 16);
+        MetaTileKey k1 = key("topp:states");
+        MetaTileKey k2 = key("topp:roads");
+        store.put(k1, tiles(BufferedImage.TYPE_INT_ARGB, 1));
+        store.put(k2, tiles(BufferedImage.TYPE_INT_ARGB, 1));
+
+        store.invalidate("topp:states");
+        assertNull(store.get(k1));
+        assertNotNull(store.get(k2));
+
+        store.clear();
+        assertEquals(0, store.getMetaTileCount());
+        assertEquals(0, store.getSize());
+    }
+
+    public void testUseAfterDispose() {
+        OffHeapTileStore store = new OffHeapTileStore(OffHeapTileStore.BLOCK_SIZE * 16);
+        MetaTileKey k1 = key("layer1");
+        assertTrue(store.put(k1, tiles(BufferedImage.TYPE_INT_ARGB, 1)));
+        store.dispose();
+
+        // threads still holding the store just miss
+        assertNull(store.get(k1));
+        assertFalse(store.put(key("layer2"), tiles(BufferedImage.TYPE_INT_ARGB, 1)));
+        assertFalse(store.remove(k1));
+        assertEquals(0, store.getSize());
+    }
+
+    public void testCacheTiering() {
+        // the memory cache holds one meta tile, the rest goes off heap
+        QuickTileCache cache = new QuickTileCache(3600, QuickTileCache.EvictionPolicy.LRU,
+                OffHeapTileStore.BLOCK_SIZE * 4);
+        MetaTileKey k1 = key("layer1");
+        MetaTileKey k2 = key("layer2");
+        cache.storeTiles(k1, smallTiles());
+        cache.storeTiles(k2, smallTiles());
+        assertEquals(1, cache.getMetaTileCount());
+        assertEquals(1, cache.getOffHeapMetaTileCount());
+
+        // k1 gets promoted back to memory, k2 moves off heap
+        assertNotNull(cache.getTiles(k1));
+        assertEquals(1, cache.getOffHeapHits());
+        assertEquals(1, cache.getMetaTileCount());
+        assertEquals(1, cache.getOffHeapMetaTileCount());
+        assertNotNull(cache.getTiles(k2));
+        assertEquals(2, cache.getOffHeapHits());
+
+        cache.clear();
+        assertEquals(0, cache.getOffHeapMetaTileCount());
+    }
+
+    void checkRoundTrip(OffHeapTileStore store, int imageType) {
+        MetaTileKey key = key("layer");
+        RenderedImage[] tiles = tiles(imageType, 9);
+        assertTrue(store.put(key, tiles));
+        RenderedImage[] result = store.get(key);
+        assertEquals(tiles.length, result.length);
+        for (int i = 0; i < tiles.length; i++) {
+            BufferedImage expected = (BufferedImage) tiles[i];
+            BufferedImage actual = (BufferedImage) result[i];
+            assertEquals(expected.getColorModel(), actual.getColorModel());
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            for (int y = 0; y < expected.getHeight(); y += 7) {
+                for (int x = 0; x < expected.getWidth(); x += 7) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+        assertTrue(store.remove(key));
+        assertNull(store.get(key));
+    }
+
+    MetaTileKey key(String layer) {
+        MapKey mapKey = new MapKey("LAYERS=" + layer, 1, new Point2D.Double(0, 0));
+        mapKey.layers = Collections.singleton(layer);
+        return new MetaTileKey(mapKey, new Point(0, 0), null);
+    }
+
+    RenderedImage[] tiles(int imageType, int count) {
+        // 128x128 tiles, 64KB each when using 4 bytes per pixel
+        RenderedImage[] tiles = new RenderedImage[count];
+        for (int i = 0; i < count; i++) {
+            BufferedImage tile = new BufferedImage(128, 128, imageType);
+            Graphics2D g = tile.createGraphics();
+            g.setColor(new Color(20 * i, 255 - 20 * i, 100));
+            g.fillOval(10, 10, 100, 80);
+            g.dispose();
+            tiles[i] = tile;
+        }
+        return tiles;
+    }
+
+    RenderedImage[] smallTiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import org.geoserver.wms.map.PNGEncoder.Filter;
+
+public class PNGEncoderTest extends TestCase {
+
+    public void testSupported() throws Exception {
+        assertTrue(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR)));
+        assertTrue(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_3BYTE_BGR)));
+        assertTrue(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY)));
+        assertTrue(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_BINARY)));
+        assertTrue(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED)));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB)));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR_PRE)));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_USHORT_GRAY)));
+    }
+
+    public void testTypes() throws Exception {
+        int[] types = new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY,
+                BufferedImage.TYPE_BYTE_INDEXED };
+        for (int type : types) {
+            for (Filter filter : Filter.values()) {
+                assertRoundTrip(paint(new BufferedImage(67, 45, type)), filter, null);
+            }
+        }
+    }
+
+    public void testTransparentPalette() throws Exception {
+        byte[] r = { 0, (byte) 255, 0 };
+        byte[] g = { 0, 0, (byte) 255 };
+        byte[] b = { 0, 0, 0 };
+        byte[] a = { 0, (byte) 128, (byte) 255 };
+        IndexColorModel icm = new IndexColorModel(8, 3, r, g, b, a);
+        BufferedImage image = new BufferedImage(20, 20, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 20; x++) {
+                image.getRaster().setSample(x, y, 0, (x + y) % 3);
+            }
+        }
+        assertRoundTrip(image, null, null);
+    }
+
+    public void testStrategies() throws Exception {
+        BufferedImage image = paint(new BufferedImage(64, 64, BufferedImage.TYPE_4BYTE_ABGR));
+        assertRoundTrip(image, null, Deflater.HUFFMAN_ONLY);
+        assertRoundTrip(image, null, Deflater.DEFAULT_STRATEGY);
+        assertEquals(Integer.valueOf(Deflater.FILTERED), PNGEncoder.parseStrategy("filtered"));
+        assertNull(PNGEncoder.parseStrategy("whatever"));
+        assertEquals(Filter.UP, Filter.parse("up"));
+        assertNull(Filter.parse("whatever"));
+    }
+
+    BufferedImage paint(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(10, 5, 30, 20);
+        g.setColor(new Color(255, 0, 0, 128));
+        g.fillOval(20, 10, 40, 30);
+        g.setColor(Color.BLUE);
+        g.drawLine(0, 44, 66, 0);
+        g.dispose();
+        return image;
+    }
+
+    void assertRoundTrip(BufferedImage image, Filter filter, Integer strategy) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new PNGEncoder(6, filter, strategy).encode(image, bytes);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals("Pixel " + x + "," + y + " of type " + image.getType()
+                        + " with filter " + filter, image.getRGB(x, y), read.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -6,9 +6,17 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
 
 import junit.framework.TestCase;
 
+import org.geoserver.wms.map.QuickTileCache.EvictionPolicy;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
 import com.vividsolutions.jts.geom.Envelope;
 
 public class QuickTileCacheTest extends TestCase {
@@ -43,6 +51,26 @@ public class QuickTileCacheTest extends TestCase {
         assertEquals(new Point(-6, 3), cache.getMetaTileCoordinates(tm44));
     }
 
+    public void testMetaCoordinatesCustomFactors() {
+        assertEquals(new Point(0, 0), cache.getMetaTileCoordinates(new Point(3, 1), 4, 2));
+        assertEquals(new Point(4, 2), cache.getMetaTileCoordinates(new Point(4, 2), 4, 2));
+        assertEquals(new Point(-4, -2), cache.getMetaTileCoordinates(new Point(-1, -1), 4, 2));
+        assertEquals(new Point(-8, -4), cache.getMetaTileCoordinates(new Point(-5, -3), 4, 2));
+        assertEquals(new Point(5, -1), cache.getMetaTileCoordinates(new Point(5, -1), 1, 1));
+    }
+
+    public void testRenderingEnvelopeGutter() {
+        ReferencedEnvelope envelope = new ReferencedEnvelope(0, 768, 0, 512, null);
+        MetaTileKey key = new MetaTileKey(new MapKey("", 1, new Point2D.Double(0, 0)),
+                new Point(0, 0), envelope, 3, 2, 10);
+        ReferencedEnvelope rendering = MetatileMapOutputFormat.getRenderingEnvelope(key);
+        assertEquals(new ReferencedEnvelope(-10, 778, -10, 522, null), rendering);
+
+        key = new MetaTileKey(new MapKey("", 1, new Point2D.Double(0, 0)), new Point(0, 0),
+                envelope, 3, 2, 0);
+        assertSame(envelope, MetatileMapOutputFormat.getRenderingEnvelope(key));
+    }
+
     public void testTileCoordinatesNaturalOrigin() {
         Point2D origin = new Point2D.Double(0, 0);
         Envelope env = new Envelope(30, 60, 30, 60);
@@ -53,4 +81,93 @@ public class QuickTileCacheTest extends TestCase {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    public void testEstimateSize() {
+        assertEquals(400, QuickTileCache.estimateSize(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB)));
+        assertEquals(300, QuickTileCache.estimateSize(new BufferedImage(10, 10,
+                BufferedImage.TYPE_3BYTE_BGR)));
+        assertEquals(100, QuickTileCache.estimateSize(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_INDEXED)));
+    }
+
+    public void testLRUEviction() {
+        // room for two meta tiles
+        QuickTileCache cache = new QuickTileCache(7200, EvictionPolicy.LRU);
+        MetaTileKey k1 = key("layer1");
+        MetaTileKey k2 = key("layer2");
+        MetaTileKey k3 = key("layer3");
+
+        cache.storeTiles(k1, tiles());
+        cache.storeTiles(k2, tiles());
+        assertEquals(2, cache.getMetaTileCount());
+        assertEquals(7200, cache.getSize());
+
+        // touch the first, the second becomes the least recently used
+        assertNotNull(cache.getTiles(k1));
+        cache.storeTiles(k3, tiles());
+        assertEquals(2, cache.getMetaTileCount());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getHits());
+        assertNotNull(cache.getTiles(k1));
+        assertNull(cache.getTiles(k2));
+        assertNotNull(cache.getTiles(k3));
+    }
+
+    public void testLFUEviction() {
+        QuickTileCache cache = new QuickTileCache(7200, EvictionPolicy.LFU);
+        MetaTileKey k1 = key("layer1");
+        MetaTileKey k2 = key("layer2");
+        MetaTileKey k3 = key("layer3");
+
+        cache.storeTiles(k1, tiles());
+        cache.storeTiles(k2, tiles());
+        // k1 used more often, but k2 more recently
+        cache.getTiles(k1);
+        cache.getTiles(k1);
+        cache.getTiles(k2);
+        cache.storeTiles(k3, tiles());
+        assertEquals(2, cache.getMetaTileCount());
+        assertNotNull(cache.getTiles(k1));
+        assertNull(cache.getTiles(k2));
+    }
+
+    public void testTooLargeNotCached() {
+        QuickTileCache cache = new QuickTileCache(1000, EvictionPolicy.LRU);
+        cache.storeTiles(key("layer1"), tiles());
+        assertEquals(0, cache.getMetaTileCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testInvalidate() {
+        QuickTileCache cache = new QuickTileCache(100000, EvictionPolicy.LRU);
+        MetaTileKey k1 = key("topp:states");
+        MetaTileKey k2 = key("topp:roads");
+        cache.storeTiles(k1, tiles());
+        cache.storeTiles(k2, tiles());
+
+        cache.invalidate("topp:states");
+        assertNull(cache.getTiles(k1));
+        assertNotNull(cache.getTiles(k2));
+        assertEquals(3600, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getMetaTileCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    MetaTileKey key(String layer) {
+        MapKey mapKey = new MapKey("LAYERS=" + layer, 1, new Point2D.Double(0, 0));
+        mapKey.layers = Collections.singleton(layer);
+        return new MetaTileKey(mapKey, new Point(0, 0), null);
+    }
+
+    RenderedImage[] tiles() {
+        // 9 tiles, 400 bytes each
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
 }
@@ -11,6 +11,9 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +42,7 @@ import org.geotools.filter.IllegalFilterException;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.FeatureSourceMapLayer;
+import org.geotools.map.Layer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
@@ -162,6 +166,118 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testBlueLake", image);
     }
 
+    public void testGroupLayers() throws Exception {
+        FeatureSource fs = getCatalog().getFeatureTypeByName(
+                MockData.BASIC_POLYGONS.getNamespaceURI(), MockData.BASIC_POLYGONS.getLocalPart())
+                .getFeatureSource(null, null);
+        Style style = getCatalog().getStyleByName("Default").getStyle();
+        List<Layer> layers = new ArrayList<Layer>();
+        for (int i = 0; i < 5; i++) {
+            layers.add(new FeatureLayer(fs, style));
+        }
+
+        List<List<Layer>> groups = RenderedImageMapOutputFormat.groupLayers(layers, 1);
+        assertEquals(1, groups.size());
+        assertEquals(layers, groups.get(0));
+
+        groups = RenderedImageMapOutputFormat.groupLayers(layers, 2);
+        assertEquals(2, groups.size());
+        assertEquals(layers.subList(0, 2), groups.get(0));
+        assertEquals(layers.subList(2, 5), groups.get(1));
+
+        groups = RenderedImageMapOutputFormat.groupLayers(layers, 10);
+        assertEquals(5, groups.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Collections.singletonList(layers.get(i)), groups.get(i));
+        }
+    }
+
+    public void testLayerNames() throws Exception {
+        FeatureSource fs = getCatalog().getFeatureTypeByName(
+                MockData.BASIC_POLYGONS.getNamespaceURI(), MockData.BASIC_POLYGONS.getLocalPart())
+                .getFeatureSource(null, null);
+        Style style = getCatalog().getStyleByName("Default").getStyle();
+        Layer named = new FeatureLayer(fs, style);
+        named.setTitle("cite:BasicPolygons");
+        Layer untitled = new FeatureLayer(fs, style);
+
+        // the same names whether the layers are rendered together or in groups
+        List<Layer> layers = Arrays.asList(named, untitled);
+        assertEquals(Collections.singletonList("cite:BasicPolygons"), 
+                RenderedImageMapOutputFormat.layerNames(layers));
+        List<String> names = new ArrayList<String>();
+        for (List<Layer> group : RenderedImageMapOutputFormat.groupLayers(layers, 2)) {
+            names.addAll(RenderedImageMapOutputFormat.layerNames(group));
+        }
+        assertEquals(Collections.singletonList("cite:BasicPolygons"), names);
+    }
+
+    public void testParallelLayers() throws Exception {
+        BufferedImage sequential = renderLayers(1);
+        BufferedImage parallel = renderLayers(3);
+        assertNotBlank("testParallelLayers", parallel);
+
+        // none of the styles of the layers label, so all pixels can be compared, allowing for 
+        // rounding differences where antialiased edges are composited over each other
+        assertEquals(sequential.getWidth(), parallel.getWidth());
+        assertEquals(sequential.getHeight(), parallel.getHeight());
+        for (int y = 0; y < sequential.getHeight(); y++) {
+            for (int x = 0; x < sequential.getWidth(); x++) {
+                int expected = sequential.getRGB(x, y);
+                int actual = parallel.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int diff = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+                    if (diff > 3) {
+                        fail("Pixel " + x + "," + y + " differs, expected " 
+                            + Integer.toHexString(expected) + " but was " 
+                            + Integer.toHexString(actual));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders a map of several layers with the specified maximum number of layers rendered in
+     * parallel.
+     */
+    BufferedImage renderLayers(final int maxParallelLayers) throws Exception {
+        FeatureTypeInfo typeInfo = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        Envelope env = typeInfo.getFeatureSource(null, null).getBounds();
+        env.expandBy(env.getWidth() / 6);
+
+        GetMapRequest request = new GetMapRequest();
+        final WMSMapContent map = new WMSMapContent();
+        map.setMapWidth(400);
+        map.setMapHeight((int) Math.round((env.getHeight() * 400) / env.getWidth()));
+        map.setBgColor(BG_COLOR);
+        map.setTransparent(false);
+        map.setRequest(request);
+
+        addToMap(map, MockData.FORESTS);
+        addToMap(map, MockData.LAKES);
+        addToMap(map, MockData.STREAMS);
+        addToMap(map, MockData.ROAD_SEGMENTS);
+        addToMap(map, MockData.BUILDINGS);
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+        
+        RenderedImageMapOutputFormat producer = new DummyRasterMapProducer(getWMS()) {
+            int getMaxParallelLayers() {
+                return maxParallelLayers;
+            }
+        };
+        request.setFormat(getMapFormat());
+        RenderedImageMap imageMap = producer.produceMap(map);
+        BufferedImage image = (BufferedImage) imageMap.getImage();
+        imageMap.dispose();
+        
+        // the layers are still usable once the map is rendered
+        assertEquals(5, map.layers().size());
+        assertNotNull(((FeatureLayer) map.layers().get(0)).getFeatureSource());
+        return image;
+    }
+
     private void addToMap(final WMSMapContent map, final QName typeName) throws IOException {
         final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(
                 typeName.getNamespaceURI(), typeName.getLocalPart());
@@ -0,0 +1,50 @@
+/* Copyright (c) 2001 - 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.geotools.renderer.lite.StreamingRenderer;
+
+public class RenderingTimeoutEnforcerTest extends TestCase {
+
+    public void testTimeout() throws Exception {
+        Graphics2D graphics = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(10, 
+                new StreamingRenderer(), graphics, Arrays.asList("cite:Lakes", "cite:Forests"));
+        Long before = RenderingTimeoutEnforcer.getTimeoutCounts().get("cite:Lakes");
+        
+        enforcer.start();
+        for (int i = 0; i < 100 && !enforcer.isTimedOut(); i++) {
+            Thread.sleep(20);
+        }
+        enforcer.stop();
+        
+        assertTrue(enforcer.isTimedOut());
+        Long after = RenderingTimeoutEnforcer.getTimeoutCounts().get("cite:Lakes");
+        assertEquals((before != null ? before : 0) + 1, after.longValue());
+        assertNotNull(RenderingTimeoutEnforcer.getTimeoutCounts().get("cite:Forests"));
+    }
+
+    public void testStopBeforeTimeout() throws Exception {
+        Graphics2D graphics = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(60000, 
+                new StreamingRenderer(), graphics, Arrays.asList("cite:Bridges"));
+        enforcer.start();
+        enforcer.stop();
+        
+        assertFalse(enforcer.isTimedOut());
+        assertNull(RenderingTimeoutEnforcer.getTimeoutCounts().get("cite:Bridges"));
+        
+        // can be started again once stopped
+        enforcer.start();
+        enforcer.stop();
+        graphics.dispose();
+    }
+}